@@ -6,8 +6,10 @@
 package org.lealone.storage.aose.btree;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 
+import org.lealone.common.util.BitField;
 import org.lealone.common.util.DataUtils;
 import org.lealone.storage.fs.FileStorage;
 
@@ -62,10 +64,70 @@ public class BTreeChunk {
     public FileStorage fileStorage;
     public long mapSize;
 
+    // 第i位为1表示pagePositions中的第i个page已经被删除了，
+    // 只在内存中增量维护，压缩时不需要再从chunk文件中读取所有page的位置重新计算
+    private BitField removedPageIndexes;
+    private int removedPageCount;
+
     BTreeChunk(int id) {
         this.id = id;
     }
 
+    boolean isLivenessInitialized() {
+        return removedPageIndexes != null;
+    }
+
+    // 调用之前必须先读取pagePositions和pageLengths
+    void initLiveness() {
+        removedPageIndexes = new BitField();
+        removedPageCount = 0;
+        sumOfLivePageLength = sumOfPageLength;
+    }
+
+    /**
+     * Mark the page as removed.
+     *
+     * @param pos the page position
+     * @return the length of the page, or 0 if the page is unknown or already removed
+     */
+    int removePage(long pos) {
+        if (removedPageIndexes == null)
+            return 0;
+        // 同一个chunk中page是按顺序写入的，所以pagePositions是递增的
+        int index = Collections.binarySearch(pagePositions, pos);
+        if (index < 0 || removedPageIndexes.get(index))
+            return 0;
+        removedPageIndexes.set(index);
+        removedPageCount++;
+        int pageLength = pageLengths.get(index);
+        sumOfLivePageLength -= pageLength;
+        return pageLength;
+    }
+
+    boolean isPageRemoved(int index) {
+        return removedPageIndexes != null && removedPageIndexes.get(index);
+    }
+
+    // 重写chunkMetaData时使用
+    long[] getRemovedPages() {
+        long[] positions = new long[removedPageCount];
+        if (removedPageCount > 0) {
+            for (int i = 0, j = 0, size = pagePositions.size(); i < size; i++) {
+                if (removedPageIndexes.get(i))
+                    positions[j++] = pagePositions.get(i);
+            }
+        }
+        return positions;
+    }
+
+    boolean isUnused() {
+        return removedPageIndexes != null && removedPageCount >= pageCount;
+    }
+
+    long getGarbageLength() {
+        return removedPageIndexes != null ? sumOfPageLength - sumOfLivePageLength : 0;
+    }
+
     /**
      * Calculate the fill rate in %. 0 means empty, 100 means full.
      *
@@ -20,6 +20,7 @@ package org.lealone.storage.aose.btree;
 import java.nio.ByteBuffer;
 
 import org.lealone.db.DataBuffer;
+import org.lealone.storage.ColumnVector;
 import org.lealone.storage.type.StorageDataType;
 
 class BTreeColumnPage extends BTreePage {
@@ -27,6 +28,7 @@ class BTreeColumnPage extends BTreePage {
     Object[] values;
     int columnIndex;
     ByteBuffer buff;
+    int encoding = ColumnPageEncoding.PLAIN;
 
     protected BTreeColumnPage(BTreeMap<?, ?> map) {
         super(map);
@@ -67,6 +69,8 @@ class BTreeColumnPage extends BTreePage {
         readCheckValue(buff, chunkId, offset, pageLength, disableCheck);
         buff.get(); // page type;
         int compressType = buff.get(); // page type;
+        if ((compressType & PageUtils.PAGE_COLUMN_ENCODED) != 0)
+            encoding = buff.get();
 
         // 解压完之后就结束了，因为还不知道具体的行，所以延迟对列进行反序列化
         ByteBuffer oldBuff = buff;
@@ -84,13 +88,37 @@ class BTreeColumnPage extends BTreePage {
         this.values = values;
         this.columnIndex = columnIndex;
         StorageDataType valueType = map.getValueType();
-        for (int row = 0, rowCount = values.length; row < rowCount; row++) {
-            valueType.readColumn(buff, values[row], columnIndex);
+        if (encoding == ColumnPageEncoding.PLAIN) {
+            for (int row = 0, rowCount = values.length; row < rowCount; row++) {
+                valueType.readColumn(buff, values[row], columnIndex);
+            }
+        } else {
+            ColumnVector vector = new ColumnVector();
+            ColumnPageEncoding.decode(buff, encoding, vector);
+            for (int row = 0, rowCount = values.length; row < rowCount; row++) {
+                valueType.setColumn(values[row], columnIndex, vector, row);
+            }
         }
         buff = null;
         // recalculateMemory();
     }
 
+    /**
+     * Decode the column page into the vector without changing this page.
+     *
+     * @param buff the buffer read by read(), null if the page was already decoded into row objects
+     * @param vector the target vector
+     * @param rowCount the number of rows
+     */
+    void readColumnVector(ByteBuffer buff, ColumnVector vector, int rowCount) {
+        if (encoding == ColumnPageEncoding.PLAIN) {
+            vector.reset(rowCount);
+            map.getValueType().readColumnVector(buff.duplicate(), vector, rowCount);
+        } else {
+            ColumnPageEncoding.decode(buff.duplicate(), encoding, vector);
+        }
+    }
+
     long writeColumnPage(BTreeChunk chunk, DataBuffer buff, boolean replicatePage) {
         int start = buff.position();
         int type = PageUtils.PAGE_TYPE_COLUMN;
@@ -104,9 +132,30 @@ class BTreeColumnPage extends BTreePage {
         int compressType = 0;
         buff.put((byte) compressType);
         int compressStart = buff.position();
-        for (int row = 0, rowCount = values.length; row < rowCount; row++) {
+        int rowCount = values.length;
+        for (int row = 0; row < rowCount; row++) {
             valueType.writeColumn(buff, values[row], columnIndex);
         }
+        // 如果按列的类型编码后更小就用编码后的数据替换逐行写入的Value
+        ColumnVector vector = new ColumnVector();
+        vector.reset(rowCount);
+        try (DataBuffer encoded = DataBuffer.create()) {
+            for (int row = 0; row < rowCount; row++) {
+                valueType.copyColumn(values[row], columnIndex, vector, row);
+            }
+            int plainLength = buff.position() - compressStart;
+            encoding = ColumnPageEncoding.encode(vector, plainLength - 1, encoded);
+            if (encoding != ColumnPageEncoding.PLAIN) {
+                compressType = PageUtils.PAGE_COLUMN_ENCODED;
+                buff.position(compressTypePos);
+                buff.put((byte) compressType);
+                buff.put((byte) encoding);
+                compressStart = buff.position();
+                buff.put(encoded.getAndFlipBuffer());
+            }
+        } catch (UnsupportedOperationException e) {
+            // 值的类型不支持ColumnVector时还是逐行写入
+        }
         compressPage(buff, compressStart, compressType, compressTypePos);
         int pageLength = buff.position() - start;
         buff.putInt(start, pageLength);
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.aose.btree;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A low priority background thread that compacts btree storages
+ * <p>
+ * 所有的BTreeStorage共用一个压缩线程，save()只负责提交压缩任务，不会因为压缩而阻塞。
+ * 每个BTreeStorage在队列中最多只有一个待执行的压缩任务。
+ *
+ * @author zhh
+ */
+class BTreeCompactor extends Thread {
+
+    private static BTreeCompactor instance;
+
+    static synchronized void submit(BTreeStorage storage) {
+        if (instance == null) {
+            instance = new BTreeCompactor();
+            instance.start();
+        }
+        instance.queue.add(storage);
+    }
+
+    private final LinkedBlockingQueue<BTreeStorage> queue = new LinkedBlockingQueue<>();
+
+    private BTreeCompactor() {
+        super(BTreeCompactor.class.getSimpleName());
+        setDaemon(true);
+        setPriority(Thread.MIN_PRIORITY);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            BTreeStorage storage;
+            try {
+                storage = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                storage.compactInBackground();
+            } catch (Throwable t) {
+                storage.handleBackgroundException(t);
+            }
+        }
+    }
+}
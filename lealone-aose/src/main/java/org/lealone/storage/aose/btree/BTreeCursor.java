@@ -5,6 +5,7 @@
  */
 package org.lealone.storage.aose.btree;
 
+import org.lealone.storage.ColumnBatch;
 import org.lealone.storage.IterationParameters;
 import org.lealone.storage.StorageMapCursor;
 
@@ -25,13 +26,20 @@ class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
     private CursorPos pos;
     private K currentKey, lastKey;
     private V currentValue, lastValue;
+    private ColumnBatch columnBatch;
+
+    // 从一个leaf page移到下一个兄弟page时说明是在顺序扫描，此时预读后面的leaf page
+    private final int readAheadPages;
+    private BTreePage readAheadNode; // 最近一次预读的node page
+    private int readAheadEnd; // readAheadNode中已经预读过的child page的下标(不包含)
 
     BTreeCursor(BTreeMap<K, ?> map, BTreePage root, IterationParameters<K> parameters) {
         this.map = map;
         this.parameters = parameters;
+        this.readAheadPages = map.btreeStorage.getReadAheadPages();
 
         // 定位到>=from的第一个leaf page
-        min(root, parameters.from);
+        min(root, parameters.from, false);
         fetchNext();
     }
 
@@ -53,7 +61,7 @@ class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
     @Override
     public K next() {
         lastKey = currentKey;
-        lastValue = currentValue;
+        lastValue = columnBatch == null || currentKey == null ? currentValue : getValue(pos.index - 1);
         fetchNext();
         return lastKey;
     }
@@ -64,8 +72,9 @@ class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
      * 
      * @param p the page to start
      * @param from the key to search
+     * @param sequential whether it is moving to the next sibling page
      */
-    private void min(BTreePage p, K from) {
+    private void min(BTreePage p, K from, boolean sequential) {
         while (true) {
             if (p.isLeaf()) {
                 p = p.tmpCopyIfSplited();
@@ -83,10 +92,35 @@ class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
                 x++;
             }
             pos = new CursorPos(p, x + 1, pos);
+            if (sequential)
+                readAhead(p, x);
             p = p.getChildPage(x);
         }
     }
 
+    // 移到下一个兄弟page
+    private void nextChildPage() {
+        readAhead(pos.page, pos.index);
+        min(pos.page.getChildPage(pos.index++), null, true);
+    }
+
+    // 已经预读的page用掉一半时再预读下一批，这样总是有page在提前读
+    private void readAhead(BTreePage node, int index) {
+        if (readAheadPages <= 0)
+            return;
+        if (node != readAheadNode) {
+            readAheadNode = node;
+            readAheadEnd = index;
+        }
+        if (readAheadEnd - index > readAheadPages / 2)
+            return;
+        int from = Math.max(index, readAheadEnd);
+        int to = Math.min(from + readAheadPages, map.getChildPageCount(node));
+        if (from < to)
+            map.btreeStorage.readAhead(node, from, to);
+        readAheadEnd = to;
+    }
+
     /**
      * Fetch the next entry if there is one.
      */
@@ -96,10 +130,9 @@ class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
             if (pos.index < pos.page.getKeyCount()) {
                 int index = pos.index++;
                 currentKey = (K) pos.page.getKey(index);
-                if (parameters.allColumns)
-                    currentValue = (V) pos.page.getValue(index, true);
-                else
-                    currentValue = (V) pos.page.getValue(index, parameters.columnIndexes);
+                // 按批读取列时不能提前加载下一个page的column page
+                if (columnBatch == null)
+                    currentValue = getValue(index);
                 return;
             }
             pos = pos.parent;
@@ -107,12 +140,20 @@ class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
                 break;
             }
             if (pos.index < map.getChildPageCount(pos.page)) {
-                min(pos.page.getChildPage(pos.index++), null);
+                nextChildPage();
             }
         }
         currentKey = null;
     }
 
+    @SuppressWarnings("unchecked")
+    private V getValue(int index) {
+        if (parameters.allColumns)
+            return (V) pos.page.getValue(index, true);
+        else
+            return (V) pos.page.getValue(index, parameters.columnIndexes);
+    }
+
     @Override
     public boolean hasNextBatch() {
         return pos != null;
@@ -127,8 +168,32 @@ class BTreeCursor<K, V> implements StorageMapCursor<K, V> {
             return values;
         }
         if (pos.index < map.getChildPageCount(pos.page)) {
-            min(pos.page.getChildPage(pos.index++), null);
+            nextChildPage();
         }
         return values;
     }
+
+    @Override
+    public ColumnBatch nextColumnBatch() {
+        if (currentKey == null)
+            return null;
+        if (columnBatch == null) {
+            int[] columnIndexes = parameters.columnIndexes;
+            if (parameters.allColumns || columnIndexes == null) {
+                columnIndexes = new int[map.getValueType().getColumnCount()];
+                for (int i = 0; i < columnIndexes.length; i++)
+                    columnIndexes[i] = i;
+            }
+            columnBatch = new ColumnBatch(columnIndexes);
+        }
+        // currentKey是pos.page中还没有返回的第一条记录
+        BTreeLeafPage page = (BTreeLeafPage) pos.page;
+        int end = page.getKeyCount();
+        page.readColumnBatch(pos.index - 1, end, columnBatch);
+        pos.index = end;
+        lastKey = null;
+        lastValue = null;
+        fetchNext();
+        return columnBatch;
+    }
 }
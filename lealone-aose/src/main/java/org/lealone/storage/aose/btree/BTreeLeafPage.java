@@ -25,6 +25,8 @@ import org.lealone.common.util.DataUtils;
 import org.lealone.db.DataBuffer;
 import org.lealone.db.RunMode;
 import org.lealone.net.NetNode;
+import org.lealone.storage.ColumnBatch;
+import org.lealone.storage.ColumnVector;
 import org.lealone.storage.LeafPageMovePlan;
 import org.lealone.storage.type.StorageDataType;
 
@@ -40,6 +42,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
     private List<String> replicationHostIds;
     private LeafPageMovePlan leafPageMovePlan;
     private ColumnPageReference[] columnPages;
+    private int columnPageRowCount; // 从硬盘读取时每个column page中的行数
     private volatile long totalCount;
 
     static class ColumnPageReference {
@@ -293,6 +296,7 @@ public class BTreeLeafPage extends BTreeLocalPage {
         int keyLength = DataUtils.readVarInt(buff);
         int columnCount = DataUtils.readVarInt(buff);
         columnPages = new ColumnPageReference[columnCount];
+        columnPageRowCount = keyLength;
         keys = new Object[keyLength];
         int type = buff.get();
         for (int i = 0; i < columnCount; i++) {
@@ -345,6 +349,38 @@ public class BTreeLeafPage extends BTreeLocalPage {
         }
     }
 
+    /**
+     * Fill the batch with the rows [start, end) of this page.
+     * <p>
+     * 还没有加载的column page直接从原始的字节解码到ColumnVector，不会创建行对象，
+     * 也不会把解码后的column page放到缓存中，已经加载的列直接从values中复制。
+     */
+    void readColumnBatch(int start, int end, ColumnBatch batch) {
+        StorageDataType valueType = map.getValueType();
+        int[] columnIndexes = batch.getColumnIndexes();
+        int rowCount = end - start;
+        batch.reset(keys, start, rowCount);
+        for (int i = 0; i < columnIndexes.length; i++) {
+            int columnIndex = columnIndexes[i];
+            ColumnVector vector = batch.getVector(i);
+            if (columnPages != null && columnPages[columnIndex].page == null) {
+                BTreeColumnPage page = (BTreeColumnPage) map.btreeStorage.readPage(columnPages[columnIndex].pos);
+                ByteBuffer buff = page.buff;
+                // 读到的是已经被其他线程解码过的column page时，buff已经是null了
+                if (page.values == null && buff != null && values.length == columnPageRowCount) {
+                    page.readColumnVector(buff, vector, columnPageRowCount);
+                    vector.retain(start, rowCount);
+                    continue;
+                }
+                readColumnPage(columnIndex);
+            }
+            vector.reset(rowCount);
+            for (int row = 0; row < rowCount; row++) {
+                valueType.copyColumn(values[start + row], columnIndex, vector, row);
+            }
+        }
+    }
+
     void readColumnPage(int columnIndex) {
         BTreeColumnPage page = (BTreeColumnPage) map.btreeStorage.readPage(columnPages[columnIndex].pos);
         if (page.values == null) {
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -164,6 +165,43 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         return binarySearch(key, columnIndexes);
     }
 
+    // keys是升序的，落在同一个leaf page中的key直接在这个page里查找，不用每次都从root page开始；
+    // 换到一个新的leaf page时，把这个page后面还会用到的兄弟page提前读进来
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<V> get(List<K> keys, int[] columnIndexes) {
+        int size = keys.size();
+        ArrayList<V> values = new ArrayList<>(size);
+        int readAheadPages = btreeStorage.getReadAheadPages();
+        BTreePage readAheadNode = null;
+        BTreePage p = null;
+        for (int i = 0; i < size; i++) {
+            K key = keys.get(i);
+            if (p == null || p.dynamicInfo.state == BTreePage.State.SPLITTED || p.getKeyCount() == 0
+                    || getKeyType().compare(key, p.getKey(p.getKeyCount() - 1)) > 0) {
+                p = root.gotoLeafPage(key);
+                p = p.redirectIfSplited(key);
+                BTreePage node = p.parentRef == null ? null : p.parentRef.page;
+                if (readAheadPages > 0 && node != null && node != readAheadNode && node.isNode()) {
+                    readAheadNode = node;
+                    int from = getChildIndex(node, key) + 1;
+                    int to = Math.min(getChildIndex(node, keys.get(size - 1)) + 1, from + readAheadPages);
+                    to = Math.min(to, getChildPageCount(node));
+                    if (from < to)
+                        btreeStorage.readAhead(node, from, to);
+                }
+            }
+            int index = p.binarySearch(key);
+            values.add(index >= 0 ? (V) p.getValue(index, columnIndexes) : null);
+        }
+        return values;
+    }
+
+    private static int getChildIndex(BTreePage node, Object key) {
+        int index = node.binarySearch(key);
+        return index < 0 ? -index - 1 : index + 1;
+    }
+
     @SuppressWarnings("unchecked")
     private V binarySearch(Object key, boolean allColumns) {
         BTreePage p = root.gotoLeafPage(key);
@@ -369,6 +407,108 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         size.set(0);
     }
 
+    /**
+     * 自底向上构建btree，不走put。
+     * 先把排好序的记录按pageSplitSize切成一个个leaf page，
+     * 然后每一层都按同样的大小为下一层的page创建node page，直到只剩一个page，它就是新的root page。
+     */
+    @Override
+    public synchronized void bulkLoad(Iterator<? extends Map.Entry<K, V>> entries) {
+        checkWrite();
+        // 只有本地的空map才能直接构建page
+        if (!isEmpty() || isShardingMode() || !root.isLeaf()) {
+            super.bulkLoad(entries);
+            return;
+        }
+        int pageSplitSize = btreeStorage.getPageSplitSize();
+        ArrayList<BTreePage> pages = new ArrayList<>();
+        ArrayList<Object> firstKeys = new ArrayList<>();
+        ArrayList<Object> keys = new ArrayList<>();
+        ArrayList<Object> values = new ArrayList<>();
+        int memory = 0;
+        long count = 0;
+        K lastKey = null;
+        while (entries.hasNext()) {
+            Map.Entry<K, V> e = entries.next();
+            K key = e.getKey();
+            V value = e.getValue();
+            DataUtils.checkArgument(value != null, "The value may not be null");
+            if (lastKey != null && keyType.compare(lastKey, key) >= 0) {
+                throw DataUtils.newIllegalArgumentException("The keys are not sorted: {0} >= {1}", lastKey, key);
+            }
+            keys.add(key);
+            values.add(value);
+            memory += keyType.getMemory(key) + valueType.getMemory(value);
+            lastKey = key;
+            count++;
+            if (memory >= pageSplitSize) {
+                addLeafPage(pages, firstKeys, keys, values);
+                memory = 0;
+            }
+        }
+        if (!keys.isEmpty()) {
+            addLeafPage(pages, firstKeys, keys, values);
+        }
+        if (pages.isEmpty()) {
+            return;
+        }
+        while (pages.size() > 1) {
+            ArrayList<BTreePage> nodePages = new ArrayList<>();
+            ArrayList<Object> nodeFirstKeys = new ArrayList<>();
+            int from = 0;
+            memory = 0;
+            for (int i = 0, size = pages.size(); i < size; i++) {
+                memory += keyType.getMemory(firstKeys.get(i)) + PageUtils.PAGE_MEMORY_CHILD;
+                // 至少要有两个子page，最后一个node page如果只剩一个子page就并到前一个node page中
+                if (i - from >= 1 && memory >= pageSplitSize && size - i > 2) {
+                    addNodePage(nodePages, nodeFirstKeys, pages, firstKeys, from, i + 1);
+                    from = i + 1;
+                    memory = 0;
+                }
+            }
+            addNodePage(nodePages, nodeFirstKeys, pages, firstKeys, from, pages.size());
+            pages = nodePages;
+            firstKeys = nodeFirstKeys;
+        }
+        root.removeAllRecursive();
+        newRoot(pages.get(0));
+        size.set(count);
+        setMaxKey(lastKey);
+        enableParallelIfNeeded();
+        btreeStorage.setUnsavedChanges(true);
+    }
+
+    private void addLeafPage(ArrayList<BTreePage> pages, ArrayList<Object> firstKeys, ArrayList<Object> keys,
+            ArrayList<Object> values) {
+        BTreePage p = BTreeLeafPage.create(this, keys.toArray(), values.toArray(), keys.size(), 0);
+        pages.add(p);
+        firstKeys.add(keys.get(0));
+        keys.clear();
+        values.clear();
+    }
+
+    // 子page[from, to)的父节点，第i个子page之前的分隔key就是它的第一个key
+    private void addNodePage(ArrayList<BTreePage> nodePages, ArrayList<Object> nodeFirstKeys,
+            ArrayList<BTreePage> pages, ArrayList<Object> firstKeys, int from, int to) {
+        int childCount = to - from;
+        Object[] keys = new Object[childCount - 1];
+        PageReference[] children = new PageReference[childCount];
+        for (int i = 0; i < childCount; i++) {
+            if (i > 0) {
+                keys[i - 1] = firstKeys.get(from + i);
+            }
+            Object pageKey = i == 0 ? firstKeys.get(from + 1) : keys[i - 1];
+            children[i] = new PageReference(pages.get(from + i), pageKey, i == 0);
+        }
+        BTreePage node = BTreeNodePage.create(this, keys, children, 0);
+        PageReference parentRef = new PageReference(node);
+        for (int i = 0; i < childCount; i++) {
+            pages.get(from + i).parentRef = parentRef;
+        }
+        nodePages.add(node);
+        nodeFirstKeys.add(firstKeys.get(from));
+    }
+
     @Override
     public boolean containsKey(K key) {
         return get(key) != null;
@@ -434,6 +574,11 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         btreeStorage.save();
     }
 
+    @Override
+    public boolean hasUnsavedChanges() {
+        return btreeStorage.peekUnsavedChanges();
+    }
+
     public boolean isReadOnly() {
         return readOnly;
     }
@@ -508,6 +653,10 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         return root.gotoLeafPage(key);
     }
 
+    BTreePage gotoLeafPageForWrite(Object key) {
+        return root.gotoLeafPage(key, true);
+    }
+
     //////////////////// 以下是异步API的实现 ////////////////////////////////
 
     @Override
@@ -1219,6 +1368,54 @@ public class BTreeMap<K, V> extends StorageMapBase<K, V> {
         }
     }
 
+    // 把闭区间[from, to]切分成最多maxSplits个区间，切分点直接使用node page中的key，
+    // 从root开始一层一层往下找，直到切分点够用了或者下一层已经是leaf page了，不需要读取leaf page或remote page
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<K> getSplitKeys(K from, K to, int maxSplits) {
+        ArrayList<Object> keys = new ArrayList<>();
+        ArrayList<BTreePage> pages = new ArrayList<>(1);
+        pages.add(root);
+        while (keys.size() < maxSplits - 1 && !pages.isEmpty()) {
+            ArrayList<BTreePage> children = new ArrayList<>();
+            for (BTreePage p : pages) {
+                if (!p.isNode()) {
+                    continue;
+                }
+                int keyCount = p.getKeyCount();
+                for (int i = 0, size = getChildPageCount(p); i < size; i++) {
+                    // 第i个子page中的key都在[keys[i-1], keys[i])之间，keys[i-1]已经在上一层找过了
+                    Object low = i == 0 ? null : p.getKey(i - 1);
+                    Object high = i < keyCount ? p.getKey(i) : null;
+                    if (low != null && to != null && keyType.compare(low, to) > 0) {
+                        break;
+                    }
+                    if (high != null && from != null && keyType.compare(high, from) <= 0) {
+                        continue;
+                    }
+                    if (low != null && (from == null || keyType.compare(low, from) > 0)) {
+                        keys.add(low);
+                    }
+                    if (p.isNodeChildPage(i)) {
+                        children.add(p.getChildPage(i));
+                    }
+                }
+            }
+            pages = children;
+        }
+        int n = keys.size();
+        int parts = Math.min(maxSplits, n + 1);
+        ArrayList<K> splitKeys = new ArrayList<>(Math.max(parts - 1, 0));
+        if (parts > 1) {
+            keys.sort(keyType::compare);
+            // n个key把区间分成n+1段，均匀地选出parts-1个
+            for (int j = 1; j < parts; j++) {
+                splitKeys.add((K) keys.get(j * (n + 1) / parts - 1));
+            }
+        }
+        return splitKeys;
+    }
+
     private void getPageKey(Map<String, List<PageKey>> map, Random random, List<PageKey> pageKeys, BTreePage p,
             int index, Object key) {
         long pos;
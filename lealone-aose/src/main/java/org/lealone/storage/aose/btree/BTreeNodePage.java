@@ -82,6 +82,8 @@ public class BTreeNodePage extends BTreeLocalPage {
             return ref.page;
         } else {
             BTreePage p = map.btreeStorage.readPage(ref, ref.pos);
+            // 刚读出来的page还没有parentRef，预读时要用它找父节点，parentRef是volatile的，这里设置也是安全的
+            p.parentRef = new PageReference(this);
             ref.replacePage(p);
             return p;
         }
@@ -103,7 +103,8 @@ public class BTreePage {
     private boolean splitEnabled = true;
     volatile DynamicInfo dynamicInfo = new DynamicInfo();
 
-    PageReference parentRef;
+    // 写操作在page的处理器线程中沿着它标记脏页，读操作也会用它找父节点做预读，所以是volatile的
+    volatile PageReference parentRef;
 
     protected BTreePage(BTreeMap<?, ?> map) {
         this.map = map;
@@ -519,6 +520,12 @@ public class BTreePage {
     static BTreePage read(FileStorage fileStorage, long pos, BTreeMap<?, ?> map, long filePos, long maxPos) {
         int maxLength = PageUtils.getPageMaxLength(pos);
         ByteBuffer buff = readPageBuff(fileStorage, maxLength, filePos, maxPos);
+        return read(buff, pos, map);
+    }
+
+    // buff中的数据已经读好了，预读时使用
+    static BTreePage read(ByteBuffer buff, long pos, BTreeMap<?, ?> map) {
+        int maxLength = PageUtils.getPageMaxLength(pos);
         int type = PageUtils.getPageType(pos);
         BTreePage p = create(map, type);
         p.pos = pos;
@@ -580,6 +587,13 @@ public class BTreePage {
 
     // 只找到key对应的LeafPage就行了，不关心key是否存在
     BTreePage gotoLeafPage(Object key) {
+        return gotoLeafPage(key, false);
+    }
+
+    // forWrite为true时顺便更新沿途page的parentRef，只在写操作中使用，读操作不修改page。
+    // 从硬盘读出来的page或者父节点已经被替换过的page，parentRef是空的或过期的，
+    // 写操作标记脏页时要沿着parentRef一直标记到root page，否则save时不会写入这个page
+    BTreePage gotoLeafPage(Object key, boolean forWrite) {
         BTreePage p = this;
         while (p.isNode()) {
             int index = p.binarySearch(key);
@@ -588,7 +602,13 @@ public class BTreePage {
             } else {
                 index++;
             }
-            p = p.getChildPage(index);
+            BTreePage c = p.getChildPage(index);
+            if (forWrite) {
+                PageReference parentRef = c.parentRef;
+                if (parentRef == null || parentRef.page != p)
+                    c.parentRef = new PageReference(p);
+            }
+            p = c;
         }
         return p;
     }
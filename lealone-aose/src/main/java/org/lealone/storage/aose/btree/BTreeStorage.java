@@ -7,19 +7,21 @@ package org.lealone.storage.aose.btree;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.lealone.common.compress.CompressDeflate;
 import org.lealone.common.compress.CompressLZF;
@@ -33,7 +35,9 @@ import org.lealone.sql.SQLEngineManager;
 import org.lealone.sql.SQLStatementExecutor;
 import org.lealone.storage.aose.AOStorage;
 import org.lealone.storage.aose.btree.PageOperations.CallableOperation;
+import org.lealone.storage.aose.btree.PageOperations.RunnableOperation;
 import org.lealone.storage.cache.CacheLongKeyLIRS;
+import org.lealone.storage.cache.CacheLongKeyOffHeap;
 import org.lealone.storage.fs.FileStorage;
 import org.lealone.storage.fs.FileUtils;
 
@@ -67,9 +71,17 @@ public class BTreeStorage {
     private final ConcurrentHashMap<Long, String> hashCodeToHostIdMap = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Integer, BTreeChunk> chunks = new ConcurrentHashMap<>();
     private final BitField chunkIds = new BitField();
-    private final RandomAccessFile chunkMetaData;
+    private final ChunkMetaData chunkMetaData;
+    private volatile boolean hostIdsChanged;
 
-    private final TreeSet<Long> removedPages = new TreeSet<>();
+    // 上一次save之后被删除的page，save时追加到chunkMetaData中
+    private final Object removedPagesLock = new Object();
+    private long[] unsavedRemovedPages = new long[16];
+    private int unsavedRemovedPageCount;
+
+    // 还没有初始化liveness之前被删除的page，初始化liveness时再标记到对应的chunk中
+    private long[] pendingRemovedPages;
+    private int pendingRemovedPageCount;
 
     /**
     * The newest chunk. If nothing was stored yet, this field is not set.
@@ -78,6 +90,9 @@ public class BTreeStorage {
 
     private final int pageSplitSize;
     private final int minFillRate;
+    private final long compactRateLimit; // 后台压缩每秒最多重写多少字节，小于等于0时不限制
+    private final int readAheadPages; // 顺序扫描时每次预读多少个leaf page，小于等于0时不预读
+    private final boolean mmap; // chunk文件写完后就不会再修改了，可以用只读的内存映射来读
     private final UncaughtExceptionHandler backgroundExceptionHandler;
 
     /**
@@ -87,6 +102,12 @@ public class BTreeStorage {
      */
     private final CacheLongKeyLIRS<BTreePage> cache;
 
+    /**
+     * The second level cache, it keeps the raw bytes of the pages outside the java heap,
+     * so a page evicted from the page cache can be deserialized again without disk IO.
+     */
+    private final CacheLongKeyOffHeap offHeapCache;
+
     /**
      * The compression level for new pages (0 for disabled, 1 for fast, 2 for high).
      * Even if disabled, the storage may contain (old) compressed pages.
@@ -95,12 +116,30 @@ public class BTreeStorage {
     private Compressor compressorFast;
     private Compressor compressorHigh;
 
-    private boolean closed;
+    private volatile boolean closed;
     private IllegalStateException panicException;
     private DataBuffer writeBuffer;
 
     private volatile boolean hasUnsavedChanges;
 
+    // 第一次压缩时才读取所有chunk中page的位置，之后每次save时增量维护每个chunk的liveness
+    private boolean livenessInitialized;
+    private final AtomicBoolean compactPending = new AtomicBoolean();
+    private final Object compactLock = new Object();
+
+    // 压缩相关的统计信息
+    private final AtomicLong compactCount = new AtomicLong();
+    private final AtomicLong removedChunkCount = new AtomicLong();
+    private final AtomicLong rewrittenPageCount = new AtomicLong();
+    private final AtomicLong rewrittenBytes = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private volatile long compactBytesToRewrite;
+    private volatile long compactBytesRewritten;
+
+    // 预读相关的统计信息
+    private final AtomicLong readAheadPageCount = new AtomicLong();
+    private final AtomicLong readAheadReadCount = new AtomicLong();
+
     /**
      * Create and open the storage.
      * 
@@ -117,6 +156,15 @@ public class BTreeStorage {
         value = config.get("minFillRate");
         minFillRate = value != null ? (Integer) value : 30;
 
+        value = config.get("compactRateLimit");
+        compactRateLimit = (value != null ? (Integer) value : 16) * 1024L * 1024L; // 默认每秒16M
+
+        value = config.get("readAheadPages");
+        readAheadPages = value != null ? (Integer) value : 16;
+
+        value = config.get("mmap");
+        mmap = value != null && Boolean.parseBoolean(value.toString());
+
         backgroundExceptionHandler = (UncaughtExceptionHandler) config.get("backgroundExceptionHandler");
 
         value = config.get("cacheSize");
@@ -129,6 +177,15 @@ public class BTreeStorage {
             cache = null;
         }
 
+        // 用内存映射时数据已经在操作系统的page cache中了，不需要再缓存一份
+        value = config.get("offHeapCacheSize");
+        mb = value == null ? 0 : Integer.parseInt(value.toString());
+        if (mb > 0 && !mmap) {
+            offHeapCache = new CacheLongKeyOffHeap(mb * 1024L * 1024L);
+        } else {
+            offHeapCache = null;
+        }
+
         value = config.get("compress");
         compressionLevel = value == null ? 0 : (Integer) value;
 
@@ -143,13 +200,27 @@ public class BTreeStorage {
 
         String file = btreeStoragePath + File.separator + "chunkMetaData";
         try {
-            chunkMetaData = new RandomAccessFile(file, "rw");
-            int lastChunkId = readLastChunkId();
+            chunkMetaData = new ChunkMetaData(file);
+            addHostIds(chunkMetaData.getHostIds());
+            hostIdsChanged = false;
+            int lastChunkId = chunkMetaData.getLastChunkId();
+            // 删除chunk时先写日志再删文件，如果删文件之前崩溃了，文件可能还在
+            for (int id : chunkMetaData.getDeletedChunkIds()) {
+                if (chunkIds.get(id) && id != lastChunkId) {
+                    FileUtils.delete(getChunkFileName(id));
+                    chunkIds.clear(id);
+                }
+            }
+            pendingRemovedPages = chunkMetaData.getRemovedPages();
+            pendingRemovedPageCount = pendingRemovedPages.length;
+            chunkMetaData.clearReadState();
             if (lastChunkId > 0) {
                 lastChunk = readChunkHeader(lastChunkId);
             } else {
                 lastChunk = null;
             }
+            if (chunkMetaData.isOldFormat())
+                rewriteChunkMetaData(lastChunkId);
         } catch (IllegalStateException e) {
             throw panic(e);
         } catch (IOException e) {
@@ -172,57 +243,35 @@ public class BTreeStorage {
         return ids;
     }
 
-    private synchronized int readLastChunkId() throws IOException {
-        if (chunkMetaData.length() <= 0)
-            return 0;
-        int lastChunkId = chunkMetaData.readInt();
-
-        int removedPagesCount = chunkMetaData.readInt();
-        for (int i = 0; i < removedPagesCount; i++)
-            removedPages.add(chunkMetaData.readLong());
-
-        int hashCodeToHostIdMapSize = chunkMetaData.readInt();
-        for (int i = 0; i < hashCodeToHostIdMapSize; i++)
-            addHostIds(chunkMetaData.readUTF());
-        return lastChunkId;
-    }
-
-    private synchronized TreeSet<Long> readRemovedPages() {
+    private synchronized void appendChunkMetaData(DataBuffer records) {
         try {
-            TreeSet<Long> removedPages = new TreeSet<>();
-            if (chunkMetaData.length() > 8) {
-                chunkMetaData.seek(4);
-                int removedPagesCount = chunkMetaData.readInt();
-
-                for (int i = 0; i < removedPagesCount; i++)
-                    removedPages.add(chunkMetaData.readLong());
-            }
-
-            return removedPages;
+            chunkMetaData.append(records);
         } catch (IOException e) {
-            throw panic(DataUtils.newIllegalStateException(DataUtils.ERROR_READING_FAILED, "Failed to readRemovedPages",
-                    e));
+            throw panic(DataUtils.newIllegalStateException(DataUtils.ERROR_WRITING_FAILED,
+                    "Failed to append chunkMetaData", e));
         }
     }
 
-    private synchronized void writeChunkMetaData(int lastChunkId, TreeSet<Long> removedPages) {
-        try {
-            chunkMetaData.setLength(0);
-            chunkMetaData.seek(0);
-            chunkMetaData.writeInt(lastChunkId);
-            chunkMetaData.writeInt(removedPages.size());
-            for (long pos : removedPages) {
-                chunkMetaData.writeLong(pos);
-            }
-            chunkMetaData.writeInt(hashCodeToHostIdMap.size());
-            for (String hostId : hashCodeToHostIdMap.values()) {
-                chunkMetaData.writeUTF(hostId);
+    // 把当前所有的元数据写成一个快照，替换掉原来的日志
+    private synchronized void rewriteChunkMetaData(int lastChunkId) {
+        DataBuffer records = DataBuffer.create();
+        ChunkMetaData.putLastChunkId(records, lastChunkId);
+        for (String hostId : hashCodeToHostIdMap.values()) {
+            ChunkMetaData.putHostId(records, hostId);
+        }
+        if (livenessInitialized) {
+            for (BTreeChunk c : chunks.values()) {
+                long[] positions = c.getRemovedPages();
+                ChunkMetaData.putRemovedPages(records, positions, positions.length);
             }
-            // chunkMetaData.setLength(4 + 4 + removedPages.size() * 8);
-            chunkMetaData.getFD().sync();
+        } else {
+            ChunkMetaData.putRemovedPages(records, pendingRemovedPages, pendingRemovedPageCount);
+        }
+        try {
+            chunkMetaData.rewrite(records);
         } catch (IOException e) {
             throw panic(DataUtils.newIllegalStateException(DataUtils.ERROR_WRITING_FAILED,
-                    "Failed to writeChunkMetaData", e));
+                    "Failed to rewrite chunkMetaData", e));
         }
     }
 
@@ -235,15 +284,20 @@ public class BTreeStorage {
         return e;
     }
 
+    private String getChunkFileName(int chunkId) {
+        return btreeStoragePath + File.separator + chunkId + AOStorage.SUFFIX_AO_FILE;
+    }
+
     private FileStorage getFileStorage(int chunkId) {
-        String chunkFileName = btreeStoragePath + File.separator + chunkId + AOStorage.SUFFIX_AO_FILE;
         FileStorage fileStorage = new FileStorage();
-        fileStorage.open(chunkFileName, map.config);
+        fileStorage.open(getChunkFileName(chunkId), map.config);
         return fileStorage;
     }
 
     private synchronized BTreeChunk readChunkHeader(int chunkId) {
         FileStorage fileStorage = getFileStorage(chunkId);
+        if (mmap)
+            fileStorage.mapReadOnly();
 
         BTreeChunk chunk = null;
         ByteBuffer chunkHeaderBlocks = fileStorage.readFully(0, CHUNK_HEADER_SIZE);
@@ -402,17 +456,173 @@ public class BTreeStorage {
         if (p != null)
             return p;
         BTreeChunk c = getChunk(pos);
-        long filePos = getFilePos(PageUtils.getPageOffset(pos));
-        long maxPos = c.blockCount * BLOCK_SIZE;
-        p = BTreePage.read(c.fileStorage, pos, map, filePos, maxPos);
+        ByteBuffer buff = offHeapCache == null ? null : offHeapCache.get(pos);
+        if (buff == null) {
+            long filePos = getFilePos(PageUtils.getPageOffset(pos));
+            long maxPos = c.blockCount * BLOCK_SIZE;
+            buff = BTreePage.readPageBuff(c.fileStorage, PageUtils.getPageMaxLength(pos), filePos, maxPos);
+            putPageBuffInOffHeapCache(pos, buff);
+        }
+        p = BTreePage.read(buff, pos, map);
         cachePage(pos, p, p.getMemory());
         return p;
     }
 
+    // 只缓存page的实际长度，从文件中读出来的数据通常会比page长
+    private void putPageBuffInOffHeapCache(long pos, ByteBuffer buff) {
+        if (offHeapCache == null || buff.remaining() < 4)
+            return;
+        int pageLength = buff.getInt(buff.position());
+        if (pageLength <= 0 || pageLength > buff.remaining())
+            return; // 读page时会报错
+        ByteBuffer page = buff.duplicate();
+        page.limit(page.position() + pageLength);
+        offHeapCache.put(pos, page);
+    }
+
+    /**
+     * Get the off-heap page cache, it has the hit, eviction and memory statistics.
+     * 
+     * @return the cache, or null if it is disabled
+     */
+    public CacheLongKeyOffHeap getOffHeapCache() {
+        return offHeapCache;
+    }
+
+    // //////////////////////////////// Read-ahead BEGIN ////////////////////////////////
+
+    // 一次IO最多读多少字节，两个page之间的空隙太大时也分成两次读
+    private static final int MAX_READ_AHEAD_LENGTH = 1024 * 1024;
+    private static final int MAX_READ_AHEAD_GAP = 64 * 1024;
+
+    int getReadAheadPages() {
+        // 用内存映射时由操作系统负责预读
+        return cache == null || mmap ? 0 : readAheadPages;
+    }
+
+    /**
+     * Read the leaf pages in [fromIndex, toIndex) of the node page into the cache.
+     * Pages in the same chunk are sorted by offset, the adjacent ones are read in one IO.
+     * 
+     * @param node the node page
+     * @param fromIndex the index of the first child page
+     * @param toIndex the index after the last child page
+     */
+    void readAhead(BTreePage node, int fromIndex, int toIndex) {
+        if (cache == null)
+            return;
+        long[] positions = new long[toIndex - fromIndex];
+        int count = 0;
+        for (int i = fromIndex; i < toIndex; i++) {
+            PageReference ref = node.getChildPageReference(i);
+            long pos = ref.pos;
+            if (ref.page == null && PageUtils.isLeafPage(pos) && !cache.containsKey(pos)
+                    && (offHeapCache == null || !offHeapCache.containsKey(pos)))
+                positions[count++] = pos;
+        }
+        if (count == 0)
+            return;
+        // 同一个chunk的page按offset排在一起
+        Arrays.sort(positions, 0, count);
+        List<long[]> groups = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= count; i++) {
+            if (i == count || !isAdjacent(positions[start], positions[i - 1], positions[i])) {
+                groups.add(Arrays.copyOfRange(positions, start, i));
+                start = i;
+            }
+        }
+        readAheadPageCount.addAndGet(count);
+        readAheadReadCount.addAndGet(groups.size());
+        // 跟readLocalPageAsync一样交给页面操作处理器去读，当前线程可以继续处理已经读到的page
+        map.pohFactory.addPageOperation(new RunnableOperation(() -> {
+            for (long[] group : groups) {
+                if (closed)
+                    return;
+                try {
+                    readPages(group);
+                } catch (Throwable t) {
+                    // 预读失败了不影响正常的读取
+                    DbException.traceThrowable(t);
+                }
+            }
+        }));
+    }
+
+    private static boolean isAdjacent(long first, long last, long pos) {
+        if (PageUtils.getPageChunkId(first) != PageUtils.getPageChunkId(pos))
+            return false;
+        if (PageUtils.getPageMaxLength(pos) == PageUtils.PAGE_LARGE
+                || PageUtils.getPageMaxLength(last) == PageUtils.PAGE_LARGE)
+            return false;
+        int offset = PageUtils.getPageOffset(pos);
+        return offset - PageUtils.getPageOffset(last) <= MAX_READ_AHEAD_GAP
+                && offset + PageUtils.getPageMaxLength(pos) - PageUtils.getPageOffset(first) <= MAX_READ_AHEAD_LENGTH;
+    }
+
+    // 用一次IO读出同一个chunk中相邻的多个page
+    private void readPages(long[] positions) {
+        BTreeChunk c = getChunk(positions[0]);
+        long maxPos = c.blockCount * BLOCK_SIZE;
+        int size = positions.length;
+        if (size == 1) {
+            long pos = positions[0];
+            if (getPageFromCache(pos) == null) {
+                ByteBuffer buff = BTreePage.readPageBuff(c.fileStorage, PageUtils.getPageMaxLength(pos),
+                        getFilePos(PageUtils.getPageOffset(pos)), maxPos);
+                putPageBuffInOffHeapCache(pos, buff);
+                BTreePage p = BTreePage.read(buff, pos, map);
+                cachePage(pos, p, p.getMemory());
+            }
+            return;
+        }
+        long startFilePos = getFilePos(PageUtils.getPageOffset(positions[0]));
+        long last = positions[size - 1];
+        long endFilePos = getFilePos(PageUtils.getPageOffset(last)) + PageUtils.getPageMaxLength(last);
+        endFilePos = Math.min(endFilePos, maxPos);
+        ByteBuffer buff = c.fileStorage.readFully(startFilePos, (int) (endFilePos - startFilePos));
+        for (long pos : positions) {
+            if (getPageFromCache(pos) != null)
+                continue;
+            int offset = (int) (getFilePos(PageUtils.getPageOffset(pos)) - startFilePos);
+            int maxLength = Math.min(PageUtils.getPageMaxLength(pos), buff.limit() - offset);
+            // 每个page用自己的buffer，避免page中的值引用整个大buffer
+            ByteBuffer pageBuff = ByteBuffer.allocate(maxLength);
+            buff.limit(offset + maxLength);
+            buff.position(offset);
+            pageBuff.put(buff);
+            pageBuff.flip();
+            buff.limit(buff.capacity());
+            putPageBuffInOffHeapCache(pos, pageBuff);
+            BTreePage p = BTreePage.read(pageBuff, pos, map);
+            cachePage(pos, p, p.getMemory());
+        }
+    }
+
+    public long getReadAheadPageCount() {
+        return readAheadPageCount.get();
+    }
+
+    /**
+     * Get the number of IO requests issued by read-ahead.
+     * 
+     * @return the number of IO requests
+     */
+    public long getReadAheadReadCount() {
+        return readAheadReadCount.get();
+    }
+
+    // //////////////////////////////// Read-ahead END //////////////////////////////////
+
     void setUnsavedChanges(boolean b) {
         hasUnsavedChanges = b;
     }
 
+    // 跟hasUnsavedChanges()不同，只看不清除
+    boolean peekUnsavedChanges() {
+        return hasUnsavedChanges;
+    }
+
     /**
      * Remove a page.
      * 
@@ -427,8 +637,10 @@ public class BTreeStorage {
             return;
         }
 
-        synchronized (removedPages) {
-            removedPages.add(pos);
+        synchronized (removedPagesLock) {
+            if (unsavedRemovedPageCount == unsavedRemovedPages.length)
+                unsavedRemovedPages = Arrays.copyOf(unsavedRemovedPages, unsavedRemovedPageCount * 2);
+            unsavedRemovedPages[unsavedRemovedPageCount++] = pos;
         }
 
         if (cache != null) {
@@ -438,6 +650,8 @@ public class BTreeStorage {
                 cache.remove(pos);
             }
         }
+        if (offHeapCache != null)
+            offHeapCache.remove(pos);
     }
 
     Compressor getCompressorFast() {
@@ -555,11 +769,10 @@ public class BTreeStorage {
             // because of out of memory
             if (cache != null)
                 cache.clear();
+            if (offHeapCache != null)
+                offHeapCache.clear();
 
-            try {
-                chunkMetaData.close();
-            } catch (IOException e) {
-            }
+            chunkMetaData.close();
         }
     }
 
@@ -593,7 +806,9 @@ public class BTreeStorage {
         }
 
         try {
-            executeCompact(executeSave(false));
+            // 压缩放到后台执行，不阻塞save
+            if (executeSave(false) > 0)
+                scheduleCompact();
         } catch (IllegalStateException e) {
             throw panic(e);
         }
@@ -603,7 +818,8 @@ public class BTreeStorage {
         executeSave(true);
     }
 
-    private TreeSet<Long> executeSave(boolean force) {
+    // 返回这次save新删除的page数
+    private int executeSave(boolean force) {
         DataBuffer buff = getDataBuffer();
         int id = chunkIds.nextClearBit(1);
         chunkIds.set(id);
@@ -613,10 +829,13 @@ public class BTreeStorage {
         c.pageLengths = new ArrayList<>();
 
         BTreePage p;
-        TreeSet<Long> removedPages;
-        synchronized (this.removedPages) {
-            removedPages = new TreeSet<>(this.removedPages);
-            this.removedPages.clear();
+        long[] newRemovedPages;
+        int newRemovedPageCount;
+        synchronized (removedPagesLock) {
+            newRemovedPages = unsavedRemovedPages;
+            newRemovedPageCount = unsavedRemovedPageCount;
+            unsavedRemovedPages = new long[16];
+            unsavedRemovedPageCount = 0;
             p = map.root;
         }
         // 如果不写，rootPagePos会是0，重新打开时会报错
@@ -647,13 +866,43 @@ public class BTreeStorage {
         // chunk body
         write(c.fileStorage, CHUNK_HEADER_SIZE, buff.getBuffer());
         c.fileStorage.sync();
+        // 写完之后才能映射
+        if (mmap)
+            c.fileStorage.mapReadOnly();
+
+        // 只追加这次save的变化，代价跟删除的page数成正比，而不是跟所有的垃圾成正比
+        DataBuffer records = DataBuffer.create();
+        ChunkMetaData.putLastChunkId(records, c.id);
+        ChunkMetaData.putRemovedPages(records, newRemovedPages, newRemovedPageCount);
+        if (hostIdsChanged) {
+            hostIdsChanged = false;
+            for (String hostId : hashCodeToHostIdMap.values()) {
+                ChunkMetaData.putHostId(records, hostId);
+            }
+        }
+        appendChunkMetaData(records);
 
-        removedPages.addAll(readRemovedPages());
-        writeChunkMetaData(c.id, removedPages);
+        if (livenessInitialized) {
+            c.initLiveness();
+            for (int i = 0; i < newRemovedPageCount; i++)
+                markPageRemoved(newRemovedPages[i]);
+        } else {
+            addPendingRemovedPages(newRemovedPages, newRemovedPageCount);
+        }
+        if (chunkMetaData.needRewrite())
+            rewriteChunkMetaData(c.id);
 
         releaseDataBuffer(buff);
         lastChunk = c;
-        return removedPages;
+        return newRemovedPageCount;
+    }
+
+    private void addPendingRemovedPages(long[] positions, int count) {
+        if (pendingRemovedPageCount + count > pendingRemovedPages.length)
+            pendingRemovedPages = Arrays.copyOf(pendingRemovedPages,
+                    Math.max(pendingRemovedPageCount + count, pendingRemovedPages.length * 2));
+        System.arraycopy(positions, 0, pendingRemovedPages, pendingRemovedPageCount, count);
+        pendingRemovedPageCount += count;
     }
 
     /**
@@ -686,68 +935,115 @@ public class BTreeStorage {
     }
 
     // //////////////////////////////// Compact BEGIN ///////////////////////////////////
+
+    private void scheduleCompact() {
+        if (compactPending.compareAndSet(false, true))
+            BTreeCompactor.submit(this);
+    }
+
+    // 由BTreeCompactor在后台线程中调用
+    void compactInBackground() {
+        compactPending.set(false);
+        compact();
+    }
+
+    void handleBackgroundException(Throwable t) {
+        // 压缩的过程中storage被关闭或删除了，忽略就可以了
+        if (closed)
+            return;
+        if (backgroundExceptionHandler != null)
+            backgroundExceptionHandler.uncaughtException(null, t);
+        else
+            DbException.traceThrowable(t);
+    }
+
     /**
      * Try to increase the fill rate by re-writing partially full chunks. 
      * Chunks with a low number of live items are re-written.
      * <p>
      * If the current fill rate is higher than the minimum fill rate, nothing is done.
+     * <p>
+     * Usually it is called by the background compactor after save,
+     * the speed of re-writing is limited by compactRateLimit.
      */
-    private void executeCompact(TreeSet<Long> removedPages) {
-        if (removedPages.isEmpty())
-            return;
-
-        removeUnusedChunks(removedPages);
-
-        if (minFillRate <= 0)
-            return;
-
-        if (!removedPages.isEmpty()) {
-            List<BTreeChunk> old = getOldChunks();
-            if (!old.isEmpty()) {
-                boolean saveIfNeeded = rewrite(old, removedPages);
-                if (saveIfNeeded) {
-                    removedPages = executeSave(false);
-                    removeUnusedChunks(removedPages);
+    public void compact() {
+        synchronized (compactLock) {
+            List<BTreeChunk> old;
+            synchronized (this) {
+                if (closed || map.isReadOnly())
+                    return;
+                compactCount.incrementAndGet();
+                initLiveness();
+                removeUnusedChunks();
+                if (minFillRate <= 0)
+                    return;
+                old = getOldChunks();
+            }
+            if (old.isEmpty())
+                return;
+            // 重写page时不持有storage的锁，不影响save和读page
+            if (rewrite(old)) {
+                map.save();
+                synchronized (this) {
+                    if (!closed)
+                        removeUnusedChunks();
                 }
             }
+            compactBytesRewritten = compactBytesToRewrite;
         }
     }
 
-    private void removeUnusedChunks(TreeSet<Long> removedPages) {
-        int size = removedPages.size();
-        for (BTreeChunk c : findUnusedChunks(removedPages)) {
-            c.fileStorage.close();
-            c.fileStorage.delete();
-            chunks.remove(c.id);
-            chunkIds.clear(c.id);
-            removedPages.removeAll(c.pagePositions);
+    private void initLiveness() {
+        if (livenessInitialized)
+            return;
+        readAllChunks();
+        for (BTreeChunk c : chunks.values()) {
+            c.initLiveness();
         }
-
-        if (size > removedPages.size()) {
-            writeChunkMetaData(lastChunk.id, removedPages);
+        for (int i = 0; i < pendingRemovedPageCount; i++) {
+            markPageRemoved(pendingRemovedPages[i]);
         }
+        pendingRemovedPages = null;
+        pendingRemovedPageCount = 0;
+        livenessInitialized = true;
     }
 
-    private ArrayList<BTreeChunk> findUnusedChunks(TreeSet<Long> removedPages) {
-        ArrayList<BTreeChunk> unusedChunks = new ArrayList<>();
-        if (removedPages.isEmpty())
-            return unusedChunks;
-
-        readAllChunks();
+    private void markPageRemoved(long pos) {
+        BTreeChunk c = chunks.get(PageUtils.getPageChunkId(pos));
+        if (c != null)
+            c.removePage(pos);
+    }
 
+    private void removeUnusedChunks() {
+        List<BTreeChunk> unused = new ArrayList<>();
         for (BTreeChunk c : chunks.values()) {
-            c.sumOfLivePageLength = 0;
-            boolean unused = true;
-            for (int i = 0, size = c.pagePositions.size(); i < size; i++) {
-                if (!removedPages.contains(c.pagePositions.get(i))) {
-                    c.sumOfLivePageLength += c.pageLengths.get(i);
-                    unused = false;
-                }
-            }
-            if (unused)
-                unusedChunks.add(c);
+            // lastChunk中有root page，不能删除
+            if (c.isUnused() && c != lastChunk)
+                unused.add(c);
+        }
+        if (unused.isEmpty())
+            return;
+        // 先记录下来再删文件，之前记录的这些chunk中的page就都失效了
+        DataBuffer records = DataBuffer.create();
+        for (BTreeChunk c : unused) {
+            ChunkMetaData.putDeletedChunk(records, c.id);
+        }
+        appendChunkMetaData(records);
+        for (BTreeChunk c : unused) {
+            c.fileStorage.close();
+            c.fileStorage.delete();
+            chunks.remove(c.id);
+            chunkIds.clear(c.id);
+            removedChunkCount.incrementAndGet();
+            reclaimedBytes.addAndGet((long) c.blockCount * BLOCK_SIZE);
+        }
+        // chunk id会被重用，page的位置也可能重复
+        if (offHeapCache != null) {
+            HashSet<Integer> ids = new HashSet<>();
+            for (BTreeChunk c : unused)
+                ids.add(c.id);
+            offHeapCache.removeIf(pos -> ids.contains(PageUtils.getPageChunkId(pos)));
         }
-        return unusedChunks;
     }
 
     private void readAllChunks() {
@@ -783,7 +1079,7 @@ public class BTreeStorage {
         long maxBytesToWrite = BTreeChunk.MAX_SIZE;
         List<BTreeChunk> old = new ArrayList<>();
         for (BTreeChunk c : chunks.values()) {
-            if (c.getFillRate() > minFillRate)
+            if (c.getFillRate() > minFillRate || c.isUnused())
                 continue;
             old.add(c);
         }
@@ -809,30 +1105,109 @@ public class BTreeStorage {
             if (bytes > maxBytesToWrite)
                 break;
         }
-        return index == size ? old : old.subList(0, index + 1);
+        old = index == size ? old : old.subList(0, index + 1);
+        long bytesToRewrite = 0;
+        for (BTreeChunk c : old)
+            bytesToRewrite += c.sumOfLivePageLength;
+        compactBytesToRewrite = bytesToRewrite;
+        compactBytesRewritten = 0;
+        return old;
     }
 
-    private boolean rewrite(List<BTreeChunk> old, TreeSet<Long> removedPages) {
+    private boolean rewrite(List<BTreeChunk> old) {
         boolean saveIfNeeded = false;
+        long startTime = System.nanoTime();
+        long bytes = 0;
         for (BTreeChunk c : old) {
             for (int i = 0, size = c.pagePositions.size(); i < size; i++) {
+                if (closed)
+                    return false;
                 long pos = c.pagePositions.get(i);
-                if (PageUtils.isLeafPage(pos)) {
-                    if (!removedPages.contains(pos)) {
-                        BTreePage p = readPage(pos);
-                        if (p.getKeyCount() > 0) {
-                            Object key = p.getKey(0);
-                            Object value = map.get(key);
-                            if (value != null && map.replace(key, value, value))
-                                saveIfNeeded = true;
-                        }
+                if (PageUtils.isLeafPage(pos) && !c.isPageRemoved(i)) {
+                    BTreePage p = readPage(pos);
+                    if (p.getKeyCount() > 0) {
+                        Object key = p.getKey(0);
+                        Object value = map.get(key);
+                        if (value != null && map.replace(key, value, value))
+                            saveIfNeeded = true;
                     }
+                    int pageLength = c.pageLengths.get(i);
+                    bytes += pageLength;
+                    compactBytesRewritten = bytes;
+                    rewrittenPageCount.incrementAndGet();
+                    rewrittenBytes.addAndGet(pageLength);
+                    throttle(bytes, startTime);
                 }
             }
         }
         return saveIfNeeded;
     }
 
+    // 按限定的速度计算重写这么多字节应该用多少时间，写得太快就等一会
+    private void throttle(long bytes, long startTime) {
+        if (compactRateLimit <= 0)
+            return;
+        long expectedNanos = bytes * 1000 * 1000 * 1000 / compactRateLimit;
+        long sleepMillis = (expectedNanos - (System.nanoTime() - startTime)) / 1000 / 1000;
+        if (sleepMillis > 0) {
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    public long getCompactCount() {
+        return compactCount.get();
+    }
+
+    public long getRemovedChunkCount() {
+        return removedChunkCount.get();
+    }
+
+    public long getRewrittenPageCount() {
+        return rewrittenPageCount.get();
+    }
+
+    public long getRewrittenBytes() {
+        return rewrittenBytes.get();
+    }
+
+    /**
+     * Get the total size of the deleted chunk files.
+     * 
+     * @return the reclaimed bytes
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * Get the progress of the current or last compaction, in %.
+     * 
+     * @return the progress
+     */
+    public int getCompactProgress() {
+        long bytesToRewrite = compactBytesToRewrite;
+        if (bytesToRewrite <= 0)
+            return 100;
+        return (int) Math.min(100, compactBytesRewritten * 100 / bytesToRewrite);
+    }
+
+    /**
+     * Get the total length of the removed pages that are not reclaimed yet.
+     * It is always 0 before the first compaction.
+     * 
+     * @return the garbage bytes
+     */
+    public synchronized long getGarbageBytes() {
+        long bytes = 0;
+        for (BTreeChunk c : chunks.values()) {
+            bytes += c.getGarbageLength();
+        }
+        return bytes;
+    }
+
     // //////////////////////////////// Compact END /////////////////////////////////////
 
     void addHostIds(Collection<String> hostIds) {
@@ -844,7 +1219,8 @@ public class BTreeStorage {
         if (hostIds != null) {
             for (String hostId : hostIds) {
                 if (hostId != null) {
-                    hashCodeToHostIdMap.put(Long.valueOf(getHostIdHashCode(hostId)), hostId);
+                    if (hashCodeToHostIdMap.put(Long.valueOf(getHostIdHashCode(hostId)), hostId) == null)
+                        hostIdsChanged = true;
                 }
             }
         }
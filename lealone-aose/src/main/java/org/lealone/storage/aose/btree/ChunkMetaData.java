@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.aose.btree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.lealone.common.util.DataUtils;
+import org.lealone.db.DataBuffer;
+import org.lealone.storage.fs.FileUtils;
+
+/**
+ * An append-only log of the chunk meta data
+ * <p>
+ * 每次save只追加这次的变化：最新的chunk id、新删除的page的位置、新的hostId以及被删除的chunk，
+ * 这样save的代价只跟变化的数据量有关，日志变得太大时再重写成一个快照。
+ * <p>
+ * 文件格式: magic | batch | batch ...，每个batch是: length | checksum | record ...，
+ * 最后一个batch如果没有写完整，打开时会被丢弃。
+ *
+ * @author zhh
+ */
+class ChunkMetaData {
+
+    // 老格式的文件开头是lastChunkId，不可能是负数
+    private static final int MAGIC = 0xAE5E0001;
+    private static final int MIN_REWRITE_LENGTH = 1024 * 1024;
+
+    private static final byte TYPE_LAST_CHUNK = 1;
+    private static final byte TYPE_REMOVED_PAGES = 2;
+    private static final byte TYPE_DELETED_CHUNK = 3;
+    private static final byte TYPE_HOST_ID = 4;
+
+    static void putLastChunkId(DataBuffer buff, int lastChunkId) {
+        buff.put(TYPE_LAST_CHUNK);
+        buff.putVarInt(lastChunkId);
+    }
+
+    static void putRemovedPages(DataBuffer buff, long[] positions, int count) {
+        if (count <= 0)
+            return;
+        buff.put(TYPE_REMOVED_PAGES);
+        buff.putVarInt(count);
+        for (int i = 0; i < count; i++)
+            buff.putLong(positions[i]);
+    }
+
+    static void putDeletedChunk(DataBuffer buff, int chunkId) {
+        buff.put(TYPE_DELETED_CHUNK);
+        buff.putVarInt(chunkId);
+    }
+
+    static void putHostId(DataBuffer buff, String hostId) {
+        buff.put(TYPE_HOST_ID);
+        buff.putVarInt(hostId.length());
+        buff.putStringData(hostId, hostId.length());
+    }
+
+    private final String fileName;
+    private RandomAccessFile file;
+    private long length;
+    private long snapshotLength;
+    private boolean oldFormat;
+
+    // 以下字段只在打开时使用
+    private int lastChunkId;
+    private final ArrayList<String> hostIds = new ArrayList<>();
+    private long[] removedPages = new long[16];
+    private int removedPageCount;
+    // key: chunkId, value: 最后一次删除这个chunk时removedPages的大小，在它之前记录的page都已经随chunk一起删除了
+    private final HashMap<Integer, Integer> chunkDeletedAt = new HashMap<>();
+    private final HashSet<Integer> deletedChunkIds = new HashSet<>();
+
+    ChunkMetaData(String fileName) throws IOException {
+        this.fileName = fileName;
+        file = new RandomAccessFile(fileName, "rw");
+        length = file.length();
+        if (length >= 4) {
+            read();
+        } else if (length > 0) { // 第一次写magic时崩溃了
+            file.setLength(0);
+            length = 0;
+        }
+        snapshotLength = length;
+    }
+
+    private void read() throws IOException {
+        byte[] bytes = new byte[(int) length];
+        file.seek(0);
+        file.readFully(bytes);
+        ByteBuffer buff = ByteBuffer.wrap(bytes);
+        if (buff.getInt() != MAGIC) {
+            buff.position(0);
+            readOldFormat(buff);
+            oldFormat = true;
+            return;
+        }
+        long validLength = buff.position();
+        while (buff.remaining() >= 8) {
+            int len = buff.getInt();
+            int checksum = buff.getInt();
+            if (len < 0 || len > buff.remaining()
+                    || DataUtils.getFletcher32(bytes, buff.position(), len) != checksum)
+                break;
+            int end = buff.position() + len;
+            while (buff.position() < end) {
+                readRecord(buff);
+            }
+            validLength = end;
+        }
+        // 丢弃最后一个不完整的batch
+        if (validLength < length) {
+            file.setLength(validLength);
+            length = validLength;
+        }
+    }
+
+    private void readRecord(ByteBuffer buff) {
+        int type = buff.get();
+        if (type == TYPE_LAST_CHUNK) {
+            lastChunkId = DataUtils.readVarInt(buff);
+            deletedChunkIds.remove(lastChunkId); // chunk id被重用了
+        } else if (type == TYPE_REMOVED_PAGES) {
+            int count = DataUtils.readVarInt(buff);
+            for (int i = 0; i < count; i++)
+                addRemovedPage(buff.getLong());
+        } else if (type == TYPE_DELETED_CHUNK) {
+            int chunkId = DataUtils.readVarInt(buff);
+            chunkDeletedAt.put(chunkId, removedPageCount);
+            deletedChunkIds.add(chunkId);
+        } else if (type == TYPE_HOST_ID) {
+            int len = DataUtils.readVarInt(buff);
+            hostIds.add(DataUtils.readString(buff, len));
+        } else {
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_FILE_CORRUPT, "Unknown chunk meta data type {0}",
+                    type);
+        }
+    }
+
+    private void readOldFormat(ByteBuffer buff) {
+        lastChunkId = buff.getInt();
+        int count = buff.getInt();
+        for (int i = 0; i < count; i++)
+            addRemovedPage(buff.getLong());
+        int hostIdCount = buff.getInt();
+        for (int i = 0; i < hostIdCount; i++) {
+            // 跟RandomAccessFile.writeUTF的格式兼容
+            byte[] utf = new byte[buff.getShort() & 0xffff];
+            buff.get(utf);
+            hostIds.add(new String(utf, DataUtils.UTF8));
+        }
+    }
+
+    private void addRemovedPage(long pos) {
+        if (removedPageCount == removedPages.length)
+            removedPages = Arrays.copyOf(removedPages, removedPageCount * 2);
+        removedPages[removedPageCount++] = pos;
+    }
+
+    int getLastChunkId() {
+        return lastChunkId;
+    }
+
+    ArrayList<String> getHostIds() {
+        return hostIds;
+    }
+
+    // 老格式的文件需要马上重写成新格式
+    boolean isOldFormat() {
+        return oldFormat;
+    }
+
+    /**
+     * Get the positions of the removed pages, excluding the pages of the deleted chunks.
+     *
+     * @return the positions
+     */
+    long[] getRemovedPages() {
+        long[] positions = new long[removedPageCount];
+        int count = 0;
+        for (int i = 0; i < removedPageCount; i++) {
+            long pos = removedPages[i];
+            Integer deletedAt = chunkDeletedAt.get(PageUtils.getPageChunkId(pos));
+            if (deletedAt == null || i >= deletedAt)
+                positions[count++] = pos;
+        }
+        return count == removedPageCount ? positions : Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Get the ids of the chunks that were deleted, but the files may still exist.
+     *
+     * @return the chunk ids
+     */
+    HashSet<Integer> getDeletedChunkIds() {
+        return new HashSet<>(deletedChunkIds);
+    }
+
+    // 打开之后就不再需要了
+    void clearReadState() {
+        hostIds.clear();
+        removedPages = null;
+        removedPageCount = 0;
+        chunkDeletedAt.clear();
+        deletedChunkIds.clear();
+    }
+
+    /**
+     * Append the records and sync.
+     *
+     * @param records the records
+     */
+    void append(DataBuffer records) throws IOException {
+        if (length == 0) {
+            file.seek(0);
+            file.writeInt(MAGIC);
+            length = 4;
+        }
+        byte[] bytes = toBatch(records);
+        file.seek(length);
+        file.write(bytes);
+        file.getFD().sync();
+        length += bytes.length;
+    }
+
+    // 追加的日志超过快照的两倍时才重写，平摊下来每次save的代价还是跟变化的数据量成正比
+    boolean needRewrite() {
+        return oldFormat || length > MIN_REWRITE_LENGTH && length > snapshotLength * 2;
+    }
+
+    /**
+     * Replace the whole log with a snapshot.
+     *
+     * @param snapshot the records of the snapshot
+     */
+    void rewrite(DataBuffer snapshot) throws IOException {
+        String tmpFileName = fileName + ".tmp";
+        byte[] bytes = toBatch(snapshot);
+        try (RandomAccessFile tmpFile = new RandomAccessFile(tmpFileName, "rw")) {
+            tmpFile.setLength(0);
+            tmpFile.writeInt(MAGIC);
+            tmpFile.write(bytes);
+            tmpFile.getFD().sync();
+        }
+        file.close();
+        FileUtils.moveAtomicReplace(tmpFileName, fileName);
+        file = new RandomAccessFile(fileName, "rw");
+        length = file.length();
+        snapshotLength = length;
+        oldFormat = false;
+    }
+
+    private static byte[] toBatch(DataBuffer records) {
+        ByteBuffer buff = records.getAndFlipBuffer();
+        int len = buff.remaining();
+        byte[] bytes = new byte[8 + len];
+        buff.get(bytes, 8, len);
+        ByteBuffer batch = ByteBuffer.wrap(bytes);
+        batch.putInt(len);
+        batch.putInt(DataUtils.getFletcher32(bytes, 8, len));
+        return bytes;
+    }
+
+    void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+        }
+    }
+}
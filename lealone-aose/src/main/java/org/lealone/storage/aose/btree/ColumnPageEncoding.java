@@ -0,0 +1,477 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.aose.btree;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import org.lealone.common.util.DataUtils;
+import org.lealone.db.DataBuffer;
+import org.lealone.db.value.Value;
+import org.lealone.storage.ColumnVector;
+
+/**
+ * Type-aware encodings of a column page.
+ * <p>
+ * 写column page时先把这一列收集到ColumnVector中，然后对每种适用的编码都试一次，选最小的那个，
+ * 如果都不比逐行写Value小就还是用原来的格式(PLAIN)。编码之后的数据还会再经过compressPage压缩。
+ * <p>
+ * 编码后的格式: rowCount | 跟编码相关的数据
+ * <ul>
+ * <li>RLE: runCount | (runLength | value) ...，适用于所有类型</li>
+ * <li>DICTIONARY: dictSize | value ... | bitWidth | 用bit-packing存放的字典下标，适用于非数字类型</li>
+ * <li>FRAME_OF_REFERENCE: valueType | nulls | min | bitWidth | 用bit-packing存放的(value - min)，适用于INT和LONG</li>
+ * <li>DELTA: valueType | nulls | first | minDelta | firstRow | bitWidth | 用bit-packing存放的(delta - minDelta)，
+ * 适用于基本有序的INT和LONG</li>
+ * </ul>
+ * 非数字类型的值按序列化之后的字节判断是否相同，不能用Value.equals，它不一定是精确的，
+ * 比如VARCHAR_IGNORECASE的'abc'和'ABC'是相等的，合并到同一个run或字典项之后读回来就都变成一样的了。
+ *
+ * @author zhh
+ */
+class ColumnPageEncoding {
+
+    static final int PLAIN = 0;
+    static final int RLE = 1;
+    static final int DICTIONARY = 2;
+    static final int FRAME_OF_REFERENCE = 3;
+    static final int DELTA = 4;
+
+    private ColumnPageEncoding() {
+    }
+
+    /**
+     * Try all the encodings that fit the vector.
+     *
+     * @param vector the values of the column
+     * @param plainLength the length of the PLAIN format
+     * @param out the target buffer
+     * @return the chosen encoding, PLAIN if nothing is written
+     */
+    static int encode(ColumnVector vector, int plainLength, DataBuffer out) {
+        int bestEncoding = PLAIN;
+        int bestLength = plainLength;
+        try (DataBuffer tmp = DataBuffer.create()) {
+            int[] encodings;
+            SerializedValues values = null;
+            if (vector.isLongVector()) {
+                encodings = new int[] { FRAME_OF_REFERENCE, DELTA, RLE };
+            } else if (vector.isDoubleVector() || vector.getValueType() == Value.NULL) {
+                encodings = new int[] { RLE };
+            } else {
+                encodings = new int[] { DICTIONARY, RLE };
+                values = new SerializedValues(vector, tmp);
+            }
+            for (int encoding : encodings) {
+                tmp.clear();
+                if (!tryEncode(vector, values, encoding, tmp))
+                    continue;
+                int length = tmp.position();
+                if (length < bestLength) {
+                    bestLength = length;
+                    bestEncoding = encoding;
+                    ByteBuffer encoded = tmp.getBuffer().duplicate();
+                    encoded.flip();
+                    out.clear();
+                    out.put(encoded);
+                }
+            }
+        }
+        return bestEncoding;
+    }
+
+    private static boolean tryEncode(ColumnVector vector, SerializedValues values, int encoding,
+            DataBuffer buff) {
+        int rowCount = vector.getRowCount();
+        buff.putVarInt(rowCount);
+        switch (encoding) {
+        case RLE:
+            return encodeRle(vector, values, rowCount, buff);
+        case DICTIONARY:
+            return encodeDictionary(values, rowCount, buff);
+        case FRAME_OF_REFERENCE:
+            return encodeFrameOfReference(vector, rowCount, buff);
+        case DELTA:
+            return encodeDelta(vector, rowCount, buff);
+        default:
+            return false;
+        }
+    }
+
+    private static boolean encodeRle(ColumnVector vector, SerializedValues values, int rowCount,
+            DataBuffer buff) {
+        int runCount = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (row == 0 || !isSameValue(vector, values, row - 1, row))
+                runCount++;
+        }
+        // 重复的值太少
+        if (runCount > rowCount / 2)
+            return false;
+        buff.putVarInt(runCount);
+        for (int row = 0; row < rowCount;) {
+            int end = row + 1;
+            while (end < rowCount && isSameValue(vector, values, row, end))
+                end++;
+            buff.putVarInt(end - row);
+            if (values != null)
+                values.write(row, buff);
+            else
+                buff.writeValue(vector.getValue(row));
+            row = end;
+        }
+        return true;
+    }
+
+    private static boolean isSameValue(ColumnVector vector, SerializedValues values, int a, int b) {
+        if (values != null)
+            return values.isSame(a, b);
+        boolean aNull = vector.isNull(a);
+        if (aNull || vector.isNull(b))
+            return aNull && vector.isNull(b);
+        if (vector.isLongVector())
+            return vector.getLongs()[a] == vector.getLongs()[b];
+        if (vector.isDoubleVector()) // 跟ValueDouble.equals一样按位比较
+            return Double.doubleToLongBits(vector.getDoubles()[a]) == Double
+                    .doubleToLongBits(vector.getDoubles()[b]);
+        return false; // 其他类型都用SerializedValues比较
+    }
+
+    private static boolean encodeDictionary(SerializedValues values, int rowCount, DataBuffer buff) {
+        HashMap<SerializedValue, Integer> dict = new HashMap<>();
+        int maxSize = Math.min(rowCount / 2, 1 << 16);
+        int[] ids = new int[rowCount];
+        int[] entries = new int[Math.min(rowCount, maxSize)]; // 每个字典项第一次出现的行
+        for (int row = 0; row < rowCount; row++) {
+            SerializedValue v = new SerializedValue(values, row);
+            Integer id = dict.get(v);
+            if (id == null) {
+                if (dict.size() >= maxSize)
+                    return false;
+                id = dict.size();
+                dict.put(v, id);
+                entries[id] = row;
+            }
+            ids[row] = id;
+        }
+        int dictSize = dict.size();
+        buff.putVarInt(dictSize);
+        for (int i = 0; i < dictSize; i++)
+            values.write(entries[i], buff);
+        long[] packed = new long[rowCount];
+        for (int row = 0; row < rowCount; row++)
+            packed[row] = ids[row];
+        int bitWidth = getBitWidth(dictSize - 1);
+        buff.put((byte) bitWidth);
+        pack(buff, packed, rowCount, bitWidth);
+        return true;
+    }
+
+    // 每一行的值用DataBuffer.writeValue序列化之后连续放在一起，RLE和DICTIONARY都直接比较和复制这些字节
+    private static class SerializedValues {
+
+        final byte[] bytes;
+        final int[] offsets; // 第row行的值是bytes中的[offsets[row], offsets[row + 1])
+
+        SerializedValues(ColumnVector vector, DataBuffer tmp) {
+            int rowCount = vector.getRowCount();
+            offsets = new int[rowCount + 1];
+            tmp.clear();
+            for (int row = 0; row < rowCount; row++) {
+                offsets[row] = tmp.position();
+                tmp.writeValue(vector.getValue(row));
+            }
+            offsets[rowCount] = tmp.position();
+            ByteBuffer buffer = tmp.getBuffer().duplicate();
+            buffer.flip();
+            bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+        }
+
+        boolean isSame(int a, int b) {
+            int length = offsets[a + 1] - offsets[a];
+            if (length != offsets[b + 1] - offsets[b])
+                return false;
+            for (int i = offsets[a], j = offsets[b], end = i + length; i < end; i++, j++) {
+                if (bytes[i] != bytes[j])
+                    return false;
+            }
+            return true;
+        }
+
+        int hashCode(int row) {
+            int h = 1;
+            for (int i = offsets[row], end = offsets[row + 1]; i < end; i++)
+                h = 31 * h + bytes[i];
+            return h;
+        }
+
+        void write(int row, DataBuffer buff) {
+            buff.put(bytes, offsets[row], offsets[row + 1] - offsets[row]);
+        }
+    }
+
+    private static class SerializedValue {
+
+        final SerializedValues values;
+        final int row;
+        final int hashCode;
+
+        SerializedValue(SerializedValues values, int row) {
+            this.values = values;
+            this.row = row;
+            hashCode = values.hashCode(row);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof SerializedValue && values.isSame(row, ((SerializedValue) obj).row);
+        }
+    }
+
+    private static boolean encodeFrameOfReference(ColumnVector vector, int rowCount, DataBuffer buff) {
+        long[] longs = vector.getLongs();
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < rowCount; row++) {
+            if (!vector.isNull(row) && longs[row] < min)
+                min = longs[row];
+        }
+        long[] packed = new long[rowCount];
+        long bits = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (!vector.isNull(row)) {
+                packed[row] = longs[row] - min; // 溢出也没关系，当成无符号数
+                bits |= packed[row];
+            }
+        }
+        writeLongHeader(vector, rowCount, buff);
+        buff.putLong(min);
+        int bitWidth = getBitWidth(bits);
+        buff.put((byte) bitWidth);
+        pack(buff, packed, rowCount, bitWidth);
+        return true;
+    }
+
+    private static boolean encodeDelta(ColumnVector vector, int rowCount, DataBuffer buff) {
+        long[] longs = vector.getLongs();
+        // 第一个非null的行之前的行和null的行都不需要存delta
+        int firstRow = 0;
+        while (firstRow < rowCount && vector.isNull(firstRow))
+            firstRow++;
+        long first = firstRow < rowCount ? longs[firstRow] : 0;
+        long[] deltas = new long[rowCount];
+        long prev = first, minDelta = Long.MAX_VALUE;
+        for (int row = firstRow + 1; row < rowCount; row++) {
+            if (!vector.isNull(row)) {
+                deltas[row] = longs[row] - prev;
+                prev = longs[row];
+                if (deltas[row] < minDelta)
+                    minDelta = deltas[row];
+            }
+        }
+        if (minDelta == Long.MAX_VALUE)
+            minDelta = 0;
+        long bits = 0;
+        for (int row = firstRow + 1; row < rowCount; row++) {
+            if (!vector.isNull(row)) {
+                deltas[row] -= minDelta;
+                bits |= deltas[row];
+            }
+        }
+        writeLongHeader(vector, rowCount, buff);
+        buff.putLong(first);
+        buff.putLong(minDelta);
+        buff.putVarInt(firstRow);
+        int bitWidth = getBitWidth(bits);
+        buff.put((byte) bitWidth);
+        pack(buff, deltas, rowCount, bitWidth);
+        return true;
+    }
+
+    private static void writeLongHeader(ColumnVector vector, int rowCount, DataBuffer buff) {
+        buff.put((byte) vector.getValueType());
+        long[] nulls = vector.getNulls();
+        int words = (rowCount + 63) >>> 6;
+        boolean hasNulls = false;
+        for (int i = 0; i < words; i++) {
+            if (nulls[i] != 0) {
+                hasNulls = true;
+                break;
+            }
+        }
+        buff.put((byte) (hasNulls ? 1 : 0));
+        if (hasNulls) {
+            for (int i = 0; i < words; i++)
+                buff.putLong(nulls[i]);
+        }
+    }
+
+    private static int getBitWidth(long bits) {
+        return 64 - Long.numberOfLeadingZeros(bits);
+    }
+
+    // 把每个值的低bitWidth位依次放到long中，一个值可能跨两个long
+    private static void pack(DataBuffer buff, long[] values, int count, int bitWidth) {
+        if (bitWidth == 0)
+            return;
+        long word = 0;
+        int bits = 0;
+        for (int i = 0; i < count; i++) {
+            long x = values[i];
+            word |= x << bits;
+            bits += bitWidth;
+            if (bits >= 64) {
+                buff.putLong(word);
+                bits -= 64;
+                word = bits > 0 ? x >>> (bitWidth - bits) : 0;
+            }
+        }
+        if (bits > 0)
+            buff.putLong(word);
+    }
+
+    private static void unpack(ByteBuffer buff, long[] values, int count, int bitWidth) {
+        if (bitWidth == 0) {
+            for (int i = 0; i < count; i++)
+                values[i] = 0;
+            return;
+        }
+        long mask = bitWidth == 64 ? -1L : (1L << bitWidth) - 1;
+        long word = 0;
+        int available = 0;
+        for (int i = 0; i < count; i++) {
+            if (available >= bitWidth) {
+                values[i] = word & mask;
+                word = bitWidth == 64 ? 0 : word >>> bitWidth;
+                available -= bitWidth;
+            } else {
+                long next = buff.getLong();
+                values[i] = (word | (next << available)) & mask;
+                int used = bitWidth - available;
+                word = used == 64 ? 0 : next >>> used;
+                available = 64 - used;
+            }
+        }
+    }
+
+    /**
+     * Decode the column page into the vector.
+     *
+     * @param buff the encoded data
+     * @param encoding the encoding stored in the page header
+     * @param vector the target vector
+     * @return the number of rows
+     */
+    static int decode(ByteBuffer buff, int encoding, ColumnVector vector) {
+        int rowCount = DataUtils.readVarInt(buff);
+        vector.reset(rowCount);
+        switch (encoding) {
+        case RLE:
+            decodeRle(buff, rowCount, vector);
+            break;
+        case DICTIONARY:
+            decodeDictionary(buff, rowCount, vector);
+            break;
+        case FRAME_OF_REFERENCE:
+            decodeFrameOfReference(buff, rowCount, vector);
+            break;
+        case DELTA:
+            decodeDelta(buff, rowCount, vector);
+            break;
+        default:
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_FILE_CORRUPT,
+                    "Unknown column page encoding {0}", encoding);
+        }
+        return rowCount;
+    }
+
+    private static void decodeRle(ByteBuffer buff, int rowCount, ColumnVector vector) {
+        int runCount = DataUtils.readVarInt(buff);
+        for (int i = 0, row = 0; i < runCount; i++) {
+            int runLength = DataUtils.readVarInt(buff);
+            Value v = DataBuffer.readValue(buff);
+            for (int end = row + runLength; row < end; row++)
+                vector.setValue(row, v);
+        }
+    }
+
+    private static void decodeDictionary(ByteBuffer buff, int rowCount, ColumnVector vector) {
+        Value[] entries = new Value[DataUtils.readVarInt(buff)];
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = DataBuffer.readValue(buff);
+        int bitWidth = buff.get();
+        long[] ids = new long[rowCount];
+        unpack(buff, ids, rowCount, bitWidth);
+        for (int row = 0; row < rowCount; row++)
+            vector.setValue(row, entries[(int) ids[row]]);
+    }
+
+    private static void decodeFrameOfReference(ByteBuffer buff, int rowCount, ColumnVector vector) {
+        int valueType = buff.get();
+        long[] nulls = readNulls(buff, rowCount);
+        long min = buff.getLong();
+        int bitWidth = buff.get();
+        long[] values = new long[rowCount];
+        unpack(buff, values, rowCount, bitWidth);
+        for (int row = 0; row < rowCount; row++)
+            setLong(vector, row, valueType, nulls, values[row] + min);
+    }
+
+    private static void decodeDelta(ByteBuffer buff, int rowCount, ColumnVector vector) {
+        int valueType = buff.get();
+        long[] nulls = readNulls(buff, rowCount);
+        long value = buff.getLong();
+        long minDelta = buff.getLong();
+        int firstRow = DataUtils.readVarInt(buff);
+        int bitWidth = buff.get();
+        long[] deltas = new long[rowCount];
+        unpack(buff, deltas, rowCount, bitWidth);
+        for (int row = 0; row < rowCount; row++) {
+            if (nulls != null && (nulls[row >>> 6] & (1L << row)) != 0) {
+                vector.setNull(row);
+                continue;
+            }
+            if (row > firstRow)
+                value += deltas[row] + minDelta;
+            setLong(vector, row, valueType, null, value);
+        }
+    }
+
+    private static long[] readNulls(ByteBuffer buff, int rowCount) {
+        if (buff.get() == 0)
+            return null;
+        long[] nulls = new long[(rowCount + 63) >>> 6];
+        for (int i = 0; i < nulls.length; i++)
+            nulls[i] = buff.getLong();
+        return nulls;
+    }
+
+    private static void setLong(ColumnVector vector, int row, int valueType, long[] nulls, long value) {
+        if (nulls != null && (nulls[row >>> 6] & (1L << row)) != 0)
+            vector.setNull(row);
+        else if (valueType == Value.INT)
+            vector.setInt(row, (int) value);
+        else
+            vector.setLong(row, value);
+    }
+}
@@ -133,7 +133,7 @@ public abstract class PageOperations {
         private PageOperationResult write(PageOperationHandler currentHandler, boolean isShiftEnabled) {
             if (p == null) {
                 // 不管当前处理器是不是leaf page的处理器都可以事先定位到leaf page
-                p = map.gotoLeafPage(key);
+                p = map.gotoLeafPageForWrite(key);
 
                 // 处理分布式场景
                 if (p.isRemote() || p.getLeafPageMovePlan() != null) {
@@ -42,6 +42,12 @@ public class PageUtils {
      */
     public static final int PAGE_COMPRESSED_HIGH = 2 + 4;
 
+    /**
+     * The bit mask for column pages that are encoded by ColumnPageEncoding,
+     * the encoding is stored in the next byte.
+     */
+    public static final int PAGE_COLUMN_ENCODED = 8;
+
     /**
      * The estimated number of bytes used per page object.
      */
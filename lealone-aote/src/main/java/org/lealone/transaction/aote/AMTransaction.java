@@ -84,6 +84,11 @@ public class AMTransaction implements Transaction {
         return undoLog;
     }
 
+    @Override
+    public boolean hasChanges() {
+        return undoLog.isNotEmpty();
+    }
+
     @Override
     public String getGlobalReplicationName() {
         return globalReplicationName;
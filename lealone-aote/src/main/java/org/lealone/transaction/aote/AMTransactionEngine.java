@@ -17,6 +17,7 @@
  */
 package org.lealone.transaction.aote;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -51,6 +52,8 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
     private static final class MapInfo {
         final StorageMap<Object, TransactionalValue> map;
         final AtomicInteger estimatedMemory = new AtomicInteger(0);
+        // 最近一次保存时的恢复点，序号小于它的redo log对这个map来说已经不需要了，为0时表示还没有保存过
+        volatile long recoveryStamp;
 
         MapInfo(StorageMap<Object, TransactionalValue> map) {
             this.map = map;
@@ -269,13 +272,19 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
 
         private static final int DEFAULT_COMMITTED_DATA_CACHE_SIZE = 32 * 1024 * 1024; // 32M
         private static final int DEFAULT_CHECKPOINT_PERIOD = 1 * 60 * 60 * 1000; // 1小时
+        private static final int DEFAULT_CHECKPOINT_WRITE_RATE_LIMIT = 64 * 1024 * 1024; // 每秒64M
         private final Semaphore semaphore = new Semaphore(1);
         private final int committedDataCacheSize;
         private final long checkpointPeriod;
         private final long loopInterval;
+        private final long writeRateLimit; // 每秒最多写多少字节，小于等于0时不限制
 
         private volatile long lastSavedAt = System.currentTimeMillis();
         private volatile boolean isClosed;
+        // 有强制检查点在等待时，增量检查点不再限速，尽快让出来
+        private volatile boolean urgent;
+        private volatile boolean throttling;
+        private long lastRecoveryStamp;
 
         CheckpointService(Map<String, String> config) {
             setName(getClass().getSimpleName());
@@ -293,6 +302,12 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
             else
                 checkpointPeriod = DEFAULT_CHECKPOINT_PERIOD;
 
+            v = config.get("checkpoint_write_rate_limit_in_mb");
+            if (v != null)
+                writeRateLimit = Long.parseLong(v) * 1024 * 1024;
+            else
+                writeRateLimit = DEFAULT_CHECKPOINT_WRITE_RATE_LIMIT;
+
             // 默认1分钟
             long loopInterval = DateTimeUtils.getLoopInterval(config, "checkpoint_service_loop_interval",
                     1 * 60 * 1000);
@@ -314,6 +329,10 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
         void checkpoint() {
             if (isClosed)
                 return;
+            urgent = true;
+            // 只有增量检查点正在限速等待时才需要唤醒它，否则多出来的许可会让run()白白多跑一轮
+            if (throttling)
+                semaphore.release();
             checkpoint(true);
         }
 
@@ -331,22 +350,99 @@ public class AMTransactionEngine extends TransactionEngineBase implements Storag
                 executeCheckpoint = totalEstimatedMemory > committedDataCacheSize;
             }
             if (executeCheckpoint) {
-                for (MapInfo mapInfo : maps.values()) {
-                    StorageMap<?, ?> map = mapInfo.map;
-                    if (map.isClosed())
-                        continue;
-
-                    // 在这里有可能把已提交和未提交事务的数据都保存了，
-                    // 不过不要紧，如果在生成检查点之后系统崩溃了导致未提交事务不能正常完成，还有读时撤销机制保证数据完整性，
-                    // 因为在保存未提交数据时，也同时保存了原来的数据，如果在读到未提交数据时发现了异常，就会进行撤销，
-                    // 读时撤销机制在TransactionalValue类中实现。
-                    AtomicInteger counter = mapInfo.estimatedMemory;
-                    if (force || counter != null && counter.getAndSet(0) > 0) {
-                        map.save();
-                    }
+                if (force || isClosed) {
+                    fullCheckpoint(force);
+                    urgent = false;
+                } else {
+                    incrementalCheckpoint();
                 }
                 lastSavedAt = now;
-                logSyncService.checkpoint(nextEvenTransactionId());
+            }
+        }
+
+        // 一次性保存所有的map，然后再写检查点
+        private void fullCheckpoint(boolean force) {
+            // 在保存之前取恢复点，序号小于它的日志对应的事务操作都已经写入map了，肯定会被保存
+            long recoveryStamp = logSyncService.getRedoLog().getLastStamp() + 1;
+            for (MapInfo mapInfo : maps.values()) {
+                StorageMap<?, ?> map = mapInfo.map;
+                if (map.isClosed())
+                    continue;
+
+                // 在这里有可能把已提交和未提交事务的数据都保存了，
+                // 不过不要紧，如果在生成检查点之后系统崩溃了导致未提交事务不能正常完成，还有读时撤销机制保证数据完整性，
+                // 因为在保存未提交数据时，也同时保存了原来的数据，如果在读到未提交数据时发现了异常，就会进行撤销，
+                // 读时撤销机制在TransactionalValue类中实现。
+                AtomicInteger counter = mapInfo.estimatedMemory;
+                if (force || counter != null && counter.getAndSet(0) > 0) {
+                    map.save();
+                }
+                mapInfo.recoveryStamp = recoveryStamp;
+            }
+            lastRecoveryStamp = recoveryStamp;
+            logSyncService.checkpoint(nextEvenTransactionId(), recoveryStamp);
+        }
+
+        // 增量检查点：按恢复点从旧到新的顺序一个个保存map，并且限制写盘速度，避免集中写盘导致响应时间抖动。
+        // 每保存完一个map，所有map中最旧的恢复点就可能向前推进，此时写一个模糊检查点，redo log就能逐步删除。
+        private void incrementalCheckpoint() {
+            ArrayList<MapInfo> list = new ArrayList<>(maps.values());
+            list.sort((m1, m2) -> Long.compare(m1.recoveryStamp, m2.recoveryStamp));
+            for (MapInfo mapInfo : list) {
+                if (isClosed || urgent)
+                    break;
+                StorageMap<?, ?> map = mapInfo.map;
+                if (map.isClosed())
+                    continue;
+                long startTime = System.nanoTime();
+                long recoveryStamp = logSyncService.getRedoLog().getLastStamp() + 1;
+                // 计数器只是用来估算要写多少数据，它在写redo log时才增加，可能比分配序号晚，不能用来判断map有没有变化。
+                // 序号小于recoveryStamp的事务在分配序号前就已经修改了map，
+                // 所以这里看到map没有未保存的修改时，不用调用save()，直接推进恢复点就可以
+                int bytes = mapInfo.estimatedMemory.getAndSet(0);
+                if (map.hasUnsavedChanges())
+                    map.save();
+                mapInfo.recoveryStamp = recoveryStamp;
+                if (bytes > 0)
+                    logSyncService.mapCheckpoint(map.getName(), recoveryStamp);
+
+                long minRecoveryStamp = getMinRecoveryStamp();
+                if (minRecoveryStamp > lastRecoveryStamp) {
+                    lastRecoveryStamp = minRecoveryStamp;
+                    logSyncService.checkpoint(nextEvenTransactionId(), minRecoveryStamp);
+                }
+                throttle(bytes, startTime);
+            }
+        }
+
+        private long getMinRecoveryStamp() {
+            long min = Long.MAX_VALUE;
+            for (MapInfo mapInfo : maps.values()) {
+                if (mapInfo.recoveryStamp < min)
+                    min = mapInfo.recoveryStamp;
+            }
+            return min == Long.MAX_VALUE ? 0 : min;
+        }
+
+        // 按限定的速度计算写入这么多字节应该用多少时间，写得太快就等一会
+        private void throttle(long bytes, long startTime) {
+            if (writeRateLimit <= 0 || bytes <= 0 || isClosed || urgent)
+                return;
+            long expectedNanos = bytes * 1000 * 1000 * 1000 / writeRateLimit;
+            long waitMillis = (expectedNanos - (System.nanoTime() - startTime)) / 1000 / 1000;
+            if (waitMillis > 0) {
+                throttling = true;
+                try {
+                    // 先设置throttling再检查urgent，跟checkpoint()中的顺序相反，这样强制检查点不会漏掉唤醒
+                    if (!urgent) {
+                        // close()和强制检查点会释放许可，提前结束等待
+                        semaphore.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    throw new AssertionError();
+                } finally {
+                    throttling = false;
+                }
             }
         }
 
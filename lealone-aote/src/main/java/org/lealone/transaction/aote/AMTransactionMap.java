@@ -18,6 +18,7 @@
 package org.lealone.transaction.aote;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -73,6 +74,16 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         return getUnwrapValue(key, ref);
     }
 
+    @Override
+    public List<V> get(List<K> keys, int[] columnIndexes) {
+        List<TransactionalValue> refs = map.get(keys, columnIndexes);
+        ArrayList<V> values = new ArrayList<>(refs.size());
+        for (int i = 0, size = refs.size(); i < size; i++) {
+            values.add(getUnwrapValue(keys.get(i), refs.get(i)));
+        }
+        return values;
+    }
+
     // 外部传进来的值被包装成TransactionalValue了，所以需要拆出来
     @SuppressWarnings("unchecked")
     private V getUnwrapValue(K key, TransactionalValue data) {
@@ -497,6 +508,11 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         return map.getNodeToPageKeyMap(session, from, to);
     }
 
+    @Override
+    public List<K> getSplitKeys(K from, K to, int maxSplits) {
+        return map.getSplitKeys(from, to, maxSplits);
+    }
+
     ///////////////////////// 以下是TransactionMap接口API的实现 /////////////////////////
 
     @Override
@@ -518,6 +534,23 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         return (V) (oldValue == null ? null : oldValue.getValue());
     }
 
+    @Override
+    public void bulkLoadCommitted(Iterator<? extends Entry<K, V>> entries) {
+        map.bulkLoad(new Iterator<Entry<K, TransactionalValue>>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Entry<K, TransactionalValue> next() {
+                Entry<K, V> e = entries.next();
+                DataUtils.checkArgument(e.getValue() != null, "The value may not be null");
+                return new DataUtils.MapEntry<>(e.getKey(), TransactionalValue.createCommitted(e.getValue()));
+            }
+        });
+    }
+
     @Override
     public Iterator<Entry<K, V>> entryIterator(K from) {
         return entryIterator(IterationParameters.create(from));
@@ -822,6 +855,17 @@ public class AMTransactionMap<K, V> implements TransactionMap<K, V> {
         return new Object[] { getUnwrapValue(key, ref), ref };
     }
 
+    @Override
+    public List<Object[]> getValueAndRefs(List<K> keys, int[] columnIndexes) {
+        List<TransactionalValue> refs = map.get(keys, columnIndexes);
+        ArrayList<Object[]> list = new ArrayList<>(refs.size());
+        for (int i = 0, size = refs.size(); i < size; i++) {
+            TransactionalValue ref = refs.get(i);
+            list.add(new Object[] { getUnwrapValue(keys.get(i), ref), ref });
+        }
+        return list;
+    }
+
     @Override
     public Object getValue(Object oldTransactionalValue) {
         return ((TransactionalValue) oldTransactionalValue).getValue();
@@ -20,6 +20,7 @@ package org.lealone.transaction.aote;
 import java.nio.ByteBuffer;
 
 import org.lealone.db.DataBuffer;
+import org.lealone.storage.ColumnVector;
 import org.lealone.storage.type.StorageDataType;
 
 public class TransactionalValueType implements StorageDataType {
@@ -107,6 +108,23 @@ public class TransactionalValueType implements StorageDataType {
         valueType.readColumn(buff, v.getValue(), columnIndex);
     }
 
+    @Override
+    public void readColumnVector(ByteBuffer buff, ColumnVector vector, int rowCount) {
+        valueType.readColumnVector(buff, vector, rowCount);
+    }
+
+    @Override
+    public void copyColumn(Object obj, int columnIndex, ColumnVector vector, int row) {
+        TransactionalValue v = (TransactionalValue) obj;
+        valueType.copyColumn(v == null ? null : v.getValue(), columnIndex, vector, row);
+    }
+
+    @Override
+    public void setColumn(Object obj, int columnIndex, ColumnVector vector, int row) {
+        TransactionalValue v = (TransactionalValue) obj;
+        valueType.setColumn(v.getValue(), columnIndex, vector, row);
+    }
+
     @Override
     public void setColumns(Object oldObj, Object newObj, int[] columnIndexes) {
         valueType.setColumns(oldObj, newObj, columnIndexes);
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.transaction.aote.log;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 组提交：跟instant模式一样，事务要等到日志fsync之后才算提交完成，
+ * 但是收到第一条日志后会在一个很短的时间窗口内继续收集并发提交的事务，然后只做一次fsync。
+ *
+ * @author zhh
+ */
+class GroupLogSyncService extends InstantLogSyncService {
+
+    private static final long DEFAULT_MAX_DELAY_MICROS = 1000; // 1毫秒
+    private static final long DEFAULT_MAX_BATCH_BYTES = 1024 * 1024; // 1M
+
+    private final long maxDelayNanos;
+    private final long maxBatchBytes;
+
+    GroupLogSyncService(Map<String, String> config) {
+        super(config);
+        if (config.containsKey("log_sync_group_max_delay_micros"))
+            maxDelayNanos = Long.parseLong(config.get("log_sync_group_max_delay_micros")) * 1000;
+        else
+            maxDelayNanos = DEFAULT_MAX_DELAY_MICROS * 1000;
+
+        if (config.containsKey("log_sync_group_max_batch_bytes"))
+            maxBatchBytes = Long.parseLong(config.get("log_sync_group_max_batch_bytes"));
+        else
+            maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    }
+
+    @Override
+    protected void waitForNextSync(long syncStarted) throws InterruptedException {
+        // 没有待同步的日志时，等待第一个提交的事务唤醒日志同步线程
+        if (redoLog.size() == 0) {
+            haveWork.tryAcquire(syncIntervalMillis, TimeUnit.MILLISECONDS);
+            if (redoLog.size() == 0)
+                return;
+        }
+        // 每加入一条日志都会释放一个许可，所以这里不会空转，
+        // 直到时间窗口结束或者攒够maxBatchBytes才去做fsync
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (running && redoLog.pendingBytes() < maxBatchBytes) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                break;
+            haveWork.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+        }
+        haveWork.drainPermits();
+    }
+}
@@ -31,6 +31,7 @@ public abstract class LogSyncService extends Thread {
     public static final String LOG_SYNC_TYPE_PERIODIC = "periodic";
     public static final String LOG_SYNC_TYPE_INSTANT = "instant";
     public static final String LOG_SYNC_TYPE_NO_SYNC = "no_sync";
+    public static final String LOG_SYNC_TYPE_GROUP = "group";
 
     protected final Semaphore haveWork = new Semaphore(1);
     protected final WaitQueue syncComplete = new WaitQueue();
@@ -57,6 +58,10 @@ public abstract class LogSyncService extends Thread {
         return redoLog;
     }
 
+    public LogSyncStatistics getStatistics() {
+        return redoLog.getStatistics();
+    }
+
     public abstract void maybeWaitForSync(RedoLogRecord r);
 
     public void asyncCommit(AMTransaction t) {
@@ -76,16 +81,8 @@ public abstract class LogSyncService extends Thread {
             sync();
             lastSyncedAt = syncStarted;
             syncComplete.signalAll();
-            if (redoLog.size() > redoLogRecordSyncThreshold)
-                continue;
-            long now = System.currentTimeMillis();
-            long sleep = syncStarted + syncIntervalMillis - now;
-            if (sleep < 0)
-                continue;
-
             try {
-                haveWork.tryAcquire(sleep, TimeUnit.MILLISECONDS);
-                haveWork.drainPermits();
+                waitForNextSync(syncStarted);
             } catch (InterruptedException e) {
                 throw new AssertionError();
             }
@@ -96,6 +93,18 @@ public abstract class LogSyncService extends Thread {
         redoLog.close();
     }
 
+    // 等到下一次需要sync的时候再返回
+    protected void waitForNextSync(long syncStarted) throws InterruptedException {
+        if (redoLog.size() > redoLogRecordSyncThreshold)
+            return;
+        long now = System.currentTimeMillis();
+        long sleep = syncStarted + syncIntervalMillis - now;
+        if (sleep < 0)
+            return;
+        haveWork.tryAcquire(sleep, TimeUnit.MILLISECONDS);
+        haveWork.drainPermits();
+    }
+
     private void sync() {
         if (redoLog != null)
             redoLog.save();
@@ -130,6 +139,18 @@ public abstract class LogSyncService extends Thread {
         maybeWaitForSync(r);
     }
 
+    // 模糊检查点，序号小于recoveryStamp的日志在恢复时不再需要，所在的chunk文件也可以删除了
+    public void checkpoint(long checkpointId, long recoveryStamp) {
+        RedoLogRecord r = RedoLogRecord.createCheckpoint(checkpointId, recoveryStamp);
+        addRedoLogRecord(r);
+        maybeWaitForSync(r);
+    }
+
+    // 不需要等待，就算丢失了，恢复时也只是多redo一些这个map的操作
+    public void mapCheckpoint(String mapName, long recoveryStamp) {
+        addRedoLogRecord(RedoLogRecord.createMapCheckpoint(mapName, recoveryStamp));
+    }
+
     public boolean isInstantSync() {
         return false;
     }
@@ -147,6 +168,8 @@ public abstract class LogSyncService extends Thread {
             logSyncService = new InstantLogSyncService(config);
         else if (LOG_SYNC_TYPE_NO_SYNC.equalsIgnoreCase(logSyncType))
             logSyncService = new NoLogSyncService(config);
+        else if (LOG_SYNC_TYPE_GROUP.equalsIgnoreCase(logSyncType))
+            logSyncService = new GroupLogSyncService(config);
         else
             throw new IllegalArgumentException("Unknow log_sync_type: " + logSyncType);
         logSyncService.redoLog = new RedoLog(config);
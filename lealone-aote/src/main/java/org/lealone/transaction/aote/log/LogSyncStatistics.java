@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.transaction.aote.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lealone.common.util.Histogram;
+
+/**
+ * 日志同步的统计信息，用来比较不同的log_sync_type在提交延迟和吞吐量上的差异
+ *
+ * @author zhh
+ */
+public class LogSyncStatistics {
+
+    // 从日志记录加入队列到它被fsync的时间
+    private final Histogram commitLatency = new Histogram("commitLatency", "us");
+    // 每次fsync写入的字节数
+    private final Histogram batchBytes = new Histogram("batchBytes", "B");
+    // 每次fsync包含的日志记录数
+    private final Histogram batchRecords = new Histogram("batchRecords", "");
+    private final AtomicLong syncCount = new AtomicLong();
+
+    public Histogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    public Histogram getBatchBytes() {
+        return batchBytes;
+    }
+
+    public Histogram getBatchRecords() {
+        return batchRecords;
+    }
+
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    void onSync(int records, long bytes) {
+        syncCount.incrementAndGet();
+        batchRecords.add(records);
+        batchBytes.add(bytes);
+    }
+
+    void onSynced(RedoLogRecord r, long now) {
+        long addedTime = r.getAddedTime();
+        if (addedTime > 0)
+            commitLatency.add((now - addedTime) / 1000);
+    }
+
+    public void reset() {
+        commitLatency.reset();
+        batchBytes.reset();
+        batchRecords.reset();
+        syncCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "LogSyncStatistics[syncCount=" + getSyncCount() + ", " + commitLatency + ", " + batchBytes + ", "
+                + batchRecords + "]";
+    }
+}
@@ -22,9 +22,22 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.lealone.common.concurrent.NamedThreadFactory;
+import org.lealone.common.exceptions.DbException;
+import org.lealone.common.logging.Logger;
+import org.lealone.common.logging.LoggerFactory;
 import org.lealone.db.Constants;
 import org.lealone.storage.StorageMap;
 import org.lealone.storage.fs.FilePath;
@@ -35,6 +48,9 @@ import org.lealone.transaction.aote.TransactionalValueType;
 
 /**
  * A redo log
+ * <p>
+ * 由一到多个stripe组成，每个线程固定写其中一个stripe，每条日志都有一个全局递增的序号，
+ * 恢复时按序号把所有stripe的日志合并起来再redo。
  *
  * @author zhh
  */
@@ -44,12 +60,32 @@ public class RedoLog {
 
     public static final char NAME_ID_SEPARATOR = Constants.NAME_SEPARATOR;
 
+    private static final Logger logger = LoggerFactory.getLogger(RedoLog.class);
+
+    // redo时用来标记被删除的key
+    private static final Object REMOVED = new Object();
+
     // key: mapName, value: map key/value ByteBuffer list
-    private final HashMap<String, List<ByteBuffer>> pendingRedoLog = new HashMap<>();
+    private final ConcurrentHashMap<String, List<ByteBuffer>> pendingRedoLog = new ConcurrentHashMap<>();
     private final Map<String, String> config;
     private final long logChunkSize;
+    private final LogSyncStatistics statistics = new LogSyncStatistics();
+    private final int stripeCount;
+    private final AtomicLong lastStamp = new AtomicLong();
+    private final AtomicInteger stripeIndex = new AtomicInteger();
+    // 每个线程(通常是Scheduler)第一次写日志时按轮询的方式固定分配一个stripe
+    private final ThreadLocal<RedoLogStripe> currentStripe = ThreadLocal.withInitial(this::nextStripe);
+    // 已经关闭的chunk文件，等到检查点之后就可以删除了
+    private final ArrayList<RedoLogChunk> oldChunks = new ArrayList<>();
 
-    private RedoLogChunk currentChunk;
+    private final int recoveryThreads;
+    private final AtomicLong redoneKeyCount = new AtomicLong();
+    private long recoveredRecordCount;
+    private long recoveryTimeMillis;
+
+    private RedoLogStripe[] stripes;
+    private ExecutorService saveExecutor;
+    private int nextChunkId;
 
     RedoLog(Map<String, String> config) {
         this.config = config;
@@ -58,6 +94,16 @@ public class RedoLog {
         else
             logChunkSize = DEFAULT_LOG_CHUNK_SIZE;
 
+        if (config.containsKey("redo_log_stripe_count"))
+            stripeCount = Math.max(1, Integer.parseInt(config.get("redo_log_stripe_count")));
+        else
+            stripeCount = 1;
+
+        if (config.containsKey("redo_log_recovery_threads"))
+            recoveryThreads = Math.max(1, Integer.parseInt(config.get("redo_log_recovery_threads")));
+        else
+            recoveryThreads = Runtime.getRuntime().availableProcessors();
+
         String baseDir = config.get("base_dir");
         String logDir = config.get("redo_log_dir");
         String storagePath = baseDir + File.separator + logDir;
@@ -67,85 +113,284 @@ public class RedoLog {
             FileUtils.createDirectories(storagePath);
     }
 
-    private List<Integer> getAllChunkIds() {
-        ArrayList<Integer> ids = new ArrayList<>();
+    private List<RedoLogChunk> getAllChunks() {
+        ArrayList<RedoLogChunk> chunks = new ArrayList<>();
         int prefixLength = RedoLogChunk.CHUNK_FILE_NAME_PREFIX.length();
         FilePath dir = FilePath.get(config.get("storagePath"));
         for (FilePath fp : dir.newDirectoryStream()) {
             String fullName = fp.getName();
             if (fullName.startsWith(RedoLogChunk.CHUNK_FILE_NAME_PREFIX)) {
-                int id = Integer.parseInt(fullName.substring(prefixLength));
-                ids.add(id);
+                String name = fullName.substring(prefixLength);
+                int pos = name.indexOf(NAME_ID_SEPARATOR);
+                int stripe, id;
+                if (pos < 0) {
+                    stripe = RedoLogChunk.LEGACY_STRIPE;
+                    id = Integer.parseInt(name);
+                } else {
+                    stripe = Integer.parseInt(name.substring(0, pos));
+                    id = Integer.parseInt(name.substring(pos + 1));
+                }
+                chunks.add(new RedoLogChunk(id, stripe, config, statistics));
             }
         }
-        Collections.sort(ids); // 必须排序，按id从小到大的顺序读取文件，才能正确的redo
-        return ids;
+        Collections.sort(chunks); // 必须排序，按id从小到大的顺序读取文件，才能正确的redo
+        return chunks;
     }
 
     public long init() {
+        long startTime = System.currentTimeMillis();
         long lastTransactionId = 0;
-        List<Integer> ids = getAllChunkIds();
-        if (ids.isEmpty()) {
-            currentChunk = new RedoLogChunk(0, config);
-        } else {
-            int lastId = ids.get(ids.size() - 1);
-            for (int id : ids) {
-                RedoLogChunk chunk = null;
-                try {
-                    chunk = new RedoLogChunk(id, config);
-                    for (RedoLogRecord r : chunk.getAndResetRedoLogRecords()) {
-                        lastTransactionId = r.initPendingRedoLog(pendingRedoLog, lastTransactionId);
+        long checkpointStamp = 0;
+        ArrayList<RedoLogRecord> records = new ArrayList<>();
+        // key: mapName, value: 这个map最近一次保存时的恢复点
+        HashMap<String, Long> mapRecoveryStamps = new HashMap<>();
+        List<RedoLogChunk> chunks = getAllChunks();
+        List<List<RedoLogRecord>> chunkRecords = readChunks(chunks);
+        long readTime = System.currentTimeMillis() - startTime;
+        for (int i = 0, size = chunks.size(); i < size; i++) {
+            RedoLogChunk chunk = chunks.get(i);
+            List<RedoLogRecord> list = chunkRecords.get(i);
+            if (chunk.getStripe() == RedoLogChunk.LEGACY_STRIPE) {
+                // 老版本的日志都在新版本之前，直接按顺序redo
+                for (RedoLogRecord r : list) {
+                    lastTransactionId = r.initPendingRedoLog(pendingRedoLog, lastTransactionId);
+                }
+            } else {
+                for (RedoLogRecord r : list) {
+                    if (r.isCheckpoint()) {
+                        long recoveryStamp = ((RedoLogRecord.Checkpoint) r).getRecoveryStamp();
+                        if (recoveryStamp > checkpointStamp)
+                            checkpointStamp = recoveryStamp;
+                    } else if (r.isMapCheckpoint()) {
+                        RedoLogRecord.MapCheckpoint mc = (RedoLogRecord.MapCheckpoint) r;
+                        Long old = mapRecoveryStamps.get(mc.getMapName());
+                        if (old == null || mc.getRecoveryStamp() > old)
+                            mapRecoveryStamps.put(mc.getMapName(), mc.getRecoveryStamp());
                     }
-                } finally {
-                    // 注意一定要关闭，否则对应的chunk文件将无法删除，
-                    // 内部会打开一个FileStorage，不会因为没有引用到了而自动关闭
-                    if (id == lastId)
-                        currentChunk = chunk;
-                    else if (chunk != null)
-                        chunk.close();
                 }
+                records.addAll(list);
             }
+            if (chunk.getMaxStamp() > lastStamp.get())
+                lastStamp.set(chunk.getMaxStamp());
+            if (chunk.getId() >= nextChunkId)
+                nextChunkId = chunk.getId() + 1;
+            oldChunks.add(chunk);
+        }
+        // 恢复点之前的日志对应的数据都已经保存到map了，包括老版本的日志
+        if (checkpointStamp > 0)
+            pendingRedoLog.clear();
+        // 同一个stripe中的日志不一定严格按序号排列，所以合并所有stripe后统一排序(稳定排序)
+        records.sort((r1, r2) -> Long.compare(r1.getStamp(), r2.getStamp()));
+        for (RedoLogRecord r : records) {
+            if (r.getStamp() < checkpointStamp)
+                continue;
+            if (r.isCheckpoint()) {
+                long checkpointId = ((RedoLogRecord.Checkpoint) r).getCheckpointId();
+                if (checkpointId > lastTransactionId)
+                    lastTransactionId = checkpointId;
+            } else if (!r.isMapCheckpoint()) {
+                recoveredRecordCount++;
+                lastTransactionId = r.initPendingRedoLog(pendingRedoLog, lastTransactionId, mapRecoveryStamps);
+            }
+        }
+        recoveryTimeMillis = System.currentTimeMillis() - startTime;
+        if (!chunks.isEmpty()) {
+            logger.info("Read {} redo log chunks in {} ms ({} threads), total: {} ms, records: {}, pending maps: {}",
+                    chunks.size(), readTime, Math.min(recoveryThreads, chunks.size()), recoveryTimeMillis,
+                    recoveredRecordCount, pendingRedoLog.size());
+        }
+
+        stripes = new RedoLogStripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new RedoLogStripe(i, createChunk(i));
+        }
+        if (stripeCount > 1) {
+            saveExecutor = Executors.newFixedThreadPool(stripeCount - 1,
+                    new NamedThreadFactory(RedoLog.class.getSimpleName() + "SaveThread"));
         }
         return lastTransactionId;
     }
 
+    // 多个chunk文件并行读取和解码，返回的结果跟chunks的顺序一致
+    private List<List<RedoLogRecord>> readChunks(List<RedoLogChunk> chunks) {
+        int size = chunks.size();
+        ArrayList<List<RedoLogRecord>> chunkRecords = new ArrayList<>(size);
+        int threads = Math.min(recoveryThreads, size);
+        if (threads <= 1) {
+            for (RedoLogChunk chunk : chunks)
+                chunkRecords.add(readChunk(chunk));
+            return chunkRecords;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new NamedThreadFactory(RedoLog.class.getSimpleName() + "RecoveryThread"));
+        try {
+            ArrayList<Future<List<RedoLogRecord>>> futures = new ArrayList<>(size);
+            for (RedoLogChunk chunk : chunks)
+                futures.add(executor.submit(() -> readChunk(chunk)));
+            long lastReportTime = System.currentTimeMillis();
+            for (int i = 0; i < size; i++) {
+                chunkRecords.add(futures.get(i).get());
+                long now = System.currentTimeMillis();
+                if (now - lastReportTime > 1000) {
+                    lastReportTime = now;
+                    logger.info("Reading redo log chunks: {}/{}", i + 1, size);
+                }
+            }
+        } catch (Exception e) {
+            throw DbException.convert(e);
+        } finally {
+            executor.shutdown();
+        }
+        return chunkRecords;
+    }
+
+    private static List<RedoLogRecord> readChunk(RedoLogChunk chunk) {
+        // 注意一定要关闭，否则对应的chunk文件将无法删除，
+        // 内部会打开一个FileStorage，不会因为没有引用到了而自动关闭
+        try {
+            return chunk.read();
+        } finally {
+            chunk.close();
+        }
+    }
+
+    private RedoLogStripe nextStripe() {
+        return stripes[stripeIndex.getAndIncrement() % stripes.length];
+    }
+
+    private RedoLogChunk createChunk(int stripe) {
+        return new RedoLogChunk(nextChunkId++, stripe, config, statistics);
+    }
+
     // 第一次打开底层存储的map时调用这个方法，重新执行一次上次已经成功并且在检查点之后的事务操作
+    // 不同的map可以在多个线程中并发redo
     @SuppressWarnings("unchecked")
     public <K> void redo(StorageMap<K, TransactionalValue> map) {
         List<ByteBuffer> pendingKeyValues = pendingRedoLog.remove(map.getName());
-        if (pendingKeyValues != null && !pendingKeyValues.isEmpty()) {
-            StorageDataType kt = map.getKeyType();
-            StorageDataType vt = ((TransactionalValueType) map.getValueType()).valueType;
-            for (ByteBuffer kv : pendingKeyValues) {
-                K key = (K) kt.read(kv);
-                if (kv.get() == 0)
-                    map.remove(key);
-                else {
-                    Object value = vt.read(kv);
-                    map.put(key, TransactionalValue.createCommitted(value));
-                }
-            }
+        if (pendingKeyValues == null || pendingKeyValues.isEmpty())
+            return;
+        long startTime = System.currentTimeMillis();
+        StorageDataType kt = map.getKeyType();
+        StorageDataType vt = ((TransactionalValueType) map.getValueType()).valueType;
+        // 同一个key只需要redo最后一次的操作，按key排好序后再批量写入btree，
+        // 这样连续的写操作都落在同一个leaf page上
+        TreeMap<Object, Object> keyValues = new TreeMap<>(kt::compare);
+        for (ByteBuffer kv : pendingKeyValues) {
+            Object key = kt.read(kv);
+            if (kv.get() == 0)
+                keyValues.put(key, REMOVED);
+            else
+                keyValues.put(key, vt.read(kv));
+        }
+        for (Entry<Object, Object> e : keyValues.entrySet()) {
+            K key = (K) e.getKey();
+            Object value = e.getValue();
+            if (value == REMOVED)
+                map.remove(key);
+            else
+                map.put(key, TransactionalValue.createCommitted(value));
         }
+        redoneKeyCount.addAndGet(keyValues.size());
+        if (logger.isDebugEnabled())
+            logger.debug("Redo map {}, records: {}, keys: {}, time: {} ms", map.getName(), pendingKeyValues.size(),
+                    keyValues.size(), System.currentTimeMillis() - startTime);
+    }
+
+    public long getRecoveredRecordCount() {
+        return recoveredRecordCount;
+    }
+
+    public long getRecoveryTimeMillis() {
+        return recoveryTimeMillis;
+    }
+
+    public long getRedoneKeyCount() {
+        return redoneKeyCount.get();
     }
 
     int size() {
-        return currentChunk.size();
+        int size = 0;
+        for (RedoLogStripe stripe : stripes)
+            size += stripe.size();
+        return size;
+    }
+
+    long pendingBytes() {
+        long bytes = 0;
+        for (RedoLogStripe stripe : stripes)
+            bytes += stripe.pendingBytes();
+        return bytes;
+    }
+
+    // 序号小于等于它的日志已经分配好了，对应的事务操作也已经写入map了
+    public long getLastStamp() {
+        return lastStamp.get();
+    }
+
+    public int getStripeCount() {
+        return stripeCount;
+    }
+
+    public LogSyncStatistics getStatistics() {
+        return statistics;
     }
 
     void addRedoLogRecord(RedoLogRecord r) {
-        currentChunk.addRedoLogRecord(r);
+        // 在加入队列之前分配序号，这样有冲突的两个事务，后提交的那个序号一定更大
+        r.setStamp(lastStamp.incrementAndGet());
+        currentStripe.get().addRedoLogRecord(r);
     }
 
     void close() {
         save();
-        currentChunk.close();
+        for (RedoLogStripe stripe : stripes)
+            stripe.close();
+        if (saveExecutor != null)
+            saveExecutor.shutdown();
     }
 
     void save() {
-        currentChunk.save();
-        if (currentChunk.logChunkSize() > logChunkSize) {
-            currentChunk.close();
-            currentChunk = new RedoLogChunk(currentChunk.getId() + 1, config);
+        long checkpointStamp;
+        if (saveExecutor == null) {
+            checkpointStamp = stripes[0].save();
+        } else {
+            // 多个stripe并行写文件和fsync，当前线程负责第一个
+            ArrayList<Future<Long>> futures = new ArrayList<>(stripes.length - 1);
+            for (int i = 1; i < stripes.length; i++) {
+                RedoLogStripe stripe = stripes[i];
+                futures.add(saveExecutor.submit(() -> stripe.save()));
+            }
+            checkpointStamp = stripes[0].save();
+            for (Future<Long> f : futures) {
+                try {
+                    checkpointStamp = Math.max(checkpointStamp, f.get());
+                } catch (Exception e) {
+                    throw DbException.convert(e);
+                }
+            }
+        }
+        for (RedoLogStripe stripe : stripes) {
+            RedoLogChunk chunk = stripe.getCurrentChunk();
+            // 当前chunk中的日志都在恢复点之前时切换到新的chunk文件，这样老文件才能删除，
+            // 模糊检查点的恢复点通常比较旧，此时不用切换，避免产生很多小文件
+            if (checkpointStamp > 0 && chunk.logChunkSize() > 0 && chunk.getMaxStamp() < checkpointStamp
+                    || chunk.logChunkSize() > logChunkSize) {
+                oldChunks.add(stripe.switchChunk(createChunk(stripe.getStripe())));
+            }
+        }
+        if (checkpointStamp > 0)
+            deleteOldChunks(checkpointStamp);
+    }
+
+    // 如果一个chunk文件中的日志都在恢复点之前，那就不再需要了，
+    // 模糊检查点的恢复点不断向前推进，老的chunk文件也就逐步被删除
+    private void deleteOldChunks(long checkpointStamp) {
+        for (Iterator<RedoLogChunk> it = oldChunks.iterator(); it.hasNext();) {
+            RedoLogChunk chunk = it.next();
+            if (chunk.getMaxStamp() < checkpointStamp) {
+                chunk.delete();
+                it.remove();
+            }
         }
     }
 }
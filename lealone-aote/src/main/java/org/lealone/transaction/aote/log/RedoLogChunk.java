@@ -19,112 +19,133 @@ package org.lealone.transaction.aote.log;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedTransferQueue;
-import java.util.concurrent.atomic.AtomicInteger;
 
+import org.lealone.common.util.DataUtils;
 import org.lealone.db.DataBuffer;
 import org.lealone.storage.fs.FileStorage;
 import org.lealone.storage.fs.FileUtils;
 
 /**
- * A queue-based redo log chunk
- *  
+ * A redo log chunk file of a log stripe
+ * <p>
+ * 文件名是redoLog_<stripe>_<id>，每条日志前面都有一个全局序号(stamp)。
+ * 老版本的文件名是redoLog_<id>，没有序号，只在启动时读取。
+ *
  * @author zhh
  */
 class RedoLogChunk implements Comparable<RedoLogChunk> {
 
     static final String CHUNK_FILE_NAME_PREFIX = "redoLog" + RedoLog.NAME_ID_SEPARATOR;
+    static final int LEGACY_STRIPE = -1;
 
-    private static String getChunkFileName(Map<String, String> config, int id) {
+    static String getChunkFileName(Map<String, String> config, int stripe, int id) {
         String storagePath = config.get("storagePath");
-        return storagePath + File.separator + CHUNK_FILE_NAME_PREFIX + id;
+        if (stripe == LEGACY_STRIPE)
+            return storagePath + File.separator + CHUNK_FILE_NAME_PREFIX + id;
+        else
+            return storagePath + File.separator + CHUNK_FILE_NAME_PREFIX + stripe + RedoLog.NAME_ID_SEPARATOR + id;
     }
 
     private static final int BUFF_SIZE = 16 * 1024;
     private DataBuffer buff = DataBuffer.create(BUFF_SIZE);
 
     private final int id;
+    private final int stripe;
+    private final String fileName;
     private final FileStorage fileStorage;
-    private final Map<String, String> config;
-    private final AtomicInteger logQueueSize = new AtomicInteger(0);
-    private LinkedTransferQueue<RedoLogRecord> logQueue;
+    private final LogSyncStatistics statistics;
     private long pos;
+    private long maxStamp;
 
-    RedoLogChunk(int id, Map<String, String> config) {
+    RedoLogChunk(int id, int stripe, Map<String, String> config, LogSyncStatistics statistics) {
         this.id = id;
-        this.config = config;
-        String chunkFileName = getChunkFileName(config, id);
+        this.stripe = stripe;
+        this.statistics = statistics;
+        fileName = getChunkFileName(config, stripe, id);
         fileStorage = new FileStorage();
-        fileStorage.open(chunkFileName, config);
-        logQueue = new LinkedTransferQueue<>();
+        fileStorage.open(fileName, config);
         pos = fileStorage.size();
-        if (pos > 0)
-            read();
     }
 
-    private void read() {
+    List<RedoLogRecord> read() {
+        ArrayList<RedoLogRecord> records = new ArrayList<>();
+        if (pos <= 0)
+            return records;
         ByteBuffer buffer = fileStorage.readFully(0, (int) pos);
         while (buffer.remaining() > 0) {
-            RedoLogRecord r = RedoLogRecord.read(buffer);
-            if (r.isCheckpoint())
-                logQueue = new LinkedTransferQueue<>(); // 丢弃之前的
-            logQueue.add(r);
+            if (stripe == LEGACY_STRIPE) {
+                RedoLogRecord r = RedoLogRecord.read(buffer);
+                if (r.isCheckpoint())
+                    records.clear(); // 丢弃之前的
+                records.add(r);
+            } else {
+                long stamp = DataUtils.readVarLong(buffer);
+                RedoLogRecord r = RedoLogRecord.read(buffer);
+                r.setStamp(stamp);
+                if (stamp > maxStamp)
+                    maxStamp = stamp;
+                records.add(r);
+            }
         }
+        return records;
     }
 
     int getId() {
         return id;
     }
 
-    int size() {
-        return logQueueSize.get();
+    int getStripe() {
+        return stripe;
     }
 
-    void addRedoLogRecord(RedoLogRecord r) {
-        // 虽然这两行不是原子操作，但是也没影响的，最多日志线程空转一下
-        logQueueSize.incrementAndGet();
-        logQueue.add(r);
+    long getMaxStamp() {
+        return maxStamp;
     }
 
-    LinkedTransferQueue<RedoLogRecord> getAndResetRedoLogRecords() {
-        LinkedTransferQueue<RedoLogRecord> oldQueue = logQueue;
-        logQueue = new LinkedTransferQueue<>();
-        return oldQueue;
+    String getFileName() {
+        return fileName;
     }
 
     void close() {
-        save();
         fileStorage.close();
     }
 
-    synchronized void save() {
-        if (logQueueSize.get() > 0) {
-            LinkedTransferQueue<RedoLogRecord> redoLogRecordQueue = getAndResetRedoLogRecords();
-            long chunkLength = 0;
-            for (RedoLogRecord r : redoLogRecordQueue) {
-                if (r.isCheckpoint()) {
-                    deleteOldChunkFiles();
-                    fileStorage.truncate(0);
-                    buff.reset();
-                    pos = 0;
-                }
-                r.write(buff);
-                if (buff.position() > BUFF_SIZE)
-                    chunkLength += write(buff);
-                logQueueSize.decrementAndGet();
-            }
-            chunkLength += write(buff);
-            if (chunkLength > 0) {
-                fileStorage.sync();
-            }
-            for (RedoLogRecord r : redoLogRecordQueue) {
-                r.setSynced(true);
-            }
-            // 避免占用太多内存
-            if (buff.capacity() > BUFF_SIZE * 3)
-                buff = DataBuffer.create(BUFF_SIZE);
+    // 写入一批日志并且只做一次fsync，返回这批日志中检查点最大的恢复点，没有检查点时返回0
+    long save(List<RedoLogRecord> records) {
+        long checkpointStamp = 0;
+        long chunkLength = 0;
+        for (RedoLogRecord r : records) {
+            if (r.isCheckpoint())
+                checkpointStamp = Math.max(checkpointStamp, ((RedoLogRecord.Checkpoint) r).getRecoveryStamp());
+            int start = buff.position();
+            buff.putVarLong(r.getStamp());
+            int recordStart = buff.position();
+            r.write(buff);
+            // LazyTransactionRedoLogRecord有可能什么都不写，此时序号也不用写了
+            if (buff.position() == recordStart)
+                buff.position(start);
+            else if (r.getStamp() > maxStamp)
+                maxStamp = r.getStamp();
+            if (buff.position() > BUFF_SIZE)
+                chunkLength += write(buff);
+        }
+        chunkLength += write(buff);
+        if (chunkLength > 0) {
+            fileStorage.sync();
+        }
+        long now = System.nanoTime();
+        for (RedoLogRecord r : records) {
+            r.setSynced(true);
+            statistics.onSynced(r, now);
         }
+        statistics.onSync(records.size(), chunkLength);
+        // 避免占用太多内存
+        if (buff.capacity() > BUFF_SIZE * 3)
+            buff = DataBuffer.create(BUFF_SIZE);
+        return checkpointStamp;
     }
 
     private int write(DataBuffer buff) {
@@ -137,12 +158,10 @@ class RedoLogChunk implements Comparable<RedoLogChunk> {
         return length;
     }
 
-    private void deleteOldChunkFiles() {
-        for (int i = 0; i < id; i++) {
-            String chunkFileName = getChunkFileName(config, i);
-            if (FileUtils.exists(chunkFileName))
-                FileUtils.delete(chunkFileName);
-        }
+    void delete() {
+        fileStorage.close();
+        if (FileUtils.exists(fileName))
+            FileUtils.delete(fileName);
     }
 
     long logChunkSize() {
@@ -156,6 +175,6 @@ class RedoLogChunk implements Comparable<RedoLogChunk> {
 
     @Override
     public String toString() {
-        return "RedoLogChunk[" + id + ", " + fileStorage.getFileName() + "]";
+        return "RedoLogChunk[" + stripe + ", " + id + ", " + fileName + "]";
     }
 }
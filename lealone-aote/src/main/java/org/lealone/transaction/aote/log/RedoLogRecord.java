@@ -18,7 +18,7 @@
 package org.lealone.transaction.aote.log;
 
 import java.nio.ByteBuffer;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -36,8 +36,13 @@ public abstract class RedoLogRecord {
     private static byte TYPE_DROPPED_MAP_REDO_LOG_RECORD = 1;
     private static byte TYPE_LOCAL_TRANSACTION_REDO_LOG_RECORD = 2;
     private static byte TYPE_DISTRIBUTED_TRANSACTION_REDO_LOG_RECORD = 3;
+    private static byte TYPE_MAP_CHECKPOINT = 4;
+    private static byte TYPE_FUZZY_CHECKPOINT = 5;
 
     private volatile boolean synced;
+    private long addedTime;
+    // 全局递增的序号，多个日志流在恢复时按它合并
+    private long stamp;
 
     boolean isSynced() {
         return synced;
@@ -47,18 +52,53 @@ public abstract class RedoLogRecord {
         this.synced = synced;
     }
 
+    long getAddedTime() {
+        return addedTime;
+    }
+
+    void setAddedTime(long addedTime) {
+        this.addedTime = addedTime;
+    }
+
+    long getStamp() {
+        return stamp;
+    }
+
+    void setStamp(long stamp) {
+        this.stamp = stamp;
+    }
+
     boolean isCheckpoint() {
         return false;
     }
 
+    boolean isMapCheckpoint() {
+        return false;
+    }
+
+    // 只用于估算待同步的日志字节数，不需要很精确
+    int estimatedSize() {
+        return 16;
+    }
+
     abstract long initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog, long lastTransactionId);
 
+    // mapRecoveryStamps中记录了每个map最近一次保存时的恢复点，序号小于恢复点的操作不需要redo
+    long initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog, long lastTransactionId,
+            Map<String, Long> mapRecoveryStamps) {
+        return initPendingRedoLog(pendingRedoLog, lastTransactionId);
+    }
+
     abstract void write(DataBuffer buff);
 
     static RedoLogRecord read(ByteBuffer buff) {
         int type = buff.get();
         if (type == TYPE_CHECKPOINT) {
             return Checkpoint.read(buff);
+        } else if (type == TYPE_FUZZY_CHECKPOINT) {
+            return Checkpoint.readFuzzy(buff);
+        } else if (type == TYPE_MAP_CHECKPOINT) {
+            return MapCheckpoint.read(buff);
         } else if (type == TYPE_DROPPED_MAP_REDO_LOG_RECORD) {
             return DroppedMapRedoLogRecord.read(buff);
         } else if (type == TYPE_LOCAL_TRANSACTION_REDO_LOG_RECORD) {
@@ -74,6 +114,14 @@ public abstract class RedoLogRecord {
         return new Checkpoint(checkpointId);
     }
 
+    public static Checkpoint createCheckpoint(long checkpointId, long recoveryStamp) {
+        return new Checkpoint(checkpointId, recoveryStamp);
+    }
+
+    public static MapCheckpoint createMapCheckpoint(String mapName, long recoveryStamp) {
+        return new MapCheckpoint(mapName, recoveryStamp);
+    }
+
     public static DroppedMapRedoLogRecord createDroppedMapRedoLogRecord(String mapName) {
         return new DroppedMapRedoLogRecord(mapName);
     }
@@ -98,9 +146,25 @@ public abstract class RedoLogRecord {
     static class Checkpoint extends RedoLogRecord {
 
         private final long checkpointId;
+        // 模糊检查点的恢复点，序号小于它的日志对应的数据都已经保存到map了，
+        // 为0时表示普通的检查点，恢复点就是检查点自己的序号
+        private final long recoveryStamp;
 
         Checkpoint(long checkpointId) {
+            this(checkpointId, 0);
+        }
+
+        Checkpoint(long checkpointId, long recoveryStamp) {
             this.checkpointId = checkpointId;
+            this.recoveryStamp = recoveryStamp;
+        }
+
+        long getCheckpointId() {
+            return checkpointId;
+        }
+
+        long getRecoveryStamp() {
+            return recoveryStamp > 0 ? recoveryStamp : getStamp();
         }
 
         @Override
@@ -120,14 +184,70 @@ public abstract class RedoLogRecord {
 
         @Override
         public void write(DataBuffer buff) {
-            buff.put(TYPE_CHECKPOINT);
-            buff.putVarLong(checkpointId);
+            if (recoveryStamp > 0) {
+                buff.put(TYPE_FUZZY_CHECKPOINT);
+                buff.putVarLong(checkpointId);
+                buff.putVarLong(recoveryStamp);
+            } else {
+                buff.put(TYPE_CHECKPOINT);
+                buff.putVarLong(checkpointId);
+            }
         }
 
         public static RedoLogRecord read(ByteBuffer buff) {
             long checkpointId = DataUtils.readVarLong(buff);
             return new Checkpoint(checkpointId);
         }
+
+        public static RedoLogRecord readFuzzy(ByteBuffer buff) {
+            long checkpointId = DataUtils.readVarLong(buff);
+            long recoveryStamp = DataUtils.readVarLong(buff);
+            return new Checkpoint(checkpointId, recoveryStamp);
+        }
+    }
+
+    // 单个map保存完之后写入，恢复时这个map中序号小于recoveryStamp的操作都不需要redo
+    static class MapCheckpoint extends RedoLogRecord {
+
+        private final String mapName;
+        private final long recoveryStamp;
+
+        MapCheckpoint(String mapName, long recoveryStamp) {
+            DataUtils.checkArgument(mapName != null, "The mapName may not be null");
+            this.mapName = mapName;
+            this.recoveryStamp = recoveryStamp;
+        }
+
+        String getMapName() {
+            return mapName;
+        }
+
+        long getRecoveryStamp() {
+            return recoveryStamp;
+        }
+
+        @Override
+        boolean isMapCheckpoint() {
+            return true;
+        }
+
+        @Override
+        public long initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog, long lastTransactionId) {
+            return lastTransactionId;
+        }
+
+        @Override
+        public void write(DataBuffer buff) {
+            buff.put(TYPE_MAP_CHECKPOINT);
+            ValueString.type.write(buff, mapName);
+            buff.putVarLong(recoveryStamp);
+        }
+
+        public static RedoLogRecord read(ByteBuffer buff) {
+            String mapName = ValueString.type.read(buff);
+            long recoveryStamp = DataUtils.readVarLong(buff);
+            return new MapCheckpoint(mapName, recoveryStamp);
+        }
     }
 
     static class DroppedMapRedoLogRecord extends RedoLogRecord {
@@ -143,7 +263,7 @@ public abstract class RedoLogRecord {
         public long initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog, long lastTransactionId) {
             List<ByteBuffer> logs = pendingRedoLog.get(mapName);
             if (logs != null) {
-                logs = new LinkedList<>();
+                logs = new ArrayList<>();
                 pendingRedoLog.put(mapName, logs);
             }
             return lastTransactionId;
@@ -173,17 +293,30 @@ public abstract class RedoLogRecord {
 
         @Override
         public long initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog, long lastTransactionId) {
+            return initPendingRedoLog(pendingRedoLog, lastTransactionId, null);
+        }
+
+        @Override
+        long initPendingRedoLog(Map<String, List<ByteBuffer>> pendingRedoLog, long lastTransactionId,
+                Map<String, Long> mapRecoveryStamps) {
             ByteBuffer buff = operations;
             while (buff.hasRemaining()) {
                 // 此时还没有打开底层存储的map，所以只预先解析出mapName和keyValue字节数组
                 // 写时格式参照UndoLogRecord.writeForRedo()
                 String mapName = ValueString.type.read(buff);
+                int len = buff.getInt();
+                if (mapRecoveryStamps != null) {
+                    Long recoveryStamp = mapRecoveryStamps.get(mapName);
+                    if (recoveryStamp != null && getStamp() < recoveryStamp) {
+                        buff.position(buff.position() + len);
+                        continue;
+                    }
+                }
                 List<ByteBuffer> keyValues = pendingRedoLog.get(mapName);
                 if (keyValues == null) {
-                    keyValues = new LinkedList<>();
+                    keyValues = new ArrayList<>();
                     pendingRedoLog.put(mapName, keyValues);
                 }
-                int len = buff.getInt();
                 byte[] keyValue = new byte[len];
                 buff.get(keyValue);
                 keyValues.add(ByteBuffer.wrap(keyValue));
@@ -191,6 +324,11 @@ public abstract class RedoLogRecord {
             return transactionId > lastTransactionId ? transactionId : lastTransactionId;
         }
 
+        @Override
+        int estimatedSize() {
+            return 16 + operations.remaining();
+        }
+
         @Override
         public void write(DataBuffer buff) {
             write(buff, TYPE_LOCAL_TRANSACTION_REDO_LOG_RECORD);
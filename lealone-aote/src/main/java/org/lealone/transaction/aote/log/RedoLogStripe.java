@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.transaction.aote.log;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A queue-based redo log stream
+ * <p>
+ * 每个stripe有自己的日志队列和chunk文件，一组调度线程只往同一个stripe中写日志，
+ * 这样多个stripe之间不会互相竞争，可以并行写文件和fsync。
+ *
+ * @author zhh
+ */
+class RedoLogStripe {
+
+    private final int stripe;
+    private final LinkedTransferQueue<RedoLogRecord> logQueue = new LinkedTransferQueue<>();
+    private final AtomicInteger logQueueSize = new AtomicInteger(0);
+    // 还未同步的日志的预估字节数
+    private final AtomicLong pendingBytes = new AtomicLong(0);
+    private RedoLogChunk currentChunk;
+
+    RedoLogStripe(int stripe, RedoLogChunk currentChunk) {
+        this.stripe = stripe;
+        this.currentChunk = currentChunk;
+    }
+
+    int getStripe() {
+        return stripe;
+    }
+
+    RedoLogChunk getCurrentChunk() {
+        return currentChunk;
+    }
+
+    int size() {
+        return logQueueSize.get();
+    }
+
+    long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    void addRedoLogRecord(RedoLogRecord r) {
+        r.setAddedTime(System.nanoTime());
+        // 虽然这几行不是原子操作，但是也没影响的，最多日志线程空转一下
+        pendingBytes.addAndGet(r.estimatedSize());
+        logQueueSize.incrementAndGet();
+        logQueue.add(r);
+    }
+
+    // 返回这次写入的检查点的序号，没有检查点时返回0
+    synchronized long save() {
+        int size = logQueueSize.get();
+        if (size <= 0)
+            return 0;
+        // 只取出当前已经知道的日志，后面新加入的等下一次，不会丢失
+        ArrayList<RedoLogRecord> records = new ArrayList<>(size);
+        long estimatedBytes = 0;
+        for (int i = 0; i < size; i++) {
+            RedoLogRecord r = logQueue.poll();
+            if (r == null)
+                break;
+            records.add(r);
+            estimatedBytes += r.estimatedSize();
+        }
+        logQueueSize.addAndGet(-records.size());
+        pendingBytes.addAndGet(-estimatedBytes);
+        return currentChunk.save(records);
+    }
+
+    // 切换到一个新的chunk文件，返回老的chunk
+    synchronized RedoLogChunk switchChunk(RedoLogChunk newChunk) {
+        RedoLogChunk old = currentChunk;
+        old.close();
+        currentChunk = newChunk;
+        return old;
+    }
+
+    synchronized void close() {
+        save();
+        currentChunk.close();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.bench;
+
+import java.io.File;
+
+import org.lealone.common.logging.ConsoleLogDelegateFactory;
+import org.lealone.common.logging.LoggerFactory;
+import org.lealone.db.SysProperties;
+import org.lealone.p2p.config.Config;
+
+/**
+ * 所有基准测试共用的环境设置，数据都放在target/bench-data目录中
+ *
+ * @author zhh
+ */
+public class BenchBase {
+
+    public static final String BENCH_DIR = "." + File.separatorChar + "target" + File.separatorChar + "bench-data";
+    public static final String DEFAULT_STORAGE_ENGINE_NAME = "AOSE";
+
+    static {
+        System.setProperty(LoggerFactory.LOGGER_DELEGATE_FACTORY_CLASS_NAME, ConsoleLogDelegateFactory.class.getName());
+        SysProperties.setBaseDir(BENCH_DIR);
+        if (Config.getProperty("default.storage.engine") == null)
+            Config.setProperty("default.storage.engine", DEFAULT_STORAGE_ENGINE_NAME);
+    }
+
+    public static String joinDirs(String... dirs) {
+        StringBuilder s = new StringBuilder(BENCH_DIR);
+        for (String dir : dirs)
+            s.append(File.separatorChar).append(dir);
+        return s.toString();
+    }
+}
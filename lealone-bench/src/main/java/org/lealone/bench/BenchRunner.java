@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 依次用不同的线程数运行基准测试，每个线程数的结果写到一个单独的json文件中，方便跟其他提交的结果对比。
+ * <p>
+ * 用法: java -Dlealone.bench.threads=1,4,16 -jar lealone-bench/target/benchmarks.jar [JMH参数]
+ * <p>
+ * 线程数默认是1,4，JMH参数跟直接运行org.openjdk.jmh.Main一样，比如只运行BTreeMapBench: BTreeMapBench -p rowCount=10000
+ *
+ * @author zhh
+ */
+public class BenchRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        String resultPrefix = System.getProperty("lealone.bench.result", "lealone-bench");
+        for (String t : System.getProperty("lealone.bench.threads", "1,4").split(",")) {
+            int threads = Integer.parseInt(t.trim());
+            ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmdOptions).threads(threads);
+            builder.resultFormat(ResultFormatType.JSON).result(resultPrefix + "-t" + threads + ".json");
+            new Runner(builder.build()).run();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.bench.net;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lealone.bench.BenchBase;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueBytes;
+import org.lealone.db.value.ValueDecimal;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueString;
+import org.lealone.db.value.ValueTimestamp;
+import org.lealone.net.NetBufferFactory;
+import org.lealone.net.TransferOutputStream;
+import org.lealone.net.WritableChannel;
+import org.lealone.net.nio.NioBufferFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TransferOutputStream.writeValue的编码速度，每次调用把valueCount个值写成一个协议包，写出的包直接丢弃
+ *
+ * @author zhh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransferOutputStreamBench extends BenchBase {
+
+    @Param({ "int", "long", "decimal", "string", "timestamp", "bytes" })
+    private String valueType;
+
+    @Param({ "16", "1024" })
+    private int valueCount;
+
+    private Value[] values;
+    private TransferOutputStream out;
+
+    private static class NullWritableChannel implements WritableChannel {
+        @Override
+        public void write(Object data) {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getHost() {
+            return "localhost";
+        }
+
+        @Override
+        public int getPort() {
+            return 0;
+        }
+
+        @Override
+        public NetBufferFactory getBufferFactory() {
+            return NioBufferFactory.getInstance();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(valueCount);
+        values = new Value[valueCount];
+        for (int i = 0; i < valueCount; i++)
+            values[i] = createValue(random);
+        out = new TransferOutputStream(null, new NullWritableChannel());
+    }
+
+    private Value createValue(Random random) {
+        switch (valueType) {
+        case "int":
+            return ValueInt.get(random.nextInt());
+        case "long":
+            return ValueLong.get(random.nextLong());
+        case "decimal":
+            return ValueDecimal.get(BigDecimal.valueOf(random.nextLong(), 4));
+        case "string":
+            return ValueString.get("value" + random.nextInt());
+        case "timestamp":
+            return ValueTimestamp.get(new Timestamp(random.nextLong() >>> 24));
+        case "bytes":
+            byte[] bytes = new byte[32];
+            random.nextBytes(bytes);
+            return ValueBytes.getNoCopy(bytes);
+        default:
+            throw new IllegalArgumentException("Unknown value type: " + valueType);
+        }
+    }
+
+    @Benchmark
+    public void writeValue() throws IOException {
+        for (Value v : values)
+            out.writeValue(v);
+        out.flush();
+    }
+}
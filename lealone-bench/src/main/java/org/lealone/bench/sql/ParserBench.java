@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.bench.sql;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lealone.db.session.ServerSession;
+import org.lealone.sql.Parser;
+import org.lealone.sql.StatementBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parser.parse的吞吐量，只解析不执行
+ *
+ * @author zhh
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBench extends SqlBenchBase {
+
+    @Param({ "point", "range", "groupBy" })
+    private String query;
+
+    private String sql;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sql = getSQL(query);
+        ServerSession session = createSession();
+        try {
+            session.prepareStatementLocal("CREATE TABLE IF NOT EXISTS " + TABLE_NAME
+                    + " (id int primary key, g int, v varchar)").executeUpdate().get();
+        } finally {
+            session.close();
+        }
+    }
+
+    @Benchmark
+    public StatementBase parse(SessionState state) {
+        return new Parser(state.session).parse(sql);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.bench.sql;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lealone.db.result.Result;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueString;
+import org.lealone.sql.PreparedSQLStatement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 执行预编译好的Select，包括读结果集中的所有行
+ *
+ * @author zhh
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectBench extends SqlBenchBase {
+
+    @Param({ "10000", "100000" })
+    int rowCount;
+
+    @Param({ "point", "range", "groupBy" })
+    String query;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ServerSession session = createSession();
+        try {
+            // 每次都真正执行查询，不重用上一次的结果
+            session.prepareStatementLocal("SET OPTIMIZE_REUSE_RESULTS 0").executeUpdate().get();
+            session.prepareStatementLocal("DROP TABLE IF EXISTS " + TABLE_NAME).executeUpdate().get();
+            session.prepareStatementLocal("CREATE TABLE " + TABLE_NAME + " (id int primary key, g int, v varchar)")
+                    .executeUpdate().get();
+            PreparedSQLStatement insert = session
+                    .prepareStatementLocal("INSERT INTO " + TABLE_NAME + "(id, g, v) VALUES(?, ?, ?)");
+            for (int i = 0; i < rowCount; i++) {
+                insert.getParameters().get(0).setValue(ValueInt.get(i));
+                insert.getParameters().get(1).setValue(ValueInt.get(i % GROUP_COUNT));
+                insert.getParameters().get(2).setValue(ValueString.get("value" + i));
+                insert.executeUpdate().get();
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class StatementState {
+        PreparedSQLStatement statement;
+
+        @Setup(Level.Trial)
+        public void setUp(SelectBench bench, SessionState state) {
+            statement = state.session.prepareStatementLocal(getSQL(bench.query));
+        }
+    }
+
+    @Benchmark
+    public void select(StatementState state, Blackhole bh) {
+        PreparedSQLStatement statement = state.statement;
+        setParameters(query, statement.getParameters(), rowCount);
+        Result result = statement.executeQuery(0, false).get();
+        while (result.next())
+            bh.consume(result.currentRow());
+        result.close();
+    }
+}
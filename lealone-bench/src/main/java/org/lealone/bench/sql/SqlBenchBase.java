@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.bench.sql;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.lealone.bench.BenchBase;
+import org.lealone.db.CommandParameter;
+import org.lealone.db.ConnectionInfo;
+import org.lealone.db.Constants;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.session.ServerSessionFactory;
+import org.lealone.db.value.ValueInt;
+import org.lealone.transaction.TransactionEngine;
+import org.lealone.transaction.TransactionEngineManager;
+import org.lealone.transaction.aote.log.LogSyncService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * SQL基准测试共用的嵌入式数据库和查询语句
+ *
+ * @author zhh
+ */
+@State(Scope.Benchmark)
+public abstract class SqlBenchBase extends BenchBase {
+
+    public static final String DB_NAME = "bench";
+    public static final String TABLE_NAME = "bench_table";
+    public static final int RANGE_LENGTH = 100;
+    public static final int GROUP_COUNT = 100;
+
+    // 点查、范围查询和分组聚合，id是主键，g有GROUP_COUNT个不同的值
+    private static final Map<String, String> queries = new HashMap<>();
+    static {
+        queries.put("point", "SELECT id, g, v FROM " + TABLE_NAME + " WHERE id = ?");
+        queries.put("range", "SELECT id, g, v FROM " + TABLE_NAME + " WHERE id >= ? AND id < ?");
+        queries.put("groupBy", "SELECT g, count(*), sum(id) FROM " + TABLE_NAME + " GROUP BY g");
+    }
+
+    private static TransactionEngine te;
+
+    static synchronized void initTransactionEngine() {
+        if (te == null) {
+            te = TransactionEngineManager.getInstance().getEngine(Constants.DEFAULT_TRANSACTION_ENGINE_NAME);
+            Map<String, String> config = new HashMap<>();
+            config.put("base_dir", BENCH_DIR);
+            config.put("redo_log_dir", "redo_log");
+            config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_PERIODIC);
+            te.init(config);
+        }
+    }
+
+    public static String getSQL(String query) {
+        String sql = queries.get(query);
+        if (sql == null)
+            throw new IllegalArgumentException("Unknown query: " + query);
+        return sql;
+    }
+
+    // 第一次连接时才创建数据库，多个线程同时创建会有问题
+    public static synchronized ServerSession createSession() {
+        initTransactionEngine();
+        String url = Constants.URL_PREFIX + Constants.URL_EMBED + BENCH_DIR + "/" + DB_NAME
+                + ";default_storage_engine=" + DEFAULT_STORAGE_ENGINE_NAME + ";user=root;password=";
+        return (ServerSession) ServerSessionFactory.getInstance().createSession(new ConnectionInfo(url)).get();
+    }
+
+    // 随机选一个起点，范围查询读RANGE_LENGTH行
+    public static void setParameters(String query, List<? extends CommandParameter> parameters, int rowCount) {
+        if (parameters.isEmpty())
+            return;
+        int id = ThreadLocalRandom.current().nextInt(rowCount);
+        parameters.get(0).setValue(ValueInt.get(id));
+        if (parameters.size() > 1)
+            parameters.get(1).setValue(ValueInt.get(id + RANGE_LENGTH));
+    }
+
+    /**
+     * 每个线程用自己的session
+     */
+    @State(Scope.Thread)
+    public static class SessionState {
+        public ServerSession session;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            session = createSession();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.bench.storage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.lealone.bench.BenchBase;
+import org.lealone.storage.StorageMapCursor;
+import org.lealone.storage.aose.AOStorage;
+import org.lealone.storage.aose.AOStorageBuilder;
+import org.lealone.storage.aose.btree.BTreeMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * BTreeMap的get/put/cursor，同步API在调用线程中等待结果，异步API批量提交给页面操作处理器
+ *
+ * @author zhh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BTreeMapBench extends BenchBase {
+
+    private static final int ASYNC_BATCH_SIZE = 100;
+    private static final int SCAN_LENGTH = 100;
+
+    @Param({ "10000", "1000000" })
+    private int rowCount;
+
+    @Param({ "4096", "16384" })
+    private int pageSplitSize;
+
+    private AOStorage storage;
+    private BTreeMap<Integer, String> map;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AOStorageBuilder builder = new AOStorageBuilder();
+        builder.storagePath(joinDirs("aose")).pageSplitSize(pageSplitSize);
+        storage = builder.openStorage();
+        storage.getPageOperationHandlerFactory().startHandlers();
+        map = storage.openBTreeMap("BTreeMapBench_" + rowCount + "_" + pageSplitSize);
+        if (map.size() != rowCount) {
+            map.clear();
+            for (int i = 0; i < rowCount; i++)
+                map.put(i, "value" + i);
+            map.save();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.close();
+        storage.getPageOperationHandlerFactory().stopHandlers();
+    }
+
+    private int randomKey() {
+        return ThreadLocalRandom.current().nextInt(rowCount);
+    }
+
+    @Benchmark
+    public String get() {
+        return map.get(randomKey());
+    }
+
+    @Benchmark
+    public String put() {
+        int key = randomKey();
+        return map.put(key, "value" + key);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCAN_LENGTH)
+    public void cursor(Blackhole bh) {
+        StorageMapCursor<Integer, String> cursor = map.cursor(randomKey());
+        for (int i = 0; i < SCAN_LENGTH && cursor.hasNext(); i++) {
+            bh.consume(cursor.next());
+            bh.consume(cursor.getValue());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ASYNC_BATCH_SIZE)
+    public void asyncGet(Blackhole bh) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(ASYNC_BATCH_SIZE);
+        for (int i = 0; i < ASYNC_BATCH_SIZE; i++) {
+            map.get(randomKey(), ar -> {
+                bh.consume(ar.getResult());
+                latch.countDown();
+            });
+        }
+        latch.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ASYNC_BATCH_SIZE)
+    public void asyncPut() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(ASYNC_BATCH_SIZE);
+        for (int i = 0; i < ASYNC_BATCH_SIZE; i++) {
+            int key = randomKey();
+            map.put(key, "value" + key, ar -> latch.countDown());
+        }
+        latch.await();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.bench.transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lealone.bench.BenchBase;
+import org.lealone.db.Constants;
+import org.lealone.storage.Storage;
+import org.lealone.storage.StorageBuilder;
+import org.lealone.storage.StorageEngine;
+import org.lealone.storage.StorageEngineManager;
+import org.lealone.transaction.Transaction;
+import org.lealone.transaction.TransactionMap;
+import org.lealone.transaction.aote.AMTransactionEngine;
+import org.lealone.transaction.aote.log.LogSyncService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AMTransactionMap的事务提交吞吐量，每种log_sync_type用一个单独的事务引擎
+ *
+ * @author zhh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AMTransactionMapBench extends BenchBase {
+
+    private static final String MAP_NAME = "AMTransactionMapBench";
+
+    @Param({ LogSyncService.LOG_SYNC_TYPE_PERIODIC, LogSyncService.LOG_SYNC_TYPE_INSTANT,
+            LogSyncService.LOG_SYNC_TYPE_NO_SYNC, LogSyncService.LOG_SYNC_TYPE_GROUP })
+    private String logSyncType;
+
+    @Param({ "1", "10" })
+    private int rowsPerTransaction;
+
+    @Param({ "100000" })
+    int keyRange;
+
+    private AMTransactionEngine te;
+    private Storage storage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> config = new HashMap<>();
+        config.put("base_dir", joinDirs("aote", logSyncType));
+        config.put("redo_log_dir", "redo_log");
+        config.put("log_sync_type", logSyncType);
+        te = new AMTransactionEngine();
+        te.init(config);
+
+        StorageEngine se = StorageEngineManager.getStorageEngine(Constants.DEFAULT_STORAGE_ENGINE_NAME);
+        StorageBuilder storageBuilder = se.getStorageBuilder();
+        storageBuilder.storagePath(joinDirs("aote", logSyncType, "data"));
+        storage = storageBuilder.openStorage();
+
+        Transaction t = te.beginTransaction(false);
+        t.openMap(MAP_NAME, storage).clear();
+        t.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        te.close();
+        storage.close();
+    }
+
+    // 每个线程只更新自己的key，避免行锁冲突
+    @State(Scope.Thread)
+    public static class KeySpace {
+        private static final AtomicInteger threadCount = new AtomicInteger();
+        int base;
+
+        @Setup(Level.Trial)
+        public void setUp(AMTransactionMapBench bench) {
+            base = threadCount.getAndIncrement() * bench.keyRange;
+        }
+    }
+
+    @Benchmark
+    public void commit(KeySpace keySpace) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Transaction t = te.beginTransaction(false);
+        TransactionMap<Integer, String> map = t.openMap(MAP_NAME, storage);
+        for (int i = 0; i < rowsPerTransaction; i++) {
+            int key = keySpace.base + random.nextInt(keyRange);
+            map.put(key, "value" + key);
+        }
+        t.commit();
+    }
+}
@@ -5,6 +5,7 @@
  */
 package org.lealone.client.result;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -12,6 +13,7 @@ import org.lealone.client.session.ClientSession;
 import org.lealone.common.exceptions.DbException;
 import org.lealone.common.util.Utils;
 import org.lealone.db.SysProperties;
+import org.lealone.db.async.Future;
 import org.lealone.db.result.Result;
 import org.lealone.db.value.Value;
 import org.lealone.net.TransferInputStream;
@@ -19,6 +21,7 @@ import org.lealone.server.protocol.result.ResultChangeId;
 import org.lealone.server.protocol.result.ResultClose;
 import org.lealone.server.protocol.result.ResultFetchRows;
 import org.lealone.server.protocol.result.ResultFetchRowsAck;
+import org.lealone.server.protocol.result.ResultFetchStreamAck;
 import org.lealone.server.protocol.result.ResultReset;
 
 /**
@@ -41,6 +44,19 @@ public abstract class ClientResult implements Result {
     protected int rowId, rowOffset;
     protected ArrayList<Value[]> result;
 
+    // 下一次取多少行，应用读得比网络快时会自动变大，但一批记录的字节数不超过CLIENT_RESULT_PREFETCH_MAX_BYTES
+    protected int nextFetchSize;
+    private long totalRowBytes;
+    private long totalRows;
+
+    // 后台预取的下一批记录，同一时间最多只有一个预取请求
+    private Future<ResultFetchRowsAck> prefetch;
+    private int prefetchCount;
+    private volatile boolean prefetchDone;
+
+    // 服务器端推送剩下的记录时不再需要预取
+    private ClientResultStream stream;
+
     public ClientResult(ClientSession session, TransferInputStream in, int resultId, int columnCount, int rowCount,
             int fetchSize) throws IOException {
         this.session = session;
@@ -54,6 +70,7 @@ public abstract class ClientResult implements Result {
         rowId = -1;
         result = Utils.newSmallArrayList();
         this.fetchSize = fetchSize;
+        this.nextFetchSize = fetchSize;
         fetchRows(false);
     }
 
@@ -62,6 +79,52 @@ public abstract class ClientResult implements Result {
 
     protected abstract void fetchRows(boolean sendFetch);
 
+    /**
+     * Get the number of rows the next fetch should request.
+     *
+     * @return the number of rows, 0 if there are no more rows on the server
+     */
+    protected abstract int getNextFetchCount();
+
+    /**
+     * Read at most count rows from the input stream into the result list.
+     *
+     * @param count the maximum number of rows
+     * @return true if the end of the result was reached
+     */
+    protected boolean readRows(int count) throws IOException {
+        DataInputStream dataIn = in.getDataInputStream();
+        int available = dataIn.available();
+        boolean end = false;
+        int len = columns.length;
+        int rows = 0;
+        for (; rows < count; rows++) {
+            boolean row = in.readBoolean();
+            if (!row) {
+                end = true;
+                break;
+            }
+            Value[] values = new Value[len];
+            for (int i = 0; i < len; i++) {
+                Value v = in.readValue();
+                values[i] = v;
+            }
+            result.add(values);
+        }
+        addRowBytes(rows, available - dataIn.available());
+        return end;
+    }
+
+    // 预取和服务器端推送都用收到的记录估算每行的字节数，见getRowBytes
+    private void addRowBytes(int rows, long bytes) {
+        totalRows += rows;
+        totalRowBytes += bytes;
+    }
+
+    private long getRowBytes() {
+        return totalRows > 0 ? Math.max(1, totalRowBytes / totalRows) : 1;
+    }
+
     @Override
     public String getAlias(int i) {
         return columns[i].alias;
@@ -119,6 +182,7 @@ public abstract class ClientResult implements Result {
         if (session == null) {
             return;
         }
+        discardPrefetch();
         if (resultId > 0) {
             session.checkClosed();
             try {
@@ -153,6 +217,7 @@ public abstract class ClientResult implements Result {
         if (session == null) {
             return;
         }
+        discardPrefetch();
         try {
             if (resultId > 0) {
                 session.send(new ResultClose(resultId));
@@ -164,11 +229,104 @@ public abstract class ClientResult implements Result {
         }
     }
 
-    protected void sendFetch(int fetchSize) throws IOException {
+    /**
+     * Get the next rows from the server into the result list.
+     *
+     * @param count the number of rows to fetch if the rows are not pushed by the server
+     * @return true if the end of the result was reached
+     */
+    protected boolean fetchNextRows(int count) throws IOException {
+        if (stream != null) {
+            in.closeInputStream();
+            ResultFetchStreamAck ack = stream.next();
+            result.addAll(ack.rows);
+            addRowBytes(ack.rows.size(), ack.rowBytes);
+            if (ack.end)
+                stream = null;
+            return ack.end;
+        }
+        return readRows(sendFetch(count));
+    }
+
+    /**
+     * Get the next rows from the server, use the prefetched rows if there are.
+     *
+     * @param fetchSize the number of rows to fetch if nothing was prefetched
+     * @return the number of rows that were requested
+     */
+    protected int sendFetch(int fetchSize) throws IOException {
         // 释放buffer
         in.closeInputStream();
-        ResultFetchRowsAck ack = session.<ResultFetchRowsAck> send(new ResultFetchRows(resultId, fetchSize)).get();
+        ResultFetchRowsAck ack;
+        if (prefetch != null) {
+            // 预取的记录还没到，说明应用读得比网络快，下次多取一些
+            if (!prefetchDone)
+                growFetchSize();
+            ack = prefetch.get();
+            fetchSize = prefetchCount;
+            prefetch = null;
+        } else {
+            ack = session.<ResultFetchRowsAck> send(new ResultFetchRows(resultId, fetchSize)).get();
+        }
         in = (TransferInputStream) ack.in;
+        return fetchSize;
+    }
+
+    /**
+     * Send the next fetch request in the background when half of the rows in
+     * the result list are read, so that the application does not have to wait
+     * for a network round trip after reading the last row.
+     * If streaming is enabled the server is asked to push all remaining rows instead.
+     */
+    protected void prefetchIfNeeded() {
+        if (!SysProperties.CLIENT_RESULT_STREAM && !SysProperties.CLIENT_RESULT_PREFETCH) {
+            return;
+        }
+        if (prefetch != null || stream != null || session == null || resultId <= 0) {
+            return;
+        }
+        int remaining = result.size() - (rowId - rowOffset) - 1;
+        if (remaining > result.size() / 2) {
+            return;
+        }
+        int count = getNextFetchCount();
+        if (count <= 0) {
+            return;
+        }
+        if (SysProperties.CLIENT_RESULT_STREAM) {
+            stream = new ClientResultStream(session, resultId, getStreamChunkRows(),
+                    SysProperties.CLIENT_RESULT_STREAM_CREDITS);
+            return;
+        }
+        prefetchDone = false;
+        prefetchCount = count;
+        prefetch = session.<ResultFetchRowsAck, ResultFetchRowsAck> send(new ResultFetchRows(resultId, count),
+                ack -> {
+                    prefetchDone = true;
+                    return ack;
+                });
+    }
+
+    // 服务器端推送时不用等待，每批记录控制在CLIENT_RESULT_PREFETCH_MAX_BYTES/16左右就够了
+    private int getStreamChunkRows() {
+        return (int) Math.max(nextFetchSize, SysProperties.CLIENT_RESULT_PREFETCH_MAX_BYTES / 16 / getRowBytes());
+    }
+
+    private void growFetchSize() {
+        long max = Math.max(fetchSize, SysProperties.CLIENT_RESULT_PREFETCH_MAX_BYTES / getRowBytes());
+        nextFetchSize = (int) Math.min(max, Math.max(1L, nextFetchSize * 2L));
+    }
+
+    // 不再需要预取的记录了，收到后直接释放buffer
+    private void discardPrefetch() {
+        if (prefetch != null) {
+            prefetch.onSuccess(ack -> ((TransferInputStream) ack.in).closeInputStream());
+            prefetch = null;
+        }
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
     }
 
     @Override
@@ -206,6 +364,7 @@ public abstract class ClientResult implements Result {
     @Override
     public void setFetchSize(int fetchSize) {
         this.fetchSize = fetchSize;
+        this.nextFetchSize = fetchSize;
     }
 
     @Override
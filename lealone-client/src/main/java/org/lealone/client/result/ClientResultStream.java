@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.client.result;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.lealone.client.session.ClientSession;
+import org.lealone.common.exceptions.DbException;
+import org.lealone.server.protocol.result.ResultFetchStream;
+import org.lealone.server.protocol.result.ResultFetchStreamAck;
+import org.lealone.server.protocol.result.ResultStreamCredit;
+
+/**
+ * 服务器端推送过来的记录先放到队列中，应用每读完一批就把credit还给服务器端，
+ * 所以队列中最多只有credits批记录。
+ *
+ * @author zhh
+ */
+class ClientResultStream {
+
+    private final ClientSession session;
+    private final int streamId;
+    private final int credits;
+    // 放的是ResultFetchStreamAck或异常
+    private final LinkedBlockingQueue<Object> chunks = new LinkedBlockingQueue<>();
+    private int consumed;
+    private volatile boolean closed;
+
+    ClientResultStream(ClientSession session, int resultId, int chunkRows, int credits) {
+        this.session = session;
+        this.credits = credits;
+        streamId = session.getNextId();
+        ResultFetchStream packet = new ResultFetchStream(resultId, chunkRows, credits);
+        session.<ResultFetchStreamAck> sendStream(packet, streamId, ack -> {
+            if (!closed)
+                chunks.add(ack);
+            return ack.end;
+        }).onFailure(t -> {
+            if (!closed)
+                chunks.add(t);
+        });
+    }
+
+    /**
+     * Wait for the next batch of rows.
+     *
+     * @return the next batch
+     */
+    ResultFetchStreamAck next() {
+        Object chunk;
+        try {
+            chunk = chunks.take();
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        }
+        if (chunk instanceof Throwable) {
+            throw DbException.convert((Throwable) chunk);
+        }
+        ResultFetchStreamAck ack = (ResultFetchStreamAck) chunk;
+        // 攒够一半再一起还给服务器端，减少发送的包
+        if (!ack.end && ++consumed >= (credits + 1) / 2) {
+            session.send(new ResultStreamCredit(streamId, consumed));
+            consumed = 0;
+        }
+        return ack;
+    }
+
+    /**
+     * Discard the rows that are not read yet, the server stops pushing rows
+     * when the result is closed or reset.
+     */
+    void close() {
+        closed = true;
+        chunks.clear();
+    }
+}
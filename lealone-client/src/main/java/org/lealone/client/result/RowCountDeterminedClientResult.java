@@ -21,7 +21,6 @@ import java.io.IOException;
 
 import org.lealone.client.session.ClientSession;
 import org.lealone.common.exceptions.DbException;
-import org.lealone.db.value.Value;
 import org.lealone.net.TransferInputStream;
 
 public class RowCountDeterminedClientResult extends ClientResult {
@@ -41,6 +40,7 @@ public class RowCountDeterminedClientResult extends ClientResult {
                     fetchRows(true);
                 }
                 currentRow = result.get(rowId - rowOffset);
+                prefetchIfNeeded();
                 return true;
             }
             currentRow = null;
@@ -54,22 +54,10 @@ public class RowCountDeterminedClientResult extends ClientResult {
         try {
             rowOffset += result.size();
             result.clear();
-            int fetch = Math.min(fetchSize, rowCount - rowOffset);
             if (sendFetch) {
-                sendFetch(fetch);
-            }
-            for (int r = 0; r < fetch; r++) {
-                boolean row = in.readBoolean();
-                if (!row) {
-                    break;
-                }
-                int len = columns.length;
-                Value[] values = new Value[len];
-                for (int i = 0; i < len; i++) {
-                    Value v = in.readValue();
-                    values[i] = v;
-                }
-                result.add(values);
+                fetchNextRows(Math.min(nextFetchSize, rowCount - rowOffset));
+            } else {
+                readRows(Math.min(fetchSize, rowCount - rowOffset));
             }
             if (rowOffset + result.size() >= rowCount) {
                 sendClose();
@@ -78,4 +66,9 @@ public class RowCountDeterminedClientResult extends ClientResult {
             throw DbException.convertIOException(e, null);
         }
     }
+
+    @Override
+    protected int getNextFetchCount() {
+        return Math.min(nextFetchSize, rowCount - rowOffset - result.size());
+    }
 }
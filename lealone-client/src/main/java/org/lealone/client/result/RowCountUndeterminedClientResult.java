@@ -21,7 +21,6 @@ import java.io.IOException;
 
 import org.lealone.client.session.ClientSession;
 import org.lealone.common.exceptions.DbException;
-import org.lealone.db.value.Value;
 import org.lealone.net.TransferInputStream;
 
 public class RowCountUndeterminedClientResult extends ClientResult {
@@ -54,8 +53,9 @@ public class RowCountUndeterminedClientResult extends ClientResult {
             }
         }
         currentRow = result.get(rowId - rowOffset);
+        if (!isEnd)
+            prefetchIfNeeded();
         return true;
-
     }
 
     @Override
@@ -63,29 +63,20 @@ public class RowCountUndeterminedClientResult extends ClientResult {
         return Integer.MAX_VALUE; // 不能返回-1，JdbcResultSet那边会抛异常
     }
 
+    @Override
+    protected int getNextFetchCount() {
+        return isEnd ? 0 : nextFetchSize;
+    }
+
     @Override
     protected void fetchRows(boolean sendFetch) {
         session.checkClosed();
         try {
             rowOffset += result.size();
             result.clear();
-            if (sendFetch) {
-                sendFetch(fetchSize);
-            }
-            for (int r = 0; r < fetchSize; r++) {
-                boolean row = in.readBoolean();
-                if (!row) {
-                    isEnd = true;
-                    break;
-                }
-                int len = columns.length;
-                Value[] values = new Value[len];
-                for (int i = 0; i < len; i++) {
-                    Value v = in.readValue();
-                    values[i] = v;
-                }
-                result.add(values);
-            }
+            boolean end = sendFetch ? fetchNextRows(nextFetchSize) : readRows(fetchSize);
+            if (end)
+                isEnd = true;
 
             if (isEnd)
                 sendClose();
@@ -29,6 +29,7 @@ import org.lealone.db.session.Session;
 import org.lealone.db.session.SessionBase;
 import org.lealone.net.NetInputStream;
 import org.lealone.net.TcpClientConnection;
+import org.lealone.net.TransferInputStream;
 import org.lealone.net.TransferOutputStream;
 import org.lealone.server.protocol.AckPacket;
 import org.lealone.server.protocol.AckPacketHandler;
@@ -464,6 +465,45 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
         if (packet.getAckType() != PacketType.VOID) {
             tcpConnection.addAsyncCallback(packetId, ac);
         }
+        writePacket(packet, packetId, ac);
+        return ac;
+    }
+
+    /**
+     * Send a packet, the server can send several ack packets for it.
+     * The handler is called for each ack packet and returns true for the last one.
+     *
+     * @param packet the packet
+     * @param packetId the packet id
+     * @param ackPacketHandler the handler of the ack packets
+     * @return the future that is completed after the last ack packet
+     */
+    @SuppressWarnings("unchecked")
+    public <P extends AckPacket> Future<Boolean> sendStream(Packet packet, int packetId,
+            AckPacketHandler<Boolean, P> ackPacketHandler) {
+        traceOperation(packet.getType().name(), packetId);
+        AsyncCallback<Boolean> ac = new AsyncCallback<Boolean>() {
+            @Override
+            public void runInternal(NetInputStream in) throws Exception {
+                PacketDecoder<? extends Packet> decoder = PacketDecoders.getDecoder(packet.getAckType());
+                Packet packet = decoder.decode(in, getProtocolVersion());
+                // 响应包已经解码完了，及时释放NetBuffer
+                ((TransferInputStream) in).closeInputStream();
+                if (ackPacketHandler.handle((P) packet))
+                    setAsyncResult(true);
+            }
+
+            @Override
+            public boolean hasMoreResponses() {
+                return asyncResult == null;
+            }
+        };
+        tcpConnection.addAsyncCallback(packetId, ac);
+        writePacket(packet, packetId, ac);
+        return ac;
+    }
+
+    private void writePacket(Packet packet, int packetId, AsyncCallback<?> ac) {
         try {
             TransferOutputStream out = newOut();
             out.writeRequestHeader(packetId, packet.getType());
@@ -472,6 +512,5 @@ public class ClientSession extends SessionBase implements DataHandler, Transacti
         } catch (Throwable e) {
             ac.setAsyncResult(e);
         }
-        return ac;
     }
 }
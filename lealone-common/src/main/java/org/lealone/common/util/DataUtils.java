@@ -545,8 +545,21 @@ public class DataUtils {
      * @return the checksum
      */
     public static int getFletcher32(byte[] bytes, int length) {
+        return getFletcher32(bytes, 0, length);
+    }
+
+    /**
+     * Calculate the Fletcher32 checksum of a part of the bytes.
+     *
+     * @param bytes the bytes
+     * @param offset the start offset
+     * @param length the message length (if odd, 0 is appended)
+     * @return the checksum
+     */
+    public static int getFletcher32(byte[] bytes, int offset, int length) {
         int s1 = 0xffff, s2 = 0xffff;
-        int i = 0, evenLength = length / 2 * 2;
+        int i = offset, evenLength = offset + length / 2 * 2;
+        length += offset;
         while (i < evenLength) {
             // reduce after 360 words (each word is two bytes)
             for (int end = Math.min(i + 720, evenLength); i < end;) {
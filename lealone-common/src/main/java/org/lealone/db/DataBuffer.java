@@ -55,6 +55,7 @@ import org.lealone.db.value.ValueStringIgnoreCase;
 import org.lealone.db.value.ValueTime;
 import org.lealone.db.value.ValueTimestamp;
 import org.lealone.db.value.ValueUuid;
+import org.lealone.storage.ColumnVector;
 import org.lealone.storage.type.StorageDataType;
 import org.lealone.storage.type.StorageDataTypeBase;
 
@@ -771,6 +772,72 @@ public class DataBuffer implements AutoCloseable {
 
     }
 
+    /**
+     * Read a value into the vector, INT, LONG and DOUBLE values are read without creating a Value.
+     *
+     * @param buff the source buffer
+     * @param vector the target vector
+     * @param row the row in the vector
+     */
+    public static void readValue(ByteBuffer buff, ColumnVector vector, int row) {
+        int tag = buff.get(buff.position()) & 255;
+        switch (tag) {
+        case Value.NULL:
+            buff.get();
+            vector.setNull(row);
+            return;
+        case Value.INT:
+            buff.get();
+            vector.setInt(row, readVarInt(buff));
+            return;
+        case StorageDataType.TAG_INTEGER_NEGATIVE:
+            buff.get();
+            vector.setInt(row, -readVarInt(buff));
+            return;
+        case StorageDataType.TAG_INTEGER_FIXED:
+            buff.get();
+            vector.setInt(row, buff.getInt());
+            return;
+        case Value.LONG:
+            buff.get();
+            vector.setLong(row, readVarLong(buff));
+            return;
+        case StorageDataType.TAG_LONG_NEGATIVE:
+            buff.get();
+            vector.setLong(row, -readVarLong(buff));
+            return;
+        case StorageDataType.TAG_LONG_FIXED:
+            buff.get();
+            vector.setLong(row, buff.getLong());
+            return;
+        case Value.DOUBLE:
+            buff.get();
+            vector.setDouble(row, Double.longBitsToDouble(Long.reverse(readVarLong(buff))));
+            return;
+        case StorageDataType.TAG_DOUBLE_0:
+            buff.get();
+            vector.setDouble(row, 0d);
+            return;
+        case StorageDataType.TAG_DOUBLE_1:
+            buff.get();
+            vector.setDouble(row, 1d);
+            return;
+        case StorageDataType.TAG_DOUBLE_FIXED:
+            buff.get();
+            vector.setDouble(row, buff.getDouble());
+            return;
+        }
+        if (tag >= StorageDataType.TAG_INTEGER_0_15 && tag < StorageDataType.TAG_INTEGER_0_15 + 16) {
+            buff.get();
+            vector.setInt(row, tag - StorageDataType.TAG_INTEGER_0_15);
+        } else if (tag >= StorageDataType.TAG_LONG_0_7 && tag < StorageDataType.TAG_LONG_0_7 + 8) {
+            buff.get();
+            vector.setLong(row, tag - StorageDataType.TAG_LONG_0_7);
+        } else {
+            vector.setValue(row, readValue(buff));
+        }
+    }
+
     private static int readVarInt(ByteBuffer buff) {
         return DataUtils.readVarInt(buff);
     }
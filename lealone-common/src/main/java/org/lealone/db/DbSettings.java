@@ -149,6 +149,30 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean functionsInSchema = get("FUNCTIONS_IN_SCHEMA", true);
 
+    /**
+     * Database setting <code>HASH_JOIN</code> (default: true).<br />
+     * Whether an equi-join on a column without a usable index may be executed
+     * as a hash join instead of scanning the joined table for each outer row.
+     */
+    public final boolean hashJoin = get("HASH_JOIN", true);
+
+    /**
+     * Database setting <code>INDEX_BUILD_PARALLELISM</code> (default: 0).<br />
+     * The maximum number of threads used to scan and sort the rows of a large
+     * table when a secondary index is created. 0 means the number of available
+     * processors, 1 means the rows are read by one thread only.
+     */
+    public final int indexBuildParallelism = get("INDEX_BUILD_PARALLELISM", 0);
+
+    /**
+     * Database setting <code>INDEX_LOOKUP_BATCH_SIZE</code> (default: 256).<br />
+     * The maximum number of row keys a secondary index cursor collects before
+     * it reads the rows from the primary index in key order. The batch starts
+     * with one row and doubles, so point lookups are not affected.
+     * Set this value to 1 to read each row separately.
+     */
+    public final int indexLookupBatchSize = get("INDEX_LOOKUP_BATCH_SIZE", 256);
+
     /**
      * Database setting <code>LARGE_RESULT_BUFFER_SIZE</code> (default: 4096).<br />
      * Buffer size for large result sets. Set this value to 0 to disable the buffer.
@@ -260,6 +284,15 @@ public class DbSettings extends SettingsBase {
      */
     public final int queryCacheSize = get("QUERY_CACHE_SIZE", 8);
 
+    /**
+     * Database setting <code>QUERY_PARALLELISM</code> (default: 1).<br />
+     * The default number of threads used to scan the primary index of a large
+     * table for a single table query. 1 means the query is executed by the
+     * session thread only, 0 means the number of available processors.
+     * Each session can change it with SET QUERY_PARALLELISM.
+     */
+    public final int queryParallelism = get("QUERY_PARALLELISM", 1);
+
     /**
      * Database setting <code>RECOMPILE_ALWAYS</code> (default: false).<br />
      * Always recompile prepared statements.
@@ -280,6 +313,14 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean selectForUpdateMvcc = get("SELECT_FOR_UPDATE_MVCC", true);
 
+    /**
+     * Database setting <code>VECTORIZED_QUERY</code>
+     * (default: true).<br />
+     * If set, single table queries read rows in batches and evaluate
+     * conditions and aggregates one batch at a time.
+     */
+    public final boolean vectorizedQuery = get("VECTORIZED_QUERY", true);
+
     /**
      * Database setting <code>DEFAULT_STORAGE_ENGINE</code>
      * (default: AOSE).<br />
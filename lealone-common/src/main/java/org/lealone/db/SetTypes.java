@@ -214,7 +214,12 @@ public class SetTypes {
      */
     public static final int QUERY_STATISTICS_MAX_ENTRIES = 40;
 
-    private static final int COUNT = QUERY_STATISTICS_MAX_ENTRIES + 1;
+    /**
+     * The type of a SET QUERY_PARALLELISM statement.
+     */
+    public static final int QUERY_PARALLELISM = 41;
+
+    private static final int COUNT = QUERY_PARALLELISM + 1;
 
     private static final ArrayList<String> TYPES = new ArrayList<>(COUNT);
 
@@ -267,6 +272,7 @@ public class SetTypes {
         list.add(BINARY_COLLATION, "BINARY_COLLATION");
         list.add(QUERY_STATISTICS, "QUERY_STATISTICS");
         list.add(QUERY_STATISTICS_MAX_ENTRIES, "QUERY_STATISTICS_MAX_ENTRIES");
+        list.add(QUERY_PARALLELISM, "QUERY_PARALLELISM");
 
         TYPE_NAMES.addAll(TYPES);
     }
@@ -88,6 +88,41 @@ public class SysProperties {
      */
     public static final boolean CHECK2 = getProperty("check2", false);
 
+    /**
+     * System property <code>client.result.prefetch</code> (default: true).<br />
+     * Fetch the next rows of a result set in the background while the
+     * application is still reading the rows already received.
+     * Only used when client.result.stream is false, a streamed result set
+     * does not send fetch requests.
+     */
+    public static final boolean CLIENT_RESULT_PREFETCH = getProperty("client.result.prefetch", true);
+
+    /**
+     * System property <code>client.result.prefetch.max.bytes</code>
+     * (default: 1048576).<br />
+     * The fetch size of a result set may grow until a fetched batch of rows
+     * takes about this many bytes.
+     */
+    public static final int CLIENT_RESULT_PREFETCH_MAX_BYTES = getProperty("client.result.prefetch.max.bytes",
+            1024 * 1024);
+
+    /**
+     * System property <code>client.result.stream</code> (default: true).<br />
+     * Let the server push the remaining rows of a large result set instead of
+     * sending a fetch request for each batch. Takes precedence over
+     * client.result.prefetch: when both are true the result set is streamed.
+     * The rows of both modes are counted to estimate the row size that
+     * limits a batch to client.result.prefetch.max.bytes.
+     */
+    public static final boolean CLIENT_RESULT_STREAM = getProperty("client.result.stream", true);
+
+    /**
+     * System property <code>client.result.stream.credits</code> (default: 4).<br />
+     * The number of row batches the server may push before the client has
+     * read them.
+     */
+    public static final int CLIENT_RESULT_STREAM_CREDITS = Math.max(1, getProperty("client.result.stream.credits", 4));
+
     /**
      * System property <code>client.trace.directory</code> (default: trace.db/).<br />
      * Directory where the trace files of the JDBC client are stored (only for client / server).
@@ -167,6 +202,19 @@ public class SysProperties {
      */
     public static final long MAX_TRACE_DATA_LENGTH = getProperty("max.trace.data.length", 65535);
 
+    /**
+     * System property <code>net.buffer.direct</code> (default: true).<br />
+     * If the network layer should use direct byte buffers to receive packets.
+     */
+    public static final boolean NET_BUFFER_DIRECT = getProperty("net.buffer.direct", true);
+
+    /**
+     * System property <code>net.buffer.pool.size</code> (default: 32).<br />
+     * The maximum number of free buffers of each size class that are kept
+     * in the pool of the network layer.
+     */
+    public static final int NET_BUFFER_POOL_SIZE = getProperty("net.buffer.pool.size", 32);
+
     /**
      * System property <code>nio.load.mapped</code> (default: false).<br />
      * If the mapped buffer should be loaded when the file is opened.
@@ -97,6 +97,11 @@ public class AsyncCallback<T> implements Future<T> {
     protected void runInternal(NetInputStream in) throws Exception {
     }
 
+    // 流式响应会对同一个packetId返回多个响应包，收到最后一个之前不能删除回调
+    public boolean hasMoreResponses() {
+        return false;
+    }
+
     @Override
     public T get() {
         return await(-1);
@@ -43,4 +43,11 @@ public interface NetInputStream {
 
     Value readValue() throws IOException;
 
+    /**
+     * Get the number of bytes that can still be read.
+     *
+     * @return the number of bytes
+     */
+    int available() throws IOException;
+
 }
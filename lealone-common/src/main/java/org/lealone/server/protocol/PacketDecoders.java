@@ -58,7 +58,10 @@ import org.lealone.server.protocol.result.ResultChangeId;
 import org.lealone.server.protocol.result.ResultClose;
 import org.lealone.server.protocol.result.ResultFetchRows;
 import org.lealone.server.protocol.result.ResultFetchRowsAck;
+import org.lealone.server.protocol.result.ResultFetchStream;
+import org.lealone.server.protocol.result.ResultFetchStreamAck;
 import org.lealone.server.protocol.result.ResultReset;
+import org.lealone.server.protocol.result.ResultStreamCredit;
 import org.lealone.server.protocol.session.SessionCancelStatement;
 import org.lealone.server.protocol.session.SessionClose;
 import org.lealone.server.protocol.session.SessionInit;
@@ -132,6 +135,9 @@ public class PacketDecoders {
         register(PacketType.RESULT_CHANGE_ID, ResultChangeId.decoder);
         register(PacketType.RESULT_RESET, ResultReset.decoder);
         register(PacketType.RESULT_CLOSE, ResultClose.decoder);
+        register(PacketType.RESULT_FETCH_STREAM, ResultFetchStream.decoder);
+        register(PacketType.RESULT_FETCH_STREAM_ACK, ResultFetchStreamAck.decoder);
+        register(PacketType.RESULT_STREAM_CREDIT, ResultStreamCredit.decoder);
 
         register(PacketType.LOB_READ, LobRead.decoder);
         register(PacketType.LOB_READ_ACK, LobReadAck.decoder);
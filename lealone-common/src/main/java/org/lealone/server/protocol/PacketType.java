@@ -53,6 +53,9 @@ public enum PacketType {
     RESULT_CHANGE_ID(52),
     RESULT_RESET(53),
     RESULT_CLOSE(54),
+    RESULT_FETCH_STREAM(55),
+    RESULT_FETCH_STREAM_ACK(56),
+    RESULT_STREAM_CREDIT(57),
 
     LOB_READ(60),
     LOB_READ_ACK(61),
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.server.protocol.result;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.lealone.db.result.Result;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueBoolean;
+import org.lealone.db.value.ValueDouble;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueString;
+import org.lealone.net.NetInputStream;
+import org.lealone.net.NetOutputStream;
+import org.lealone.server.protocol.AckPacket;
+import org.lealone.server.protocol.PacketDecoder;
+import org.lealone.server.protocol.PacketType;
+
+/**
+ * 服务器端推送的一批记录，按列编码:
+ * 如果一列中不为null的值都是同一种常用类型，类型只写一次，null用位图表示，
+ * 值只写数据部分，省掉了ResultFetchRowsAck中每行的标记和每个值的类型；否则每个值还是用writeValue。
+ */
+public class ResultFetchStreamAck implements AckPacket {
+
+    private static final int GENERIC = -1;
+
+    public final List<Value[]> rows;
+    public final int columnCount;
+    public final boolean end; // 为true时说明服务器端已经没有记录了，这是最后一个响应包
+    public final int rowBytes; // 解码时读到的记录的字节数，客户端用它估算每行的大小
+
+    public ResultFetchStreamAck(List<Value[]> rows, int columnCount, boolean end) {
+        this(rows, columnCount, end, 0);
+    }
+
+    public ResultFetchStreamAck(List<Value[]> rows, int columnCount, boolean end, int rowBytes) {
+        this.rows = rows;
+        this.columnCount = columnCount;
+        this.end = end;
+        this.rowBytes = rowBytes;
+    }
+
+    @Override
+    public PacketType getType() {
+        return PacketType.RESULT_FETCH_STREAM_ACK;
+    }
+
+    /**
+     * Read at most count rows from the result.
+     *
+     * @param result the result
+     * @param count the maximum number of rows
+     * @return the packet
+     */
+    public static ResultFetchStreamAck create(Result result, int count) {
+        int columnCount = result.getVisibleColumnCount();
+        ArrayList<Value[]> rows = new ArrayList<>(count);
+        boolean end = false;
+        for (int i = 0; i < count; i++) {
+            if (!result.next()) {
+                end = true;
+                break;
+            }
+            // 有些结果集会重用currentRow返回的数组
+            rows.add(Arrays.copyOf(result.currentRow(), columnCount));
+        }
+        return new ResultFetchStreamAck(rows, columnCount, end);
+    }
+
+    @Override
+    public void encode(NetOutputStream out, int version) throws IOException {
+        int rowCount = rows.size();
+        out.writeBoolean(end).writeInt(columnCount).writeInt(rowCount);
+        for (int c = 0; c < columnCount; c++) {
+            int type = getColumnType(c);
+            out.writeInt(type);
+            if (type == GENERIC) {
+                for (int r = 0; r < rowCount; r++) {
+                    out.writeValue(rows.get(r)[c]);
+                }
+                continue;
+            }
+            byte[] nulls = null;
+            for (int r = 0; r < rowCount; r++) {
+                if (rows.get(r)[c].getType() == Value.NULL) {
+                    if (nulls == null)
+                        nulls = new byte[(rowCount + 7) / 8];
+                    nulls[r >> 3] |= 1 << (r & 7);
+                }
+            }
+            out.writeBoolean(nulls != null);
+            if (nulls != null)
+                out.writeBytes(nulls);
+            for (int r = 0; r < rowCount; r++) {
+                Value v = rows.get(r)[c];
+                if (v.getType() != Value.NULL)
+                    writeValue(out, type, v);
+            }
+        }
+    }
+
+    // 返回GENERIC说明这一列要用writeValue逐个写
+    private int getColumnType(int c) {
+        int type = Value.NULL;
+        for (int r = 0, rowCount = rows.size(); r < rowCount; r++) {
+            Value v = rows.get(r)[c];
+            int t = v.getType();
+            if (t == Value.NULL)
+                continue;
+            if (type == Value.NULL)
+                type = t;
+            else if (type != t)
+                return GENERIC;
+        }
+        switch (type) {
+        case Value.BOOLEAN:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DOUBLE:
+        case Value.STRING:
+            return type;
+        default:
+            return GENERIC;
+        }
+    }
+
+    private static void writeValue(NetOutputStream out, int type, Value v) throws IOException {
+        switch (type) {
+        case Value.BOOLEAN:
+            out.writeBoolean(v.getBoolean());
+            break;
+        case Value.INT:
+            out.writeInt(v.getInt());
+            break;
+        case Value.LONG:
+            out.writeLong(v.getLong());
+            break;
+        case Value.DOUBLE:
+            out.writeLong(Double.doubleToLongBits(v.getDouble()));
+            break;
+        default:
+            out.writeString(v.getString());
+        }
+    }
+
+    private static Value readValue(NetInputStream in, int type) throws IOException {
+        switch (type) {
+        case Value.BOOLEAN:
+            return ValueBoolean.get(in.readBoolean());
+        case Value.INT:
+            return ValueInt.get(in.readInt());
+        case Value.LONG:
+            return ValueLong.get(in.readLong());
+        case Value.DOUBLE:
+            return ValueDouble.get(Double.longBitsToDouble(in.readLong()));
+        default:
+            return ValueString.get(in.readString());
+        }
+    }
+
+    public static final Decoder decoder = new Decoder();
+
+    private static class Decoder implements PacketDecoder<ResultFetchStreamAck> {
+        @Override
+        public ResultFetchStreamAck decode(NetInputStream in, int version) throws IOException {
+            int available = in.available();
+            boolean end = in.readBoolean();
+            int columnCount = in.readInt();
+            int rowCount = in.readInt();
+            ArrayList<Value[]> rows = new ArrayList<>(rowCount);
+            for (int r = 0; r < rowCount; r++) {
+                rows.add(new Value[columnCount]);
+            }
+            for (int c = 0; c < columnCount; c++) {
+                int type = in.readInt();
+                if (type == GENERIC) {
+                    for (int r = 0; r < rowCount; r++) {
+                        rows.get(r)[c] = in.readValue();
+                    }
+                    continue;
+                }
+                byte[] nulls = in.readBoolean() ? in.readBytes() : null;
+                for (int r = 0; r < rowCount; r++) {
+                    if (nulls != null && (nulls[r >> 3] & (1 << (r & 7))) != 0)
+                        rows.get(r)[c] = ValueNull.INSTANCE;
+                    else
+                        rows.get(r)[c] = readValue(in, type);
+                }
+            }
+            return new ResultFetchStreamAck(rows, columnCount, end, available - in.available());
+        }
+    }
+}
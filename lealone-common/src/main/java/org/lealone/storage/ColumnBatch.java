@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage;
+
+/**
+ * A batch of rows returned by StorageMapCursor.nextColumnBatch,
+ * only the columns specified by IterationParameters.columnIndexes are filled.
+ *
+ * @author zhh
+ */
+public class ColumnBatch {
+
+    private final int[] columnIndexes;
+    private final ColumnVector[] vectors;
+    private Object[] keys;
+    private int keyOffset;
+    private int rowCount;
+
+    public ColumnBatch(int[] columnIndexes) {
+        this.columnIndexes = columnIndexes;
+        vectors = new ColumnVector[columnIndexes.length];
+        for (int i = 0; i < vectors.length; i++)
+            vectors[i] = new ColumnVector();
+    }
+
+    /**
+     * Start a new batch, the keys array is not copied.
+     *
+     * @param keys the keys of the page
+     * @param keyOffset the index of the first key of this batch
+     * @param rowCount the number of rows
+     */
+    public void reset(Object[] keys, int keyOffset, int rowCount) {
+        this.keys = keys;
+        this.keyOffset = keyOffset;
+        this.rowCount = rowCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public Object getKey(int row) {
+        return keys[keyOffset + row];
+    }
+
+    public int[] getColumnIndexes() {
+        return columnIndexes;
+    }
+
+    public int getColumnCount() {
+        return columnIndexes.length;
+    }
+
+    /**
+     * Get the vector of the i-th requested column (not the column index in the table).
+     *
+     * @param i the index in columnIndexes
+     * @return the vector
+     */
+    public ColumnVector getVector(int i) {
+        return vectors[i];
+    }
+}
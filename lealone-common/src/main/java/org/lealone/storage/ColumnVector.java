@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage;
+
+import java.util.Arrays;
+
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueDouble;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+
+/**
+ * The values of one column in a ColumnBatch.
+ * <p>
+ * INT、LONG、DOUBLE类型的列直接放在long[]或double[]中，不创建Value对象，null用位图表示；
+ * 其他类型的列或者同一列中出现了不同的类型时退化成Value[]。
+ * 数组会在下一批数据中重用，所以只在调用下一次nextColumnBatch之前有效。
+ *
+ * @author zhh
+ */
+public class ColumnVector {
+
+    private int valueType = Value.NULL; // 所有行都是null时是Value.NULL，退化成Value[]后是Value.UNKNOWN
+    private int rowCount;
+    private long[] longs;
+    private double[] doubles;
+    private Value[] values;
+    private long[] nulls = new long[1];
+
+    /**
+     * Clear the vector and make sure it can hold the given number of rows.
+     *
+     * @param rowCount the number of rows
+     */
+    public void reset(int rowCount) {
+        this.rowCount = rowCount;
+        valueType = Value.NULL;
+        int words = (rowCount + 63) >>> 6;
+        if (nulls.length < words)
+            nulls = new long[words];
+        else
+            Arrays.fill(nulls, 0, words, 0);
+        if (values != null)
+            Arrays.fill(values, 0, Math.min(rowCount, values.length), null);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the value type of the vector.
+     *
+     * @return Value.INT, Value.LONG or Value.DOUBLE if the values are in the primitive arrays,
+     *         Value.NULL if all rows are null, or Value.UNKNOWN if only getValues() can be used
+     */
+    public int getValueType() {
+        return valueType;
+    }
+
+    public boolean isLongVector() {
+        return valueType == Value.INT || valueType == Value.LONG;
+    }
+
+    public boolean isDoubleVector() {
+        return valueType == Value.DOUBLE;
+    }
+
+    public long[] getLongs() {
+        return longs;
+    }
+
+    public double[] getDoubles() {
+        return doubles;
+    }
+
+    public Value[] getValues() {
+        return values;
+    }
+
+    /**
+     * Get the null bitmap, the bit (row & 63) of the word (row >>> 6) is set if the row is null.
+     *
+     * @return the null bitmap
+     */
+    public long[] getNulls() {
+        return nulls;
+    }
+
+    public boolean isNull(int row) {
+        return (nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+    public long getLong(int row) {
+        return isLongVector() ? longs[row] : getValue(row).getLong();
+    }
+
+    public double getDouble(int row) {
+        if (isLongVector())
+            return longs[row];
+        return isDoubleVector() ? doubles[row] : getValue(row).getDouble();
+    }
+
+    public Value getValue(int row) {
+        if (isNull(row))
+            return ValueNull.INSTANCE;
+        switch (valueType) {
+        case Value.INT:
+            return ValueInt.get((int) longs[row]);
+        case Value.LONG:
+            return ValueLong.get(longs[row]);
+        case Value.DOUBLE:
+            return ValueDouble.get(doubles[row]);
+        default:
+            return values[row];
+        }
+    }
+
+    public void setNull(int row) {
+        nulls[row >>> 6] |= 1L << row;
+    }
+
+    public void setInt(int row, int v) {
+        if (setType(Value.INT))
+            longs[row] = v;
+        else
+            values[row] = ValueInt.get(v);
+    }
+
+    public void setLong(int row, long v) {
+        if (setType(Value.LONG))
+            longs[row] = v;
+        else
+            values[row] = ValueLong.get(v);
+    }
+
+    public void setDouble(int row, double v) {
+        if (setType(Value.DOUBLE))
+            doubles[row] = v;
+        else
+            values[row] = ValueDouble.get(v);
+    }
+
+    public void setValue(int row, Value v) {
+        if (v == null || v == ValueNull.INSTANCE) {
+            setNull(row);
+            return;
+        }
+        switch (v.getType()) {
+        case Value.INT:
+            setInt(row, v.getInt());
+            break;
+        case Value.LONG:
+            setLong(row, v.getLong());
+            break;
+        case Value.DOUBLE:
+            setDouble(row, v.getDouble());
+            break;
+        default:
+            setType(Value.UNKNOWN);
+            values[row] = v;
+        }
+    }
+
+    // 返回false表示要放到values中
+    private boolean setType(int type) {
+        if (valueType == type)
+            return true;
+        if (valueType == Value.NULL && type != Value.UNKNOWN) {
+            valueType = type;
+            if (type == Value.DOUBLE) {
+                if (doubles == null || doubles.length < rowCount)
+                    doubles = new double[rowCount];
+            } else {
+                if (longs == null || longs.length < rowCount)
+                    longs = new long[rowCount];
+            }
+            return true;
+        }
+        if (valueType != Value.UNKNOWN) {
+            // 前面的行已经放到了long[]或double[]中，先转成Value
+            if (values == null || values.length < rowCount)
+                values = new Value[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                if (!isNull(row) && values[row] == null)
+                    values[row] = getValue(row);
+            }
+            valueType = Value.UNKNOWN;
+        } else if (values == null || values.length < rowCount) {
+            values = values == null ? new Value[rowCount] : Arrays.copyOf(values, rowCount);
+        }
+        return false;
+    }
+
+    /**
+     * Move the rows [from, from + count) to [0, count).
+     *
+     * @param from the first row to keep
+     * @param count the number of rows to keep
+     */
+    public void retain(int from, int count) {
+        if (from > 0) {
+            for (int row = 0; row < count; row++) {
+                int src = from + row;
+                boolean isNull = isNull(src);
+                nulls[row >>> 6] &= ~(1L << row);
+                if (isNull) {
+                    setNull(row);
+                    continue;
+                }
+                switch (valueType) {
+                case Value.INT:
+                case Value.LONG:
+                    longs[row] = longs[src];
+                    break;
+                case Value.DOUBLE:
+                    doubles[row] = doubles[src];
+                    break;
+                default:
+                    values[row] = values[src];
+                }
+            }
+        }
+        for (int row = count; row < rowCount; row++)
+            nulls[row >>> 6] &= ~(1L << row);
+        if (values != null && count < values.length)
+            Arrays.fill(values, count, Math.min(rowCount, values.length), null);
+        rowCount = count;
+    }
+}
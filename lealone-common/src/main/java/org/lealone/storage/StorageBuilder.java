@@ -92,6 +92,18 @@ public abstract class StorageBuilder {
         return set("cacheSize", mb);
     }
 
+    /**
+     * Set the off-heap page cache size in MB. The default is 0, which disables it.
+     * The raw bytes of the pages read from disk are kept outside the java heap,
+     * so it can be much larger than the read cache, up to -XX:MaxDirectMemorySize.
+     * 
+     * @param mb the cache size in megabytes
+     * @return this
+     */
+    public StorageBuilder offHeapCacheSize(int mb) {
+        return set("offHeapCacheSize", mb);
+    }
+
     /**
      * Compress data before writing using the LZF algorithm. This will save
      * about 50% of the disk space, but will slow down read and write
@@ -166,6 +178,40 @@ public abstract class StorageBuilder {
         return set("minFillRate", minFillRate);
     }
 
+    /**
+     * Set the maximum speed of the background compaction, in MB per second.
+     * The default is 16 MB, 0 means no limit.
+     * 
+     * @param mb the speed in megabytes per second
+     * @return this
+     */
+    public StorageBuilder compactRateLimit(int mb) {
+        return set("compactRateLimit", mb);
+    }
+
+    /**
+     * Set the number of leaf pages to read ahead in a sequential scan.
+     * The default is 16, 0 means no read-ahead.
+     * 
+     * @param pages the number of pages
+     * @return this
+     */
+    public StorageBuilder readAheadPages(int pages) {
+        return set("readAheadPages", pages);
+    }
+
+    /**
+     * Read the chunk files through read-only memory mapping.
+     * The pages are deserialized straight from the mapped region,
+     * so a smaller page cache is usually enough.
+     * Encrypted files are never mapped.
+     * 
+     * @return this
+     */
+    public StorageBuilder mmap() {
+        return set("mmap", true);
+    }
+
     public StorageBuilder db(Object db) {
         return set("db", db);
     }
@@ -18,6 +18,9 @@
 package org.lealone.storage;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -69,6 +72,21 @@ public interface StorageMap<K, V> {
         return get(key);
     }
 
+    /**
+     * Get the values of several keys in one ordered pass.
+     *
+     * @param keys the keys, sorted in ascending order
+     * @param columnIndexes the columns to read, null for all columns
+     * @return the values in the same order as the keys, null if a key is not found
+     */
+    default List<V> get(List<K> keys, int[] columnIndexes) {
+        ArrayList<V> values = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            values.add(get(key, columnIndexes));
+        }
+        return values;
+    }
+
     /**
      * Add or replace a key-value pair.
      *
@@ -233,8 +251,30 @@ public interface StorageMap<K, V> {
      */
     void save();
 
+    /**
+     * Check whether the map has changes that are not saved yet, the flag is not cleared.
+     *
+     * @return true if there are unsaved changes, or if the implementation doesn't know
+     */
+    default boolean hasUnsavedChanges() {
+        return true;
+    }
+
     K append(V value);
 
+    /**
+     * Add the entries to an empty map. The entries are sorted by key in ascending order,
+     * so an implementation can build its pages directly instead of calling put for every key.
+     *
+     * @param entries the entries, sorted by key in ascending order
+     */
+    default void bulkLoad(Iterator<? extends Map.Entry<K, V>> entries) {
+        while (entries.hasNext()) {
+            Map.Entry<K, V> e = entries.next();
+            put(e.getKey(), e.getValue());
+        }
+    }
+
     void setMaxKey(Object key);
 
     long getDiskSpaceUsed();
@@ -318,4 +358,17 @@ public interface StorageMap<K, V> {
     default Map<String, List<PageKey>> getNodeToPageKeyMap(Session session, K from, K to) {
         throw DbException.getUnsupportedException("getNodeToPageKeyMap");
     }
+
+    /**
+     * Get the keys that split the range [from, to] into at most maxSplits parts of similar size.
+     * Every returned key is the first key of a part, the keys are sorted.
+     *
+     * @param from the first key, or null for the first key of the map
+     * @param to the last key, or null for the last key of the map
+     * @param maxSplits the maximum number of parts
+     * @return the split keys, empty if the range can't be split
+     */
+    default List<K> getSplitKeys(K from, K to, int maxSplits) {
+        return Collections.emptyList();
+    }
 }
@@ -49,4 +49,15 @@ public interface StorageMapCursor<K, V> extends Iterator<K> {
     default V[] nextBatch() {
         return null;
     }
+
+    /**
+     * Read the rows from the current position to the end of the current leaf page,
+     * only the columns specified by IterationParameters.columnIndexes are read.
+     * The returned batch is reused by the next call.
+     *
+     * @return the batch, or null if there are no more rows
+     */
+    default ColumnBatch nextColumnBatch() {
+        throw DataUtils.newUnsupportedOperationException("Column batch is not supported");
+    }
 }
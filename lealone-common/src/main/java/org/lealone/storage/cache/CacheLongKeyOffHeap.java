@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.storage.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+/**
+ * An off-heap cache of byte arrays that uses keys of type long.
+ * <p>
+ * 用来缓存序列化后的数据(比如page在文件中的原始字节)，数据放在direct ByteBuffer中，不占用java堆，
+ * 所以可以比CacheLongKeyLIRS大很多，但是最大不能超过-XX:MaxDirectMemorySize。
+ * <p>
+ * 内存按固定大小的slab分配，数据追加到当前slab的末尾，所有slab都用完之后按FIFO的顺序整个回收最老的slab。
+ * 热数据通常已经在上一级的CacheLongKeyLIRS中了，所以这里不需要更精确的淘汰算法。
+ *
+ * @author zhh
+ */
+public class CacheLongKeyOffHeap {
+
+    private static final int MAX_SLAB_SIZE = 8 * 1024 * 1024;
+
+    private static class Slab {
+        ByteBuffer buffer; // 第一次使用时才分配
+        int epoch; // 每回收一次加1，用来识别指向已回收数据的位置
+        int writePos;
+        long[] keys = new long[64];
+        int keyCount;
+    }
+
+    private final long maxMemory;
+    private final int slabSize;
+    private final Slab[] slabs;
+    // value的格式: slab index(16位) | epoch(16位) | offset(32位)
+    private final ConcurrentHashMap<Long, Long> index = new ConcurrentHashMap<>();
+    private int currentSlab = -1;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong usedMemory = new AtomicLong();
+
+    /**
+     * Create a new cache with the given memory size.
+     *
+     * @param maxMemory the maximum memory in bytes
+     */
+    public CacheLongKeyOffHeap(long maxMemory) {
+        if (maxMemory <= 0)
+            throw new IllegalArgumentException("Max memory must be larger than 0");
+        slabSize = (int) Math.min(MAX_SLAB_SIZE, maxMemory);
+        long count = Math.max(1, maxMemory / slabSize);
+        if (count > 0xffff)
+            throw new IllegalArgumentException("Max memory is too large: " + maxMemory);
+        this.maxMemory = count * slabSize;
+        slabs = new Slab[(int) count];
+        for (int i = 0; i < slabs.length; i++)
+            slabs[i] = new Slab();
+    }
+
+    /**
+     * Get a copy of the bytes stored for the key.
+     *
+     * @param key the key
+     * @return the bytes, or null if not found
+     */
+    public ByteBuffer get(long key) {
+        Long loc = index.get(key);
+        if (loc != null) {
+            Slab slab = slabs[(int) (loc >>> 48)];
+            int offset = (int) loc.longValue();
+            // 复制数据时slab不能被回收
+            synchronized (slab) {
+                if (slab.buffer != null && slab.epoch == (int) ((loc >>> 32) & 0xffff)) {
+                    int len = slab.buffer.getInt(offset);
+                    byte[] bytes = new byte[len];
+                    ByteBuffer buff = slab.buffer.duplicate();
+                    buff.position(offset + 4);
+                    buff.get(bytes);
+                    hits.incrementAndGet();
+                    return ByteBuffer.wrap(bytes);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Copy the remaining bytes of the buffer into the cache.
+     * The position of the buffer is not changed.
+     *
+     * @param key the key
+     * @param value the bytes
+     * @return false if the value is too large to be cached
+     */
+    public synchronized boolean put(long key, ByteBuffer value) {
+        int len = value.remaining();
+        if (len + 4 > slabSize)
+            return false;
+        if (currentSlab < 0 || slabs[currentSlab].writePos + 4 + len > slabSize)
+            nextSlab();
+        Slab slab = slabs[currentSlab];
+        int offset = slab.writePos;
+        synchronized (slab) {
+            ByteBuffer buff = slab.buffer.duplicate();
+            buff.position(offset);
+            buff.putInt(len);
+            buff.put(value.duplicate());
+            slab.writePos = buff.position();
+            if (slab.keyCount == slab.keys.length)
+                slab.keys = Arrays.copyOf(slab.keys, slab.keyCount * 2);
+            slab.keys[slab.keyCount++] = key;
+        }
+        usedMemory.addAndGet(4 + len);
+        index.put(key, ((long) currentSlab << 48) | ((long) (slab.epoch & 0xffff) << 32) | offset);
+        return true;
+    }
+
+    private void nextSlab() {
+        currentSlab = (currentSlab + 1) % slabs.length;
+        Slab slab = slabs[currentSlab];
+        if (slab.buffer == null) {
+            slab.buffer = ByteBuffer.allocateDirect(slabSize);
+            return;
+        }
+        synchronized (slab) {
+            slab.epoch = (slab.epoch + 1) & 0xffff;
+            long prefix = (long) currentSlab << 48;
+            long evicted = 0;
+            for (int i = 0; i < slab.keyCount; i++) {
+                long key = slab.keys[i];
+                Long loc = index.get(key);
+                // key可能已经被删除或者指向了其他slab
+                if (loc != null && (loc & 0xffff000000000000L) == prefix && index.remove(key, loc))
+                    evicted++;
+            }
+            evictions.addAndGet(evicted);
+            usedMemory.addAndGet(-slab.writePos);
+            slab.writePos = 0;
+            slab.keyCount = 0;
+        }
+    }
+
+    /**
+     * Remove the entry. The memory is reclaimed when the slab is reused.
+     *
+     * @param key the key
+     */
+    public void remove(long key) {
+        index.remove(key);
+    }
+
+    /**
+     * Remove all entries whose keys match the predicate.
+     *
+     * @param filter the predicate
+     */
+    public void removeIf(LongPredicate filter) {
+        index.keySet().removeIf(key -> filter.test(key));
+    }
+
+    /**
+     * Remove all entries and release the memory.
+     */
+    public synchronized void clear() {
+        index.clear();
+        for (Slab slab : slabs) {
+            synchronized (slab) {
+                slab.epoch = (slab.epoch + 1) & 0xffff;
+                slab.buffer = null;
+                slab.writePos = 0;
+                slab.keys = new long[64];
+                slab.keyCount = 0;
+            }
+        }
+        currentSlab = -1;
+        usedMemory.set(0);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Get the number of bytes written into the slabs, including removed entries
+     * that are not yet reclaimed.
+     *
+     * @return the used memory
+     */
+    public long getUsedMemory() {
+        return usedMemory.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of entries evicted because the memory was reused.
+     *
+     * @return the number of evicted entries
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
@@ -111,6 +111,11 @@ public class FileStorage {
      */
     protected FileLock fileLock;
 
+    /**
+     * The read-only memory mapped view of the file, or null if the file is not mapped.
+     */
+    private FileNioMapped mappedFile;
+
     @Override
     public String toString() {
         return fileName;
@@ -570,6 +575,18 @@ public class FileStorage {
      * @return the byte buffer
      */
     public ByteBuffer readFully(long pos, int len) {
+        if (mappedFile != null) {
+            try {
+                ByteBuffer dst = mappedFile.getMappedBuffer(pos, len);
+                readCount++;
+                readBytes += len;
+                return dst;
+            } catch (IOException e) {
+                throw DataUtils.newIllegalStateException(DataUtils.ERROR_READING_FAILED,
+                        "Reading from {0} failed; file length {1} read length {2} at {3}", fileName, fileSize, len,
+                        pos, e);
+            }
+        }
         ByteBuffer dst = ByteBuffer.allocate(len);
         if (len > 0) {
             DataUtils.readFully(file, pos, dst);
@@ -657,12 +674,43 @@ public class FileStorage {
         }
     }
 
+    /**
+     * Map the file into memory in read-only mode, the file must not be modified after that.
+     * Later reads return read-only views of the mapped region instead of copying the bytes.
+     * Encrypted files and files not on the disk are not mapped.
+     *
+     * @return true if the file is mapped
+     */
+    public boolean mapReadOnly() {
+        if (mappedFile != null)
+            return true;
+        if (encryptedFile != null || fileName == null || !fileName.startsWith("nio:"))
+            return false;
+        try {
+            FilePath p = FilePath.get("nioMapped:" + fileName.substring("nio:".length()));
+            mappedFile = (FileNioMapped) p.open("r");
+            return true;
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(DataUtils.ERROR_READING_FAILED, "Could not map file {0}",
+                    fileName, e);
+        }
+    }
+
+    public boolean isMapped() {
+        return mappedFile != null;
+    }
+
     /**
      * Close this file.
      */
     public void close() {
         try {
             trace("close", name, file);
+            if (mappedFile != null) {
+                // 不会强制释放映射，还在使用的视图仍然可以读，等GC回收后才真正释放
+                mappedFile.close();
+                mappedFile = null;
+            }
             if (fileLock != null) {
                 fileLock.release();
                 fileLock = null;
@@ -10,6 +10,7 @@ import java.nio.ByteBuffer;
 import org.lealone.common.util.DataUtils;
 import org.lealone.db.DataBuffer;
 import org.lealone.db.value.Value;
+import org.lealone.storage.ColumnVector;
 
 /**
  * A data type.
@@ -151,6 +152,47 @@ public interface StorageDataType {
         // do nothing
     }
 
+    /**
+     * Read all rows of a column page written by writeColumn into the vector,
+     * without creating the row objects.
+     *
+     * @param buff the source buffer
+     * @param vector the target vector, already reset to rowCount
+     * @param rowCount the number of rows
+     */
+    default void readColumnVector(ByteBuffer buff, ColumnVector vector, int rowCount) {
+        for (int row = 0; row < rowCount; row++) {
+            copyColumn(read(buff), 0, vector, row);
+        }
+    }
+
+    /**
+     * Copy a column of the row object into the vector.
+     *
+     * @param obj the row object
+     * @param columnIndex the column index
+     * @param vector the target vector
+     * @param row the row in the vector
+     */
+    default void copyColumn(Object obj, int columnIndex, ColumnVector vector, int row) {
+        if (obj == null || obj instanceof Value)
+            vector.setValue(row, (Value) obj);
+        else
+            throw DataUtils.newUnsupportedOperationException("Column vector is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Set a column of the row object to the value in the vector.
+     *
+     * @param obj the row object
+     * @param columnIndex the column index
+     * @param vector the source vector
+     * @param row the row in the vector
+     */
+    default void setColumn(Object obj, int columnIndex, ColumnVector vector, int row) {
+        throw DataUtils.newUnsupportedOperationException("Column vector is not supported by " + getClass().getName());
+    }
+
     default void setColumns(Object oldObj, Object newObj, int[] columnIndexes) {
         // do nothing
     }
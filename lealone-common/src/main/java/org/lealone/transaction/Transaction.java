@@ -92,6 +92,15 @@ public interface Transaction {
 
     void checkTimeout();
 
+    /**
+     * Whether the transaction has written any record.
+     *
+     * @return true if the transaction has changes
+     */
+    default boolean hasChanges() {
+        return true;
+    }
+
     /**
      * Open a data map.
      *
@@ -19,7 +19,9 @@
 package org.lealone.transaction;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 
 import org.lealone.storage.IterationParameters;
@@ -52,6 +54,18 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
      */
     public V putCommitted(K key, V value);
 
+    /**
+     * Add the entries to an empty map as committed values, without adding undo log entries.
+     *
+     * @param entries the entries, sorted by key in ascending order
+     */
+    public default void bulkLoadCommitted(Iterator<? extends Entry<K, V>> entries) {
+        while (entries.hasNext()) {
+            Entry<K, V> e = entries.next();
+            putCommitted(e.getKey(), e.getValue());
+        }
+    }
+
     /**
      * Iterate over entries.
      *
@@ -117,6 +131,21 @@ public interface TransactionMap<K, V> extends StorageMap<K, V> {
 
     public Object[] getValueAndRef(K key, int[] columnIndexes);
 
+    /**
+     * Get the values and the raw transactional values of several keys in one ordered pass.
+     *
+     * @param keys the keys, sorted in ascending order
+     * @param columnIndexes the columns to read, null for all columns
+     * @return the same as getValueAndRef for each key, in the same order as the keys
+     */
+    public default List<Object[]> getValueAndRefs(List<K> keys, int[] columnIndexes) {
+        ArrayList<Object[]> list = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            list.add(getValueAndRef(key, columnIndexes));
+        }
+        return list;
+    }
+
     public Object getValue(Object oldTransactionalValue);
 
     public Object getTransactionalValue(K key);
@@ -129,6 +129,33 @@ public interface Index extends SchemaObject {
      */
     double getCost(ServerSession session, int[] masks, SortOrder sortOrder);
 
+    /**
+     * Estimate the cost to search for rows given the search mask and the columns
+     * the query needs. An index that covers all these columns can return the rows
+     * without reading the primary index.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks, null means 'always false',
+     *              see constants in IndexCondition
+     * @param sortOrder the sort order
+     * @param columnIndexes the columns the query reads, null means all columns
+     * @return the estimated cost
+     */
+    default double getCost(ServerSession session, int[] masks, SortOrder sortOrder, int[] columnIndexes) {
+        return getCost(session, masks, sortOrder);
+    }
+
+    /**
+     * Check if the index entries contain all the given columns,
+     * so that a query only reading these columns never needs the primary index.
+     *
+     * @param columnIndexes the columns the query reads, null means all columns
+     * @return true if the index covers them
+     */
+    default boolean isCovering(int[] columnIndexes) {
+        return false;
+    }
+
     /**
      * Remove the index.
      *
@@ -161,6 +161,20 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
      * @return the estimated cost
      */
     protected long getCostRangeIndex(int[] masks, long rowCount, SortOrder sortOrder) {
+        return getCostRangeIndex(masks, rowCount, sortOrder, false);
+    }
+
+    /**
+     * Calculate the cost for the given mask as if this index was a typical
+     * b-tree range index.
+     *
+     * @param masks the search mask
+     * @param rowCount the number of rows in the index
+     * @param sortOrder the sort order
+     * @param covering whether the index contains all columns the query reads
+     * @return the estimated cost
+     */
+    protected long getCostRangeIndex(int[] masks, long rowCount, SortOrder sortOrder, boolean covering) {
         rowCount += Constants.COST_ROW_OFFSET;
         long cost = rowCount;
         long rows = rowCount;
@@ -205,6 +219,10 @@ public abstract class IndexBase extends SchemaObjectBase implements Index {
                 break;
             }
         }
+        // 覆盖索引不用再按row key到primary index中读记录，所以代价只算一半
+        if (covering) {
+            cost = (cost + 1) / 2;
+        }
         // if the ORDER BY clause matches the ordering of this index,
         // it will be cheaper than another index, so adjust the cost accordingly
         if (sortOrder != null) {
@@ -92,6 +92,10 @@ public class StandardDelegateIndex extends IndexBase implements StandardIndex {
         // nothing to do
     }
 
+    public StandardPrimaryIndex getMainIndex() {
+        return mainIndex;
+    }
+
     @Override
     public Cursor find(ServerSession session, SearchRow first, SearchRow last) {
         ValueLong min = mainIndex.getKey(first, StandardPrimaryIndex.MIN, StandardPrimaryIndex.MIN);
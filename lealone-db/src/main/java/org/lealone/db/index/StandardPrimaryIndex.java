@@ -276,10 +276,41 @@ public class StandardPrimaryIndex extends IndexBase {
 
     public Row getRow(ServerSession session, long key, int[] columnIndexes) {
         Object[] valueAndRef = getMap(session).getValueAndRef(ValueLong.get(key), columnIndexes);
+        return createRow(key, valueAndRef);
+    }
+
+    /**
+     * Get the rows of several keys. The keys are sorted first, so the primary map
+     * is read in one ordered pass instead of one random lookup per key.
+     *
+     * @param session the session
+     * @param keys the row keys, in any order
+     * @param columnIndexes the columns to read, null for all columns
+     * @return the rows in the same order as the keys, null if a row does not exist
+     */
+    public Row[] getRows(ServerSession session, long[] keys, int[] columnIndexes) {
+        int size = keys.length;
+        long[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        ArrayList<Value> list = new ArrayList<>(size);
+        for (long key : sortedKeys) {
+            list.add(ValueLong.get(key));
+        }
+        List<Object[]> valueAndRefs = getMap(session).getValueAndRefs(list, columnIndexes);
+        Row[] rows = new Row[size];
+        for (int i = 0; i < size; i++) {
+            int index = Arrays.binarySearch(sortedKeys, keys[i]);
+            rows[i] = createRow(keys[i], valueAndRefs.get(index));
+        }
+        return rows;
+    }
+
+    private static Row createRow(long key, Object[] valueAndRef) {
         VersionedValue v = (VersionedValue) valueAndRef[0];
-        ValueArray array = v.value;
-        array = v.value;
-        Row row = new Row(array.getList(), 0);
+        // 已经删除了
+        if (v == null)
+            return null;
+        Row row = new Row(v.value.getList(), 0);
         row.setKey(key);
         row.setVersion(v.version);
         row.setRawValue(valueAndRef[1]);
@@ -425,6 +456,45 @@ public class StandardPrimaryIndex extends IndexBase {
         return new StandardPrimaryIndexCursor(session, table, this, getMap(session).entryIterator(first), last);
     }
 
+    /**
+     * Search for the rows between two keys, only the given columns are read.
+     *
+     * @param session the session
+     * @param first the key of the first row
+     * @param last the key of the last row
+     * @param columnIndexes the columns to read, null for all columns
+     * @return the cursor
+     */
+    public Cursor find(ServerSession session, ValueLong first, ValueLong last, int[] columnIndexes) {
+        IterationParameters<Value> parameters = IterationParameters.create(first, last, null, columnIndexes);
+        return new StandardPrimaryIndexCursor(session, table, this, getMap(session).entryIterator(parameters), last);
+    }
+
+    /**
+     * Split the rows between first and last into at most maxSplits ranges of row keys.
+     * The ranges don't overlap and are sorted by key.
+     *
+     * @param session the session
+     * @param first the first row, or null
+     * @param last the last row, or null
+     * @param maxSplits the maximum number of ranges
+     * @return the first and last key of each range
+     */
+    public ValueLong[][] getKeyRanges(ServerSession session, SearchRow first, SearchRow last, int maxSplits) {
+        ValueLong[] minAndMaxValues = getMinAndMaxValues(first, last);
+        List<Value> splitKeys = getMap(session).getSplitKeys(minAndMaxValues[0], minAndMaxValues[1], maxSplits);
+        int size = splitKeys.size();
+        ValueLong[][] ranges = new ValueLong[size + 1][];
+        ValueLong min = minAndMaxValues[0];
+        for (int i = 0; i < size; i++) {
+            long key = splitKeys.get(i).getLong();
+            ranges[i] = new ValueLong[] { min, ValueLong.get(key - 1) };
+            min = ValueLong.get(key);
+        }
+        ranges[size] = new ValueLong[] { min, minAndMaxValues[1] };
+        return ranges;
+    }
+
     @Override
     public boolean isRowIdIndex() {
         return true;
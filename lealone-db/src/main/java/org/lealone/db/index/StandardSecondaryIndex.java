@@ -6,12 +6,16 @@
 package org.lealone.db.index;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.TreeSet;
 
 import org.lealone.common.exceptions.DbException;
+import org.lealone.common.util.StatementBuilder;
 import org.lealone.db.api.ErrorCode;
 import org.lealone.db.result.Row;
 import org.lealone.db.result.SearchRow;
@@ -27,6 +31,7 @@ import org.lealone.db.value.ValueLong;
 import org.lealone.db.value.ValueNull;
 import org.lealone.storage.Storage;
 import org.lealone.storage.StorageMap;
+import org.lealone.storage.type.StorageDataType;
 import org.lealone.transaction.Transaction;
 import org.lealone.transaction.TransactionMap;
 
@@ -39,15 +44,23 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
     private final StandardTable table;
     private final String mapName;
     private final int keyColumns;
+    private final Column[] includeColumns; // INCLUDE的字段值放在map的value中，没有时是空数组
     private final TransactionMap<Value, Value> dataMap;
 
     public StandardSecondaryIndex(ServerSession session, StandardTable table, int id, String indexName,
-            IndexColumn[] indexColumns, IndexType indexType) {
+            IndexColumn[] indexColumns, IndexType indexType, Column[] includeColumns) {
         super(table, id, indexName, indexType, indexColumns);
         this.table = table;
+        this.includeColumns = includeColumns == null ? new Column[0] : includeColumns;
         mapName = table.getMapNameForIndex(id);
         if (!database.isStarting()) {
             checkIndexColumnTypes(indexColumns);
+            for (Column c : this.includeColumns) {
+                int type = c.getType();
+                if (type == Value.CLOB || type == Value.BLOB) {
+                    throw DbException.getUnsupportedException("Include BLOB or CLOB column: " + c.getCreateSQL());
+                }
+            }
         }
         // always store the row key in the map key,
         // even for unique indexes, as some of the index columns could be null
@@ -56,13 +69,17 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         dataMap = openMap(session, mapName);
     }
 
-    private TransactionMap<Value, Value> openMap(ServerSession session, String mapName) {
+    private int[] getSortTypes() {
         int[] sortTypes = new int[keyColumns];
         for (int i = 0; i < indexColumns.length; i++) {
             sortTypes[i] = indexColumns[i].sortType;
         }
         sortTypes[keyColumns - 1] = SortOrder.ASCENDING;
+        return sortTypes;
+    }
 
+    private TransactionMap<Value, Value> openMap(ServerSession session, String mapName) {
+        int[] sortTypes = getSortTypes();
         ValueDataType keyType;
         if (indexType.isUnique())
             keyType = new UniqueKeyDataType(database, database.getCompareMode(), sortTypes);
@@ -88,12 +105,55 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         return mapName;
     }
 
+    @Override
+    public boolean isCovering(int[] columnIndexes) {
+        if (columnIndexes == null) {
+            return false;
+        }
+        int mainIndexColumn = getMainIndexColumn();
+        for (int columnIndex : columnIndexes) {
+            if (columnIndex < 0 || columnIndex != mainIndexColumn && !containsColumn(columnIndex)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean containsColumn(int columnIndex) {
+        for (Column c : columns) {
+            if (c.getColumnId() == columnIndex) {
+                return true;
+            }
+        }
+        for (Column c : includeColumns) {
+            if (c.getColumnId() == columnIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String getCreateSQL() {
+        String sql = super.getCreateSQL();
+        if (includeColumns.length == 0) {
+            return sql;
+        }
+        StatementBuilder buff = new StatementBuilder(sql);
+        buff.append(" INCLUDE(");
+        for (Column c : includeColumns) {
+            buff.appendExceptFirst(", ");
+            buff.append(c.getSQL());
+        }
+        return buff.append(')').toString();
+    }
+
     @Override
     public void addRowsToBuffer(ServerSession session, List<Row> rows, String bufferName) {
         TransactionMap<Value, Value> map = openMap(session, bufferName);
         for (Row row : rows) {
             ValueArray key = convertToKey(row);
-            map.put(key, ValueNull.INSTANCE);
+            map.put(key, convertToValue(row));
         }
     }
 
@@ -108,6 +168,7 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
             Value value;
             Iterator<Value> next;
             int sourceId;
+            TransactionMap<Value, Value> map;
 
             @Override
             public int compareTo(Source o) {
@@ -127,6 +188,7 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
                 s.value = it.next();
                 s.next = it;
                 s.sourceId = i;
+                s.map = map;
                 sources.add(s);
             }
         }
@@ -145,7 +207,7 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
                     checkUnique(row, dataMap, unique);
                 }
 
-                dataMap.putCommitted(v, ValueNull.INSTANCE);
+                dataMap.putCommitted(v, includeColumns.length == 0 ? ValueNull.INSTANCE : s.map.get(v));
 
                 Iterator<Value> it = s.next;
                 if (!it.hasNext()) {
@@ -168,6 +230,100 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         }
     }
 
+    /**
+     * Get the comparator of the index keys. Different from the key type of a unique index,
+     * the row key is also compared, so the keys of different rows are never equal.
+     *
+     * @return the comparator
+     */
+    Comparator<Value> getKeyComparator() {
+        ValueDataType keyType = new ValueDataType(database, database.getCompareMode(), getSortTypes());
+        return new Comparator<Value>() {
+            @Override
+            public int compare(Value v1, Value v2) {
+                return keyType.compare(v1, v2);
+            }
+        };
+    }
+
+    /**
+     * Add the sorted index keys to the empty index. The keys of a unique index are checked
+     * the same way as addBufferedRows does.
+     *
+     * @param entries the index keys and values, sorted by getKeyComparator
+     */
+    void bulkLoad(Iterator<Entry<Value, Value>> entries) {
+        if (!indexType.isUnique()) {
+            dataMap.bulkLoadCommitted(entries);
+            return;
+        }
+        StorageDataType keyType = dataMap.getKeyType();
+        // 唯一索引的key比较时不管row key，相同的key在排好序后是相邻的
+        dataMap.bulkLoadCommitted(new Iterator<Entry<Value, Value>>() {
+            private Entry<Value, Value> current;
+            private Entry<Value, Value> next = fetchNext();
+
+            private Entry<Value, Value> fetchNext() {
+                while (entries.hasNext()) {
+                    Entry<Value, Value> e = entries.next();
+                    if (current == null || keyType.compare(current.getKey(), e.getKey()) != 0) {
+                        return e;
+                    }
+                    ValueArray k = (ValueArray) e.getKey();
+                    if (!containsNullAndAllowMultipleNull(convertToSearchRow(k))) {
+                        throw getDuplicateKeyException(k.toString());
+                    }
+                    // map中放不下比较结果相同的两个key，跟putCommitted一样只保留一个
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry<Value, Value> next() {
+                current = next;
+                next = fetchNext();
+                return current;
+            }
+        });
+    }
+
+    /**
+     * Add the index key of a committed row, without adding undo log entries.
+     *
+     * @param row the row
+     */
+    void putCommitted(Row row) {
+        ValueArray key = convertToKey(row);
+        if (indexType.isUnique()) {
+            Value[] array = key.getList().clone();
+            array[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
+            checkUnique(row, dataMap, ValueArray.get(array));
+        }
+        dataMap.putCommitted(key, convertToValue(row));
+    }
+
+    /**
+     * Remove the index key of a row if it exists, without adding undo log entries.
+     *
+     * @param row the row
+     */
+    void removeCommitted(Row row) {
+        ValueArray key = convertToKey(row);
+        Iterator<Value> it = dataMap.keyIterator(key, true);
+        if (it.hasNext()) {
+            ValueArray k = (ValueArray) it.next();
+            // 唯一索引的key比较时不管row key，不能删掉其他记录的索引key
+            if (dataMap.getKeyType().compare(k, key) == 0 && k.getList()[keyColumns - 1].getLong() == row.getKey()) {
+                dataMap.getRawMap().remove(k);
+            }
+        }
+    }
+
     @Override
     public void close(ServerSession session) {
         // ok
@@ -218,7 +374,7 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
             }
         };
         globalListener.beforeOperation();
-        map.addIfAbsent(array, ValueNull.INSTANCE, localListener);
+        map.addIfAbsent(array, convertToValue(row), localListener);
         return true;
     }
 
@@ -231,6 +387,19 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
                 return super.tryUpdate(session, oldRow, newRow, updateColumns, globalListener);
             }
         }
+        // 只更新了INCLUDE字段时索引key不变，直接替换value
+        for (Column c : includeColumns) {
+            if (updateColumns.contains(c)) {
+                TransactionMap<Value, Value> map = getMap(session);
+                ValueArray array = convertToKey(oldRow);
+                Object oldTransactionalValue = map.getTransactionalValue(array);
+                if (map.isLocked(oldTransactionalValue, null))
+                    return map.addWaitingTransaction(ValueLong.get(oldRow.getKey()), oldTransactionalValue,
+                            globalListener);
+                else
+                    return map.tryUpdate(array, convertToValue(newRow), oldTransactionalValue);
+            }
+        }
         return Transaction.OPERATION_COMPLETE;
     }
 
@@ -251,10 +420,13 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         if (min != null) {
             min.getList()[keyColumns - 1] = ValueLong.get(Long.MIN_VALUE);
         }
-        return new StandardSecondaryIndexCursor(session, getMap(session).keyIterator(min), last);
+        TransactionMap<Value, Value> map = getMap(session);
+        // 有INCLUDE字段时要连同value一起读出来
+        Iterator<?> it = includeColumns.length == 0 ? map.keyIterator(min) : map.entryIterator(min);
+        return new StandardSecondaryIndexCursor(session, it, last);
     }
 
-    private ValueArray convertToKey(SearchRow r) {
+    ValueArray convertToKey(SearchRow r) {
         if (r == null) {
             return null;
         }
@@ -271,6 +443,17 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         return ValueArray.get(array);
     }
 
+    Value convertToValue(SearchRow r) {
+        if (includeColumns.length == 0) {
+            return ValueNull.INSTANCE;
+        }
+        Value[] array = new Value[includeColumns.length];
+        for (int i = 0; i < includeColumns.length; i++) {
+            array[i] = r.getValue(includeColumns[i].getColumnId());
+        }
+        return ValueArray.get(array);
+    }
+
     /**
      * Convert array of values to a SearchRow.
      *
@@ -292,10 +475,43 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
         return searchRow;
     }
 
+    /**
+     * Convert the index key and the values of the include columns to a SearchRow.
+     *
+     * @param key the index key
+     * @param value the values of the include columns, or null if they are not read
+     * @return the row
+     */
+    private SearchRow convertToSearchRow(ValueArray key, Value value) {
+        SearchRow searchRow = convertToSearchRow(key);
+        if (value instanceof ValueArray) {
+            Value[] values = ((ValueArray) value).getList();
+            for (int i = 0; i < includeColumns.length; i++) {
+                searchRow.setValue(includeColumns[i].getColumnId(), values[i]);
+            }
+        }
+        int mainIndexColumn = getMainIndexColumn();
+        if (mainIndexColumn >= 0 && searchRow.getValue(mainIndexColumn) == null) {
+            Column c = table.getColumn(mainIndexColumn);
+            searchRow.setValue(mainIndexColumn, ValueLong.get(searchRow.getKey()).convertTo(c.getType()));
+        }
+        return searchRow;
+    }
+
+    // 主键字段的值就是row key
+    private int getMainIndexColumn() {
+        return ((StandardPrimaryIndex) table.getScanIndex(null)).getMainIndexColumn();
+    }
+
     @Override
     public double getCost(ServerSession session, int[] masks, SortOrder sortOrder) {
+        return getCost(session, masks, sortOrder, null);
+    }
+
+    @Override
+    public double getCost(ServerSession session, int[] masks, SortOrder sortOrder, int[] columnIndexes) {
         try {
-            return 10 * getCostRangeIndex(masks, dataMap.rawSize(), sortOrder);
+            return 10 * getCostRangeIndex(masks, dataMap.rawSize(), sortOrder, isCovering(columnIndexes));
         } catch (IllegalStateException e) {
             throw DbException.get(ErrorCode.OBJECT_CLOSED, e);
         }
@@ -411,20 +627,36 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
 
     /**
      * A cursor.
+     * <p>
+     * 索引记录是一批一批读出来的，第一次调用get时把这一批记录的row key排好序，
+     * 然后一次性按顺序从primary index中读出所有记录，而不是每条索引记录都随机查找一次primary index。
+     * 批的大小从1开始翻倍，直到INDEX_LOOKUP_BATCH_SIZE，这样只找一条记录时跟原来一样。
+     * 有INCLUDE字段时it返回的是Entry，value中的字段值会放到getSearchRow返回的记录中。
      */
     private class StandardSecondaryIndexCursor implements Cursor {
 
         private final ServerSession session;
-        private final Iterator<Value> it;
+        private final Iterator<?> it;
         private final SearchRow last;
-        private Value current;
+        private final int maxBatchSize;
+        private final ArrayList<ValueArray> batch = new ArrayList<>();
+        private final ArrayList<Value> batchValues = new ArrayList<>();
+        private int batchSize = 1;
+        private int batchIndex;
+        private boolean end;
+        private Row[] rows; // 按批读出来的记录，还没读时为null
+        private int[] rowsColumnIndexes;
+
+        private ValueArray current;
+        private Value currentValue;
         private SearchRow searchRow;
         private Row row;
 
-        public StandardSecondaryIndexCursor(ServerSession session, Iterator<Value> it, SearchRow last) {
+        public StandardSecondaryIndexCursor(ServerSession session, Iterator<?> it, SearchRow last) {
             this.session = session;
             this.it = it;
             this.last = last;
+            maxBatchSize = Math.max(1, database.getSettings().indexLookupBatchSize);
         }
 
         @Override
@@ -434,20 +666,36 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
 
         @Override
         public Row get(int[] columnIndexes) {
-            if (row == null) {
-                SearchRow r = getSearchRow();
-                if (r != null) {
-                    row = table.getRow(session, r.getKey(), columnIndexes);
+            if (row == null && current != null) {
+                if (batch.size() > 1) {
+                    if (rows == null) {
+                        long[] keys = new long[batch.size()];
+                        for (int i = 0; i < keys.length; i++) {
+                            keys[i] = getKey(batch.get(i));
+                        }
+                        rows = table.getRows(session, keys, columnIndexes);
+                        rowsColumnIndexes = columnIndexes;
+                    }
+                    // 要读的列不一样时只能单独读
+                    if (Arrays.equals(rowsColumnIndexes, columnIndexes)) {
+                        row = rows[batchIndex];
+                        return row;
+                    }
                 }
+                row = table.getRow(session, getKey(current), columnIndexes);
             }
             return row;
         }
 
+        private long getKey(ValueArray key) {
+            return key.getList()[keyColumns - 1].getLong();
+        }
+
         @Override
         public SearchRow getSearchRow() {
             if (searchRow == null) {
                 if (current != null) {
-                    searchRow = convertToSearchRow((ValueArray) current);
+                    searchRow = convertToSearchRow(current, currentValue);
                 }
             }
             return searchRow;
@@ -455,17 +703,49 @@ public class StandardSecondaryIndex extends IndexBase implements StandardIndex {
 
         @Override
         public boolean next() {
-            current = it.hasNext() ? it.next() : null;
             searchRow = null;
-            if (current != null) {
-                if (last != null && compareRows(getSearchRow(), last) > 0) {
-                    searchRow = null;
-                    current = null;
-                }
-            }
             row = null;
+            if (++batchIndex >= batch.size()) {
+                nextBatch();
+            }
+            if (batchIndex < batch.size()) {
+                current = batch.get(batchIndex);
+                currentValue = batchValues.get(batchIndex);
+            } else {
+                current = null;
+                currentValue = null;
+            }
             return current != null;
         }
+
+        private void nextBatch() {
+            batch.clear();
+            batchValues.clear();
+            batchIndex = 0;
+            rows = null;
+            rowsColumnIndexes = null;
+            while (!end && batch.size() < batchSize) {
+                Object next = it.hasNext() ? it.next() : null;
+                ValueArray key;
+                Value value = null;
+                if (next instanceof Entry) {
+                    Entry<?, ?> e = (Entry<?, ?>) next;
+                    key = (ValueArray) e.getKey();
+                    value = (Value) e.getValue();
+                } else {
+                    key = (ValueArray) next;
+                }
+                if (key == null || last != null && compareRows(convertToSearchRow(key), last) > 0) {
+                    end = true;
+                } else {
+                    batch.add(key);
+                    batchValues.add(value);
+                }
+            }
+            if (batchSize < maxBatchSize) {
+                batchSize = Math.min(batchSize * 2, maxBatchSize);
+            }
+        }
     }
 
     private class StandardSecondaryIndexDistinctCursor implements Cursor {
@@ -0,0 +1,521 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.db.index;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.lealone.common.concurrent.NamedThreadFactory;
+import org.lealone.common.exceptions.DbException;
+import org.lealone.common.util.DataUtils;
+import org.lealone.common.util.MathUtils;
+import org.lealone.db.DataBuffer;
+import org.lealone.db.Database;
+import org.lealone.db.api.DatabaseEventListener;
+import org.lealone.db.api.ErrorCode;
+import org.lealone.db.result.Row;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueLong;
+import org.lealone.sql.SQLStatementExecutor;
+import org.lealone.storage.fs.FileStorage;
+import org.lealone.transaction.Transaction;
+import org.lealone.transaction.TransactionMap;
+
+/**
+ * Builds a secondary index for the rows that are already in the table.
+ * <p>
+ * 主键范围按node page中的key切分成多个区间，每个区间由一个线程扫描，
+ * 扫描线程把记录转成索引key，每攒够一批就排好序写到一个临时文件中(最后不满一批的留在内存中)，
+ * 然后对所有排好序的批做多路归并，归并的结果按顺序交给BTreeMap自底向上直接构建page，不再一个个put。
+ * <p>
+ * 构建期间表上的写操作不用等待，StandardTable会把它们记录到addChange中，
+ * 索引建好后再按每条记录当前已提交的值补到索引中，等记录下来的事务都结束后才把索引加到表中。
+ * <p>
+ * 在调度线程中执行时，等待其他事务结束和等待扫描线程的期间都不阻塞调度线程，而是转去执行其他session的语句，
+ * 否则同一个调度线程上的其他session没法提交事务，只能等到锁超时。
+ *
+ * @author zhh
+ */
+public class StandardSecondaryIndexBuilder {
+
+    // 每个区间至少要有这么多行才值得用一个新线程去扫描
+    private static final int MIN_ROWS_PER_RANGE = 8 * 1024;
+    // 每个扫描线程攒够这么多索引key才写一个临时文件
+    private static final int MIN_RUN_SIZE = 32 * 1024;
+    // 临时文件按块读写，归并时每个文件只需要一个块大小的缓冲
+    private static final int BLOCK_SIZE = 16 * 1024;
+
+    private static class ExecutorHolder {
+        static final ExecutorService executor = Executors.newCachedThreadPool(
+                new NamedThreadFactory(StandardSecondaryIndexBuilder.class.getSimpleName() + "Thread"));
+    }
+
+    private final ServerSession session;
+    private final StandardSecondaryIndex index;
+    private final StandardPrimaryIndex primaryIndex;
+    private final Database database;
+    private final Comparator<Value> comparator;
+    private final ArrayList<Run> runs = new ArrayList<>();
+    private final ArrayList<Change> changes = new ArrayList<>();
+    // 不在调度线程中执行时是null
+    private final SQLStatementExecutor scheduler;
+    private volatile boolean closed;
+
+    public StandardSecondaryIndexBuilder(ServerSession session, StandardSecondaryIndex index,
+            StandardPrimaryIndex primaryIndex) {
+        this.session = session;
+        this.index = index;
+        this.primaryIndex = primaryIndex;
+        database = session.getDatabase();
+        comparator = index.getKeyComparator();
+        Thread t = Thread.currentThread();
+        scheduler = t instanceof SQLStatementExecutor ? (SQLStatementExecutor) t : null;
+    }
+
+    /**
+     * Record a change of the table while the index is built.
+     * The caller must hold the lock of this builder.
+     *
+     * @param transaction the transaction of the change
+     * @param oldRow the old row, null for an insert
+     * @param newRow the new row, null for a delete
+     */
+    public synchronized void addChange(Transaction transaction, Row oldRow, Row newRow) {
+        changes.add(new Change(transaction, oldRow, newRow));
+    }
+
+    /**
+     * Wait until the transactions that were open before the changes are recorded are closed,
+     * their changes are not recorded and a scan can't see their uncommitted rows.
+     */
+    public void waitForOpenTransactions() {
+        ArrayList<Transaction> list = new ArrayList<>();
+        for (ServerSession s : database.getSessions(false)) {
+            Transaction t = s.getCurrentTransaction();
+            if (s == session || t == null || t.getStatus() == Transaction.STATUS_CLOSED)
+                continue;
+            // 只执行过查询的空闲事务没有未提交的记录，之后的写操作也会被记录下来，不用等它
+            // (嵌入模式下自动提交的查询不会结束事务，要等到下一次写操作时才提交)
+            if (s.getCurrentCommand() == null && !t.hasChanges())
+                continue;
+            list.add(t);
+        }
+        long start = System.currentTimeMillis();
+        for (Transaction t : list) {
+            while (t.getStatus() != Transaction.STATUS_CLOSED) {
+                await(start);
+            }
+        }
+    }
+
+    /**
+     * Wait a moment, the statement is canceled if it waits longer than the lock timeout.
+     *
+     * @param start the time when the wait started
+     */
+    public void await(long start) {
+        session.checkCanceled();
+        if (System.currentTimeMillis() - start > session.getLockTimeout()) {
+            throw DbException.get(ErrorCode.LOCK_TIMEOUT_1, index.getTable().getName());
+        }
+        yieldOrSleep();
+    }
+
+    // 在调度线程中转去执行其他session的语句，没有语句可执行时executeNextStatement最多等一个循环间隔就返回
+    private void yieldOrSleep() {
+        if (scheduler != null) {
+            scheduler.executeNextStatement();
+        } else {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw DbException.convert(e);
+            }
+        }
+    }
+
+    // 扫描线程和归并线程结束时唤醒调度线程，不用等到下一个循环间隔
+    private void wakeUp() {
+        if (scheduler != null) {
+            scheduler.wakeUp();
+        }
+    }
+
+    private void await(Future<?> f) throws ExecutionException, InterruptedException {
+        while (!f.isDone()) {
+            session.checkCanceled();
+            yieldOrSleep();
+        }
+        f.get();
+    }
+
+    /**
+     * Scan the table, sort the index keys and load them into the empty index.
+     */
+    public void build() {
+        int parallelism = database.getSettings().indexBuildParallelism;
+        if (parallelism <= 0) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        long rows = primaryIndex.getRowCountApproximation();
+        int maxSplits = (int) Math.max(1, Math.min(parallelism, rows / MIN_ROWS_PER_RANGE));
+        ValueLong[][] keyRanges = primaryIndex.getKeyRanges(session, null, null, maxSplits);
+        int runSize = Math.max(database.getMaxMemoryRows() / keyRanges.length, MIN_RUN_SIZE);
+        ArrayList<Future<?>> futures = new ArrayList<>(keyRanges.length + 1);
+        try {
+            for (ValueLong[] r : keyRanges) {
+                futures.add(ExecutorHolder.executor.submit(new Range(r[0], r[1], runSize)));
+            }
+            for (Future<?> f : futures) {
+                await(f);
+            }
+            // 归并和构建page也放到后台线程中，当前线程只需要等待
+            Future<?> f = ExecutorHolder.executor.submit(() -> {
+                try {
+                    merge();
+                } finally {
+                    wakeUp();
+                }
+            });
+            futures.add(f);
+            await(f);
+        } catch (ExecutionException e) {
+            throw DbException.convert(e.getCause());
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        } finally {
+            closed = true;
+            // 扫描线程每读一条记录都会检查closed，等它们结束后再删临时文件
+            for (Future<?> f : futures) {
+                while (!f.isDone()) {
+                    yieldOrSleep();
+                }
+            }
+            for (Run r : runs) {
+                r.close();
+            }
+            runs.clear();
+        }
+    }
+
+    private synchronized void addRun(Run run) {
+        runs.add(run);
+    }
+
+    private void merge() {
+        PriorityQueue<Run> queue = new PriorityQueue<>(Math.max(1, runs.size()), new Comparator<Run>() {
+            @Override
+            public int compare(Run r1, Run r2) {
+                return comparator.compare(r1.current.getKey(), r2.current.getKey());
+            }
+        });
+        long total = 0;
+        for (Run r : runs) {
+            total += r.size;
+            if (r.next()) {
+                queue.add(r);
+            }
+        }
+        String name = index.getTable().getName() + ":" + index.getName();
+        int max = MathUtils.convertLongToInt(total);
+        index.bulkLoad(new Iterator<Entry<Value, Value>>() {
+            private int count;
+
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public Entry<Value, Value> next() {
+                Run r = queue.poll();
+                Entry<Value, Value> e = r.current;
+                if (r.next()) {
+                    queue.add(r);
+                }
+                database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, name, count++, max);
+                return e;
+            }
+        });
+    }
+
+    /**
+     * Add the recorded changes of the closed transactions to the index.
+     *
+     * @return true if there is no change left
+     */
+    public boolean applyChanges() {
+        ArrayList<Change> list;
+        synchronized (this) {
+            if (changes.isEmpty()) {
+                return true;
+            }
+            list = new ArrayList<>(changes);
+        }
+        // 同一条记录的所有改动都属于已经结束的事务时，才按它当前已提交的值更新索引
+        HashMap<Long, ArrayList<Change>> rowChanges = new HashMap<>();
+        HashSet<Long> pendingRows = new HashSet<>();
+        for (Change c : list) {
+            for (long key : c.getRowKeys()) {
+                ArrayList<Change> a = rowChanges.get(key);
+                if (a == null) {
+                    a = new ArrayList<>();
+                    rowChanges.put(key, a);
+                }
+                a.add(c);
+                if (c.transaction.getStatus() != Transaction.STATUS_CLOSED) {
+                    pendingRows.add(key);
+                }
+            }
+        }
+        TransactionMap<Value, VersionedValue> map = primaryIndex.getMap(session);
+        HashSet<Change> applied = new HashSet<>();
+        for (Entry<Long, ArrayList<Change>> e : rowChanges.entrySet()) {
+            long key = e.getKey();
+            if (pendingRows.contains(key)) {
+                continue;
+            }
+            Object tv = map.getTransactionalValue(ValueLong.get(key));
+            // 又被新的事务改了，新的改动也记录下来了，等它结束后再更新
+            if (tv != null && map.isLocked(tv, null)) {
+                pendingRows.add(key);
+                continue;
+            }
+            // 扫描时读到的可能是任何一个已提交的版本，所以先删掉所有版本的索引key
+            for (Change c : e.getValue()) {
+                if (c.oldRow != null) {
+                    index.removeCommitted(c.oldRow);
+                }
+                if (c.newRow != null) {
+                    index.removeCommitted(c.newRow);
+                }
+            }
+            Row row = tv == null ? null : primaryIndex.getRow(session, key, tv);
+            if (row != null) {
+                index.putCommitted(row);
+            }
+            applied.addAll(e.getValue());
+        }
+        synchronized (this) {
+            // 一个改动的新旧记录的row key不同时，两个row key都要更新后才能删掉这个改动
+            for (Change c : list) {
+                for (long key : c.getRowKeys()) {
+                    if (pendingRows.contains(key)) {
+                        applied.remove(c);
+                    }
+                }
+            }
+            changes.removeAll(applied);
+            return changes.isEmpty();
+        }
+    }
+
+    private static class Change {
+
+        final Transaction transaction;
+        final Row oldRow;
+        final Row newRow;
+
+        Change(Transaction transaction, Row oldRow, Row newRow) {
+            this.transaction = transaction;
+            this.oldRow = oldRow;
+            this.newRow = newRow;
+        }
+
+        // insert的row key在写primary index时才分配，所以要用到时再取
+        long[] getRowKeys() {
+            if (oldRow == null) {
+                return new long[] { newRow.getKey() };
+            } else if (newRow == null || newRow.getKey() == oldRow.getKey()) {
+                return new long[] { oldRow.getKey() };
+            } else {
+                return new long[] { oldRow.getKey(), newRow.getKey() };
+            }
+        }
+    }
+
+    /**
+     * The index keys of a key range.
+     */
+    private class Range implements Runnable {
+
+        private final ValueLong first;
+        private final ValueLong last;
+        private final int runSize;
+
+        Range(ValueLong first, ValueLong last, int runSize) {
+            this.first = first;
+            this.last = last;
+            this.runSize = runSize;
+        }
+
+        @Override
+        public void run() {
+            try {
+                scan();
+            } finally {
+                wakeUp();
+            }
+        }
+
+        private void scan() {
+            Cursor cursor = primaryIndex.find(session, first, last, null);
+            ArrayList<Entry<Value, Value>> buffer = new ArrayList<>();
+            while (!closed && cursor.next()) {
+                Row row = cursor.get();
+                buffer.add(new DataUtils.MapEntry<>(index.convertToKey(row), index.convertToValue(row)));
+                if (buffer.size() >= runSize) {
+                    sort(buffer);
+                    addRun(new FileRun(buffer));
+                    buffer.clear();
+                }
+            }
+            if (!closed && !buffer.isEmpty()) {
+                sort(buffer);
+                addRun(new Run(buffer));
+            }
+        }
+
+        private void sort(ArrayList<Entry<Value, Value>> buffer) {
+            Collections.sort(buffer, new Comparator<Entry<Value, Value>>() {
+                @Override
+                public int compare(Entry<Value, Value> e1, Entry<Value, Value> e2) {
+                    return comparator.compare(e1.getKey(), e2.getKey());
+                }
+            });
+        }
+    }
+
+    /**
+     * Sorted index keys in memory.
+     */
+    private static class Run {
+
+        int size;
+        Entry<Value, Value> current;
+        private Iterator<Entry<Value, Value>> it;
+
+        Run(ArrayList<Entry<Value, Value>> entries) {
+            size = entries.size();
+            it = entries.iterator();
+        }
+
+        Run() {
+        }
+
+        boolean next() {
+            current = it.hasNext() ? it.next() : null;
+            return current != null;
+        }
+
+        void close() {
+        }
+    }
+
+    /**
+     * Sorted index keys in a temporary file. Each block of the file starts with
+     * the block length and the number of entries.
+     */
+    private class FileRun extends Run {
+
+        private FileStorage file;
+        private long pos = FileStorage.HEADER_LENGTH;
+        private long end;
+        private ByteBuffer block;
+        private int remaining; // 当前块中还没读的个数
+
+        FileRun(ArrayList<Entry<Value, Value>> entries) {
+            size = entries.size();
+            String fileName = database.createTempFile();
+            file = database.openFile(fileName, "rw", false);
+            file.setCheckedWriting(false);
+            file.autoDelete();
+            DataBuffer buff = DataBuffer.create(database, BLOCK_SIZE);
+            int count = 0;
+            for (Entry<Value, Value> e : entries) {
+                if (count == 0) {
+                    buff.putInt(0).putInt(0);
+                }
+                buff.writeValue(e.getKey());
+                buff.writeValue(e.getValue());
+                count++;
+                if (buff.length() >= BLOCK_SIZE) {
+                    writeBlock(buff, count);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                writeBlock(buff, count);
+            }
+            end = pos;
+            pos = FileStorage.HEADER_LENGTH;
+        }
+
+        private void writeBlock(DataBuffer buff, int count) {
+            int len = buff.length();
+            buff.putInt(0, len);
+            buff.putInt(4, count);
+            // DataBuffer用的是direct buffer，文件要求能直接拿到数组
+            ByteBuffer block = ByteBuffer.allocate(len);
+            block.put(buff.getAndFlipBuffer()).flip();
+            file.writeFully(pos, block);
+            pos += len;
+            buff.reset();
+        }
+
+        @Override
+        boolean next() {
+            if (remaining == 0) {
+                if (pos >= end) {
+                    current = null;
+                    return false;
+                }
+                ByteBuffer header = file.readFully(pos, 8);
+                int len = header.getInt();
+                remaining = header.getInt();
+                block = file.readFully(pos + 8, len - 8);
+                pos += len;
+            }
+            Value key = DataBuffer.readValue(block);
+            Value value = DataBuffer.readValue(block);
+            remaining--;
+            current = new DataUtils.MapEntry<>(key, value);
+            return true;
+        }
+
+        @Override
+        void close() {
+            if (file != null) {
+                file.closeAndDeleteSilently();
+                file = null;
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.lealone.common.util.DataUtils;
 import org.lealone.db.DataBuffer;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueArray;
+import org.lealone.storage.ColumnVector;
 import org.lealone.storage.type.StorageDataType;
 
 public class VersionedValueType implements StorageDataType {
@@ -125,6 +126,32 @@ public class VersionedValueType implements StorageDataType {
         }
     }
 
+    @Override
+    public void readColumnVector(ByteBuffer buff, ColumnVector vector, int rowCount) {
+        // 跟writeColumn对应，每一行都是用buff.writeValue写入的
+        for (int row = 0; row < rowCount; row++) {
+            DataBuffer.readValue(buff, vector, row);
+        }
+    }
+
+    @Override
+    public void copyColumn(Object obj, int columnIndex, ColumnVector vector, int row) {
+        VersionedValue v = (VersionedValue) obj;
+        Value[] columns = v == null ? null : v.value.getList();
+        if (columns != null && columnIndex >= 0 && columnIndex < columns.length)
+            vector.setValue(row, columns[columnIndex]);
+        else
+            vector.setNull(row);
+    }
+
+    @Override
+    public void setColumn(Object obj, int columnIndex, ColumnVector vector, int row) {
+        VersionedValue v = (VersionedValue) obj;
+        Value[] columns = v.value.getList();
+        if (columnIndex >= 0 && columnIndex < columns.length)
+            columns[columnIndex] = vector.getValue(row);
+    }
+
     @Override
     public void setColumns(Object oldObj, Object newObj, int[] columnIndexes) {
         if (columnIndexes != null) {
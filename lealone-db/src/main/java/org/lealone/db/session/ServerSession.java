@@ -108,6 +108,7 @@ public class ServerSession extends SessionBase {
     private HashMap<String, Value> variables;
     private HashSet<Result> temporaryResults;
     private int queryTimeout;
+    private int queryParallelism;
     private boolean commitOrRollbackDisabled;
     private Table waitForLock;
     private Thread waitForLockThread;
@@ -123,6 +124,7 @@ public class ServerSession extends SessionBase {
     public ServerSession(Database database, User user, int id) {
         this.database = database;
         this.queryTimeout = database.getSettings().maxQueryTimeout;
+        this.queryParallelism = database.getSettings().queryParallelism;
         this.queryCacheSize = database.getSettings().queryCacheSize;
         this.user = user;
         this.id = id;
@@ -1143,6 +1145,22 @@ public class ServerSession extends SessionBase {
         return queryTimeout;
     }
 
+    /**
+     * Set the maximum number of threads used to scan a table for a query.
+     *
+     * @param queryParallelism the number of threads, 0 means the number of available processors
+     */
+    public void setQueryParallelism(int queryParallelism) {
+        this.queryParallelism = queryParallelism;
+    }
+
+    public int getQueryParallelism() {
+        if (queryParallelism == 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return queryParallelism;
+    }
+
     /**
      * Set the table this session is waiting for, and the thread that is
      * waiting.
@@ -1249,6 +1267,15 @@ public class ServerSession extends SessionBase {
         return transaction;
     }
 
+    /**
+     * Get the current transaction of this session, a new transaction is not started.
+     *
+     * @return the current transaction, or null if there is none
+     */
+    public Transaction getCurrentTransaction() {
+        return transaction;
+    }
+
     // 参与本次事务的其他Session
     protected final Map<String, Session> sessionCache = new HashMap<>();
 
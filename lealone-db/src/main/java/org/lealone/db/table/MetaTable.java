@@ -624,6 +624,7 @@ public class MetaTable extends Table {
             add(rows, "MULTI_THREADED", "1");
             add(rows, "MVCC", database.isMultiVersion() ? "TRUE" : "FALSE");
             add(rows, "QUERY_TIMEOUT", "" + session.getQueryTimeout());
+            add(rows, "QUERY_PARALLELISM", "" + session.getQueryParallelism());
             // database settings
             Map<String, String> s = database.getSettings().getSettings();
             ArrayList<String> settingNames = new ArrayList<>(s.size());
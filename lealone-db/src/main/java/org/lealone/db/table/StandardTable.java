@@ -40,6 +40,7 @@ import org.lealone.db.index.StandardDelegateIndex;
 import org.lealone.db.index.StandardIndex;
 import org.lealone.db.index.StandardPrimaryIndex;
 import org.lealone.db.index.StandardSecondaryIndex;
+import org.lealone.db.index.StandardSecondaryIndexBuilder;
 import org.lealone.db.result.Row;
 import org.lealone.db.result.SortOrder;
 import org.lealone.db.schema.SchemaObject;
@@ -70,6 +71,8 @@ public class StandardTable extends Table {
     private Column rowIdColumn;
     private boolean containsGlobalUniqueIndex;
     private long rowCount;
+    // 正在构建的二级索引，构建期间表上的写操作会记录到它里面
+    private volatile StandardSecondaryIndexBuilder indexBuilder;
 
     ArrayList<TableAlterHistoryRecord> tableAlterHistoryRecords;
 
@@ -336,6 +339,10 @@ public class StandardTable extends Table {
         return primaryIndex.getRow(session, key, columnIndexes);
     }
 
+    public Row[] getRows(ServerSession session, long[] keys, int[] columnIndexes) {
+        return primaryIndex.getRows(session, keys, columnIndexes);
+    }
+
     @Override
     public Row getRow(ServerSession session, long key, Object oldTransactionalValue) {
         return primaryIndex.getRow(session, key, oldTransactionalValue);
@@ -344,6 +351,17 @@ public class StandardTable extends Table {
     @Override
     public Index addIndex(ServerSession session, String indexName, int indexId, IndexColumn[] cols, IndexType indexType,
             boolean create, String indexComment) {
+        return addIndex(session, indexName, indexId, cols, indexType, create, indexComment, null);
+    }
+
+    @Override
+    public Index addIndex(ServerSession session, String indexName, int indexId, IndexColumn[] cols, IndexType indexType,
+            boolean create, String indexComment, Column[] includeColumns) {
+        boolean include = includeColumns != null && includeColumns.length > 0;
+        // 只有StandardSecondaryIndex支持INCLUDE字段，primary key本来就包含所有字段
+        if (include && (indexType.isPrimaryKey() || indexType.isHash())) {
+            throw DbException.getUnsupportedException("INCLUDE for " + indexType.getSQL());
+        }
         if (indexType.isPrimaryKey()) {
             for (IndexColumn c : cols) {
                 Column column = c.column;
@@ -372,6 +390,9 @@ public class StandardTable extends Table {
             if (mainIndexColumn != -1) {
                 index = createDelegateIndex(indexId, indexName, indexType, mainIndexColumn);
             } else if (isGlobalUniqueIndex(session, indexType)) {
+                if (include) {
+                    throw DbException.getUnsupportedException("INCLUDE for global unique index");
+                }
                 index = new GlobalUniqueIndex(session, this, indexId, indexName, cols, indexType);
                 containsGlobalUniqueIndex = true;
             } else if (indexType.isHash() && cols.length <= 1) { // TODO 是否要支持多版本
@@ -381,7 +402,7 @@ public class StandardTable extends Table {
                     index = new NonUniqueHashIndex(this, indexId, indexName, cols, indexType);
                 }
             } else {
-                index = new StandardSecondaryIndex(session, this, indexId, indexName, cols, indexType);
+                index = new StandardSecondaryIndex(session, this, indexId, indexName, cols, indexType, includeColumns);
             }
             if (index instanceof StandardIndex && index.needRebuild()) {
                 rebuildIndex(session, (StandardIndex) index, indexName);
@@ -396,7 +417,9 @@ public class StandardTable extends Table {
                 database.addSchemaObject(session, index);
             }
         }
-        indexes.add(index);
+        // 在线构建的索引在构建结束时已经加到indexes中了
+        if (!indexes.contains(index))
+            indexes.add(index);
         setModified();
         return index;
     }
@@ -418,6 +441,8 @@ public class StandardTable extends Table {
             if (index.isInMemory()) {
                 // in-memory
                 rebuildIndexBuffered(session, index);
+            } else if (index instanceof StandardSecondaryIndex) {
+                rebuildIndexOnline(session, (StandardSecondaryIndex) index);
             } else {
                 rebuildIndexBlockMerge(session, index);
             }
@@ -436,6 +461,56 @@ public class StandardTable extends Table {
         }
     }
 
+    // 并行扫描和排序，然后直接构建BTreeMap的page，构建期间不阻塞表上的写操作，见StandardSecondaryIndexBuilder
+    private void rebuildIndexOnline(ServerSession session, StandardSecondaryIndex index) {
+        StandardSecondaryIndexBuilder builder = new StandardSecondaryIndexBuilder(session, index, primaryIndex);
+        // 同一个表同时只能构建一个索引，等待期间调度线程会执行其他session的语句，其中也可能有建索引的语句
+        long start = System.currentTimeMillis();
+        while (true) {
+            synchronized (this) {
+                if (indexBuilder == null) {
+                    // 先开始记录写操作，再等之前的事务结束，然后才开始扫描
+                    indexBuilder = builder;
+                    break;
+                }
+            }
+            builder.await(start);
+        }
+        try {
+            builder.waitForOpenTransactions();
+            builder.build();
+            start = System.currentTimeMillis();
+            while (true) {
+                // 先不持锁补上已经结束的事务的改动，最后持锁补剩下的，这期间的写操作需要等一下
+                builder.applyChanges();
+                synchronized (builder) {
+                    if (builder.applyChanges()) {
+                        indexes.add(index);
+                        indexBuilder = null;
+                        return;
+                    }
+                }
+                builder.await(start);
+            }
+        } finally {
+            if (indexBuilder == builder)
+                indexBuilder = null;
+        }
+    }
+
+    // 返回这次写操作要写的索引个数，有索引正在构建时先把写操作记录下来，
+    // 记录和读indexes.size()在同一个锁中，新索引加到indexes之前的写操作就都会被记录下来
+    private int getIndexCount(ServerSession session, Row oldRow, Row newRow) {
+        StandardSecondaryIndexBuilder builder = indexBuilder;
+        if (builder == null)
+            return indexes.size();
+        synchronized (builder) {
+            if (indexBuilder == builder)
+                builder.addChange(session.getTransaction(), oldRow, newRow);
+            return indexes.size();
+        }
+    }
+
     private void rebuildIndexBlockMerge(ServerSession session, StandardIndex index) {
         // Read entries in memory, sort them, write to a new map (in sorted
         // order); repeat (using a new map for every block of 1 MB) until all
@@ -560,7 +635,7 @@ public class StandardTable extends Table {
         int savepointId = t.getSavepointId();
         try {
             // 第一个是PrimaryIndex
-            for (int i = 0, size = indexes.size(); i < size; i++) {
+            for (int i = 0, size = getIndexCount(session, null, row); i < size; i++) {
                 Index index = indexes.get(i);
                 if (globalListener == null || !index.supportsAsync()) // 如果是null就用同步api
                     index.add(session, row);
@@ -589,7 +664,7 @@ public class StandardTable extends Table {
         int savepointId = t.getSavepointId();
         try {
             // 第一个是PrimaryIndex
-            for (int i = 0, size = indexes.size(); i < size; i++) {
+            for (int i = 0, size = getIndexCount(session, oldRow, newRow); i < size; i++) {
                 Index index = indexes.get(i);
                 if (globalListener == null || !index.supportsAsync()) {
                     index.update(session, oldRow, newRow, updateColumns);
@@ -622,7 +697,7 @@ public class StandardTable extends Table {
         Transaction t = session.getTransaction();
         int savepointId = t.getSavepointId();
         try {
-            for (int i = indexes.size() - 1; i >= 0; i--) {
+            for (int i = getIndexCount(session, row, null) - 1; i >= 0; i--) {
                 Index index = indexes.get(i);
                 if (async && index.supportsAsync()) {
                     int ret = index.tryRemove(session, row, globalListener);
@@ -209,6 +209,27 @@ public abstract class Table extends SchemaObjectBase {
         throw newUnsupportedException();
     }
 
+    /**
+     * Create an index for this table, the index entries also store the values of the include columns.
+     *
+     * @param session the session
+     * @param indexName the name of the index
+     * @param indexId the id
+     * @param cols the index columns
+     * @param indexType the index type
+     * @param create whether this is a new index
+     * @param indexComment the comment
+     * @param includeColumns the include columns, or null
+     * @return the index
+     */
+    public Index addIndex(ServerSession session, String indexName, int indexId, IndexColumn[] cols, IndexType indexType,
+            boolean create, String indexComment, Column[] includeColumns) {
+        if (includeColumns == null || includeColumns.length == 0) {
+            return addIndex(session, indexName, indexId, cols, indexType, create, indexComment);
+        }
+        throw newUnsupportedException();
+    }
+
     private DbException newUnsupportedException() {
         return DbException.getUnsupportedException(getTableType().toString());
     }
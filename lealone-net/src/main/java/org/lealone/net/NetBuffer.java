@@ -27,6 +27,17 @@ public interface NetBuffer {
 
     NetBuffer getBuffer(int start, int end);
 
+    /**
+     * Copy the bytes between start and end to a new buffer that has room for at least capacity bytes,
+     * so that the bytes received later can be appended without growing the buffer.
+     *
+     * @param start the start position
+     * @param end the end position
+     * @param capacity the expected capacity
+     * @return the new buffer
+     */
+    NetBuffer copy(int start, int end, int capacity);
+
     short getUnsignedByte(int pos);
 
     NetBuffer appendByte(byte b);
@@ -118,10 +118,13 @@ public class TcpClientConnection extends TransferConnection {
             }
             return;
         }
-        if (e != null)
+        if (e != null) {
             ac.setAsyncResult(e);
-        else
+        } else {
             ac.run(in);
+            if (ac.hasMoreResponses())
+                callbackMap.put(packetId, ac);
+        }
         if (newTargetNodes != null)
             session.runModeChanged(newTargetNodes);
     }
@@ -112,48 +112,44 @@ public abstract class TransferConnection extends AsyncConnection {
         }
     }
 
+    // 调用者在handle返回后会回收buffer，所以需要留下来的数据要么slice(共享底层的字节并增加引用计数)，要么复制
     @Override
     public void handle(NetBuffer buffer) {
         if (lastBuffer != null) {
-            buffer = lastBuffer.appendBuffer(buffer);
+            // 上次剩下的不完整的包，把新收到的数据追加到它后面
+            NetBuffer last = lastBuffer;
             lastBuffer = null;
+            last = last.appendBuffer(buffer);
+            try {
+                handleBuffer(last);
+            } finally {
+                last.recycle();
+            }
+        } else {
+            handleBuffer(buffer);
         }
+    }
 
+    private void handleBuffer(NetBuffer buffer) {
         int length = buffer.length();
-        if (length < 4) {
-            lastBuffer = buffer;
-            return;
-        }
-
         int pos = 0;
         try {
-            while (true) {
+            while (length >= 4) {
+                int packetLength = getInt(buffer, pos);
+                if (length - 4 < packetLength)
+                    break;
                 // 必须生成新的Transfer实例，不同协议包对应不同Transfer实例，
                 // 否则如果有多个CommandHandler线程时会用同一个Transfer实例写数据，这会产生并发问题。
-                TransferInputStream in;
-                if (pos == 0)
-                    in = new TransferInputStream(buffer);
-                else
-                    in = new TransferInputStream(buffer.slice(pos, pos + length));
-                int packetLength = in.readInt();
-                if (length - 4 == packetLength) {
-                    handlePacket(in);
-                    break;
-                } else if (length - 4 > packetLength) {
-                    handlePacket(in);
-                    pos = pos + packetLength + 4;
-                    length = length - (packetLength + 4);
-                    // 有可能剩下的不够4个字节了
-                    if (length < 4) {
-                        lastBuffer = buffer.getBuffer(pos, pos + length);
-                        break;
-                    } else {
-                        continue;
-                    }
-                } else {
-                    lastBuffer = buffer.getBuffer(pos, pos + length);
-                    break;
-                }
+                // 每个包直接从接收缓冲区中slice出来解码，不需要复制
+                TransferInputStream in = new TransferInputStream(buffer.slice(pos + 4, pos + 4 + packetLength));
+                pos += 4 + packetLength;
+                length -= 4 + packetLength;
+                handlePacket(in);
+            }
+            if (length > 0) {
+                // 剩下的是不完整的包，如果已经知道包的长度，就一次分配足够的空间，后面收到的数据直接追加到它后面
+                int capacity = length >= 4 ? getInt(buffer, pos) + 4 : length;
+                lastBuffer = buffer.copy(pos, pos + length, capacity);
             }
         } catch (Throwable e) {
             if (isServer)
@@ -163,6 +159,11 @@ public abstract class TransferConnection extends AsyncConnection {
         }
     }
 
+    private static int getInt(NetBuffer buffer, int pos) {
+        return (buffer.getUnsignedByte(pos) << 24) | (buffer.getUnsignedByte(pos + 1) << 16)
+                | (buffer.getUnsignedByte(pos + 2) << 8) | buffer.getUnsignedByte(pos + 3);
+    }
+
     private void handlePacket(TransferInputStream in) throws IOException {
         boolean isRequest = in.readByte() == TransferOutputStream.REQUEST;
         int packetId = in.readInt();
@@ -86,6 +86,11 @@ public class TransferInputStream implements NetInputStream {
         }
     }
 
+    @Override
+    public int available() throws IOException {
+        return in.available();
+    }
+
     /**
      * Read a boolean.
      *
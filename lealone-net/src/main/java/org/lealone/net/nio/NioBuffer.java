@@ -18,6 +18,7 @@
 package org.lealone.net.nio;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lealone.db.DataBuffer;
 import org.lealone.net.NetBuffer;
@@ -25,11 +26,35 @@ import org.lealone.net.NetBuffer;
 public class NioBuffer implements NetBuffer {
 
     private DataBuffer dataBuffer;
+    // 只有接收数据的NioBuffer才有，从同一个ByteBuffer切出来的NioBuffer共享它，
+    // 所有NioBuffer都回收之后ByteBuffer才放回NioBufferAllocator
+    private PooledByteBuffer pooled;
+    // 从不是池中的DataBuffer切出来的，回收时什么都不用做，不能把它放到DataBuffer的池中
+    private boolean view;
+    private boolean recycled;
 
     public NioBuffer(DataBuffer dataBuffer) {
         this.dataBuffer = dataBuffer;
     }
 
+    private NioBuffer(DataBuffer dataBuffer, PooledByteBuffer pooled, boolean view) {
+        this.dataBuffer = dataBuffer;
+        this.pooled = pooled;
+        this.view = view;
+    }
+
+    /**
+     * Create a buffer to receive data, the bytes are stored in a pooled byte buffer
+     * that has at least the given capacity.
+     *
+     * @param capacity the minimum capacity
+     * @return the buffer
+     */
+    public static NioBuffer allocate(int capacity) {
+        PooledByteBuffer pooled = new PooledByteBuffer(NioBufferAllocator.getInstance().allocate(capacity));
+        return new NioBuffer(DataBuffer.create(pooled.buffer), pooled, false);
+    }
+
     public ByteBuffer getAndFlipBuffer() {
         return dataBuffer.getAndFlipBuffer();
     }
@@ -38,22 +63,26 @@ public class NioBuffer implements NetBuffer {
         return dataBuffer.getBuffer();
     }
 
+    // 只有在没有其他NioBuffer共享底层的ByteBuffer并且空间足够时才原地追加，否则复制到一个更大的ByteBuffer
     @Override
     public NioBuffer appendBuffer(NetBuffer buff) {
         if (buff instanceof NioBuffer) {
-            DataBuffer newDataBuffer = ((NioBuffer) buff).dataBuffer;
-            if (dataBuffer.limit() == 0) {
-                dataBuffer = newDataBuffer;
-            } else {
-                DataBuffer tmp = DataBuffer
-                        .create(dataBuffer.limit() + (newDataBuffer.limit() - newDataBuffer.position()));
-                tmp.put(dataBuffer.getBuffer());
-                tmp.put(newDataBuffer.getBuffer());
-                tmp.getBuffer().flip();
-                dataBuffer = tmp;
-                // dataBuffer.position(dataBuffer.limit()).put(newDataBuffer.getBuffer());
-                // dataBuffer.getBuffer().flip();
+            ByteBuffer src = ((NioBuffer) buff).dataBuffer.getBuffer().duplicate();
+            ByteBuffer buffer = dataBuffer.getBuffer();
+            int length = buffer.limit();
+            if (pooled == null || pooled.refCount.get() > 1 || buffer.capacity() - length < src.remaining()) {
+                NioBuffer tmp = copy(0, length, length + src.remaining());
+                recycle();
+                dataBuffer = tmp.dataBuffer;
+                pooled = tmp.pooled;
+                view = false;
+                recycled = false;
+                buffer = dataBuffer.getBuffer();
             }
+            buffer.limit(buffer.capacity());
+            buffer.position(length);
+            buffer.put(src);
+            buffer.flip();
         }
         return this;
     }
@@ -70,13 +99,29 @@ public class NioBuffer implements NetBuffer {
     @Override
     public NioBuffer slice(int start, int end) {
         DataBuffer newDataBuffer = dataBuffer.slice(start, end);
-        return new NioBuffer(newDataBuffer);
+        if (pooled != null) {
+            pooled.retain();
+            return new NioBuffer(newDataBuffer, pooled, false);
+        }
+        return new NioBuffer(newDataBuffer, null, true);
     }
 
     @Override
     public NioBuffer getBuffer(int start, int end) {
         DataBuffer newDataBuffer = dataBuffer.getBuffer(start, end);
-        return new NioBuffer(newDataBuffer);
+        return new NioBuffer(newDataBuffer, null, true);
+    }
+
+    @Override
+    public NioBuffer copy(int start, int end, int capacity) {
+        NioBuffer buffer = allocate(Math.max(capacity, end - start));
+        ByteBuffer src = dataBuffer.getBuffer().duplicate();
+        src.limit(end);
+        src.position(start);
+        ByteBuffer dst = buffer.dataBuffer.getBuffer();
+        dst.put(src);
+        dst.flip();
+        return buffer;
     }
 
     @Override
@@ -110,7 +155,14 @@ public class NioBuffer implements NetBuffer {
 
     @Override
     public void recycle() {
-        dataBuffer.close();
+        // 多次调用是无害的
+        if (recycled)
+            return;
+        recycled = true;
+        if (pooled != null)
+            pooled.release();
+        else if (!view)
+            dataBuffer.close();
     }
 
     @Override
@@ -118,4 +170,23 @@ public class NioBuffer implements NetBuffer {
         dataBuffer.getAndFlipBuffer();
         return this;
     }
+
+    private static class PooledByteBuffer {
+
+        final ByteBuffer buffer;
+        final AtomicInteger refCount = new AtomicInteger(1);
+
+        PooledByteBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void retain() {
+            refCount.incrementAndGet();
+        }
+
+        void release() {
+            if (refCount.decrementAndGet() == 0)
+                NioBufferAllocator.getInstance().release(buffer);
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.net.nio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lealone.db.SysProperties;
+
+/**
+ * A pool of byte buffers used to receive packets.
+ * <p>
+ * 按容量分成4K、8K、...、1M这几个级别，每个级别一个队列，分配时向上取整到所在级别，
+ * 超过1M的直接分配，回收时也不放回池中。
+ *
+ * @author zhh
+ */
+public class NioBufferAllocator {
+
+    private static final int MIN_SHIFT = 12; // 4K
+    private static final int MAX_SHIFT = 20; // 1M
+
+    public static final int MIN_CAPACITY = 1 << MIN_SHIFT;
+    public static final int MAX_POOLED_CAPACITY = 1 << MAX_SHIFT;
+
+    private static final NioBufferAllocator instance = new NioBufferAllocator(SysProperties.NET_BUFFER_DIRECT,
+            SysProperties.NET_BUFFER_POOL_SIZE);
+
+    public static NioBufferAllocator getInstance() {
+        return instance;
+    }
+
+    private final boolean direct;
+    private final int maxPoolSize;
+    private final ArrayList<ConcurrentLinkedQueue<ByteBuffer>> pools;
+    // 不要求精确，只是用来限制每个队列的大小
+    private final AtomicInteger[] poolSizes;
+
+    public NioBufferAllocator(boolean direct, int maxPoolSize) {
+        this.direct = direct;
+        this.maxPoolSize = maxPoolSize;
+        int count = MAX_SHIFT - MIN_SHIFT + 1;
+        pools = new ArrayList<>(count);
+        poolSizes = new AtomicInteger[count];
+        for (int i = 0; i < count; i++) {
+            pools.add(new ConcurrentLinkedQueue<>());
+            poolSizes[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Get a cleared buffer with at least the given capacity.
+     *
+     * @param capacity the minimum capacity
+     * @return the buffer
+     */
+    public ByteBuffer allocate(int capacity) {
+        int index = getSizeClass(capacity);
+        if (index < 0) {
+            return allocateBuffer(capacity);
+        }
+        ByteBuffer buffer = pools.get(index).poll();
+        if (buffer == null) {
+            return allocateBuffer(1 << (index + MIN_SHIFT));
+        }
+        poolSizes[index].decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return the buffer to the pool. The buffer must not be used after that.
+     *
+     * @param buffer the buffer
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int index = getSizeClass(capacity);
+        // 只回收由allocate分配的、容量刚好是某个级别的ByteBuffer
+        if (index < 0 || capacity != 1 << (index + MIN_SHIFT) || buffer.isDirect() != direct) {
+            return;
+        }
+        if (poolSizes[index].incrementAndGet() <= maxPoolSize) {
+            pools.get(index).offer(buffer);
+        } else {
+            poolSizes[index].decrementAndGet();
+        }
+    }
+
+    public int getPoolSize(int capacity) {
+        int index = getSizeClass(capacity);
+        return index < 0 ? 0 : pools.get(index).size();
+    }
+
+    private ByteBuffer allocateBuffer(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int getSizeClass(int capacity) {
+        if (capacity > MAX_POOLED_CAPACITY) {
+            return -1;
+        }
+        if (capacity <= MIN_CAPACITY) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+}
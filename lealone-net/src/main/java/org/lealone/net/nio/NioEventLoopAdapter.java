@@ -24,8 +24,9 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -34,7 +35,6 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.lealone.common.logging.Logger;
 import org.lealone.common.logging.LoggerFactory;
 import org.lealone.common.util.DateTimeUtils;
-import org.lealone.db.DataBuffer;
 import org.lealone.net.AsyncConnection;
 import org.lealone.net.nio.NioNetServer.Attachment;
 
@@ -42,7 +42,13 @@ public class NioEventLoopAdapter implements NioEventLoop {
 
     private static final Logger logger = LoggerFactory.getLogger(NioEventLoopAdapter.class);
 
-    private final ConcurrentHashMap<SocketChannel, ConcurrentLinkedQueue<NioBuffer>> channels = new ConcurrentHashMap<>();
+    private static final int RECEIVE_BUFFER_SIZE = 16 * 1024;
+    // 一次gathering write最多写多少个NioBuffer
+    private static final int MAX_GATHERING_BUFFERS = 64;
+
+    private final ConcurrentHashMap<SocketChannel, ChannelContext> channels = new ConcurrentHashMap<>();
+    // 有待写数据的channel，只在nio-event-loop线程中消费，不需要每次select前都扫描所有channel
+    private final ConcurrentLinkedQueue<ChannelContext> readyChannels = new ConcurrentLinkedQueue<>();
 
     private final AtomicBoolean selecting = new AtomicBoolean(false);
     private Selector selector;
@@ -105,30 +111,45 @@ public class NioEventLoopAdapter implements NioEventLoop {
 
     @Override
     public void addSocketChannel(SocketChannel channel) {
-        channels.putIfAbsent(channel, new ConcurrentLinkedQueue<>());
+        channels.putIfAbsent(channel, new ChannelContext(channel));
     }
 
     @Override
     public void addNioBuffer(SocketChannel channel, NioBuffer nioBuffer) {
-        ConcurrentLinkedQueue<NioBuffer> queue = channels.get(channel);
-        if (queue != null) {
-            queue.add(nioBuffer);
-            wakeup();
+        ChannelContext context = channels.get(channel);
+        if (context != null) {
+            context.buffers.add(nioBuffer);
+            // 已经在readyChannels中的channel不用再加入
+            if (context.ready.compareAndSet(false, true)) {
+                readyChannels.add(context);
+                wakeup();
+            }
         }
     }
 
+    // 只处理有待写数据的channel，先直接写，socket的发送缓冲区满了写不完时才注册OP_WRITE
     @Override
     public void tryRegisterWriteOperation(Selector selector) {
-        for (Entry<SocketChannel, ConcurrentLinkedQueue<NioBuffer>> entry : channels.entrySet()) {
-            if (!entry.getValue().isEmpty()) {
-                for (SelectionKey key : selector.keys()) {
-                    if (key.channel() == entry.getKey() && key.isValid()) {
-                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-                        break;
-                    }
+        ChannelContext context;
+        ArrayList<ChannelContext> unregistered = null;
+        while ((context = readyChannels.poll()) != null) {
+            SelectionKey key = context.getKey(selector);
+            if (key == null) {
+                // 还没有注册到selector，下次select时再试
+                if (context.channel.isOpen()) {
+                    if (unregistered == null)
+                        unregistered = new ArrayList<>();
+                    unregistered.add(context);
                 }
+                continue;
             }
+            // 要在写之前重置，这样在写的过程中其他线程加进来的NioBuffer会让channel再次加入readyChannels
+            context.ready.set(false);
+            if (key.isValid() && !context.buffers.isEmpty())
+                write(key, context);
         }
+        if (unregistered != null)
+            readyChannels.addAll(unregistered);
     }
 
     private long totalReadBytes;
@@ -142,9 +163,10 @@ public class NioEventLoopAdapter implements NioEventLoop {
         SocketChannel channel = (SocketChannel) key.channel();
         try {
             while (true) {
-                DataBuffer dataBuffer = DataBuffer.create();
-                ByteBuffer buffer = dataBuffer.getBuffer();
-                int capacity = dataBuffer.capacity();
+                // 从池中分配，包直接在这个缓冲区上解码，都处理完之后才放回池中
+                NioBuffer nioBuffer = NioBuffer.allocate(RECEIVE_BUFFER_SIZE);
+                ByteBuffer buffer = nioBuffer.getByteBuffer();
+                int capacity = buffer.capacity();
                 int readBytes = channel.read(buffer);
                 if (readBytes > 0) {
                     attachment.endOfStreamCount = 0;
@@ -152,6 +174,7 @@ public class NioEventLoopAdapter implements NioEventLoop {
                     // 客户端非正常关闭时，可能会触发JDK的bug，导致run方法死循环，selector.select不会阻塞
                     // netty框架在下面这个方法的代码中有自己的不同解决方案
                     // io.netty.channel.nio.NioEventLoop.processSelectedKey
+                    nioBuffer.recycle();
                     if (readBytes < 0) {
                         attachment.endOfStreamCount++;
                         if (attachment.endOfStreamCount > 3) {
@@ -165,8 +188,11 @@ public class NioEventLoopAdapter implements NioEventLoop {
                     totalReadBytes += readBytes;
                     logger.debug(("total read bytes: " + totalReadBytes));
                 }
-                NioBuffer nioBuffer = new NioBuffer(dataBuffer);
-                conn.handle(nioBuffer);
+                try {
+                    conn.handle(nioBuffer);
+                } finally {
+                    nioBuffer.recycle();
+                }
                 // 说明没读满，可以直接退出循环了
                 if (readBytes < capacity)
                     break;
@@ -178,33 +204,51 @@ public class NioEventLoopAdapter implements NioEventLoop {
 
     @Override
     public void write(SelectionKey key) {
-        SocketChannel channel = (SocketChannel) key.channel();
+        ChannelContext context = channels.get(key.channel());
+        if (context != null)
+            write(key, context);
+    }
+
+    // 用gathering write一次系统调用写多个NioBuffer，很多小的响应包可以合并写出去
+    private void write(SelectionKey key, ChannelContext context) {
+        SocketChannel channel = context.channel;
+        Queue<NioBuffer> queue = context.buffers;
+        NioBuffer[] nioBuffers = context.nioBuffers;
+        ByteBuffer[] buffers = context.byteBuffers;
         try {
-            Queue<NioBuffer> queue = channels.get(channel);
-            for (NioBuffer nioBuffer : queue) {
-                ByteBuffer buffer = nioBuffer.getByteBuffer();
-                int remaining = buffer.remaining();
-                // 一定要用while循环来写，否则会丢数据！
-                while (remaining > 0) {
-                    int writtenBytes = channel.write(buffer);
-                    if (writtenBytes <= 0) {
-                        if (key.isValid()) {
-                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-                        }
-                        return;
-                    }
-                    remaining -= writtenBytes;
-                    if (isDebugEnabled) {
-                        totalWrittenBytes += writtenBytes;
-                        logger.debug(("total written bytes: " + totalWrittenBytes));
+            while (true) {
+                int count = 0;
+                for (NioBuffer nioBuffer : queue) {
+                    nioBuffers[count] = nioBuffer;
+                    buffers[count] = nioBuffer.getByteBuffer();
+                    if (++count == MAX_GATHERING_BUFFERS)
+                        break;
+                }
+                if (count == 0)
+                    break;
+                long writtenBytes = channel.write(buffers, 0, count);
+                if (isDebugEnabled && writtenBytes > 0) {
+                    totalWrittenBytes += writtenBytes;
+                    logger.debug(("total written bytes: " + totalWrittenBytes));
+                }
+                int written = 0;
+                for (; written < count && !buffers[written].hasRemaining(); written++) {
+                    queue.poll();
+                    nioBuffers[written].recycle();
+                }
+                Arrays.fill(nioBuffers, 0, count, null);
+                Arrays.fill(buffers, 0, count, null);
+                // 一定要写完，否则会丢数据！写不完时等socket可写了再继续
+                if (written < count) {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
                     }
+                    return;
                 }
-                queue.remove(nioBuffer);
-                nioBuffer.recycle();
             }
 
             // 还是要检测key是否是有效的，否则会抛CancelledKeyException
-            if (queue.isEmpty() && key.isValid()) {
+            if (key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
                 int ops = key.interestOps();
                 ops &= ~SelectionKey.OP_WRITE;
                 key.interestOps(ops);
@@ -219,11 +263,9 @@ public class NioEventLoopAdapter implements NioEventLoop {
         if (channel == null) {
             return;
         }
-        for (SelectionKey key : selector.keys()) {
-            if (key.channel() == channel && key.isValid()) {
-                key.cancel();
-                break;
-            }
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            key.cancel();
         }
         channels.remove(channel);
         Socket socket = channel.socket();
@@ -239,6 +281,28 @@ public class NioEventLoopAdapter implements NioEventLoop {
         }
     }
 
+    private static class ChannelContext {
+
+        final SocketChannel channel;
+        final ConcurrentLinkedQueue<NioBuffer> buffers = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean ready = new AtomicBoolean(false);
+        // 只在nio-event-loop线程中使用
+        final NioBuffer[] nioBuffers = new NioBuffer[MAX_GATHERING_BUFFERS];
+        final ByteBuffer[] byteBuffers = new ByteBuffer[MAX_GATHERING_BUFFERS];
+        SelectionKey key;
+
+        ChannelContext(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // 先加入channels之后才注册到selector，所以第一次用到时再取
+        SelectionKey getKey(Selector selector) {
+            if (key == null || !key.isValid())
+                key = channel.keyFor(selector);
+            return key;
+        }
+    }
+
     public void close() {
         try {
             Selector selector = this.selector;
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.server;
+
+import java.util.ArrayList;
+
+import org.lealone.db.async.AsyncTask;
+import org.lealone.db.result.Result;
+import org.lealone.server.protocol.result.ResultFetchStreamAck;
+
+/**
+ * 只要客户端还有credit，就在session的调度器中一批一批地推送结果集的记录，
+ * 每次只推送一批然后重新放回调度器的队列，避免一个大结果集一直占用调度器。
+ * <p>
+ * 所有方法都在session的调度器线程中执行，所以不需要同步。
+ *
+ * @author zhh
+ */
+public class ResultStreamTask implements AsyncTask {
+
+    private final PacketDeliveryTask task;
+    private final Result result;
+    private final int chunkRows;
+    private int credits;
+    private boolean scheduled;
+    private boolean end;
+
+    public ResultStreamTask(PacketDeliveryTask task, Result result, int chunkRows, int credits) {
+        this.task = task;
+        this.result = result;
+        this.chunkRows = Math.max(1, chunkRows);
+        this.credits = credits;
+        task.conn.addResultStream(task.packetId, this);
+        schedule();
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    @Override
+    public int getPriority() {
+        return MIN_PRIORITY;
+    }
+
+    public void addCredits(int credits) {
+        this.credits += credits;
+        schedule();
+    }
+
+    private void schedule() {
+        if (!end && !scheduled && credits > 0) {
+            scheduled = true;
+            task.si.getScheduler().handle(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        scheduled = false;
+        if (end) {
+            return;
+        }
+        credits--;
+        ResultFetchStreamAck ack;
+        try {
+            ack = ResultFetchStreamAck.create(result, chunkRows);
+        } catch (Throwable e) {
+            finish();
+            task.conn.sendError(task.session, task.packetId, e);
+            return;
+        }
+        if (ack.end) {
+            finish();
+        }
+        // 客户端收到异常后就删除了回调，不能再推送
+        if (!task.conn.sendResponse(task, ack)) {
+            if (!end)
+                finish();
+            return;
+        }
+        schedule();
+    }
+
+    /**
+     * Stop pushing rows, the client gets an empty last packet so that it can
+     * remove the callback of the stream.
+     */
+    public void close() {
+        if (!end) {
+            finish();
+            int columnCount = result.getVisibleColumnCount();
+            task.conn.sendResponse(task, new ResultFetchStreamAck(new ArrayList<>(0), columnCount, true));
+        }
+    }
+
+    private void finish() {
+        end = true;
+        task.conn.removeResultStream(task.packetId);
+    }
+}
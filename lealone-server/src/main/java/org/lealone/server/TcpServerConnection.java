@@ -27,6 +27,7 @@ import org.lealone.common.util.ExpiringMap;
 import org.lealone.common.util.Pair;
 import org.lealone.db.ConnectionInfo;
 import org.lealone.db.SysProperties;
+import org.lealone.db.result.Result;
 import org.lealone.db.session.Session;
 import org.lealone.net.TransferConnection;
 import org.lealone.net.TransferInputStream;
@@ -57,6 +58,8 @@ public class TcpServerConnection extends TransferConnection {
     private final TcpServer tcpServer;
     private final ExpiringMap<Integer, AutoCloseable> cache; // 缓存PreparedStatement和结果集
     private LobCache lobCache; // 大多数情况下都不使用lob，所以延迟初始化
+    // 正在推送记录的结果集，key是客户端发送ResultFetchStream时用的packetId
+    private final ConcurrentHashMap<Integer, ResultStreamTask> resultStreams = new ConcurrentHashMap<>();
 
     public TcpServerConnection(TcpServer tcpServer, WritableChannel writableChannel, boolean isServer) {
         super(writableChannel, isServer);
@@ -179,6 +182,7 @@ public class TcpServerConnection extends TransferConnection {
             closeSession(si);
         }
         sessions.clear();
+        resultStreams.clear();
         cache.close();
         lobCache = null;
     }
@@ -193,7 +197,8 @@ public class TcpServerConnection extends TransferConnection {
         }
     }
 
-    public void sendResponse(PacketDeliveryTask task, Packet packet) {
+    // 返回false说明编码响应包时出错了，已经改成给客户端返回异常
+    public boolean sendResponse(PacketDeliveryTask task, Packet packet) {
         Session session = task.session;
         try {
             TransferOutputStream out = createTransferOutputStream(session);
@@ -203,8 +208,10 @@ public class TcpServerConnection extends TransferConnection {
             }
             packet.encode(out, session.getProtocolVersion());
             out.flush();
+            return true;
         } catch (Exception e) {
             sendError(session, task.packetId, e);
+            return false;
         }
     }
 
@@ -220,6 +227,32 @@ public class TcpServerConnection extends TransferConnection {
         return cache.remove(k, ifAvailable);
     }
 
+    void addResultStream(int streamId, ResultStreamTask stream) {
+        resultStreams.put(streamId, stream);
+    }
+
+    void removeResultStream(int streamId) {
+        resultStreams.remove(streamId);
+    }
+
+    public ResultStreamTask getResultStream(int streamId) {
+        return resultStreams.get(streamId);
+    }
+
+    /**
+     * Stop pushing the rows of the result, must be called before the result is closed or reset.
+     *
+     * @param result the result
+     */
+    public void closeResultStreams(Result result) {
+        if (resultStreams.isEmpty())
+            return;
+        for (ResultStreamTask stream : resultStreams.values()) {
+            if (stream.getResult() == result)
+                stream.close();
+        }
+    }
+
     public LobCache getLobCache() {
         if (lobCache == null) {
             lobCache = new LobCache();
@@ -17,8 +17,12 @@
  */
 package org.lealone.server.handler;
 
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.api.ErrorCode;
 import org.lealone.db.result.Result;
 import org.lealone.db.session.ServerSession;
+import org.lealone.server.PacketDeliveryTask;
+import org.lealone.server.ResultStreamTask;
 import org.lealone.server.TcpServerConnection;
 import org.lealone.server.protocol.Packet;
 import org.lealone.server.protocol.PacketType;
@@ -26,7 +30,9 @@ import org.lealone.server.protocol.result.ResultChangeId;
 import org.lealone.server.protocol.result.ResultClose;
 import org.lealone.server.protocol.result.ResultFetchRows;
 import org.lealone.server.protocol.result.ResultFetchRowsAck;
+import org.lealone.server.protocol.result.ResultFetchStream;
 import org.lealone.server.protocol.result.ResultReset;
+import org.lealone.server.protocol.result.ResultStreamCredit;
 
 class ResultPacketHandlers extends PacketHandlers {
 
@@ -35,6 +41,8 @@ class ResultPacketHandlers extends PacketHandlers {
         register(PacketType.RESULT_CHANGE_ID, new ChangeId());
         register(PacketType.RESULT_RESET, new Reset());
         register(PacketType.RESULT_CLOSE, new Close());
+        register(PacketType.RESULT_FETCH_STREAM, new FetchStream());
+        register(PacketType.RESULT_STREAM_CREDIT, new StreamCredit());
     }
 
     private static class FetchRows implements PacketHandler<ResultFetchRows> {
@@ -58,6 +66,7 @@ class ResultPacketHandlers extends PacketHandlers {
         @Override
         public Packet handle(TcpServerConnection conn, ServerSession session, ResultReset packet) {
             Result result = (Result) conn.getCache(packet.resultId);
+            conn.closeResultStreams(result);
             result.reset();
             return null;
         }
@@ -68,9 +77,34 @@ class ResultPacketHandlers extends PacketHandlers {
         public Packet handle(TcpServerConnection conn, ServerSession session, ResultClose packet) {
             Result result = (Result) conn.removeCache(packet.resultId, true);
             if (result != null) {
+                conn.closeResultStreams(result);
                 result.close();
             }
             return null;
         }
     }
+
+    private static class FetchStream implements PacketHandler<ResultFetchStream> {
+        @Override
+        public Packet handle(PacketDeliveryTask task, ResultFetchStream packet) {
+            Result result = (Result) task.conn.getCache(packet.resultId);
+            if (result == null) {
+                throw DbException.get(ErrorCode.OBJECT_CLOSED);
+            }
+            // 响应包由ResultStreamTask推送
+            new ResultStreamTask(task, result, packet.chunkRows, packet.credits);
+            return null;
+        }
+    }
+
+    private static class StreamCredit implements PacketHandler<ResultStreamCredit> {
+        @Override
+        public Packet handle(TcpServerConnection conn, ServerSession session, ResultStreamCredit packet) {
+            ResultStreamTask stream = conn.getResultStream(packet.streamId);
+            if (stream != null) {
+                stream.addCredits(packet.credits);
+            }
+            return null;
+        }
+    }
 }
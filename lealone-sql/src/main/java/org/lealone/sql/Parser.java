@@ -4034,6 +4034,10 @@ public class Parser implements SQLParser {
             command.setComment(readCommentIf());
             read("(");
             command.setIndexColumns(parseIndexColumnList());
+            if (readIf("INCLUDE")) {
+                read("(");
+                command.setIncludeColumnNames(parseColumnList());
+            }
 
             if (readIf("USING")) {
                 if (hash) {
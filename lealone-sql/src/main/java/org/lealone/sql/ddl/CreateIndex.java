@@ -6,6 +6,8 @@
  */
 package org.lealone.sql.ddl;
 
+import java.util.ArrayList;
+
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.Constants;
 import org.lealone.db.DbObjectType;
@@ -14,6 +16,7 @@ import org.lealone.db.auth.Right;
 import org.lealone.db.index.IndexType;
 import org.lealone.db.schema.Schema;
 import org.lealone.db.session.ServerSession;
+import org.lealone.db.table.Column;
 import org.lealone.db.table.IndexColumn;
 import org.lealone.db.table.Table;
 import org.lealone.sql.SQLStatement;
@@ -30,6 +33,7 @@ public class CreateIndex extends SchemaStatement {
     private String tableName;
     private String indexName;
     private IndexColumn[] indexColumns;
+    private String[] includeColumnNames;
     private boolean ifNotExists;
     private boolean primaryKey, unique, hash;
     private String comment;
@@ -55,6 +59,10 @@ public class CreateIndex extends SchemaStatement {
         this.indexColumns = columns;
     }
 
+    public void setIncludeColumnNames(String[] includeColumnNames) {
+        this.includeColumnNames = includeColumnNames;
+    }
+
     public void setIfNotExists(boolean ifNotExists) {
         this.ifNotExists = ifNotExists;
     }
@@ -108,11 +116,37 @@ public class CreateIndex extends SchemaStatement {
                 indexType = IndexType.createNonUnique(hash);
             }
             IndexColumn.mapColumns(indexColumns, table);
-            table.addIndex(session, indexName, id, indexColumns, indexType, create, comment);
+            Column[] includeColumns = getIncludeColumns(table);
+            table.addIndex(session, indexName, id, indexColumns, indexType, create, comment, includeColumns);
         }
         return 0;
     }
 
+    private Column[] getIncludeColumns(Table table) {
+        if (includeColumnNames == null) {
+            return null;
+        }
+        ArrayList<Column> columns = new ArrayList<>(includeColumnNames.length);
+        for (String name : includeColumnNames) {
+            Column column = table.getColumn(name);
+            if (columns.contains(column)) {
+                throw DbException.get(ErrorCode.DUPLICATE_COLUMN_NAME_1, column.getSQL());
+            }
+            // 已经是索引字段的不需要再放到value中
+            boolean isIndexColumn = false;
+            for (IndexColumn c : indexColumns) {
+                if (c.column == column) {
+                    isIndexColumn = true;
+                    break;
+                }
+            }
+            if (!isIndexColumn) {
+                columns.add(column);
+            }
+        }
+        return columns.toArray(new Column[columns.size()]);
+    }
+
     @Override
     public boolean isReplicationStatement() {
         return true;
@@ -134,6 +134,10 @@ public abstract class Query extends ManipulationStatement implements org.lealone
      */
     public abstract void setForUpdate(boolean forUpdate);
 
+    public boolean isForUpdate() {
+        return isForUpdate;
+    }
+
     /**
      * Get the column count of this query.
      *
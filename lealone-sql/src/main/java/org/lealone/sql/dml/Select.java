@@ -48,11 +48,17 @@ import org.lealone.sql.expression.ExpressionColumn;
 import org.lealone.sql.expression.ExpressionVisitor;
 import org.lealone.sql.expression.Parameter;
 import org.lealone.sql.expression.SelectOrderBy;
+import org.lealone.sql.expression.aggregate.Aggregate;
+import org.lealone.sql.expression.aggregate.AggregateSlots;
 import org.lealone.sql.expression.condition.Comparison;
 import org.lealone.sql.expression.condition.ConditionAndOr;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.Optimizer;
+import org.lealone.sql.optimizer.ParallelScan;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.sql.vector.GroupHashTable;
+import org.lealone.sql.vector.RowBatch;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * This class represents a simple SELECT statement.
@@ -801,6 +807,115 @@ public class Select extends Query {
         return result;
     }
 
+    /**
+     * Check if the group query can be executed in two phases: the shards calculate the partial states
+     * of the groups by {@link #getPartialAggregateSQL()}, and the coordinator merges them
+     * by {@link #queryPartialGroupMerge(Result, int)}.
+     * <p>
+     * 包括ORDER BY、GROUP BY加进来的隐藏列在内，所有列都只能是分组表达式或支持部分状态的聚合函数，
+     * 有HAVING、GROUP_CONCAT或者由聚合函数组成的表达式时还是用原来的合并方式。
+     *
+     * @return true if the query can be executed in two phases
+     */
+    public boolean isPartialAggregatable() {
+        if (!isGroupQuery || having != null || havingIndex >= 0)
+            return false;
+        for (int i = 0, size = expressions.size(); i < size; i++) {
+            if (groupByExpression != null && groupByExpression[i])
+                continue;
+            Expression expr = expressions.get(i).getNonAliasExpression();
+            if (!(expr instanceof Aggregate) || ((Aggregate) expr).getPartialColumnCount() < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Merge the partial states of the groups returned by the shards,
+     * then sort and limit the final rows.
+     *
+     * @param partialResult the rows returned by all shards
+     * @param maxRows the maximum number of rows to return, 0 means no limit
+     * @return the result
+     */
+    public LocalResult queryPartialGroupMerge(Result partialResult, int maxRows) {
+        int columnCount = expressions.size();
+        // 每一列的部分状态在分片返回的行中的起始位置，AVG等聚合函数的部分状态不止一列
+        int[] offsets = new int[columnCount];
+        for (int i = 0, offset = 0; i < columnCount; i++) {
+            offsets[i] = offset;
+            if (groupByExpression != null && groupByExpression[i])
+                offset++;
+            else
+                offset += ((Aggregate) expressions.get(i).getNonAliasExpression()).getPartialColumnCount();
+        }
+        ValueHashMap<HashMap<Expression, Object>> groups = ValueHashMap.newInstance();
+        ValueArray defaultGroup = ValueArray.get(new Value[0]);
+        while (partialResult.next()) {
+            Value[] row = partialResult.currentRow();
+            Value key;
+            if (groupIndex == null) {
+                key = defaultGroup;
+            } else {
+                Value[] keyValues = new Value[groupIndex.length];
+                for (int i = 0; i < groupIndex.length; i++) {
+                    keyValues[i] = row[offsets[groupIndex[i]]];
+                }
+                key = ValueArray.get(keyValues);
+            }
+            HashMap<Expression, Object> values = groups.get(key);
+            if (values == null) {
+                values = new HashMap<Expression, Object>();
+                groups.put(key, values);
+            }
+            for (int i = 0; i < columnCount; i++) {
+                if (groupByExpression == null || !groupByExpression[i]) {
+                    Aggregate agg = (Aggregate) expressions.get(i).getNonAliasExpression();
+                    agg.mergePartial(session, values, row, offsets[i]);
+                }
+            }
+        }
+        partialResult.close();
+        if (groupIndex == null && groups.size() == 0) {
+            groups.put(defaultGroup, new HashMap<Expression, Object>());
+        }
+
+        LocalResult result = new LocalResult(session, expressionArray, visibleColumnCount);
+        if (sort != null) {
+            result.setSortOrder(sort);
+        }
+        if (distinct) {
+            result.setDistinct();
+        }
+        for (Value v : groups.keys()) {
+            ValueArray key = (ValueArray) v;
+            HashMap<Expression, Object> values = groups.get(key);
+            Value[] keyValues = key.getList();
+            Value[] row = new Value[columnCount];
+            for (int j = 0; groupIndex != null && j < groupIndex.length; j++) {
+                row[groupIndex[j]] = keyValues[j];
+            }
+            for (int j = 0; j < columnCount; j++) {
+                if (groupByExpression == null || !groupByExpression[j]) {
+                    Aggregate agg = (Aggregate) expressions.get(j).getNonAliasExpression();
+                    row[j] = agg.getPartialMergedValue(session, values);
+                }
+            }
+            result.addRow(row);
+        }
+        int limitRows = maxRows == 0 ? -1 : maxRows;
+        int l = getLimitRows();
+        if (limitRows < 0 || (l >= 0 && l < limitRows)) {
+            limitRows = l;
+        }
+        if (offsetExpr != null) {
+            result.setOffset(offsetExpr.getValue(session).getInt());
+        }
+        result.setLimit(limitRows);
+        result.done();
+        return result;
+    }
+
     public Result calculate(Result result, Select select) {
         int size = expressions.size();
         if (havingIndex >= 0)
@@ -874,12 +989,27 @@ public class Select extends Query {
     }
 
     public String getPlanSQL(boolean isDistributed, boolean isMerged) {
+        return getPlanSQL(isDistributed, isMerged, false);
+    }
+
+    /**
+     * Get the SQL statement that calculates the partial states of the groups on a shard,
+     * see {@link #isPartialAggregatable()}.
+     * 聚合函数换成部分状态，HAVING、ORDER BY、LIMIT和DISTINCT都要等协调节点合并完之后再做。
+     *
+     * @return the SQL statement
+     */
+    public String getPartialAggregateSQL() {
+        return getPlanSQL(true, false, true);
+    }
+
+    private String getPlanSQL(boolean isDistributed, boolean isMerged, boolean isPartial) {
         // can not use the field sqlStatement because the parameter
         // indexes may be incorrect: ? may be in fact ?2 for a subquery
         // but indexes may be set manually as well
         Expression[] exprList = expressions.toArray(new Expression[expressions.size()]);
         StatementBuilder buff = new StatementBuilder("SELECT");
-        if (distinct) {
+        if (distinct && !isPartial) {
             buff.append(" DISTINCT");
         }
 
@@ -891,7 +1021,12 @@ public class Select extends Query {
                 continue;
             buff.appendExceptFirst(",");
             buff.append('\n');
-            buff.append(StringUtils.indent(exprList[i].getSQL(isDistributed), 4, false));
+            String sql;
+            if (isPartial && (groupByExpression == null || !groupByExpression[i]))
+                sql = ((Aggregate) exprList[i].getNonAliasExpression()).getPartialSQL();
+            else
+                sql = exprList[i].getSQL(isDistributed);
+            buff.append(StringUtils.indent(sql, 4, false));
         }
         buff.append("\nFROM ");
         TableFilter filter = topTableFilter;
@@ -940,7 +1075,7 @@ public class Select extends Query {
         }
 
         // 合并时可以忽略HAVING、ORDER BY等等子句
-        if (isMerged)
+        if (isMerged || isPartial)
             return buff.toString();
 
         if (having != null) {
@@ -964,7 +1099,8 @@ public class Select extends Query {
                 buff.append(StringUtils.unEnclose(o.getSQL()));
             }
         }
-        if (limitExpr != null) {
+        // 分片上的分组只是部分结果，合并之后才能截断，所以分组查询不能把LIMIT下推到分片
+        if (limitExpr != null && !(isDistributed && isGroupQuery)) {
             if (isDistributed) {
                 int limit = limitExpr.getValue(session).getInt();
                 if (offsetExpr != null)
@@ -1210,6 +1346,11 @@ public class Select extends Query {
     }
 
     public HashSet<Column> getReferencedColumns() {
+        // 选择索引时还没有生成expressionArray
+        Expression[] expressionArray = this.expressionArray;
+        if (expressionArray == null) {
+            expressionArray = expressions.toArray(new Expression[expressions.size()]);
+        }
         int len = expressionArray.length;
         HashSet<Column> columnSet = new HashSet<>(len);
         for (int i = 0; i < len; i++) {
@@ -1299,7 +1440,7 @@ public class Select extends Query {
                 if (isGroupSortedQuery) {
                     queryOperator = new QueryGroupSorted();
                 } else {
-                    queryOperator = new QueryGroup();
+                    queryOperator = isVectorizable() ? new QueryGroupBatch() : new QueryGroup();
                     to = result;
                 }
             } else if (isDistinctQuery) {
@@ -1307,7 +1448,7 @@ public class Select extends Query {
             } else if (isDistinctQueryForMultiFields) {
                 queryOperator = new QueryDistinctForMultiFields();
             } else {
-                queryOperator = new QueryFlat();
+                queryOperator = isVectorizable() ? new QueryFlatBatch() : new QueryFlat();
             }
         }
         queryOperator.columnCount = columnCount;
@@ -1324,6 +1465,26 @@ public class Select extends Query {
         return null;
     }
 
+    // 只有单表查询才按批执行，ROWNUM这类跟当前行号有关的表达式也不行
+    private boolean isVectorizable() {
+        return session.getDatabase().getSettings().vectorizedQuery && topTableFilter.getJoin() == null
+                && topTableFilter.getNestedJoin() == null && !isForUpdate && getSampleSizeValue(session) == 0
+                && isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR);
+    }
+
+    // 大表的主键范围可以切分成多个区间，由多个线程并行读取
+    private RowBatch createRowBatch(boolean parallel) {
+        RowBatch batch = new RowBatch(topTableFilter);
+        if (parallel) {
+            ParallelScan scan = topTableFilter.createParallelScan(session.getQueryParallelism());
+            if (scan != null) {
+                scan.start();
+                batch.setParallelScan(scan);
+            }
+        }
+        return batch;
+    }
+
     private LocalResult createLocalResult(LocalResult old) {
         return old != null ? old : new LocalResult(session, expressionArray, visibleColumnCount);
     }
@@ -1559,6 +1720,78 @@ public class Select extends Query {
         }
     }
 
+    // 按批执行的QueryFlat，where条件和select列表都是一批一批计算的
+    private class QueryFlatBatch extends QueryOperator {
+        RowBatch batch;
+
+        @Override
+        void start() {
+            super.start();
+            // 有limit又不需要排序时读到够数的记录就结束了，并行读取只会多读
+            batch = createRowBatch(limitRows < 0 || (sort != null && !sortUsingIndex));
+        }
+
+        @Override
+        void run() {
+            try {
+                runBatches();
+            } catch (Throwable t) {
+                batch.close();
+                throw t;
+            }
+        }
+
+        @Override
+        void stop() {
+            batch.close();
+            super.stop();
+        }
+
+        private void runBatches() {
+            while (true) {
+                int max = RowBatch.DEFAULT_SIZE;
+                if ((sort == null || sortUsingIndex) && limitRows > 0) {
+                    // 不需要多读记录
+                    max = (int) Math.min(max, limitRows - result.getRowCount());
+                }
+                int size = batch.fill(max);
+                if (size == 0) {
+                    break;
+                }
+                boolean yieldIfNeeded = false;
+                for (int i = 0; i < size; i++) {
+                    yieldIfNeeded |= setCurrentRowNumber(rowNumber + 1);
+                }
+                if (condition != null) {
+                    condition.filter(session, batch);
+                }
+                int selSize = batch.getSelectionSize();
+                if (selSize > 0) {
+                    int[] sel = batch.getSelection();
+                    ValueVector[] vectors = new ValueVector[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        vectors[i] = expressions.get(i).getValueVector(session, batch);
+                    }
+                    for (int j = 0; j < selSize; j++) {
+                        int r = sel[j];
+                        Value[] row = new Value[columnCount];
+                        for (int i = 0; i < columnCount; i++) {
+                            row[i] = vectors[i].getValue(r);
+                        }
+                        result.addRow(row);
+                        rowNumber++;
+                    }
+                }
+                if (async && yieldIfNeeded)
+                    return;
+                if ((sort == null || sortUsingIndex) && limitRows > 0 && result.getRowCount() >= limitRows) {
+                    break;
+                }
+            }
+            loopEnd = true;
+        }
+    }
+
     // 单字段distinct
     private class QueryDistinct extends QueryOperator {
         Index index;
@@ -1708,6 +1941,11 @@ public class Select extends Query {
                     }
                 }
             }
+            addGroupRows();
+            loopEnd = true;
+        }
+
+        void addGroupRows() {
             if (groupIndex == null && groups.size() == 0) {
                 groups.put(defaultGroup, new HashMap<Expression, Object>());
             }
@@ -1715,26 +1953,240 @@ public class Select extends Query {
             for (Value v : keys) {
                 ValueArray key = (ValueArray) v;
                 currentGroup = groups.get(key);
-                Value[] keyValues = key.getList();
-                Value[] row = new Value[columnCount];
-                for (int j = 0; groupIndex != null && j < groupIndex.length; j++) {
-                    row[groupIndex[j]] = keyValues[j];
-                }
-                for (int j = 0; j < columnCount; j++) {
-                    if (groupByExpression != null && groupByExpression[j]) {
-                        continue;
-                    }
-                    Expression expr = expressions.get(j);
-                    row[j] = expr.getValue(session);
+                addGroupRow(key.getList());
+            }
+        }
+
+        // 当前分组已经放在currentGroup中
+        void addGroupRow(Value[] keyValues) {
+            Value[] row = new Value[columnCount];
+            for (int j = 0; groupIndex != null && j < groupIndex.length; j++) {
+                row[groupIndex[j]] = keyValues[j];
+            }
+            for (int j = 0; j < columnCount; j++) {
+                if (groupByExpression != null && groupByExpression[j]) {
+                    continue;
                 }
-                if (isHavingNullOrFalse(row)) {
+                Expression expr = expressions.get(j);
+                row[j] = expr.getValue(session);
+            }
+            if (isHavingNullOrFalse(row)) {
+                return;
+            }
+            row = keepOnlyDistinct(row, columnCount);
+            result.addRow(row);
+        }
+    }
+
+    // 按批执行的QueryGroup，先把一批记录按分组分开，同一个分组的记录一次性更新聚合函数
+    // 如果除了group by的字段外全是简单的聚合函数，就不需要为每个分组创建HashMap，
+    // 分组用GroupHashTable编号，聚合函数的值按分组编号放在AggregateSlots中
+    private class QueryGroupBatch extends QueryGroup {
+        RowBatch batch;
+        boolean batchAggregatable;
+        GroupHashTable groupTable;
+        AggregateSlots[] slots;
+
+        @Override
+        void start() {
+            super.start();
+            batch = createRowBatch(true);
+            batchAggregatable = true;
+            for (int i = 0; i < columnCount; i++) {
+                if ((groupByExpression == null || !groupByExpression[i])
+                        && !expressions.get(i).isBatchAggregatable()) {
+                    batchAggregatable = false;
+                    break;
+                }
+            }
+            if (batchAggregatable && groupIndex != null && havingIndex < 0) {
+                slots = createSlots();
+                if (slots != null) {
+                    groupTable = new GroupHashTable(groupIndex.length);
+                }
+            }
+        }
+
+        private AggregateSlots[] createSlots() {
+            AggregateSlots[] slots = new AggregateSlots[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                if (groupByExpression[i]) {
                     continue;
                 }
-                row = keepOnlyDistinct(row, columnCount);
-                result.addRow(row);
+                Expression expr = expressions.get(i).getNonAliasExpression();
+                if (!(expr instanceof Aggregate)) {
+                    return null;
+                }
+                slots[i] = ((Aggregate) expr).createSlots();
+                if (slots[i] == null) {
+                    return null;
+                }
+            }
+            return slots;
+        }
+
+        @Override
+        void run() {
+            try {
+                runBatches();
+            } catch (Throwable t) {
+                batch.close();
+                throw t;
+            }
+        }
+
+        @Override
+        void stop() {
+            batch.close();
+            super.stop();
+        }
+
+        private void runBatches() {
+            while (true) {
+                int size = batch.fill(RowBatch.DEFAULT_SIZE);
+                if (size == 0) {
+                    break;
+                }
+                boolean yieldIfNeeded = false;
+                for (int i = 0; i < size; i++) {
+                    yieldIfNeeded |= setCurrentRowNumber(rowNumber + 1);
+                }
+                // 避免在ExpressionColumn中取到旧值
+                currentGroup = null;
+                if (condition != null) {
+                    condition.filter(session, batch);
+                }
+                int selSize = batch.getSelectionSize();
+                if (selSize > 0) {
+                    rowNumber += selSize;
+                    if (groupIndex == null) {
+                        updateGroup(defaultGroup);
+                    } else if (groupTable != null) {
+                        updateSlots();
+                    } else {
+                        updateGroups();
+                    }
+                }
+                if (async && yieldIfNeeded)
+                    return;
             }
+            addGroupRows();
             loopEnd = true;
         }
+
+        @Override
+        void addGroupRows() {
+            if (groupTable == null) {
+                super.addGroupRows();
+                return;
+            }
+            Database db = session.getDatabase();
+            for (int g = 0, size = groupTable.size(); g < size; g++) {
+                HashMap<Expression, Object> group = new HashMap<>();
+                for (AggregateSlots s : slots) {
+                    if (s != null) {
+                        s.putData(group, db, g);
+                    }
+                }
+                currentGroup = group;
+                addGroupRow(groupTable.getKey(g));
+            }
+        }
+
+        private void updateSlots() {
+            int keyCount = groupIndex.length;
+            ValueVector[] keyVectors = new ValueVector[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keyVectors[i] = expressions.get(groupIndex[i]).getValueVector(session, batch);
+            }
+            int[] groupIds = groupTable.getGroupIds(keyVectors, batch.getSelection(), batch.getSelectionSize());
+            int groupCount = groupTable.size();
+            for (AggregateSlots s : slots) {
+                if (s != null) {
+                    s.add(session, batch, groupIds, groupCount);
+                }
+            }
+        }
+
+        private void updateGroups() {
+            int[] sel = batch.getSelection();
+            int selSize = batch.getSelectionSize();
+            int keyCount = groupIndex.length;
+            ValueVector[] keyVectors = new ValueVector[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keyVectors[i] = expressions.get(groupIndex[i]).getValueVector(session, batch);
+            }
+            // 按分组第一次出现的顺序编号，跟一行一行处理时创建分组的顺序一样
+            ValueHashMap<Integer> bucketIds = ValueHashMap.newInstance();
+            ArrayList<Value> bucketKeys = new ArrayList<>();
+            int[] rowBuckets = new int[selSize];
+            int[] bucketSizes = new int[selSize];
+            for (int j = 0; j < selSize; j++) {
+                int r = sel[j];
+                Value[] keyValues = new Value[keyCount];
+                for (int i = 0; i < keyCount; i++) {
+                    keyValues[i] = keyVectors[i].getValue(r);
+                }
+                Value key = ValueArray.get(keyValues);
+                Integer bucket = bucketIds.get(key);
+                if (bucket == null) {
+                    bucket = bucketKeys.size();
+                    bucketIds.put(key, bucket);
+                    bucketKeys.add(key);
+                }
+                rowBuckets[j] = bucket;
+                bucketSizes[bucket]++;
+            }
+            int bucketCount = bucketKeys.size();
+            if (bucketCount == 1) {
+                updateGroup(bucketKeys.get(0));
+                return;
+            }
+            int[] offsets = new int[bucketCount + 1];
+            for (int b = 0; b < bucketCount; b++) {
+                offsets[b + 1] = offsets[b] + bucketSizes[b];
+            }
+            int[] rows = new int[selSize];
+            int[] pos = Arrays.copyOf(offsets, bucketCount);
+            for (int j = 0; j < selSize; j++) {
+                rows[pos[rowBuckets[j]]++] = sel[j];
+            }
+            for (int b = 0; b < bucketCount; b++) {
+                int[] bucketRows = Arrays.copyOfRange(rows, offsets[b], offsets[b + 1]);
+                batch.setSelection(bucketRows, bucketRows.length);
+                updateGroup(bucketKeys.get(b));
+            }
+        }
+
+        // 当前selection中的行都属于key对应的分组
+        private void updateGroup(Value key) {
+            HashMap<Expression, Object> values = groups.get(key);
+            if (values == null) {
+                values = new HashMap<Expression, Object>();
+                groups.put(key, values);
+            }
+            currentGroup = values;
+            if (batchAggregatable) {
+                currentGroupRowId++;
+                for (int i = 0; i < columnCount; i++) {
+                    if (groupByExpression == null || !groupByExpression[i]) {
+                        expressions.get(i).updateAggregate(session, batch);
+                    }
+                }
+            } else {
+                int[] sel = batch.getSelection();
+                for (int j = 0, selSize = batch.getSelectionSize(); j < selSize; j++) {
+                    batch.setCurrentRow(sel[j]);
+                    currentGroupRowId++;
+                    for (int i = 0; i < columnCount; i++) {
+                        if (groupByExpression == null || !groupByExpression[i]) {
+                            expressions.get(i).updateAggregate(session);
+                        }
+                    }
+                }
+            }
+            currentGroup = null;
+        }
     }
 
     private class QueryGroupSorted extends QueryOperator {
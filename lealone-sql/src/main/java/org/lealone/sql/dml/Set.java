@@ -327,6 +327,13 @@ public class Set extends ManipulationStatement {
             database.setQueryStatisticsMaxEntries(value);
             break;
         }
+        case SetTypes.QUERY_PARALLELISM: {
+            if (getIntValue() < 0) {
+                throw DbException.getInvalidValueException("QUERY_PARALLELISM", getIntValue());
+            }
+            session.setQueryParallelism(getIntValue());
+            break;
+        }
         case SetTypes.SCHEMA: {
             Schema schema = database.getSchema(stringValue);
             session.setCurrentSchema(schema);
@@ -11,6 +11,8 @@ import org.lealone.db.value.Value;
 import org.lealone.sql.Parser;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.sql.vector.RowBatch;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * A column alias as in SELECT 'Hello' AS NAME ...
@@ -88,6 +90,26 @@ public class Alias extends Expression {
         expr.updateAggregate(session);
     }
 
+    @Override
+    public ValueVector getValueVector(ServerSession session, RowBatch batch) {
+        return expr.getValueVector(session, batch);
+    }
+
+    @Override
+    public void filter(ServerSession session, RowBatch batch) {
+        expr.filter(session, batch);
+    }
+
+    @Override
+    public boolean isBatchAggregatable() {
+        return expr.isBatchAggregatable();
+    }
+
+    @Override
+    public void updateAggregate(ServerSession session, RowBatch batch) {
+        expr.updateAggregate(session, batch);
+    }
+
     @Override
     public String getAlias() {
         return alias;
@@ -23,6 +23,8 @@ import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueArray;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.sql.vector.RowBatch;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * An expression is a operation, a value, or a function in a query.
@@ -134,6 +136,69 @@ public abstract class Expression implements org.lealone.sql.IExpression {
      */
     public abstract void updateAggregate(ServerSession session);
 
+    /**
+     * Return the values for the selected rows of the batch.
+     * By default the expression is evaluated row by row.
+     *
+     * @param session the session
+     * @param batch the row batch
+     * @return the values
+     */
+    public ValueVector getValueVector(ServerSession session, RowBatch batch) {
+        if (isConstant()) {
+            return ValueVector.get(getValue(session));
+        }
+        int[] sel = batch.getSelection();
+        int selSize = batch.getSelectionSize();
+        Value[] values = new Value[batch.size()];
+        for (int i = 0; i < selSize; i++) {
+            int row = sel[i];
+            batch.setCurrentRow(row);
+            values[row] = getValue(session);
+        }
+        return ValueVector.get(values, sel, selSize);
+    }
+
+    /**
+     * Remove the rows of the batch selection for which this condition is not true.
+     *
+     * @param session the session
+     * @param batch the row batch
+     */
+    public void filter(ServerSession session, RowBatch batch) {
+        ValueVector vector = getValueVector(session, batch);
+        int[] sel = batch.getSelection();
+        int selSize = batch.getSelectionSize();
+        int count = 0;
+        for (int i = 0; i < selSize; i++) {
+            int row = sel[i];
+            if (Boolean.TRUE.equals(vector.getValue(row).getBoolean())) {
+                sel[count++] = row;
+            }
+        }
+        batch.setSelectionSize(count);
+    }
+
+    /**
+     * Check if updateAggregate can be called once for all selected rows of a batch,
+     * the selected rows must belong to the same group.
+     *
+     * @return true if the batch version of updateAggregate is supported
+     */
+    public boolean isBatchAggregatable() {
+        return false;
+    }
+
+    /**
+     * Update an aggregate value for all selected rows of the batch.
+     *
+     * @param session the session
+     * @param batch the row batch
+     */
+    public void updateAggregate(ServerSession session, RowBatch batch) {
+        throw DbException.throwInternalError();
+    }
+
     /**
      * Check if this expression and all sub-expressions can fulfill a criteria.
      * If any part returns false, the result is false.
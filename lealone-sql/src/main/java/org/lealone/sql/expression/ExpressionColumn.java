@@ -12,6 +12,7 @@ import org.lealone.common.exceptions.DbException;
 import org.lealone.db.Database;
 import org.lealone.db.LealoneDatabase;
 import org.lealone.db.api.ErrorCode;
+import org.lealone.db.result.Row;
 import org.lealone.db.schema.Constant;
 import org.lealone.db.schema.Schema;
 import org.lealone.db.session.ServerSession;
@@ -19,12 +20,15 @@ import org.lealone.db.table.Column;
 import org.lealone.db.table.Table;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueBoolean;
+import org.lealone.db.value.ValueLong;
 import org.lealone.sql.Parser;
 import org.lealone.sql.dml.Select;
 import org.lealone.sql.expression.condition.Comparison;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.IndexCondition;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.sql.vector.RowBatch;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * A expression that represents a column of a table or view.
@@ -193,6 +197,55 @@ public class ExpressionColumn extends Expression {
         }
     }
 
+    @Override
+    public boolean isBatchAggregatable() {
+        return true;
+    }
+
+    @Override
+    public void updateAggregate(ServerSession session, RowBatch batch) {
+        // 同一个分组只需要保存第一行的值
+        batch.setCurrentRow(batch.getSelection()[0]);
+        updateAggregate(session);
+    }
+
+    @Override
+    public ValueVector getValueVector(ServerSession session, RowBatch batch) {
+        if (columnResolver != batch.getTableFilter()) {
+            return super.getValueVector(session, batch);
+        }
+        Select select = columnResolver.getSelect();
+        if (select != null) {
+            HashMap<Expression, Object> values = select.getCurrentGroup();
+            if (values != null) {
+                Value v = (Value) values.get(this);
+                if (v != null) {
+                    return ValueVector.get(v);
+                }
+            }
+        }
+        ValueVector vector = batch.getColumnVector(column);
+        if (vector == null) {
+            int[] sel = batch.getSelection();
+            int selSize = batch.getSelectionSize();
+            int columnId = column.getColumnId();
+            Value[] values = new Value[batch.size()];
+            for (int i = 0; i < selSize; i++) {
+                int row = sel[i];
+                Row r = batch.getRow(row);
+                Value v = columnId == -1 ? ValueLong.get(r.getKey()) : r.getValue(columnId);
+                if (v == null) {
+                    batch.setCurrentRow(row);
+                    v = getValue(session);
+                }
+                values[row] = v;
+            }
+            vector = ValueVector.get(values, sel, selSize);
+            batch.putColumnVector(column, vector);
+        }
+        return vector;
+    }
+
     @Override
     public Value getValue(ServerSession session) {
         Select select = columnResolver.getSelect();
@@ -18,6 +18,8 @@ import org.lealone.db.value.ValueString;
 import org.lealone.sql.expression.function.Function;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.sql.vector.RowBatch;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * A mathematical expression, or string concatenation.
@@ -108,15 +110,15 @@ public class Operation extends Expression {
 
     @Override
     public Value getValue(ServerSession session) {
-        Value l = left.getValue(session).convertTo(dataType);
-        Value r;
-        if (right == null) {
-            r = null;
-        } else {
-            r = right.getValue(session);
-            if (convertRight) {
-                r = r.convertTo(dataType);
-            }
+        Value l = left.getValue(session);
+        Value r = right == null ? null : right.getValue(session);
+        return calculate(session, l, r);
+    }
+
+    private Value calculate(ServerSession session, Value l, Value r) {
+        l = l.convertTo(dataType);
+        if (r != null && convertRight) {
+            r = r.convertTo(dataType);
         }
         switch (opType) {
         case NEGATE:
@@ -385,6 +387,84 @@ public class Operation extends Expression {
         }
     }
 
+    @Override
+    public boolean isBatchAggregatable() {
+        return left.isBatchAggregatable() && (right == null || right.isBatchAggregatable());
+    }
+
+    @Override
+    public void updateAggregate(ServerSession session, RowBatch batch) {
+        left.updateAggregate(session, batch);
+        if (right != null) {
+            right.updateAggregate(session, batch);
+        }
+    }
+
+    @Override
+    public ValueVector getValueVector(ServerSession session, RowBatch batch) {
+        ValueVector l = left.getValueVector(session, batch);
+        ValueVector r = right == null ? null : right.getValueVector(session, batch);
+        if (l.isConstant() && (r == null || r.isConstant())) {
+            return ValueVector.get(calculate(session, l.getValue(0), r == null ? null : r.getValue(0)));
+        }
+        int[] sel = batch.getSelection();
+        int selSize = batch.getSelectionSize();
+        if ((opType == PLUS || opType == MINUS || opType == MULTIPLY) && convertRight && l.isLong() && r.isLong()
+                && (dataType == Value.DECIMAL || dataType == Value.LONG
+                        || dataType == Value.INT && l.getLongType() == Value.INT && r.getLongType() == Value.INT)) {
+            ValueVector v = calculate(session, l, r, sel, selSize, batch.size());
+            if (v != null) {
+                return v;
+            }
+        }
+        Value[] values = new Value[batch.size()];
+        for (int i = 0; i < selSize; i++) {
+            int row = sel[i];
+            values[row] = calculate(session, l.getValue(row), r == null ? null : r.getValue(row));
+        }
+        return ValueVector.get(values, sel, selSize);
+    }
+
+    // 溢出时返回null，由调用者一行一行计算，这样抛出的异常跟原来一样
+    private ValueVector calculate(ServerSession session, ValueVector l, ValueVector r, int[] sel, int selSize,
+            int size) {
+        long[] longs = new long[size];
+        boolean[] nulls = null;
+        try {
+            for (int i = 0; i < selSize; i++) {
+                int row = sel[i];
+                if (l.isNull(row) || r.isNull(row)) {
+                    if (nulls == null) {
+                        nulls = new boolean[size];
+                    }
+                    nulls[row] = true;
+                    continue;
+                }
+                long a = l.getLong(row);
+                long b = r.getLong(row);
+                long result;
+                switch (opType) {
+                case PLUS:
+                    result = Math.addExact(a, b);
+                    break;
+                case MINUS:
+                    result = Math.subtractExact(a, b);
+                    break;
+                default:
+                    result = Math.multiplyExact(a, b);
+                    break;
+                }
+                if (dataType == Value.INT && (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE)) {
+                    return null;
+                }
+                longs[row] = result;
+            }
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        return ValueVector.get(longs, nulls, dataType);
+    }
+
     @Override
     public boolean isEverything(ExpressionVisitor visitor) {
         return left.isEverything(visitor) && (right == null || right.isEverything(visitor));
@@ -17,6 +17,8 @@ import org.lealone.db.value.ValueNull;
 import org.lealone.sql.expression.condition.Comparison;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.sql.vector.RowBatch;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * A parameter of a prepared statement.
@@ -155,6 +157,21 @@ public class Parameter extends Expression implements CommandParameter {
         // nothing to do
     }
 
+    @Override
+    public ValueVector getValueVector(ServerSession session, RowBatch batch) {
+        return ValueVector.get(getValue(session));
+    }
+
+    @Override
+    public boolean isBatchAggregatable() {
+        return true;
+    }
+
+    @Override
+    public void updateAggregate(ServerSession session, RowBatch batch) {
+        // nothing to do
+    }
+
     @Override
     public boolean isEverything(ExpressionVisitor visitor) {
         switch (visitor.getType()) {
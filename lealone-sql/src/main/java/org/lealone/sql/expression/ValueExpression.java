@@ -16,6 +16,8 @@ import org.lealone.sql.expression.condition.Comparison;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.IndexCondition;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.sql.vector.RowBatch;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * An expression representing a constant value.
@@ -148,6 +150,21 @@ public class ValueExpression extends Expression {
         // nothing to do
     }
 
+    @Override
+    public ValueVector getValueVector(ServerSession session, RowBatch batch) {
+        return ValueVector.get(value);
+    }
+
+    @Override
+    public boolean isBatchAggregatable() {
+        return true;
+    }
+
+    @Override
+    public void updateAggregate(ServerSession session, RowBatch batch) {
+        // nothing to do
+    }
+
     @Override
     public boolean isEverything(ExpressionVisitor visitor) {
         switch (visitor.getType()) {
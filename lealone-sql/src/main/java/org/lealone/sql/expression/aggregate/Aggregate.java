@@ -38,6 +38,8 @@ import org.lealone.sql.expression.ExpressionVisitor;
 import org.lealone.sql.expression.SelectOrderBy;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.sql.vector.RowBatch;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * Implements the integrated aggregate functions, such as COUNT, MAX, SUM.
@@ -129,6 +131,11 @@ public class Aggregate extends Expression {
      */
     static final int HISTOGRAM = 16;
 
+    /**
+     * The aggregate type for ARRAY_AGG(expression).
+     */
+    static final int ARRAY_AGG = 17;
+
     private static final HashMap<String, Integer> AGGREGATES = new HashMap<>();
 
     private final int type;
@@ -187,6 +194,7 @@ public class Aggregate extends Expression {
         addAggregate("HISTOGRAM", HISTOGRAM);
         addAggregate("BIT_OR", BIT_OR);
         addAggregate("BIT_AND", BIT_AND);
+        addAggregate("ARRAY_AGG", ARRAY_AGG);
     }
 
     private static void addAggregate(String name, int type) {
@@ -279,6 +287,58 @@ public class Aggregate extends Expression {
         data.add(session.getDatabase(), dataType, distinct, v);
     }
 
+    @Override
+    public boolean isBatchAggregatable() {
+        return type != GROUP_CONCAT;
+    }
+
+    /**
+     * Create the slots that store the values of all groups by group id,
+     * only COUNT, SUM, AVG, MIN and MAX without DISTINCT are supported.
+     *
+     * @return the slots, or null if not supported
+     */
+    public AggregateSlots createSlots() {
+        if (distinct) {
+            return null;
+        }
+        switch (type) {
+        case COUNT_ALL:
+        case COUNT:
+        case SUM:
+        case AVG:
+        case MIN:
+        case MAX:
+            return new AggregateSlots(this, type, on, dataType);
+        default:
+            return null;
+        }
+    }
+
+    @Override
+    public void updateAggregate(ServerSession session, RowBatch batch) {
+        HashMap<Expression, Object> group = select.getCurrentGroup();
+        if (group == null) {
+            // this is a different level (the enclosing query)
+            return;
+        }
+
+        int groupRowId = select.getCurrentGroupRowId();
+        if (lastGroupRowId == groupRowId) {
+            // already visited
+            return;
+        }
+        lastGroupRowId = groupRowId;
+
+        AggregateData data = (AggregateData) group.get(this);
+        if (data == null) {
+            data = AggregateData.create(type);
+            group.put(this, data);
+        }
+        ValueVector vector = on == null ? null : on.getValueVector(session, batch);
+        data.add(session.getDatabase(), dataType, distinct, vector, batch.getSelection(), batch.getSelectionSize());
+    }
+
     @Override
     public void mergeAggregate(ServerSession session, Value v) {
         HashMap<Expression, Object> group = select.getCurrentGroup();
@@ -505,6 +565,7 @@ public class Aggregate extends Expression {
         case Aggregate.HISTOGRAM:
         case Aggregate.SELECTIVITY:
         case Aggregate.GROUP_CONCAT:
+        case Aggregate.ARRAY_AGG:
             break;
         default:
             DbException.throwInternalError("type=" + type);
@@ -569,6 +630,7 @@ public class Aggregate extends Expression {
             displaySize = ValueInt.DISPLAY_SIZE;
             break;
         case HISTOGRAM:
+        case ARRAY_AGG:
             dataType = Value.ARRAY;
             scale = 0;
             precision = displaySize = Integer.MAX_VALUE;
@@ -740,6 +802,9 @@ public class Aggregate extends Expression {
         case BIT_OR:
             text = "BIT_OR";
             break;
+        case ARRAY_AGG:
+            text = "ARRAY_AGG";
+            break;
         default:
             throw DbException.throwInternalError("type=" + type);
         }
@@ -759,6 +824,93 @@ public class Aggregate extends Expression {
         }
     }
 
+    /**
+     * Get the number of columns of the partial state that a shard returns for this aggregate,
+     * see {@link #getPartialSQL()}.
+     *
+     * @return the number of columns, or -1 if the aggregate can not be calculated in two phases
+     */
+    public int getPartialColumnCount() {
+        switch (type) {
+        case COUNT_ALL:
+        case COUNT:
+        case SUM:
+        case MIN:
+        case MAX:
+        case BOOL_AND:
+        case BOOL_OR:
+        case BIT_AND:
+        case BIT_OR:
+            return 1;
+        case AVG:
+            return distinct ? 1 : 2;
+        case STDDEV_POP:
+        case STDDEV_SAMP:
+        case VAR_POP:
+        case VAR_SAMP:
+            return distinct ? 1 : 3;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Get the SQL snippet that calculates the partial state of this aggregate on a shard.
+     * 带DISTINCT的COUNT、SUM、AVG等需要把去重后的值传给协调节点，不能像原来那样直接把各分片的结果相加。
+     *
+     * @return the SQL snippet
+     */
+    public String getPartialSQL() {
+        if (PartialAggregateData.isDistinctSet(type, distinct)) {
+            return "ARRAY_AGG(DISTINCT " + on.getSQL(true) + ")";
+        }
+        switch (type) {
+        case AVG:
+            return "COUNT(" + on.getSQL(true) + "), SUM(" + on.getSQL(true) + ")";
+        case STDDEV_POP:
+        case STDDEV_SAMP:
+        case VAR_POP:
+        case VAR_SAMP: {
+            String onSQL = on.getSQL(true);
+            return "COUNT(" + onSQL + "), AVG(CAST(" + onSQL + " AS DOUBLE)), VAR_POP(" + onSQL + ")";
+        }
+        default:
+            return getSQL(true);
+        }
+    }
+
+    /**
+     * Merge a partial state returned by a shard into the given group.
+     *
+     * @param session the session
+     * @param group the group
+     * @param row the row returned by the shard
+     * @param offset the index of the first column of the partial state
+     */
+    public void mergePartial(ServerSession session, HashMap<Expression, Object> group, Value[] row, int offset) {
+        PartialAggregateData data = (PartialAggregateData) group.get(this);
+        if (data == null) {
+            data = new PartialAggregateData(type, distinct);
+            group.put(this, data);
+        }
+        data.merge(session.getDatabase(), dataType, row, offset);
+    }
+
+    /**
+     * Get the final value of the merged partial states of the given group.
+     *
+     * @param session the session
+     * @param group the group
+     * @return the value
+     */
+    public Value getPartialMergedValue(ServerSession session, HashMap<Expression, Object> group) {
+        PartialAggregateData data = (PartialAggregateData) group.get(this);
+        if (data == null) {
+            data = new PartialAggregateData(type, distinct);
+        }
+        return data.getValue(session.getDatabase(), dataType);
+    }
+
     private Index getColumnIndex() {
         if (on instanceof ExpressionColumn) {
             ExpressionColumn col = (ExpressionColumn) on;
@@ -7,6 +7,7 @@ package org.lealone.sql.expression.aggregate;
 
 import org.lealone.db.Database;
 import org.lealone.db.value.Value;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * Abstract class for the computation of an aggregate.
@@ -30,6 +31,8 @@ abstract class AggregateData {
             return new AggregateDataCount();
         } else if (aggregateType == Aggregate.HISTOGRAM) {
             return new AggregateDataHistogram();
+        } else if (aggregateType == Aggregate.ARRAY_AGG) {
+            return new AggregateDataArray();
         } else {
             return new AggregateDataDefault(aggregateType);
         }
@@ -45,6 +48,22 @@ abstract class AggregateData {
      */
     abstract void add(Database database, int dataType, boolean distinct, Value v);
 
+    /**
+     * Add the values of the selected rows to this aggregate.
+     *
+     * @param database the database
+     * @param dataType the datatype of the computed result
+     * @param distinct if the calculation should be distinct
+     * @param vector the values, null for COUNT(*)
+     * @param sel the selected rows
+     * @param selSize the number of selected rows
+     */
+    void add(Database database, int dataType, boolean distinct, ValueVector vector, int[] sel, int selSize) {
+        for (int i = 0; i < selSize; i++) {
+            add(database, dataType, distinct, vector == null ? null : vector.getValue(sel[i]));
+        }
+    }
+
     /**
      * Get the aggregate result.
      *
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression.aggregate;
+
+import java.util.ArrayList;
+
+import org.lealone.db.Database;
+import org.lealone.db.util.ValueHashMap;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueArray;
+import org.lealone.db.value.ValueNull;
+
+/**
+ * Data stored while calculating an ARRAY_AGG aggregate.
+ * <p>
+ * 跟GROUP_CONCAT一样忽略NULL，没有值时返回NULL。
+ * 分布式的两阶段聚合用ARRAY_AGG(DISTINCT x)把分片上去重后的值传给协调节点。
+ *
+ * @author zhh
+ */
+class AggregateDataArray extends AggregateData {
+    private ArrayList<Value> list;
+    private ValueHashMap<AggregateDataArray> distinctValues;
+
+    @Override
+    void add(Database database, int dataType, boolean distinct, Value v) {
+        if (v == ValueNull.INSTANCE) {
+            return;
+        }
+        if (distinct) {
+            if (distinctValues == null) {
+                distinctValues = ValueHashMap.newInstance();
+            }
+            distinctValues.put(v, this);
+            return;
+        }
+        if (list == null) {
+            list = new ArrayList<>();
+        }
+        list.add(v);
+    }
+
+    @Override
+    Value getValue(Database database, int dataType, boolean distinct) {
+        ArrayList<Value> values = distinct ? (distinctValues == null ? null : distinctValues.keys()) : list;
+        if (values == null || values.isEmpty()) {
+            return ValueNull.INSTANCE;
+        }
+        return ValueArray.get(values.toArray(new Value[values.size()]));
+    }
+
+    // 合并的是各个分片返回的数组
+    @Override
+    void merge(Database database, int dataType, boolean distinct, Value v) {
+        if (v == ValueNull.INSTANCE) {
+            return;
+        }
+        for (Value e : ((ValueArray) v.convertTo(Value.ARRAY)).getList()) {
+            add(database, dataType, distinct, e);
+        }
+    }
+
+    @Override
+    Value getMergedValue(Database database, int dataType, boolean distinct) {
+        return getValue(database, dataType, distinct);
+    }
+}
@@ -10,6 +10,7 @@ import org.lealone.db.util.ValueHashMap;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueLong;
 import org.lealone.db.value.ValueNull;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * Data stored while calculating an aggregate.
@@ -33,6 +34,23 @@ class AggregateDataCount extends AggregateData {
         }
     }
 
+    @Override
+    void add(Database database, int dataType, boolean distinct, ValueVector vector, int[] sel, int selSize) {
+        if (distinct) {
+            super.add(database, dataType, distinct, vector, sel, selSize);
+            return;
+        }
+        for (int i = 0; i < selSize; i++) {
+            if (!vector.isNull(sel[i])) {
+                count++;
+            }
+        }
+    }
+
+    void addCount(long n) {
+        count += n;
+    }
+
     @Override
     Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
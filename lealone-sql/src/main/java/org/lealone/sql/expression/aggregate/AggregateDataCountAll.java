@@ -10,6 +10,7 @@ import org.lealone.db.Database;
 import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueLong;
 import org.lealone.db.value.ValueNull;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * Data stored while calculating a COUNT(*) aggregate.
@@ -26,6 +27,18 @@ class AggregateDataCountAll extends AggregateData {
         count++;
     }
 
+    @Override
+    void add(Database database, int dataType, boolean distinct, ValueVector vector, int[] sel, int selSize) {
+        if (distinct) {
+            throw DbException.throwInternalError();
+        }
+        count += selSize;
+    }
+
+    void addCount(long n) {
+        count += n;
+    }
+
     @Override
     Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
@@ -14,6 +14,7 @@ import org.lealone.db.value.ValueBoolean;
 import org.lealone.db.value.ValueDouble;
 import org.lealone.db.value.ValueLong;
 import org.lealone.db.value.ValueNull;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * Data stored while calculating an aggregate.
@@ -125,6 +126,88 @@ class AggregateDataDefault extends AggregateData {
         }
     }
 
+    @Override
+    void add(Database database, int dataType, boolean distinct, ValueVector vector, int[] sel, int selSize) {
+        if (!distinct && vector != null && vector.isLong()) {
+            switch (aggregateType) {
+            case Aggregate.SUM:
+                if (addSum(vector, sel, selSize, dataType))
+                    return;
+                break;
+            case Aggregate.AVG:
+                if (addSum(vector, sel, selSize, DataType.getAddProofType(dataType)))
+                    return;
+                break;
+            case Aggregate.MIN:
+            case Aggregate.MAX: {
+                // 先找出最小或最大值所在的行，最后只需要比较一次Value
+                boolean min = aggregateType == Aggregate.MIN;
+                int index = -1;
+                long extreme = 0;
+                long n = 0;
+                for (int i = 0; i < selSize; i++) {
+                    int row = sel[i];
+                    if (vector.isNull(row))
+                        continue;
+                    n++;
+                    long x = vector.getLong(row);
+                    if (index < 0 || (min ? x < extreme : x > extreme)) {
+                        index = row;
+                        extreme = x;
+                    }
+                }
+                if (index >= 0) {
+                    count += n - 1;
+                    add(database, dataType, false, vector.getValue(index));
+                }
+                return;
+            }
+            default:
+            }
+        }
+        super.add(database, dataType, distinct, vector, sel, selSize);
+    }
+
+    // 溢出时返回false，由调用者一行一行计算，这样抛出的异常跟原来一样
+    private boolean addSum(ValueVector vector, int[] sel, int selSize, int type) {
+        if (type != Value.LONG && type != Value.DECIMAL)
+            return false;
+        long sum = 0;
+        long n = 0;
+        try {
+            for (int i = 0; i < selSize; i++) {
+                int row = sel[i];
+                if (!vector.isNull(row)) {
+                    sum = Math.addExact(sum, vector.getLong(row));
+                    n++;
+                }
+            }
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        addLongSum(sum, n, type);
+        return true;
+    }
+
+    /**
+     * Add the sum of n values that was calculated as a long.
+     *
+     * @param sum the sum
+     * @param n the number of values
+     * @param type the type used to add the values
+     */
+    void addLongSum(long sum, long n, int type) {
+        if (n > 0) {
+            count += n;
+            Value v = ValueLong.get(sum);
+            if (value == null) {
+                value = v.convertTo(type);
+            } else {
+                value = value.add(v.convertTo(value.getType()));
+            }
+        }
+    }
+
     @Override
     Value getValue(Database database, int dataType, boolean distinct) {
         if (distinct) {
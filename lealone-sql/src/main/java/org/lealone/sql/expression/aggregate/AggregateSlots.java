@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression.aggregate;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.lealone.db.Database;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.value.DataType;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueDecimal;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.sql.expression.Expression;
+import org.lealone.sql.vector.RowBatch;
+import org.lealone.sql.vector.ValueVector;
+
+/**
+ * The values of an aggregate for all groups of a GROUP BY query, stored by group id.
+ * <p>
+ * 输入是INT或LONG的向量时，每个分组的状态只是long数组中的一个元素，不需要为每个分组创建AggregateData，
+ * 遇到其他类型的值或者SUM溢出时，这个分组才退回到AggregateData，输出结果时再统一转成AggregateData。
+ *
+ * @author zhh
+ */
+public class AggregateSlots {
+
+    private final Aggregate aggregate;
+    private final int type;
+    private final Expression on;
+    private final int dataType;
+    private final int sumType; // SUM和AVG累加时用的类型
+
+    private long[] longs = new long[0]; // SUM和AVG是和，MIN和MAX是当前的最小或最大值
+    private long[] counts = new long[0]; // 还没有加到AggregateData中的值的个数
+    private AggregateData[] datas = new AggregateData[0];
+    private int longType = Value.UNKNOWN; // MIN和MAX的值的类型
+
+    AggregateSlots(Aggregate aggregate, int type, Expression on, int dataType) {
+        this.aggregate = aggregate;
+        this.type = type;
+        this.on = on;
+        this.dataType = dataType;
+        sumType = type == Aggregate.AVG ? DataType.getAddProofType(dataType) : dataType;
+    }
+
+    /**
+     * Add the selected rows of the batch.
+     *
+     * @param session the session
+     * @param batch the row batch
+     * @param groupIds the group ids of the selected rows
+     * @param groupCount the number of groups
+     */
+    public void add(ServerSession session, RowBatch batch, int[] groupIds, int groupCount) {
+        if (longs.length < groupCount) {
+            int capacity = Math.max(groupCount, longs.length * 2);
+            longs = Arrays.copyOf(longs, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            datas = Arrays.copyOf(datas, capacity);
+        }
+        int[] sel = batch.getSelection();
+        int selSize = batch.getSelectionSize();
+        if (type == Aggregate.COUNT_ALL) {
+            for (int i = 0; i < selSize; i++) {
+                counts[groupIds[i]]++;
+            }
+            return;
+        }
+        ValueVector vector = on.getValueVector(session, batch);
+        if (type == Aggregate.COUNT) {
+            for (int i = 0; i < selSize; i++) {
+                if (!vector.isNull(sel[i])) {
+                    counts[groupIds[i]]++;
+                }
+            }
+            return;
+        }
+        Database db = session.getDatabase();
+        boolean useLong = vector.isLong();
+        if (useLong) {
+            if (type == Aggregate.MIN || type == Aggregate.MAX) {
+                if (longType == Value.UNKNOWN) {
+                    longType = vector.getLongType();
+                } else {
+                    useLong = longType == vector.getLongType();
+                }
+            } else {
+                useLong = sumType == Value.LONG || sumType == Value.DECIMAL;
+            }
+        }
+        for (int i = 0; i < selSize; i++) {
+            int row = sel[i];
+            if (vector.isNull(row)) {
+                continue;
+            }
+            int g = groupIds[i];
+            if (useLong && datas[g] == null) {
+                long x = vector.getLong(row);
+                long n = counts[g];
+                switch (type) {
+                case Aggregate.SUM:
+                case Aggregate.AVG: {
+                    long sum = longs[g] + x;
+                    // 溢出了，之后这个分组都用AggregateData算
+                    if (n > 0 && ((longs[g] ^ sum) & (x ^ sum)) < 0) {
+                        getData(db, g).add(db, dataType, false, vector.getValue(row));
+                        continue;
+                    }
+                    longs[g] = n == 0 ? x : sum;
+                    break;
+                }
+                case Aggregate.MIN:
+                    if (n == 0 || x < longs[g]) {
+                        longs[g] = x;
+                    }
+                    break;
+                default:
+                    if (n == 0 || x > longs[g]) {
+                        longs[g] = x;
+                    }
+                }
+                counts[g] = n + 1;
+            } else {
+                getData(db, g).add(db, dataType, false, vector.getValue(row));
+            }
+        }
+    }
+
+    // 把long数组中的状态转到AggregateData中
+    private AggregateData getData(Database db, int g) {
+        AggregateData data = datas[g];
+        if (data == null) {
+            data = AggregateData.create(type);
+            datas[g] = data;
+        }
+        long n = counts[g];
+        if (n > 0) {
+            switch (type) {
+            case Aggregate.COUNT_ALL:
+                ((AggregateDataCountAll) data).addCount(n);
+                break;
+            case Aggregate.COUNT:
+                ((AggregateDataCount) data).addCount(n);
+                break;
+            case Aggregate.SUM:
+            case Aggregate.AVG:
+                ((AggregateDataDefault) data).addLongSum(longs[g], n, sumType);
+                break;
+            default:
+                data.add(db, dataType, false, getLongValue(longs[g]));
+            }
+            counts[g] = 0;
+        }
+        return data;
+    }
+
+    private Value getLongValue(long x) {
+        if (longType == Value.INT) {
+            return ValueInt.get((int) x);
+        } else if (longType == Value.LONG) {
+            return ValueLong.get(x);
+        } else {
+            return ValueDecimal.get(BigDecimal.valueOf(x));
+        }
+    }
+
+    /**
+     * Put the aggregate data of the group into the map that is used as the current group.
+     *
+     * @param group the map
+     * @param db the database
+     * @param groupId the group id
+     */
+    public void putData(HashMap<Expression, Object> group, Database db, int groupId) {
+        if (groupId < datas.length) {
+            group.put(aggregate, getData(db, groupId));
+        }
+    }
+}
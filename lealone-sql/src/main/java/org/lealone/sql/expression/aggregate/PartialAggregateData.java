@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.expression.aggregate;
+
+import org.lealone.db.Database;
+import org.lealone.db.util.ValueHashMap;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueArray;
+import org.lealone.db.value.ValueDouble;
+import org.lealone.db.value.ValueNull;
+
+/**
+ * The state of an aggregate on the coordinator of a two phase aggregation.
+ * The shards return the partial states generated by {@link Aggregate#getPartialSQL()},
+ * this class merges them and calculates the final value.
+ *
+ * @author zhh
+ */
+class PartialAggregateData {
+
+    private final int aggregateType;
+    private final boolean distinct;
+
+    // 只有一列的部分状态(COUNT、SUM、MIN、MAX等)直接用原来的合并逻辑
+    private AggregateData data;
+    // 分片返回的是去重后的值，合并后再按单机的方式计算
+    private ValueHashMap<PartialAggregateData> distinctValues;
+
+    // AVG: COUNT(x), SUM(x)
+    // STDDEV、VAR: COUNT(x), AVG(x), VAR_POP(x)，用Chan的并行算法合并，跟单机的Welford算法一样数值稳定
+    private long count;
+    private Value sum;
+    private double mean, m2;
+
+    PartialAggregateData(int aggregateType, boolean distinct) {
+        this.aggregateType = aggregateType;
+        this.distinct = distinct;
+    }
+
+    /**
+     * Merge the partial state that starts at the given column of the row.
+     *
+     * @param database the database
+     * @param dataType the datatype of the computed result
+     * @param row the row returned by a shard
+     * @param offset the index of the first column of the partial state
+     */
+    void merge(Database database, int dataType, Value[] row, int offset) {
+        if (isDistinctSet(aggregateType, distinct)) {
+            Value v = row[offset];
+            if (v != ValueNull.INSTANCE) {
+                if (distinctValues == null) {
+                    distinctValues = ValueHashMap.newInstance();
+                }
+                for (Value e : ((ValueArray) v.convertTo(Value.ARRAY)).getList()) {
+                    distinctValues.put(e, this);
+                }
+            }
+            return;
+        }
+        switch (aggregateType) {
+        case Aggregate.AVG: {
+            Value s = row[offset + 1];
+            if (s != ValueNull.INSTANCE) {
+                count += row[offset].getLong();
+                sum = sum == null ? s : sum.add(s.convertTo(sum.getType()));
+            }
+            break;
+        }
+        case Aggregate.STDDEV_POP:
+        case Aggregate.STDDEV_SAMP:
+        case Aggregate.VAR_POP:
+        case Aggregate.VAR_SAMP: {
+            long n = row[offset].getLong();
+            if (n > 0) {
+                double mean2 = row[offset + 1].getDouble();
+                double delta = mean2 - mean;
+                long total = count + n;
+                m2 += row[offset + 2].getDouble() * n + delta * delta * count * n / total;
+                mean += delta * n / total;
+                count = total;
+            }
+            break;
+        }
+        default:
+            if (data == null) {
+                data = AggregateData.create(aggregateType);
+            }
+            data.merge(database, dataType, false, row[offset]);
+        }
+    }
+
+    /**
+     * Get the final value of the aggregate.
+     *
+     * @param database the database
+     * @param dataType the datatype of the computed result
+     * @return the value
+     */
+    Value getValue(Database database, int dataType) {
+        if (isDistinctSet(aggregateType, distinct)) {
+            AggregateData d = AggregateData.create(aggregateType);
+            if (distinctValues != null) {
+                for (Value v : distinctValues.keys()) {
+                    d.add(database, dataType, false, v);
+                }
+            }
+            return d.getValue(database, dataType, false);
+        }
+        Value v;
+        switch (aggregateType) {
+        case Aggregate.AVG:
+            v = sum == null ? null : Aggregate.divide(sum, count);
+            break;
+        case Aggregate.STDDEV_POP:
+            v = count < 1 ? null : ValueDouble.get(Math.sqrt(m2 / count));
+            break;
+        case Aggregate.STDDEV_SAMP:
+            v = count < 2 ? null : ValueDouble.get(Math.sqrt(m2 / (count - 1)));
+            break;
+        case Aggregate.VAR_POP:
+            v = count < 1 ? null : ValueDouble.get(m2 / count);
+            break;
+        case Aggregate.VAR_SAMP:
+            v = count < 2 ? null : ValueDouble.get(m2 / (count - 1));
+            break;
+        default:
+            if (data == null) {
+                data = AggregateData.create(aggregateType);
+            }
+            v = data.getMergedValue(database, dataType, false);
+        }
+        return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
+    }
+
+    /**
+     * Check if the shards return the distinct values instead of a partial result.
+     * MIN、MAX、BOOL_AND这类聚合函数去不去重结果都一样，所以不需要传输去重后的值。
+     *
+     * @param aggregateType the aggregate type
+     * @param distinct if distinct is used
+     * @return true if the partial state is ARRAY_AGG(DISTINCT x)
+     */
+    static boolean isDistinctSet(int aggregateType, boolean distinct) {
+        if (!distinct) {
+            return false;
+        }
+        switch (aggregateType) {
+        case Aggregate.COUNT:
+        case Aggregate.SUM:
+        case Aggregate.AVG:
+        case Aggregate.STDDEV_POP:
+        case Aggregate.STDDEV_SAMP:
+        case Aggregate.VAR_POP:
+        case Aggregate.VAR_SAMP:
+            return true;
+        default:
+            return false;
+        }
+    }
+}
@@ -24,6 +24,8 @@ import org.lealone.sql.expression.ValueExpression;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.IndexCondition;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.sql.vector.RowBatch;
+import org.lealone.sql.vector.ValueVector;
 
 /**
  * Example comparison expressions are ID=1, NAME=NAME, NAME IS NULL.
@@ -238,8 +240,11 @@ public class Comparison extends Condition {
                 return ValueNull.INSTANCE;
             }
         }
-        Value r = right.getValue(session);
-        if (r == ValueNull.INSTANCE) {
+        return compare(l, right.getValue(session));
+    }
+
+    private Value compare(Value l, Value r) {
+        if (l == ValueNull.INSTANCE || r == ValueNull.INSTANCE) {
             if ((compareType & NULL_SAFE) == 0) {
                 return ValueNull.INSTANCE;
             }
@@ -251,6 +256,58 @@ public class Comparison extends Condition {
         return ValueBoolean.get(result);
     }
 
+    @Override
+    public void filter(ServerSession session, RowBatch batch) {
+        // 右边的表达式每一行都要计算，所以只处理不会出错的简单表达式，其他的还是一行一行计算
+        if (right == null || compareType > NOT_EQUAL
+                || !(right.isConstant() || right instanceof Parameter || right instanceof ExpressionColumn)) {
+            super.filter(session, batch);
+            return;
+        }
+        ValueVector l = left.getValueVector(session, batch);
+        ValueVector r = right.getValueVector(session, batch);
+        int[] sel = batch.getSelection();
+        int selSize = batch.getSelectionSize();
+        int count = 0;
+        int dataType = Value.getHigherOrder(left.getType(), right.getType());
+        if (l.isLong() && r.isLong() && (dataType == Value.DECIMAL || dataType == Value.LONG
+                || dataType == Value.INT && l.getLongType() == Value.INT && r.getLongType() == Value.INT)) {
+            for (int i = 0; i < selSize; i++) {
+                int row = sel[i];
+                if (!l.isNull(row) && !r.isNull(row) && compareNotNull(l.getLong(row), r.getLong(row))) {
+                    sel[count++] = row;
+                }
+            }
+        } else {
+            for (int i = 0; i < selSize; i++) {
+                int row = sel[i];
+                if (compare(l.getValue(row), r.getValue(row)) == ValueBoolean.TRUE) {
+                    sel[count++] = row;
+                }
+            }
+        }
+        batch.setSelectionSize(count);
+    }
+
+    private boolean compareNotNull(long l, long r) {
+        switch (compareType) {
+        case EQUAL:
+            return l == r;
+        case NOT_EQUAL:
+            return l != r;
+        case BIGGER_EQUAL:
+            return l >= r;
+        case BIGGER:
+            return l > r;
+        case SMALLER_EQUAL:
+            return l <= r;
+        case SMALLER:
+            return l < r;
+        default:
+            throw DbException.throwInternalError("type=" + compareType);
+        }
+    }
+
     /**
      * Compare two values, given the values are not NULL.
      *
@@ -17,6 +17,7 @@ import org.lealone.sql.expression.ExpressionVisitor;
 import org.lealone.sql.expression.ValueExpression;
 import org.lealone.sql.optimizer.ColumnResolver;
 import org.lealone.sql.optimizer.TableFilter;
+import org.lealone.sql.vector.RowBatch;
 
 /**
  * An 'and' or 'or' condition as in WHERE ID=1 AND NAME=?
@@ -85,6 +86,19 @@ public class ConditionAndOr extends Condition {
         return new ConditionAndOr(reversed, l, r);
     }
 
+    @Override
+    public void filter(ServerSession session, RowBatch batch) {
+        if (andOrType == AND) {
+            // 右边只需要计算左边为true的行
+            left.filter(session, batch);
+            if (batch.getSelectionSize() > 0) {
+                right.filter(session, batch);
+            }
+        } else {
+            super.filter(session, batch);
+        }
+    }
+
     @Override
     public Value getValue(ServerSession session) {
         Value l = left.getValue(session);
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.optimizer;
+
+import java.util.ArrayList;
+
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.Constants;
+import org.lealone.db.result.Row;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.table.Column;
+import org.lealone.db.util.ValueHashMap;
+import org.lealone.db.value.CompareMode;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+import org.lealone.sql.expression.Expression;
+import org.lealone.sql.expression.ExpressionVisitor;
+import org.lealone.sql.expression.condition.Comparison;
+
+/**
+ * The build side of a hash join.
+ * <p>
+ * 第一次探测时把表扫描一遍，按join字段的值在内存中建一个hash表，
+ * 之后外表的每一行只需要查一次hash表，不用再把整个表扫描一遍。
+ * 表的行数超过maxMemoryRows时放弃hash表，整个查询退回到nested loop。
+ *
+ * @author zhh
+ */
+class HashJoin {
+
+    private final TableFilter filter;
+    private final IndexCondition condition;
+    private final Column column;
+    private final int maxRows;
+
+    private ValueHashMap<ArrayList<Row>> rows;
+    private ArrayList<Row> matched;
+    private int matchedIndex;
+    private Row current;
+
+    HashJoin(TableFilter filter, IndexCondition condition, int maxRows) {
+        this.filter = filter;
+        this.condition = condition;
+        this.column = condition.getColumn();
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Build the hash table if this was not done yet.
+     *
+     * @param session the session
+     * @param cursor the cursor of the table filter
+     * @return false if the table has too many rows
+     */
+    boolean build(ServerSession session, IndexCursor cursor) {
+        if (rows != null) {
+            return true;
+        }
+        ValueHashMap<ArrayList<Row>> map = ValueHashMap.newInstance();
+        int columnId = column.getColumnId();
+        int count = 0;
+        cursor.find(session, new ArrayList<IndexCondition>(0));
+        while (cursor.next()) {
+            if (++count > maxRows) {
+                return false;
+            }
+            if ((count & 4095) == 0) {
+                session.checkCanceled();
+            }
+            Row row = cursor.get(filter.getColumnIndexes());
+            Value v = row.getValue(columnId);
+            if (v == null) {
+                return false;
+            }
+            // NULL跟任何值都不相等
+            if (v == ValueNull.INSTANCE) {
+                continue;
+            }
+            ArrayList<Row> list = map.get(v);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                map.put(v, list);
+            }
+            list.add(row);
+        }
+        rows = map;
+        return true;
+    }
+
+    /**
+     * Look up the rows that match the current value of the join condition.
+     *
+     * @param session the session
+     */
+    void find(ServerSession session) {
+        matched = null;
+        matchedIndex = 0;
+        Value v = condition.getCurrentValue(session);
+        if (v == ValueNull.INSTANCE) {
+            return;
+        }
+        try {
+            v = column.convert(v);
+        } catch (DbException e) {
+            // 比如超出了int的范围，不可能有相等的值
+            return;
+        }
+        matched = rows.get(v);
+    }
+
+    boolean next() {
+        if (matched != null && matchedIndex < matched.size()) {
+            current = matched.get(matchedIndex++);
+            return true;
+        }
+        current = null;
+        return false;
+    }
+
+    Row get() {
+        return current;
+    }
+
+    IndexCondition getCondition() {
+        return condition;
+    }
+
+    /**
+     * Check if the index condition can be used for a hash join.
+     * Only equality with a value that depends on other tables is used,
+     * and only for data types where equal values also have equal hash codes.
+     *
+     * @param session the session
+     * @param condition the index condition
+     * @return true if it can be used
+     */
+    static boolean isHashable(ServerSession session, IndexCondition condition) {
+        if (condition.getCompareType() != Comparison.EQUAL || !condition.isEvaluatable()) {
+            return false;
+        }
+        Column column = condition.getColumn();
+        Expression e = condition.getExpression();
+        if (column.getColumnId() < 0 || e == null) {
+            return false;
+        }
+        // 常量不需要hash表，直接扫描一次就够了
+        if (e.isEverything(ExpressionVisitor.INDEPENDENT_VISITOR)) {
+            return false;
+        }
+        int type = column.getType();
+        switch (type) {
+        case Value.STRING:
+            // 用了collation时，相等的字符串的hashCode可能不一样
+            return CompareMode.OFF.equals(session.getDatabase().getCompareMode().getName()) && e.getType() == type;
+        case Value.BOOLEAN:
+        case Value.DATE:
+        case Value.TIME:
+        case Value.TIMESTAMP:
+        case Value.UUID:
+            return e.getType() == type;
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return isIntegral(e.getType());
+        default:
+            return false;
+        }
+    }
+
+    private static boolean isIntegral(int type) {
+        return type == Value.BYTE || type == Value.SHORT || type == Value.INT || type == Value.LONG;
+    }
+
+    /**
+     * Estimate the cost of one lookup, in the same unit as Index.getCost.
+     * The table is only scanned once when the hash table is built,
+     * so a lookup costs about twice as much as the lookup in a secondary index.
+     *
+     * @param rowCount the number of rows of the table
+     * @param column the join column
+     * @return the estimated cost
+     */
+    static double getCost(long rowCount, Column column) {
+        rowCount += Constants.COST_ROW_OFFSET;
+        long distinctRows = rowCount * column.getSelectivity() / 100;
+        if (distinctRows <= 0) {
+            distinctRows = 1;
+        }
+        long rows = Math.max(rowCount / distinctRows, 1);
+        return 20 * (2 + rows);
+    }
+}
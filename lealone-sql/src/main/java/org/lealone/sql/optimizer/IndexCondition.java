@@ -290,6 +290,15 @@ public class IndexCondition {
         return column;
     }
 
+    /**
+     * Get the expression the column is compared with, or null for IN lists and queries.
+     *
+     * @return the expression
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     /**
      * Check if the expression can be evaluated.
      *
@@ -47,6 +47,7 @@ public class IndexCursor implements Cursor {
     private Value[] inList;
     private Result inResult;
     private HashSet<Value> inResultTested;
+    private boolean covering; // 查询用到的字段都在索引中，不需要再读primary index
 
     public IndexCursor(TableFilter filter) {
         this.tableFilter = filter;
@@ -76,17 +77,19 @@ public class IndexCursor implements Cursor {
      */
     public void find(ServerSession s, ArrayList<IndexCondition> indexConditions) {
         parseIndexConditions(s, indexConditions);
+        Select select = tableFilter.getSelect();
+        int[] columnIndexes = null;
+        if (select != null) {
+            columnIndexes = tableFilter.createColumnIndexes(select.getReferencedColumns());
+        } else {
+            columnIndexes = tableFilter.getColumnIndexes(); // update和delete在prepare阶段就设置好了
+        }
+        // update、delete和select for update要锁住primary index中的记录，不能只用索引中的字段
+        covering = select != null && !select.isForUpdate() && index.isCovering(columnIndexes);
         if (inColumn != null) {
             return;
         }
         if (!alwaysFalse) {
-            Select select = tableFilter.getSelect();
-            int[] columnIndexes = null;
-            if (select != null) {
-                columnIndexes = tableFilter.createColumnIndexes(select.getReferencedColumns());
-            } else {
-                columnIndexes = tableFilter.getColumnIndexes(); // update和delete在prepare阶段就设置好了
-            }
             IterationParameters<SearchRow> parameters = IterationParameters.create(start, end, pageKeys, columnIndexes);
             cursor = index.find(tableFilter.getSession(), parameters);
         }
@@ -237,6 +240,9 @@ public class IndexCursor implements Cursor {
         if (cursor == null) {
             return null;
         }
+        if (covering) {
+            return (Row) cursor.getSearchRow();
+        }
         return cursor.get();
     }
 
@@ -245,6 +251,9 @@ public class IndexCursor implements Cursor {
         if (cursor == null) {
             return null;
         }
+        if (covering) {
+            return (Row) cursor.getSearchRow();
+        }
         return cursor.get(columnIndexes);
     }
 
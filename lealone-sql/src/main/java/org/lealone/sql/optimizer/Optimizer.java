@@ -260,6 +260,21 @@ public class Optimizer {
      * @return the plan item
      */
     public static PlanItem getBestPlanItem(ServerSession session, int[] masks, Table table, SortOrder sortOrder) {
+        return getBestPlanItem(session, masks, table, sortOrder, null);
+    }
+
+    /**
+     * Get the best plan for the given search mask.
+     *
+     * @param session the session
+     * @param masks per-column comparison bit masks, null means 'always false',
+     *              see constants in IndexCondition
+     * @param sortOrder the sort order
+     * @param columnIndexes the columns the query reads, null means all columns
+     * @return the plan item
+     */
+    public static PlanItem getBestPlanItem(ServerSession session, int[] masks, Table table, SortOrder sortOrder,
+            int[] columnIndexes) {
         PlanItem item = new PlanItem();
         item.setIndex(table.getScanIndex(session));
         item.cost = item.getIndex().getCost(session, null, null);
@@ -267,7 +282,7 @@ public class Optimizer {
         if (indexes != null && masks != null) {
             for (int i = 1, size = indexes.size(); i < size; i++) {
                 Index index = indexes.get(i);
-                double cost = index.getCost(session, masks, sortOrder);
+                double cost = index.getCost(session, masks, sortOrder, columnIndexes);
                 if (cost < item.cost) {
                     item.cost = cost;
                     item.setIndex(index);
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.optimizer;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.lealone.common.concurrent.NamedThreadFactory;
+import org.lealone.common.exceptions.DbException;
+import org.lealone.db.index.Cursor;
+import org.lealone.db.index.StandardPrimaryIndex;
+import org.lealone.db.result.Row;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.value.ValueLong;
+
+/**
+ * Reads the key ranges of a primary index in several threads.
+ * <p>
+ * 主键范围按node page中的key切分成多个区间，每个区间由一个扫描线程读取，读到的记录按批放到这个区间自己的队列中，
+ * 执行查询的线程按区间的顺序读取，所以返回记录的顺序跟串行扫描时一样。
+ * where条件、select列表和聚合函数还是在执行查询的线程中计算，因为表达式用的是TableFilter的当前行。
+ *
+ * @author zhh
+ */
+public class ParallelScan {
+
+    // 每个区间至少要有这么多行才值得用一个新线程去读
+    public static final int MIN_ROWS_PER_RANGE = 8 * 1024;
+
+    private static final int BATCH_SIZE = 1024;
+    private static final int MAX_QUEUED_BATCHES = 4;
+    private static final Row[] END = new Row[0];
+
+    // 扫描线程会在队列满时等待，所以不能用Scheduler线程，也不能用固定大小的线程池
+    private static class ExecutorHolder {
+        static final ExecutorService executor = Executors
+                .newCachedThreadPool(new NamedThreadFactory(ParallelScan.class.getSimpleName() + "Thread"));
+    }
+
+    private final ServerSession session;
+    private final StandardPrimaryIndex index;
+    private final int[] columnIndexes;
+    private final Range[] ranges;
+    private volatile boolean closed;
+
+    private int rangeIndex;
+    private Row[] rows;
+    private int rowIndex;
+
+    ParallelScan(ServerSession session, StandardPrimaryIndex index, ValueLong[][] keyRanges, int[] columnIndexes) {
+        this.session = session;
+        this.index = index;
+        this.columnIndexes = columnIndexes;
+        ranges = new Range[keyRanges.length];
+        for (int i = 0; i < keyRanges.length; i++) {
+            ranges[i] = new Range(keyRanges[i][0], keyRanges[i][1]);
+        }
+    }
+
+    /**
+     * Start a thread for each key range.
+     */
+    public void start() {
+        for (Range r : ranges) {
+            ExecutorHolder.executor.execute(r);
+        }
+    }
+
+    public int getRangeCount() {
+        return ranges.length;
+    }
+
+    /**
+     * Get the next row, in the same order as a scan of the whole key range.
+     *
+     * @return the row, or null if there are no more rows
+     */
+    public Row next() {
+        while (true) {
+            if (rows != null && rowIndex < rows.length) {
+                return rows[rowIndex++];
+            }
+            if (rangeIndex >= ranges.length) {
+                return null;
+            }
+            Range r = ranges[rangeIndex];
+            Row[] batch;
+            try {
+                batch = r.take();
+            } catch (Throwable t) {
+                close();
+                throw DbException.convert(t);
+            }
+            if (batch == END) {
+                if (r.error != null) {
+                    close();
+                    throw DbException.convert(r.error);
+                }
+                rangeIndex++;
+                rows = null;
+            } else {
+                rows = batch;
+                rowIndex = 0;
+            }
+        }
+    }
+
+    /**
+     * Stop all scan threads, the rows that are not read yet are discarded.
+     */
+    public void close() {
+        closed = true;
+        for (Range r : ranges) {
+            r.queue.clear();
+        }
+    }
+
+    private class Range implements Runnable {
+
+        final ValueLong first;
+        final ValueLong last;
+        final ArrayBlockingQueue<Row[]> queue = new ArrayBlockingQueue<>(MAX_QUEUED_BATCHES);
+        volatile Throwable error;
+
+        Range(ValueLong first, ValueLong last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Cursor cursor = index.find(session, first, last, columnIndexes);
+                Row[] batch = new Row[BATCH_SIZE];
+                int count = 0;
+                while (!closed && cursor.next()) {
+                    batch[count++] = cursor.get();
+                    if (count == BATCH_SIZE) {
+                        put(batch);
+                        batch = new Row[BATCH_SIZE];
+                        count = 0;
+                    }
+                }
+                if (count > 0) {
+                    put(Arrays.copyOf(batch, count));
+                }
+            } catch (Throwable t) {
+                error = t;
+            } finally {
+                put(END);
+            }
+        }
+
+        // 消费者还没读到这个区间时队列会满，等消费者读走或者整个扫描被关闭
+        private void put(Row[] batch) {
+            try {
+                while (!closed) {
+                    if (queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+        }
+
+        // 等待期间也要检查查询是否已被取消或超时
+        Row[] take() throws InterruptedException {
+            while (true) {
+                Row[] batch = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    return batch;
+                }
+                session.checkCanceled();
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@ public class PlanItem {
     private Index index;
     private PlanItem joinPlan;
     private PlanItem nestedJoinPlan;
+    private IndexCondition hashJoinCondition;
 
     void setIndex(Index index) {
         this.index = index;
@@ -47,6 +48,19 @@ public class PlanItem {
         this.nestedJoinPlan = nestedJoinPlan;
     }
 
+    /**
+     * Get the join condition used to build the hash table if the table is read by a hash join.
+     *
+     * @return the condition, or null for a (index) nested loop join
+     */
+    public IndexCondition getHashJoinCondition() {
+        return hashJoinCondition;
+    }
+
+    void setHashJoinCondition(IndexCondition hashJoinCondition) {
+        this.hashJoinCondition = hashJoinCondition;
+    }
+
     public double getCost() {
         return cost;
     }
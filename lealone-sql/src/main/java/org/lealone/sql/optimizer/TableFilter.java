@@ -20,6 +20,8 @@ import org.lealone.common.util.Utils;
 import org.lealone.db.SysProperties;
 import org.lealone.db.auth.Right;
 import org.lealone.db.index.Index;
+import org.lealone.db.index.StandardDelegateIndex;
+import org.lealone.db.index.StandardPrimaryIndex;
 import org.lealone.db.result.Row;
 import org.lealone.db.result.SearchRow;
 import org.lealone.db.result.SortOrder;
@@ -112,6 +114,12 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
 
     private int[] columnIndexes;
 
+    /**
+     * The join condition used to build the hash table if this table is read by a hash join.
+     */
+    private IndexCondition hashJoinCondition;
+    private HashJoin hashJoin;
+
     /**
      * Create a new table filter object.
      *
@@ -188,10 +196,18 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
                 }
             }
             SortOrder sortOrder = null;
+            int[] columnIndexes = null;
             if (select != null) {
                 sortOrder = select.getSortOrder();
+                // 用于判断索引是否包含查询用到的所有字段
+                if (!select.isForUpdate()) {
+                    columnIndexes = createColumnIndexes(select.getReferencedColumns());
+                }
+            }
+            item = Optimizer.getBestPlanItem(s, masks, table, sortOrder, columnIndexes);
+            if (masks != null && nestedJoin == null && s.getDatabase().getSettings().hashJoin) {
+                item = getHashJoinPlanItem(s, item);
             }
-            item = Optimizer.getBestPlanItem(s, masks, table, sortOrder);
             // The more index conditions, the earlier the table.
             // This is to ensure joins without indexes run quickly:
             // x (x.a=10); y (x.b=y.b) - see issue 113
@@ -214,6 +230,26 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
         return item;
     }
 
+    // 没有合适的索引时，join字段上的等值条件可以用hash join，只需要扫描一次表
+    private PlanItem getHashJoinPlanItem(ServerSession s, PlanItem item) {
+        long rowCount = -1;
+        for (IndexCondition condition : indexConditions) {
+            if (HashJoin.isHashable(s, condition)) {
+                if (rowCount < 0) {
+                    rowCount = table.getRowCountApproximation();
+                }
+                double cost = HashJoin.getCost(rowCount, condition.getColumn());
+                if (cost < item.cost) {
+                    item = new PlanItem();
+                    item.setIndex(table.getScanIndex(s));
+                    item.setHashJoinCondition(condition);
+                    item.cost = cost;
+                }
+            }
+        }
+        return item;
+    }
+
     private void setEvaluatable(TableFilter join) {
         if (session.getDatabase().getSettings().nestedJoins) {
             setEvaluatable(true);
@@ -245,6 +281,7 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             return;
         }
         setIndex(item.getIndex());
+        hashJoinCondition = item.getHashJoinCondition();
         if (nestedJoin != null) {
             if (item.getNestedJoinPlan() != null) {
                 nestedJoin.setPlanItem(item.getNestedJoinPlan());
@@ -304,6 +341,10 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
     public void startQuery(ServerSession s) {
         this.session = s;
         scanCount = 0;
+        // 每次执行查询都要重新建hash表
+        if (hashJoinCondition != null) {
+            hashJoin = new HashJoin(this, hashJoinCondition, s.getDatabase().getMaxMemoryRows());
+        }
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -335,7 +376,15 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
         if (state == AFTER_LAST) {
             return false;
         } else if (state == BEFORE_FIRST) {
-            cursor.find(session, indexConditions);
+            if (hashJoin != null && !hashJoin.build(session, cursor)) {
+                // 行数太多，这次执行退回到nested loop，下次执行时在startQuery中还会重新尝试
+                hashJoin = null;
+            }
+            if (hashJoin != null) {
+                hashJoin.find(session);
+            } else {
+                cursor.find(session, indexConditions);
+            }
             if (!cursor.isAlwaysFalse()) {
                 if (nestedJoin != null) {
                     nestedJoin.reset();
@@ -366,7 +415,15 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
                 if ((++scanCount & 4095) == 0) {
                     checkTimeout();
                 }
-                if (cursor.next()) {
+                if (hashJoin != null) {
+                    if (hashJoin.next()) {
+                        current = hashJoin.get();
+                        currentSearchRow = current;
+                        state = FOUND;
+                    } else {
+                        state = AFTER_LAST;
+                    }
+                } else if (cursor.next()) {
                     currentSearchRow = cursor.getSearchRow();
                     current = null;
                     state = FOUND;
@@ -689,6 +746,9 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
             buff.append('\n');
             StatementBuilder planBuff = new StatementBuilder();
             planBuff.append(index.getPlanSQL());
+            if (hashJoinCondition != null) {
+                planBuff.append(" HASH JOIN ON ").append(hashJoinCondition.getSQL());
+            }
             if (indexConditions.size() > 0) {
                 planBuff.append(": ");
                 for (IndexCondition condition : indexConditions) {
@@ -1069,6 +1129,49 @@ public class TableFilter implements ColumnResolver, IExpression.Evaluator {
         return cursor.getNodeToPageKeyMap(session);
     }
 
+    /**
+     * Create a parallel scan if the rows of this table filter can be read by several threads.
+     * Only a range of a primary index without IN conditions can be split.
+     *
+     * @param parallelism the maximum number of threads
+     * @return the parallel scan that is not started yet, or null
+     */
+    public ParallelScan createParallelScan(int parallelism) {
+        if (parallelism <= 1 || join != null || nestedJoin != null || filterCondition != null || hashJoin != null) {
+            return null;
+        }
+        StandardPrimaryIndex primaryIndex;
+        if (index instanceof StandardPrimaryIndex) {
+            primaryIndex = (StandardPrimaryIndex) index;
+        } else if (index instanceof StandardDelegateIndex) {
+            primaryIndex = ((StandardDelegateIndex) index).getMainIndex();
+        } else {
+            return null;
+        }
+        for (IndexCondition c : indexConditions) {
+            int type = c.getCompareType();
+            if (type == Comparison.IN_LIST || type == Comparison.IN_QUERY) {
+                return null;
+            }
+        }
+        long rows = primaryIndex.getRowCountApproximation();
+        int maxSplits = (int) Math.min(parallelism, rows / ParallelScan.MIN_ROWS_PER_RANGE);
+        if (maxSplits <= 1) {
+            return null;
+        }
+        cursor.parseIndexConditions(session, indexConditions);
+        if (cursor.isAlwaysFalse()) {
+            return null;
+        }
+        ValueLong[][] keyRanges = primaryIndex.getKeyRanges(session, cursor.getStartSearchRow(),
+                cursor.getEndSearchRow(), maxSplits);
+        if (keyRanges.length <= 1) {
+            return null;
+        }
+        int[] columnIndexes = select != null ? createColumnIndexes(select.getReferencedColumns()) : null;
+        return new ParallelScan(session, primaryIndex, keyRanges, columnIndexes);
+    }
+
     public void setPageKeys(List<PageKey> pageKeys) {
         cursor.setPageKeys(pageKeys);
     }
@@ -21,6 +21,7 @@ import java.util.List;
 
 import org.lealone.db.index.IndexType;
 import org.lealone.db.result.DelegatedResult;
+import org.lealone.db.result.LocalResult;
 import org.lealone.db.result.Result;
 import org.lealone.db.table.IndexColumn;
 import org.lealone.db.table.Table;
@@ -28,14 +29,15 @@ import org.lealone.sql.dml.Select;
 
 public class MergedResult extends DelegatedResult {
     public MergedResult(List<Result> results, Select newSelect, Select oldSelect) {
-        // 1. 结果集串行化，为合并做准备
-        SerializedResult serializedResult = new SerializedResult(results, oldSelect.getLimitRows());
+        // 1. 结果集串行化，为合并做准备，分片返回的是部分分组，不能按LIMIT截断
+        SerializedResult serializedResult = new SerializedResult(results, -1);
         Table table = newSelect.getTopTableFilter().getTable();
         newSelect.getTopTableFilter().setIndex(new MergedIndex(serializedResult, table, -1,
                 IndexColumn.wrap(table.getColumns()), IndexType.createScan()));
 
         // 2. 把多个结果集合并
         Result mergedResult = newSelect.queryGroupMerge();
+        serializedResult.close();
 
         // 3. 计算合并后的结果集,
         // 例如oldSelect="select avg"时，在分布式环境要转成newSelect="select count, sum"，
@@ -50,5 +52,16 @@ public class MergedResult extends DelegatedResult {
         } else {
             result = mergedResult;
         }
+
+        // 5. 分片上没有执行LIMIT，合并完之后先按ORDER BY排序再截断
+        if (result instanceof LocalResult) {
+            LocalResult lr = (LocalResult) result;
+            if (oldSelect.getSortOrder() != null)
+                lr.setSortOrder(oldSelect.getSortOrder());
+            if (oldSelect.getOffset() != null)
+                lr.setOffset(oldSelect.getOffset().getValue(oldSelect.getSession()).getInt());
+            lr.setLimit(oldSelect.getLimitRows());
+            lr.done();
+        }
     }
 }
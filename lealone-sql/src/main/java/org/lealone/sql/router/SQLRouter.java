@@ -27,10 +27,12 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.lealone.common.concurrent.DebuggableThreadPoolExecutor;
 import org.lealone.common.exceptions.DbException;
 import org.lealone.db.Database;
+import org.lealone.db.api.ErrorCode;
 import org.lealone.db.async.AsyncHandler;
 import org.lealone.db.async.AsyncResult;
 import org.lealone.db.result.LocalResult;
@@ -52,8 +54,48 @@ import org.lealone.storage.replication.ReplicationSession;
 //DML语句如果是sharding模式，需要进一步判断
 public class SQLRouter {
 
-    private static final ExecutorService executorService = new DebuggableThreadPoolExecutor("SQLRouter", 1,
-            Runtime.getRuntime().availableProcessors(), 6000, TimeUnit.MILLISECONDS);
+    // 分片上的子查询大多在等待网络，所以线程数可以比cpu数多，线程数也就是同时执行的子查询个数的上限
+    // core和max必须一样，因为任务队列是无界的，线程数超过core之后就只会排队了
+    private static final int MAX_CONCURRENT_SHARD_COMMANDS = Math.max(4,
+            Runtime.getRuntime().availableProcessors() * 2);
+    private static final ExecutorService executorService = new DebuggableThreadPoolExecutor("SQLRouter",
+            MAX_CONCURRENT_SHARD_COMMANDS, MAX_CONCURRENT_SHARD_COMMANDS, 6000, TimeUnit.MILLISECONDS);
+
+    // 每个分片的超时时间跟当前session的QUERY_TIMEOUT一样，从提交子查询时开始算，返回0表示不限制
+    static long getDeadline(Session session) {
+        int timeout = session instanceof ServerSession ? ((ServerSession) session).getQueryTimeout() : 0;
+        return timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+    }
+
+    static <T> T get(Future<T> future, long deadline) throws Exception {
+        if (deadline <= 0)
+            return future.get();
+        long timeout = deadline - System.currentTimeMillis();
+        try {
+            return future.get(Math.max(timeout, 0), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+        }
+    }
+
+    // 出错或超时后其他分片的结果也不需要了
+    static void cancel(List<? extends Future<?>> futures) {
+        for (Future<?> f : futures)
+            f.cancel(true);
+    }
+
+    private static <T> ArrayList<T> getAll(List<Future<T>> futures, long deadline) {
+        ArrayList<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> f : futures) {
+                results.add(get(f, deadline));
+            }
+        } catch (Exception e) {
+            cancel(futures);
+            throw DbException.convert(e);
+        }
+        return results;
+    }
 
     private static void beginTransaction(StatementBase statement) {
         statement.getSession().getTransaction(statement);
@@ -203,19 +245,15 @@ public class SQLRouter {
             i++;
         }
 
-        try {
-            ArrayList<Future<Integer>> futures = new ArrayList<>(size);
-            for (Callable<Integer> callable : callables) {
-                futures.add(executorService.submit(callable));
-            }
-            for (Future<Integer> f : futures) {
-                Integer count = f.get();
-                if (count != null) {
-                    updateCount += count;
-                }
+        long deadline = getDeadline(currentSession);
+        ArrayList<Future<Integer>> futures = new ArrayList<>(size);
+        for (Callable<Integer> callable : callables) {
+            futures.add(executorService.submit(callable));
+        }
+        for (Integer count : getAll(futures, deadline)) {
+            if (count != null) {
+                updateCount += count;
             }
-        } catch (Exception e) {
-            throw DbException.convert(e);
         }
         return updateCount;
     }
@@ -236,6 +274,19 @@ public class SQLRouter {
         return result;
     }
 
+    // 分组查询在分片上得到的只是部分分组，不能按行数截断，其他查询每个分片最多只需要返回offset+maxRows行
+    // LIMIT子句在getPlanSQL(true)中已经换成了LIMIT offset+limit
+    private static int getShardMaxRows(Select select, int maxRows) {
+        if (select.isGroupQuery() || maxRows <= 0)
+            return 0;
+        if (select.getOffset() != null) {
+            int offset = select.getOffset().getValue(select.getSession()).getInt();
+            if (offset > 0)
+                return (int) Math.min(Integer.MAX_VALUE, (long) maxRows + offset);
+        }
+        return maxRows;
+    }
+
     private static Result maybeExecuteDistributedQuery(StatementBase statement, int maxRows, boolean scrollable) {
         int type = statement.getType();
         switch (type) {
@@ -248,7 +299,10 @@ public class SQLRouter {
                 return new LocalResult();
             }
 
-            String sql = statement.getPlanSQL(true);
+            // 能分两阶段执行的分组查询，分片只返回每个分组的部分状态
+            boolean partial = select.isPartialAggregatable();
+            String sql = partial ? select.getPartialAggregateSQL() : statement.getPlanSQL(true);
+            int shardMaxRows = getShardMaxRows(select, maxRows);
             Session[] sessions = new Session[size];
             SQLCommand[] commands = new SQLCommand[size];
             ArrayList<Callable<Result>> callables = new ArrayList<>(size);
@@ -261,38 +315,36 @@ public class SQLRouter {
                 commands[i] = sessions[i].createSQLCommand(sql, Integer.MAX_VALUE);
                 SQLCommand c = commands[i];
                 callables.add(() -> {
-                    return c.executeQuery(maxRows, scrollable, pageKeys).get();
+                    return c.executeQuery(shardMaxRows, scrollable, pageKeys).get();
                 });
                 i++;
             }
 
-            try {
-                if (!select.isGroupQuery() && select.getSortOrder() == null) {
-                    return new SerializedResult(callables, maxRows, scrollable, select.getLimitRows());
-                } else {
-                    ArrayList<Future<Result>> futures = new ArrayList<>(size);
-                    ArrayList<Result> results = new ArrayList<>(size);
-                    for (Callable<Result> callable : callables) {
-                        futures.add(executorService.submit(callable));
-                    }
-
-                    for (Future<Result> f : futures) {
-                        results.add(f.get());
-                    }
+            // 所有分片的子查询都是并行执行的
+            long deadline = getDeadline(currentSession);
+            if (!select.isGroupQuery() && select.getSortOrder() == null) {
+                // 按分片完成的先后顺序边读边返回，不用等所有分片都执行完
+                return new SerializedResult(callables, executorService, deadline, maxRows, select);
+            }
+            if (partial) {
+                // 哪个分片先执行完就先合并哪个分片的部分状态
+                return select.queryPartialGroupMerge(new SerializedResult(callables, executorService, deadline),
+                        maxRows);
+            }
+            ArrayList<Future<Result>> futures = new ArrayList<>(size);
+            for (Callable<Result> callable : callables) {
+                futures.add(executorService.submit(callable));
+            }
+            ArrayList<Result> results = getAll(futures, deadline);
 
-                    if (!select.isGroupQuery() && select.getSortOrder() != null)
-                        return new SortedResult(maxRows, select.getSession(), select, results);
+            if (!select.isGroupQuery())
+                return new SortedResult(maxRows, select.getSession(), select, results);
 
-                    String newSQL = select.getPlanSQL(true, true);
-                    Select newSelect = (Select) select.getSession().prepareStatement(newSQL, true)
-                            .getWrappedStatement();
-                    newSelect.setLocal(true);
+            String newSQL = select.getPlanSQL(true, true);
+            Select newSelect = (Select) select.getSession().prepareStatement(newSQL, true).getWrappedStatement();
+            newSelect.setLocal(true);
 
-                    return new MergedResult(results, newSelect, select);
-                }
-            } catch (Exception e) {
-                throw DbException.convert(e);
-            }
+            return new MergedResult(results, newSelect, select);
         }
         default:
             return statement.query(maxRows);
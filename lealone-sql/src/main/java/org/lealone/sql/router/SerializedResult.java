@@ -17,68 +17,145 @@
  */
 package org.lealone.sql.router;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.lealone.common.exceptions.DbException;
+import org.lealone.db.api.ErrorCode;
 import org.lealone.db.result.DelegatedResult;
 import org.lealone.db.result.Result;
+import org.lealone.db.session.ServerSession;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+import org.lealone.sql.dml.Select;
 
 public class SerializedResult extends DelegatedResult {
     private final static int UNKNOW_ROW_COUNT = -1;
-    private final List<Result> results;
-    private final List<Callable<Result>> commands;
-    // private final int maxRows;
+    // 已经读到的分片结果集，按读取的先后顺序放，reset之后按同样的顺序再读一遍
+    private final ArrayList<Result> results;
+    private final ExecutorCompletionService<Result> completionService;
+    private final ArrayList<Future<Result>> futures;
+    private final long deadline;
     private final int limitRows;
-    // private final boolean scrollable;
+    private final int offset;
 
     private final int size;
     private int index = 0;
     private int count = 0;
+    private boolean closed;
 
-    public SerializedResult(List<Callable<Result>> commands, int maxRows, boolean scrollable, int limitRows) {
-        this.results = null;
-        this.commands = commands;
-        // this.maxRows = maxRows;
+    /**
+     * 所有分片的子查询同时提交，哪个分片先执行完就先读哪个分片的结果，读到limitRows行后其他分片的子查询就取消掉。
+     */
+    public SerializedResult(List<Callable<Result>> commands, ExecutorService executorService, long deadline,
+            int maxRows, Select select) {
+        this(commands, executorService, deadline, getLimitRows(maxRows, select), getOffset(select));
+    }
+
+    /**
+     * 按分片完成的先后顺序读取所有分片的结果，不截断
+     */
+    public SerializedResult(List<Callable<Result>> commands, ExecutorService executorService, long deadline) {
+        this(commands, executorService, deadline, -1, 0);
+    }
+
+    private SerializedResult(List<Callable<Result>> commands, ExecutorService executorService, long deadline,
+            int limitRows, int offset) {
+        this.deadline = deadline;
         this.limitRows = limitRows;
-        // this.scrollable = scrollable;
+        this.offset = offset;
         this.size = commands.size();
+        results = new ArrayList<>(size);
+        completionService = new ExecutorCompletionService<>(executorService);
+        futures = new ArrayList<>(size);
+        for (Callable<Result> c : commands)
+            futures.add(completionService.submit(c));
         nextResult();
+        skipOffset();
+    }
+
+    private static int getOffset(Select select) {
+        ServerSession session = select.getSession();
+        return select.getOffset() == null ? 0 : select.getOffset().getValue(session).getInt();
+    }
+
+    private static int getLimitRows(int maxRows, Select select) {
+        int limitRows = maxRows == 0 ? -1 : maxRows;
+        if (select.getLimit() != null) {
+            Value v = select.getLimit().getValue(select.getSession());
+            int l = v == ValueNull.INSTANCE ? -1 : v.getInt();
+            if (limitRows < 0) {
+                limitRows = l;
+            } else if (l >= 0) {
+                limitRows = Math.min(l, limitRows);
+            }
+        }
+        return limitRows;
     }
 
     public SerializedResult(List<Result> results, int limitRows) {
-        this.results = results;
-        this.commands = null;
-        // this.maxRows = -1;
+        this.results = new ArrayList<>(results);
+        this.completionService = null;
+        this.futures = null;
+        this.deadline = 0;
         this.limitRows = limitRows;
-        // this.scrollable = false;
+        this.offset = 0;
         this.size = results.size();
         nextResult();
     }
 
+    private void skipOffset() {
+        for (int i = 0; i < offset && nextRow(); i++)
+            ;
+    }
+
+    // 读完的结果集先不关闭，reset之后还要用，等close时一起关闭
     private boolean nextResult() {
         if (index >= size)
             return false;
 
-        if (result != null)
-            result.close();
-
-        if (results != null)
+        if (index < results.size()) {
             result = results.get(index++);
-        else
+        } else {
             try {
-                result = commands.get(index++).call();
+                Future<Result> f;
+                if (deadline <= 0) {
+                    f = completionService.take();
+                } else {
+                    f = completionService.poll(Math.max(deadline - System.currentTimeMillis(), 0),
+                            TimeUnit.MILLISECONDS);
+                    if (f == null)
+                        throw DbException.get(ErrorCode.STATEMENT_WAS_CANCELED);
+                }
+                futures.remove(f);
+                result = f.get();
+                results.add(result);
+                index++;
             } catch (Exception e) {
+                cancel();
                 throw DbException.convert(e);
             }
+        }
         return true;
     }
 
     @Override
     public boolean next() {
         count++;
-        if (limitRows >= 0 && count > limitRows)
+        if (limitRows >= 0 && count > limitRows) {
+            // 已经够数了，还没有执行完的分片不需要再执行
+            cancel();
             return false;
+        }
+        return nextRow();
+    }
+
+    private boolean nextRow() {
         boolean next = result.next();
         if (!next) {
             boolean nextResult;
@@ -96,6 +173,41 @@ public class SerializedResult extends DelegatedResult {
         return next;
     }
 
+    private void cancel() {
+        if (futures == null || closed)
+            return;
+        closed = true;
+        for (Future<Result> f : futures) {
+            if (!f.cancel(true) && f.isDone()) {
+                // 已经执行完但还没有读到的结果也要关闭
+                try {
+                    Result r = f.get();
+                    if (r != null)
+                        r.close();
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (Result r : results)
+            r.reset();
+        index = 0;
+        count = 0;
+        nextResult();
+        skipOffset();
+    }
+
+    @Override
+    public void close() {
+        cancel();
+        for (Result r : results)
+            r.close();
+    }
+
     @Override
     public int getRowCount() {
         return UNKNOW_ROW_COUNT;
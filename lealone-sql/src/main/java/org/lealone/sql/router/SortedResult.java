@@ -18,6 +18,7 @@
 package org.lealone.sql.router;
 
 import java.util.List;
+import java.util.PriorityQueue;
 
 import org.lealone.db.result.DelegatedResult;
 import org.lealone.db.result.Result;
@@ -27,15 +28,20 @@ import org.lealone.db.value.Value;
 import org.lealone.db.value.ValueNull;
 import org.lealone.sql.dml.Select;
 
+// 每个分片的结果都已经按sort order排好序了，用一个最小堆做k路归并，
+// 堆中放的是分片编号，按分片当前行的大小排序，每次取出堆顶分片的当前行，下次调用next时再从这个分片补一行进堆
 public class SortedResult extends DelegatedResult {
-    private static final Value[] END = new Value[0];
     private final SortOrder sort;
     private final Result[] results;
+    private final int limitRows;
+    private final int offset;
     private final int limit;
     private final int size;
     private int rowCount = -1;
     private Value[] currentRow;
     private final Value[][] currentRows;
+    private PriorityQueue<Integer> heap;
+    private int lastIndex = -1; // 上一行来自哪个分片
 
     private int rowNumber;
 
@@ -57,26 +63,31 @@ public class SortedResult extends DelegatedResult {
             }
         }
 
-        int offset;
         if (select.getOffset() != null) {
             offset = select.getOffset().getValue(session).getInt();
         } else {
             offset = 0;
         }
+        this.limitRows = limitRows;
+        // 跳过的行也算在rowNumber中，没有LIMIT时不截断
+        limit = limitRows < 0 ? -1 : limitRows + offset;
+        skipOffset();
+    }
 
-        if (limitRows >= 0)
-            rowCount = limitRows;
-
-        limit = limitRows + offset;
-
-        for (int i = 0; i < offset; i++)
-            next();
+    private void skipOffset() {
+        for (int i = 0; i < offset && next(); i++)
+            ;
     }
 
     @Override
     public void reset() {
         for (int i = 0; i < size; i++)
             results[i].reset();
+        heap = null;
+        lastIndex = -1;
+        rowNumber = 0;
+        currentRow = null;
+        skipOffset();
     }
 
     @Override
@@ -92,32 +103,38 @@ public class SortedResult extends DelegatedResult {
         }
         rowNumber++;
 
-        int next = -1;
-        Value[] row = null;
-        for (int i = 0; i < size; i++) {
-            if (currentRows[i] == END)
-                continue;
-            if (currentRows[i] == null) {
-                if (results[i].next())
-                    currentRows[i] = results[i].currentRow();
-                else
-                    currentRows[i] = END;
-            }
-            if (currentRows[i] != END) {
-                if (next == -1) {
-                    next = i;
-                    row = currentRows[i];
-                } else {
-                    if (sort.compare(row, currentRows[i]) > 0) {
-                        next = i;
-                        row = currentRows[i];
-                    }
-                }
+        if (heap == null) {
+            // 值相同时按分片编号排，保证结果是确定的
+            heap = new PriorityQueue<>(size, (a, b) -> {
+                int c = sort.compare(currentRows[a], currentRows[b]);
+                return c != 0 ? c : Integer.compare(a, b);
+            });
+            for (int i = 0; i < size; i++) {
+                if (fetch(i))
+                    heap.add(i);
             }
+        } else if (lastIndex >= 0 && fetch(lastIndex)) {
+            // 上一行返回后才能让这个分片的结果集前进，它的当前行有可能被复用
+            heap.add(lastIndex);
+        }
+        Integer next = heap.poll();
+        if (next == null) {
+            lastIndex = -1;
+            currentRow = null;
+            return false;
+        }
+        lastIndex = next;
+        currentRow = currentRows[next];
+        return true;
+    }
+
+    private boolean fetch(int i) {
+        if (results[i].next()) {
+            currentRows[i] = results[i].currentRow();
+            return true;
         }
-        currentRow = row;
-        currentRows[next] = null;
-        return currentRow != null;
+        currentRows[i] = null;
+        return false;
     }
 
     @Override
@@ -149,6 +166,10 @@ public class SortedResult extends DelegatedResult {
                     c += results[i].getRowCount();
                 }
             }
+            // 分片的行数加起来可能比OFFSET少，也可能比LIMIT少
+            c = Math.max(0, c - offset);
+            if (limitRows >= 0)
+                c = Math.min(c, limitRows);
             rowCount = c;
             return c;
         } else {
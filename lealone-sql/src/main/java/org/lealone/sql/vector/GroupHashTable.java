@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.vector;
+
+import java.util.Arrays;
+
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueNull;
+
+/**
+ * A hash table that maps the group by keys to dense group ids.
+ * <p>
+ * 用开放地址法，table中只放group id，key和它的hash值按group id放在数组中，
+ * 扩容时不需要重新计算hash值。key是INT或LONG的向量时直接用long比较，已经存在的分组不会创建Value对象。
+ * group id按分组第一次出现的顺序分配，从0开始。
+ *
+ * @author zhh
+ */
+public class GroupHashTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int keyCount;
+    private int[] table; // group id + 1，0表示空位
+    private int mask;
+    private int[] hashes;
+    private Value[][] keys;
+    private int size;
+
+    private int[] groupIds = new int[RowBatch.DEFAULT_SIZE];
+    private int[] rowHashes = new int[RowBatch.DEFAULT_SIZE];
+
+    public GroupHashTable(int keyCount) {
+        this.keyCount = keyCount;
+        table = new int[INITIAL_CAPACITY * 2];
+        mask = table.length - 1;
+        hashes = new int[INITIAL_CAPACITY];
+        keys = new Value[INITIAL_CAPACITY][];
+    }
+
+    /**
+     * Get the number of groups.
+     *
+     * @return the number of groups
+     */
+    public int size() {
+        return size;
+    }
+
+    public Value[] getKey(int groupId) {
+        return keys[groupId];
+    }
+
+    /**
+     * Find the group ids of the selected rows, new groups are added.
+     *
+     * @param keyVectors the values of the group by expressions
+     * @param sel the selected rows
+     * @param selSize the number of selected rows
+     * @return the group ids, the i-th element is for the row sel[i]
+     */
+    public int[] getGroupIds(ValueVector[] keyVectors, int[] sel, int selSize) {
+        if (groupIds.length < selSize) {
+            groupIds = new int[selSize];
+            rowHashes = new int[selSize];
+        }
+        // 先按列计算所有行的hash值，跟ValueArray.hashCode的结果一样
+        Arrays.fill(rowHashes, 0, selSize, 1);
+        for (ValueVector vector : keyVectors) {
+            int longType = getLongType(vector);
+            for (int i = 0; i < selSize; i++) {
+                int row = sel[i];
+                int h;
+                if (vector.isNull(row)) {
+                    h = ValueNull.INSTANCE.hashCode();
+                } else if (longType == Value.INT) {
+                    h = (int) vector.getLong(row);
+                } else if (longType == Value.LONG) {
+                    long x = vector.getLong(row);
+                    h = (int) (x ^ (x >> 32));
+                } else {
+                    h = vector.getValue(row).hashCode();
+                }
+                rowHashes[i] = rowHashes[i] * 31 + h;
+            }
+        }
+        for (int i = 0; i < selSize; i++) {
+            groupIds[i] = findOrAdd(keyVectors, sel[i], rowHashes[i]);
+        }
+        return groupIds;
+    }
+
+    private static int getLongType(ValueVector vector) {
+        if (vector.isConstant() || !vector.isLong()) {
+            return Value.UNKNOWN;
+        }
+        int longType = vector.getLongType();
+        return longType == Value.INT || longType == Value.LONG ? longType : Value.UNKNOWN;
+    }
+
+    private int findOrAdd(ValueVector[] keyVectors, int row, int hash) {
+        int index = mix(hash) & mask;
+        while (true) {
+            int id = table[index] - 1;
+            if (id < 0) {
+                break;
+            }
+            if (hashes[id] == hash && equalsKey(keys[id], keyVectors, row)) {
+                return id;
+            }
+            index = (index + 1) & mask;
+        }
+        int id = size++;
+        if (id == keys.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+            keys = Arrays.copyOf(keys, id * 2);
+        }
+        Value[] key = new Value[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            key[i] = keyVectors[i].getValue(row);
+        }
+        hashes[id] = hash;
+        keys[id] = key;
+        table[index] = id + 1;
+        // 负载因子不超过0.5
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private static boolean equalsKey(Value[] key, ValueVector[] keyVectors, int row) {
+        for (int i = 0; i < key.length; i++) {
+            ValueVector vector = keyVectors[i];
+            Value v = key[i];
+            if (vector.isNull(row)) {
+                if (v != ValueNull.INSTANCE) {
+                    return false;
+                }
+                continue;
+            }
+            int longType = getLongType(vector);
+            if (longType != Value.UNKNOWN) {
+                if (v.getType() != longType || v.getLong() != vector.getLong(row)) {
+                    return false;
+                }
+            } else if (!v.equals(vector.getValue(row))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int index = mix(hashes[id]) & mask;
+            while (table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            table[index] = id + 1;
+        }
+    }
+
+    // 整数key的hash值通常是连续的，打散一下，避免线性探测时聚集在一起
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.vector;
+
+import java.util.HashMap;
+
+import org.lealone.db.result.Row;
+import org.lealone.db.table.Column;
+import org.lealone.sql.optimizer.ParallelScan;
+import org.lealone.sql.optimizer.TableFilter;
+
+/**
+ * A batch of rows read from a table filter.
+ * <p>
+ * 每次最多从TableFilter读取DEFAULT_SIZE条记录，然后按批计算where条件、select列表和聚合函数，
+ * selection中存放的是还没有被过滤掉的行号，过滤只会让selection变小，所以按行号存放的ValueVector在整个batch中都有效。
+ * <p>
+ * 记录是通过TableFilter读取的，已经做了可见性检查，不能直接用StorageMapCursor.nextBatch。
+ * 如果设置了ParallelScan，记录由多个扫描线程读取，这里只是按顺序取出来。
+ *
+ * @author zhh
+ */
+public class RowBatch {
+
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TableFilter filter;
+    private final Row[] rows;
+    private final int[] rowIndexes;
+    private int size;
+    private int[] selection;
+    private int selectionSize;
+    private final HashMap<Column, ValueVector> columnVectors = new HashMap<>();
+    private ParallelScan parallelScan;
+
+    public RowBatch(TableFilter filter) {
+        this(filter, DEFAULT_SIZE);
+    }
+
+    public RowBatch(TableFilter filter, int capacity) {
+        this.filter = filter;
+        rows = new Row[capacity];
+        rowIndexes = new int[capacity];
+    }
+
+    /**
+     * Read the next rows from the table filter, all rows are selected.
+     *
+     * @param maxRows the maximum number of rows to read
+     * @return the number of rows read, 0 if there are no more rows
+     */
+    public int fill(int maxRows) {
+        int max = Math.min(maxRows, rows.length);
+        int count = 0;
+        if (parallelScan != null) {
+            Row row;
+            while (count < max && (row = parallelScan.next()) != null) {
+                rows[count++] = row;
+            }
+        } else {
+            while (count < max && filter.next()) {
+                rows[count++] = filter.get();
+            }
+        }
+        for (int i = count; i < size; i++)
+            rows[i] = null;
+        // 上一个batch过滤时可能修改过rowIndexes
+        for (int i = 0; i < count; i++)
+            rowIndexes[i] = i;
+        size = count;
+        selection = rowIndexes;
+        selectionSize = count;
+        columnVectors.clear();
+        return count;
+    }
+
+    /**
+     * Read the rows from the parallel scan instead of the table filter.
+     *
+     * @param parallelScan the started parallel scan
+     */
+    public void setParallelScan(ParallelScan parallelScan) {
+        this.parallelScan = parallelScan;
+    }
+
+    /**
+     * Stop the parallel scan if there is one.
+     */
+    public void close() {
+        if (parallelScan != null) {
+            parallelScan.close();
+        }
+    }
+
+    public TableFilter getTableFilter() {
+        return filter;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Row getRow(int row) {
+        return rows[row];
+    }
+
+    /**
+     * Make the row the current row of the table filter,
+     * so that expressions that don't support batches can be evaluated.
+     *
+     * @param row the row number
+     */
+    public void setCurrentRow(int row) {
+        filter.set(rows[row]);
+    }
+
+    public int[] getSelection() {
+        return selection;
+    }
+
+    public int getSelectionSize() {
+        return selectionSize;
+    }
+
+    /**
+     * Set the selected rows, the row numbers must be a subset of the current selection.
+     *
+     * @param selection the row numbers
+     * @param selectionSize the number of selected rows
+     */
+    public void setSelection(int[] selection, int selectionSize) {
+        this.selection = selection;
+        this.selectionSize = selectionSize;
+    }
+
+    // 在原来的selection数组上过滤时只需要修改大小
+    public void setSelectionSize(int selectionSize) {
+        this.selectionSize = selectionSize;
+    }
+
+    public ValueVector getColumnVector(Column column) {
+        return columnVectors.get(column);
+    }
+
+    public void putColumnVector(Column column, ValueVector vector) {
+        columnVectors.put(column, vector);
+    }
+}
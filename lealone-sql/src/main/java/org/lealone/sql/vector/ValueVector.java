@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.sql.vector;
+
+import java.math.BigDecimal;
+
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueDecimal;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+
+/**
+ * The values of an expression for the rows of a RowBatch.
+ * <p>
+ * 按RowBatch中的行号存放，只有被选中的行才有值。
+ * 所有非null的值都是INT或LONG时还会放一份到long[]中，这样比较和计算时不需要调用Value的方法，
+ * 整数的加减乘运算结果是DECIMAL类型，没有溢出时也用long[]存放。
+ *
+ * @author zhh
+ */
+public class ValueVector {
+
+    private final Value constant; // 所有行都是同一个值时不需要数组
+    private final Value[] values;
+    private final long[] longs;
+    private final int longType;
+
+    private ValueVector(Value constant, Value[] values, long[] longs, int longType) {
+        this.constant = constant;
+        this.values = values;
+        this.longs = longs;
+        this.longType = longType;
+    }
+
+    /**
+     * Create a vector that has the same value for all rows.
+     *
+     * @param v the value
+     * @return the vector
+     */
+    public static ValueVector get(Value v) {
+        int type = v.getType();
+        return new ValueVector(v, null, null, type == Value.INT || type == Value.LONG ? type : Value.UNKNOWN);
+    }
+
+    /**
+     * Create a vector from the values of the selected rows.
+     *
+     * @param values the values, the array is not copied
+     * @param sel the selected rows
+     * @param selSize the number of selected rows
+     * @return the vector
+     */
+    public static ValueVector get(Value[] values, int[] sel, int selSize) {
+        int longType = Value.UNKNOWN;
+        for (int i = 0; i < selSize; i++) {
+            Value v = values[sel[i]];
+            if (v == ValueNull.INSTANCE)
+                continue;
+            int type = v.getType();
+            if (longType == Value.UNKNOWN && (type == Value.INT || type == Value.LONG)) {
+                longType = type;
+            } else if (type != longType) {
+                return new ValueVector(null, values, null, Value.UNKNOWN);
+            }
+        }
+        if (longType == Value.UNKNOWN)
+            return new ValueVector(null, values, null, Value.UNKNOWN);
+        long[] longs = new long[values.length];
+        for (int i = 0; i < selSize; i++) {
+            int row = sel[i];
+            Value v = values[row];
+            if (v != ValueNull.INSTANCE)
+                longs[row] = v.getLong();
+        }
+        return new ValueVector(null, values, longs, longType);
+    }
+
+    /**
+     * Create a vector of integer values, the Value objects are created when needed.
+     *
+     * @param longs the values
+     * @param nulls the rows that are null, or null if there is no null row
+     * @param longType Value.INT, Value.LONG or Value.DECIMAL
+     * @return the vector
+     */
+    public static ValueVector get(long[] longs, boolean[] nulls, int longType) {
+        Value[] values = new Value[longs.length];
+        if (nulls != null) {
+            for (int row = 0; row < nulls.length; row++) {
+                if (nulls[row])
+                    values[row] = ValueNull.INSTANCE;
+            }
+        }
+        return new ValueVector(null, values, longs, longType);
+    }
+
+    public boolean isConstant() {
+        return constant != null;
+    }
+
+    /**
+     * Check whether all non-null values are integers of the same type that fit in a long,
+     * in this case getLong can be used.
+     *
+     * @return true if getLong can be used
+     */
+    public boolean isLong() {
+        return longType != Value.UNKNOWN;
+    }
+
+    public int getLongType() {
+        return longType;
+    }
+
+    public boolean isNull(int row) {
+        return (constant != null ? constant : values[row]) == ValueNull.INSTANCE;
+    }
+
+    public long getLong(int row) {
+        return constant != null ? constant.getLong() : longs[row];
+    }
+
+    public Value getValue(int row) {
+        if (constant != null)
+            return constant;
+        Value v = values[row];
+        if (v == null) {
+            long x = longs[row];
+            if (longType == Value.INT)
+                v = ValueInt.get((int) x);
+            else if (longType == Value.LONG)
+                v = ValueLong.get(x);
+            else
+                v = ValueDecimal.get(BigDecimal.valueOf(x));
+            values[row] = v;
+        }
+        return v;
+    }
+}
@@ -17,12 +17,17 @@
  */
 package org.lealone.test.aose;
 
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 import org.lealone.storage.StorageMapCursor;
 import org.lealone.storage.aose.AOStorage;
 import org.lealone.storage.aose.btree.BTreeMap;
+import org.lealone.storage.aose.btree.BTreeStorage;
+import org.lealone.storage.cache.CacheLongKeyOffHeap;
 import org.lealone.test.TestBase;
 
 public class BTreeMapTest extends TestBase {
@@ -37,7 +42,14 @@ public class BTreeMapTest extends TestBase {
         testSyncOperations();
         testAsyncOperations();
         testCompact();
+        testBackgroundCompact();
+        testChunkMetaData();
+        testDirtyPagePropagation();
+        testReadAhead();
+        testMmap();
+        testOffHeapCache();
         testSplit();
+        testSplitKeys();
         testRemove();
         testSave();
         // }
@@ -226,6 +238,191 @@ public class BTreeMapTest extends TestBase {
         map.save();
     }
 
+    void testBackgroundCompact() {
+        openMap();
+        map.clear();
+        int count = 2000;
+        for (int i = 1; i <= count; i++)
+            map.put(i, "value" + i);
+        map.save();
+
+        // 第一次保存的chunk中大部分page都被删除了，填充率低于minFillRate，需要重写剩下的page
+        for (int i = 1; i <= count * 9 / 10; i++)
+            map.put(i, "value-" + i);
+        map.save();
+
+        BTreeStorage btreeStorage = map.getBTreeStorage();
+        btreeStorage.compact();
+        assertTrue(btreeStorage.getCompactCount() > 0);
+        assertTrue(btreeStorage.getRewrittenPageCount() > 0);
+        assertTrue(btreeStorage.getRemovedChunkCount() > 0);
+        assertTrue(btreeStorage.getReclaimedBytes() > 0);
+        assertEquals(100, btreeStorage.getCompactProgress());
+
+        assertEquals(count, map.size());
+        assertEquals("value-1", map.get(1));
+        assertEquals("value" + count, map.get(count));
+    }
+
+    void testChunkMetaData() {
+        BTreeMap<Integer, String> map = storage.openBTreeMap("ChunkMetaDataTest");
+        map.clear();
+        int count = 2000;
+        for (int i = 1; i <= count; i++)
+            map.put(i, "value" + i);
+        map.save();
+        for (int i = 1; i <= count / 10; i++)
+            map.put(i, "value-" + i);
+        map.save();
+
+        BTreeStorage btreeStorage = map.getBTreeStorage();
+        btreeStorage.compact();
+        long garbageBytes = btreeStorage.getGarbageBytes();
+        assertTrue(garbageBytes > 0);
+        map.close();
+
+        // 重新打开后从chunkMetaData的日志中恢复被删除的page
+        map = storage.openBTreeMap("ChunkMetaDataTest");
+        btreeStorage = map.getBTreeStorage();
+        btreeStorage.compact();
+        assertEquals(garbageBytes, btreeStorage.getGarbageBytes());
+        assertEquals(count, map.size());
+        assertEquals("value-1", map.get(1));
+        assertEquals("value" + count, map.get(count));
+        map.remove();
+    }
+
+    // 从硬盘读出来的leaf page被修改后，要沿着父节点一直标记到root page，否则save时会漏掉这个page
+    void testDirtyPagePropagation() {
+        BTreeMap<Integer, String> map = storage.openBTreeMap("DirtyPagePropagationTest");
+        map.clear();
+        int count = 2000;
+        for (int i = 1; i <= count; i++)
+            map.put(i, "value" + i);
+        map.save();
+        map.close();
+
+        map = storage.openBTreeMap("DirtyPagePropagationTest");
+        for (int i = 1; i <= count; i += 100)
+            map.put(i, "value-" + i);
+        map.save();
+        map.close();
+
+        map = storage.openBTreeMap("DirtyPagePropagationTest");
+        assertEquals(count, map.size());
+        for (int i = 1; i <= count; i++)
+            assertEquals((i % 100 == 1 ? "value-" : "value") + i, map.get(i));
+        map.remove();
+    }
+
+    void testReadAhead() {
+        BTreeMap<Integer, String> map = storage.openBTreeMap("ReadAheadTest");
+        map.clear();
+        int count = 5000;
+        for (int i = 1; i <= count; i++)
+            map.put(i, "value" + i);
+        map.save();
+        map.close();
+
+        // 重新打开后缓存是空的，顺序扫描时会批量预读后面的leaf page
+        map = storage.openBTreeMap("ReadAheadTest");
+        StorageMapCursor<Integer, String> cursor = map.cursor();
+        int i = 0;
+        while (cursor.hasNext()) {
+            cursor.next();
+            assertEquals("value" + (++i), cursor.getValue());
+        }
+        assertEquals(count, i);
+        BTreeStorage btreeStorage = map.getBTreeStorage();
+        assertTrue(btreeStorage.getReadAheadPageCount() > 0);
+        assertTrue(btreeStorage.getReadAheadReadCount() < btreeStorage.getReadAheadPageCount());
+        map.remove();
+    }
+
+    void testMmap() {
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put("mmap", "true");
+        BTreeMap<Integer, String> map = storage.openBTreeMap("MmapTest", null, null, parameters);
+        map.clear();
+        int count = 2000;
+        for (int i = 1; i <= count; i++)
+            map.put(i, "value" + i);
+        map.save();
+        map.close();
+
+        map = storage.openBTreeMap("MmapTest", null, null, parameters);
+        for (int i = 1; i <= count; i++)
+            assertEquals("value" + i, map.get(i));
+
+        // 压缩时删除已经映射的chunk文件
+        for (int i = 1; i <= count * 9 / 10; i++)
+            map.put(i, "value-" + i);
+        map.save();
+        BTreeStorage btreeStorage = map.getBTreeStorage();
+        btreeStorage.compact();
+        assertTrue(btreeStorage.getRemovedChunkCount() > 0);
+        assertEquals(count, map.size());
+        assertEquals("value-1", map.get(1));
+        assertEquals("value" + count, map.get(count));
+        map.remove();
+    }
+
+    void testOffHeapCache() {
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put("offHeapCacheSize", "1");
+        BTreeMap<Integer, String> map = storage.openBTreeMap("OffHeapCacheTest", null, null, parameters);
+        map.clear();
+        int count = 2000;
+        for (int i = 1; i <= count; i++)
+            map.put(i, "value" + i);
+        map.save();
+        map.close();
+
+        // 从文件读page时同时放到堆外缓存中
+        map = storage.openBTreeMap("OffHeapCacheTest", null, null, parameters);
+        for (int i = 1; i <= count; i++)
+            assertEquals("value" + i, map.get(i));
+        BTreeStorage btreeStorage = map.getBTreeStorage();
+        CacheLongKeyOffHeap offHeapCache = btreeStorage.getOffHeapCache();
+        assertNotNull(offHeapCache);
+        assertTrue(offHeapCache.size() > 0);
+        assertTrue(offHeapCache.getUsedMemory() > 0);
+
+        // 被删除的page和chunk不能再从堆外缓存中读到
+        int size = offHeapCache.size();
+        for (int i = 1; i <= count * 9 / 10; i++)
+            map.put(i, "value-" + i);
+        map.save();
+        btreeStorage.compact();
+        assertTrue(offHeapCache.size() < size);
+        assertEquals("value-1", map.get(1));
+        assertEquals("value" + count, map.get(count));
+        map.remove();
+
+        // 只有一个slab，写满之后整个回收
+        CacheLongKeyOffHeap cache = new CacheLongKeyOffHeap(64 * 1024);
+        ByteBuffer value = ByteBuffer.allocate(1000);
+        for (int i = 0; i < value.capacity(); i++)
+            value.put((byte) i);
+        value.flip();
+        for (long key = 1; key <= 60; key++)
+            assertTrue(cache.put(key, value));
+        assertEquals(value, cache.get(1));
+        assertEquals(1, cache.getHits());
+        cache.removeIf(key -> key > 50);
+        assertNull(cache.get(60));
+        assertEquals(1, cache.getMisses());
+        for (long key = 61; key <= 66; key++)
+            assertTrue(cache.put(key, value));
+        assertEquals(55, cache.getEvictions()); // 第66个放不下了
+        assertNull(cache.get(1));
+        assertEquals(value, cache.get(66));
+        assertFalse(cache.put(67, ByteBuffer.allocate(64 * 1024)));
+        cache.clear();
+        assertNull(cache.get(66));
+        assertEquals(0, cache.getUsedMemory());
+    }
+
     void testSplit() {
         openMap();
         map.clear();
@@ -251,6 +448,34 @@ public class BTreeMapTest extends TestBase {
         map.printPage();
     }
 
+    void testSplitKeys() {
+        openMap();
+        map.clear();
+        int count = 10000;
+        for (int i = 1; i <= count; i++)
+            map.put(i, "value-" + i);
+
+        List<Integer> keys = map.getSplitKeys(null, null, 4);
+        assertEquals(3, keys.size());
+        int last = 1;
+        for (int key : keys) {
+            assertTrue(key > last);
+            last = key;
+        }
+        assertTrue(last <= count);
+
+        // 切分点都在(from, to]之间
+        keys = map.getSplitKeys(2000, 3000, 8);
+        assertTrue(keys.size() > 0 && keys.size() <= 7);
+        for (int key : keys)
+            assertTrue(key > 2000 && key <= 3000);
+
+        assertEquals(0, map.getSplitKeys(null, null, 1).size());
+        map.clear();
+        map.put(1, "a");
+        assertEquals(0, map.getSplitKeys(null, null, 4).size());
+    }
+
     // remove相对比较复杂，单独拿来重点测
     void testRemove() {
         openMap();
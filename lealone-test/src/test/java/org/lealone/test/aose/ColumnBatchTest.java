@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.aose;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+import org.lealone.db.index.ValueDataType;
+import org.lealone.db.index.VersionedValue;
+import org.lealone.db.index.VersionedValueType;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueArray;
+import org.lealone.db.value.ValueDouble;
+import org.lealone.db.value.ValueInt;
+import org.lealone.db.value.ValueLong;
+import org.lealone.db.value.ValueNull;
+import org.lealone.db.value.ValueString;
+import org.lealone.db.value.ValueStringIgnoreCase;
+import org.lealone.storage.ColumnBatch;
+import org.lealone.storage.ColumnVector;
+import org.lealone.storage.IterationParameters;
+import org.lealone.storage.StorageMapCursor;
+import org.lealone.storage.aose.AOStorage;
+import org.lealone.storage.aose.btree.BTreeMap;
+import org.lealone.storage.aose.btree.PageStorageMode;
+import org.lealone.test.TestBase;
+import org.lealone.transaction.aote.TransactionalValue;
+import org.lealone.transaction.aote.TransactionalValueType;
+
+public class ColumnBatchTest extends TestBase {
+
+    private final int rowCount = 3000;
+    private final int columnCount = 6;
+    private AOStorage storage;
+    private TransactionalValueType valueType;
+    private ValueDataType keyType;
+
+    @Test
+    public void run() {
+        storage = AOStorageTest.openStorage(32 * 1024);
+        keyType = new ValueDataType(null, null, null);
+        valueType = new TransactionalValueType(
+                new VersionedValueType(new ValueDataType(null, null, null), columnCount));
+        testColumnVector();
+        testColumnBatch(PageStorageMode.COLUMN_STORAGE);
+        testColumnBatch(PageStorageMode.ROW_STORAGE);
+        testIgnoreCase();
+    }
+
+    void testColumnVector() {
+        ColumnVector vector = new ColumnVector();
+        vector.reset(3);
+        vector.setLong(0, 10);
+        vector.setNull(1);
+        vector.setLong(2, 30);
+        assertTrue(vector.isLongVector());
+        assertEquals(30, vector.getLongs()[2]);
+        assertTrue(vector.isNull(1));
+
+        // 出现不同的类型时退化成Value[]
+        vector.reset(3);
+        vector.setInt(0, 1);
+        vector.setValue(1, ValueString.get("a"));
+        vector.setNull(2);
+        assertEquals(Value.UNKNOWN, vector.getValueType());
+        assertEquals(ValueInt.get(1), vector.getValue(0));
+        assertEquals(ValueString.get("a"), vector.getValue(1));
+        assertEquals(ValueNull.INSTANCE, vector.getValue(2));
+
+        vector.reset(100);
+        for (int row = 0; row < 100; row++) {
+            if (row % 3 == 0)
+                vector.setNull(row);
+            else
+                vector.setDouble(row, row);
+        }
+        vector.retain(70, 30);
+        assertEquals(30, vector.getRowCount());
+        for (int row = 0; row < 30; row++) {
+            assertEquals((row + 70) % 3 == 0, vector.isNull(row));
+            if (!vector.isNull(row))
+                assertEquals(row + 70, vector.getDoubles()[row], 0d);
+        }
+    }
+
+    void testColumnBatch(PageStorageMode mode) {
+        String name = "ColumnBatchTest_" + mode;
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put("pageStorageMode", mode.name());
+        BTreeMap<ValueLong, TransactionalValue> map = storage.openBTreeMap(name, keyType, valueType, parameters);
+        map.clear();
+        for (int row = 1; row <= rowCount; row++) {
+            Value[] columns = new Value[columnCount];
+            columns[0] = ValueInt.get(row);
+            columns[1] = row % 10 == 0 ? ValueNull.INSTANCE : ValueDouble.get(row * 1.5d);
+            columns[2] = ValueString.get("value" + row);
+            columns[3] = ValueLong.get(-row * 1000000000L);
+            columns[4] = ValueString.get("type" + row % 5);
+            columns[5] = row % 7 == 0 ? ValueNull.INSTANCE : ValueInt.get(row / 500);
+            VersionedValue vv = new VersionedValue(row, ValueArray.get(columns));
+            map.put(ValueLong.get(row), TransactionalValue.createCommitted(vv));
+        }
+        map.save();
+        map.close();
+
+        // 重新打开后column page都还没有加载，只读取第1和第3列
+        map = storage.openBTreeMap(name, keyType, valueType, parameters);
+        int from = 101;
+        int[] columnIndexes = { 1, 3 };
+        StorageMapCursor<ValueLong, TransactionalValue> cursor = map
+                .cursor(IterationParameters.create(ValueLong.get(from), columnIndexes));
+        int row = from;
+        int batchCount = 0;
+        while (cursor.hasNext()) {
+            ColumnBatch batch = cursor.nextColumnBatch();
+            batchCount++;
+            assertEquals(2, batch.getColumnCount());
+            ColumnVector doubles = batch.getVector(0);
+            ColumnVector longs = batch.getVector(1);
+            assertTrue(doubles.isDoubleVector());
+            assertTrue(longs.isLongVector());
+            for (int i = 0; i < batch.getRowCount(); i++, row++) {
+                assertEquals(ValueLong.get(row), batch.getKey(i));
+                if (row % 10 == 0) {
+                    assertTrue(doubles.isNull(i));
+                } else {
+                    assertFalse(doubles.isNull(i));
+                    assertEquals(row * 1.5d, doubles.getDoubles()[i], 0d);
+                }
+                assertEquals(-row * 1000000000L, longs.getLongs()[i]);
+            }
+        }
+        assertEquals(rowCount + 1, row);
+        assertTrue(batchCount > 1);
+        assertNull(cursor.nextColumnBatch());
+
+        // 按列编码的column page
+        cursor = map.cursor(IterationParameters.create(ValueLong.get(1L), new int[] { 0, 4, 5 }));
+        row = 1;
+        while (cursor.hasNext()) {
+            ColumnBatch batch = cursor.nextColumnBatch();
+            for (int i = 0; i < batch.getRowCount(); i++, row++) {
+                assertEquals(row, batch.getVector(0).getLong(i));
+                assertEquals(ValueString.get("type" + row % 5), batch.getVector(1).getValue(i));
+                if (row % 7 == 0)
+                    assertTrue(batch.getVector(2).isNull(i));
+                else
+                    assertEquals(row / 500, batch.getVector(2).getLong(i));
+            }
+        }
+        assertEquals(rowCount + 1, row);
+        map.close();
+
+        // 读取整行
+        map = storage.openBTreeMap(name, keyType, valueType, parameters);
+        for (row = 1; row <= rowCount; row += 7) {
+            Value[] columns = ((VersionedValue) map.get(ValueLong.get(row)).getValue()).value.getList();
+            assertEquals(ValueInt.get(row), columns[0]);
+            assertEquals(row % 10 == 0 ? ValueNull.INSTANCE : ValueDouble.get(row * 1.5d), columns[1]);
+            assertEquals(ValueString.get("value" + row), columns[2]);
+            assertEquals(ValueLong.get(-row * 1000000000L), columns[3]);
+            assertEquals(ValueString.get("type" + row % 5), columns[4]);
+            assertEquals(row % 7 == 0 ? ValueNull.INSTANCE : ValueInt.get(row / 500), columns[5]);
+        }
+
+        // 可以跟next混用
+        cursor = map.cursor(IterationParameters.create(ValueLong.get(from), columnIndexes));
+        ColumnBatch batch = cursor.nextColumnBatch();
+        int next = from + batch.getRowCount();
+        cursor.next();
+        assertEquals(ValueLong.get(next), cursor.getKey());
+        VersionedValue vv = (VersionedValue) cursor.getValue().getValue();
+        assertEquals(ValueLong.get(-next * 1000000000L), vv.value.getList()[3]);
+        map.remove();
+    }
+
+    // VARCHAR_IGNORECASE的'abc'和'ABC'用equals比较是相等的，
+    // 按RLE或DICTIONARY编码后每一行还得是原来的大小写
+    void testIgnoreCase() {
+        String name = "ColumnBatchTest_IgnoreCase";
+        HashMap<String, String> parameters = new HashMap<>();
+        parameters.put("pageStorageMode", PageStorageMode.COLUMN_STORAGE.name());
+        BTreeMap<ValueLong, TransactionalValue> map = storage.openBTreeMap(name, keyType, valueType, parameters);
+        map.clear();
+        for (int row = 1; row <= rowCount; row++) {
+            Value[] columns = new Value[columnCount];
+            for (int i = 0; i < columnCount; i++)
+                columns[i] = ValueNull.INSTANCE;
+            columns[0] = ValueStringIgnoreCase.get(getIgnoreCaseString("key" + row % 5, row)); // 字典
+            columns[1] = ValueStringIgnoreCase.get(getIgnoreCaseString("run" + row / 100, row)); // 连续相同
+            VersionedValue vv = new VersionedValue(row, ValueArray.get(columns));
+            map.put(ValueLong.get(row), TransactionalValue.createCommitted(vv));
+        }
+        map.save();
+        map.close();
+
+        map = storage.openBTreeMap(name, keyType, valueType, parameters);
+        StorageMapCursor<ValueLong, TransactionalValue> cursor = map
+                .cursor(IterationParameters.create(ValueLong.get(1L), new int[] { 0, 1 }));
+        int row = 1;
+        while (cursor.hasNext()) {
+            ColumnBatch batch = cursor.nextColumnBatch();
+            for (int i = 0; i < batch.getRowCount(); i++, row++) {
+                // equals不区分大小写，要比较字符串
+                assertEquals(getIgnoreCaseString("key" + row % 5, row), batch.getVector(0).getValue(i).getString());
+                assertEquals(getIgnoreCaseString("run" + row / 100, row), batch.getVector(1).getValue(i).getString());
+            }
+        }
+        assertEquals(rowCount + 1, row);
+        map.close();
+
+        map = storage.openBTreeMap(name, keyType, valueType, parameters);
+        for (row = 1; row <= rowCount; row += 7) {
+            Value[] columns = ((VersionedValue) map.get(ValueLong.get(row)).getValue()).value.getList();
+            assertEquals(Value.STRING_IGNORECASE, columns[0].getType());
+            assertEquals(getIgnoreCaseString("key" + row % 5, row), columns[0].getString());
+            assertEquals(getIgnoreCaseString("run" + row / 100, row), columns[1].getString());
+        }
+        map.remove();
+    }
+
+    private static String getIgnoreCaseString(String s, int row) {
+        switch (row % 3) {
+        case 0:
+            return s.toUpperCase();
+        case 1:
+            return s;
+        default:
+            return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.lealone.test.aote;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 import org.lealone.db.Constants;
@@ -33,6 +34,7 @@ import org.lealone.transaction.TransactionEngineManager;
 import org.lealone.transaction.TransactionMap;
 import org.lealone.transaction.aote.AMTransactionEngine;
 import org.lealone.transaction.aote.log.LogSyncService;
+import org.lealone.transaction.aote.log.LogSyncStatistics;
 
 public class AMTransactionEngineTest extends TestBase {
 
@@ -128,6 +130,8 @@ public class AMTransactionEngineTest extends TestBase {
         } catch (InterruptedException e) {
         }
         assertTrue(map.getDiskSpaceUsed() > 0);
+        // 没有新的修改，增量检查点不会再调用save()
+        assertFalse(map.getRawMap().hasUnsavedChanges());
 
         map.remove();
         Transaction t2 = te.beginTransaction(false);
@@ -135,9 +139,52 @@ public class AMTransactionEngineTest extends TestBase {
         assertEquals(0, map.getDiskSpaceUsed());
         map.put("abc", "value123");
         t2.commit();
+        assertTrue(map.getRawMap().hasUnsavedChanges());
 
         te.checkpoint();
         assertTrue(map.getDiskSpaceUsed() > 0);
+        assertFalse(map.getRawMap().hasUnsavedChanges());
+        te.close();
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        Map<String, String> config = getDefaultConfig();
+        config.put("base_dir", joinDirs("aote_group"));
+        config.put("log_sync_type", LogSyncService.LOG_SYNC_TYPE_GROUP);
+        config.put("log_sync_group_max_delay_micros", "2000");
+        AMTransactionEngine te = new AMTransactionEngine();
+        te.init(config);
+        Storage storage = getStorage();
+
+        Transaction t0 = te.beginTransaction(false);
+        TransactionMap<String, String> map = t0.openMap("testGroupCommit", storage);
+        map.clear();
+        t0.commit();
+        LogSyncStatistics statistics = te.getLogSyncService().getStatistics();
+        statistics.reset();
+
+        int threadCount = 8;
+        int commitCount = 50;
+        CountDownLatch latch = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            int index = i;
+            new Thread(() -> {
+                for (int j = 0; j < commitCount; j++) {
+                    Transaction t = te.beginTransaction(false);
+                    TransactionMap<String, String> m = t.openMap("testGroupCommit", storage);
+                    m.put("key" + index + "_" + j, "value" + j);
+                    t.commit();
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        assertEquals(threadCount * commitCount, map.size());
+        assertEquals(threadCount * commitCount, statistics.getCommitLatency().getCount());
+        assertEquals(threadCount * commitCount, statistics.getBatchRecords().getSum());
+        // 并发提交的事务会被合并到同一次fsync中
+        assertTrue(statistics.getSyncCount() < threadCount * commitCount);
         te.close();
     }
 }
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.aote;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.lealone.db.DataBuffer;
+import org.lealone.db.value.ValueString;
+import org.lealone.storage.Storage;
+import org.lealone.storage.StorageMap;
+import org.lealone.storage.fs.FileUtils;
+import org.lealone.test.TestBase;
+import org.lealone.transaction.aote.TransactionalValue;
+import org.lealone.transaction.aote.TransactionalValueType;
+import org.lealone.transaction.aote.log.LogSyncService;
+import org.lealone.transaction.aote.log.RedoLogRecord;
+
+public class RedoLogTest extends TestBase {
+
+    private static final String MAP_NAME = "RedoLogTest";
+    private static final String MAP_NAME2 = "RedoLogTest2";
+    private final AtomicLong transactionId = new AtomicLong();
+
+    @Test
+    public void testStripedRedoLog() throws Exception {
+        Map<String, String> config = AMTransactionEngineTest.getDefaultConfig();
+        config.put("base_dir", joinDirs("aote_stripe"));
+        config.put("redo_log_stripe_count", "4");
+        config.put("redo_log_recovery_threads", "4");
+        FileUtils.deleteRecursive(joinDirs("aote_stripe"), true);
+
+        LogSyncService logSyncService = LogSyncService.create(config);
+        assertEquals(4, logSyncService.getRedoLog().getStripeCount());
+        assertEquals(0, logSyncService.getRedoLog().init());
+        logSyncService.start();
+
+        // 检查点之前的日志不需要redo
+        runInNewThread(() -> put(logSyncService, "k0", "v0"));
+        logSyncService.checkpoint(transactionId.incrementAndGet());
+
+        // 不同的线程写不同的stripe，同一个key后写的值在恢复后必须胜出
+        for (int i = 1; i <= 8; i++) {
+            String v = "v" + i;
+            runInNewThread(() -> put(logSyncService, "k1", v));
+        }
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100; j++)
+                    put(logSyncService, "t" + index + "_" + j, "v" + j);
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        logSyncService.close();
+        logSyncService.join();
+
+        LogSyncService logSyncService2 = LogSyncService.create(config);
+        assertEquals(transactionId.get(), logSyncService2.getRedoLog().init());
+
+        Storage storage = AMTransactionEngineTest.getStorage();
+        StorageMap<String, TransactionalValue> map = openMap(storage, MAP_NAME);
+        logSyncService2.getRedoLog().redo(map);
+        assertNull(map.get("k0"));
+        assertEquals("v8", map.get("k1").getValue());
+        assertEquals(1 + 4 * 100, map.size());
+        // k1被写了8次，但是只需要redo最后一次
+        assertEquals(1 + 4 * 100, logSyncService2.getRedoLog().getRedoneKeyCount());
+        assertEquals(8 + 4 * 100, logSyncService2.getRedoLog().getRecoveredRecordCount());
+        map.remove();
+    }
+
+    @Test
+    public void testFuzzyCheckpoint() throws Exception {
+        Map<String, String> config = AMTransactionEngineTest.getDefaultConfig();
+        config.put("base_dir", joinDirs("aote_fuzzy"));
+        FileUtils.deleteRecursive(joinDirs("aote_fuzzy"), true);
+
+        LogSyncService logSyncService = LogSyncService.create(config);
+        logSyncService.getRedoLog().init();
+        logSyncService.start();
+
+        put(logSyncService, MAP_NAME, "a", "v1");
+        put(logSyncService, MAP_NAME2, "x", "v1");
+        // 保存MAP_NAME之前取恢复点，保存过程中并发写入的b还是需要redo
+        long recoveryStamp = logSyncService.getRedoLog().getLastStamp() + 1;
+        put(logSyncService, MAP_NAME, "b", "v2");
+        logSyncService.mapCheckpoint(MAP_NAME, recoveryStamp);
+        put(logSyncService, MAP_NAME2, "y", "v2");
+        long recoveryStamp2 = logSyncService.getRedoLog().getLastStamp() + 1;
+        logSyncService.mapCheckpoint(MAP_NAME2, recoveryStamp2);
+        logSyncService.checkpoint(transactionId.incrementAndGet(), Math.min(recoveryStamp, recoveryStamp2));
+        put(logSyncService, MAP_NAME, "c", "v3");
+        put(logSyncService, MAP_NAME2, "z", "v3");
+        logSyncService.close();
+        logSyncService.join();
+
+        LogSyncService logSyncService2 = LogSyncService.create(config);
+        assertEquals(transactionId.get(), logSyncService2.getRedoLog().init());
+        // 恢复点之前的a和x不再读取
+        assertEquals(4, logSyncService2.getRedoLog().getRecoveredRecordCount());
+
+        Storage storage = AMTransactionEngineTest.getStorage();
+        StorageMap<String, TransactionalValue> map = openMap(storage, MAP_NAME);
+        logSyncService2.getRedoLog().redo(map);
+        assertNull(map.get("a"));
+        assertEquals("v2", map.get("b").getValue());
+        assertEquals("v3", map.get("c").getValue());
+        assertEquals(2, map.size());
+        map.remove();
+
+        // y在MAP_NAME2自己的恢复点之前
+        StorageMap<String, TransactionalValue> map2 = openMap(storage, MAP_NAME2);
+        logSyncService2.getRedoLog().redo(map2);
+        assertNull(map2.get("x"));
+        assertNull(map2.get("y"));
+        assertEquals("v3", map2.get("z").getValue());
+        assertEquals(1, map2.size());
+        map2.remove();
+    }
+
+    private static StorageMap<String, TransactionalValue> openMap(Storage storage, String name) {
+        StorageMap<String, TransactionalValue> map = storage.openMap(name, ValueString.type,
+                new TransactionalValueType(ValueString.type), null);
+        map.clear();
+        return map;
+    }
+
+    private static void runInNewThread(Runnable r) throws InterruptedException {
+        Thread t = new Thread(r);
+        t.start();
+        t.join();
+    }
+
+    private void put(LogSyncService logSyncService, String key, String value) {
+        put(logSyncService, MAP_NAME, key, value);
+    }
+
+    private void put(LogSyncService logSyncService, String mapName, String key, String value) {
+        DataBuffer buff = DataBuffer.create(64);
+        ValueString.type.write(buff, mapName);
+        int keyValueLengthStartPos = buff.position();
+        buff.putInt(0);
+        ValueString.type.write(buff, key);
+        buff.put((byte) 1);
+        ValueString.type.write(buff, value);
+        buff.putInt(keyValueLengthStartPos, buff.position() - keyValueLengthStartPos - 4);
+        ByteBuffer operations = buff.getAndFlipBuffer();
+        RedoLogRecord r = RedoLogRecord.createLocalTransactionRedoLogRecord(transactionId.incrementAndGet(),
+                operations);
+        logSyncService.addAndMaybeWaitForSync(r);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+import org.lealone.db.LealoneDatabase;
+import org.lealone.test.TestBase;
+
+public class JdbcResultSetTest extends TestBase {
+
+    private static final int ROW_COUNT = 3000;
+
+    @Test
+    public void run() throws Exception {
+        Connection conn = getConnection(LealoneDatabase.NAME);
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate("DROP TABLE IF EXISTS JdbcResultSetTest");
+        stmt.executeUpdate("CREATE TABLE IF NOT EXISTS JdbcResultSetTest (f1 int primary key, f2 varchar)");
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            buff.setLength(0);
+            buff.append("INSERT INTO JdbcResultSetTest(f1, f2) VALUES(").append(i).append(", '");
+            // 每行的长度不一样
+            for (int j = 0, len = i % 200; j < len; j++)
+                buff.append('a');
+            buff.append("')");
+            stmt.executeUpdate(buff.toString());
+        }
+
+        // 跨多个fetch批次读取，不管后台是否预取、fetch size怎么变，记录都不能丢也不能乱序
+        testFetch(stmt, 1);
+        testFetch(stmt, 7);
+        testFetch(stmt, 100);
+        testFetch(stmt, ROW_COUNT + 1);
+
+        // 还没读完就关闭，这时可能还有预取的请求没有返回
+        stmt.setFetchSize(10);
+        ResultSet rs = stmt.executeQuery("SELECT f1, f2 FROM JdbcResultSetTest ORDER BY f1");
+        for (int i = 0; i < 15; i++)
+            assertTrue(rs.next());
+        rs.close();
+
+        rs = stmt.executeQuery("SELECT count(*) FROM JdbcResultSetTest");
+        assertTrue(rs.next());
+        assertEquals(ROW_COUNT, rs.getInt(1));
+        rs.close();
+
+        stmt.executeUpdate("DROP TABLE IF EXISTS JdbcResultSetTest");
+        stmt.close();
+        conn.close();
+    }
+
+    private void testFetch(Statement stmt, int fetchSize) throws Exception {
+        stmt.setFetchSize(fetchSize);
+        ResultSet rs = stmt.executeQuery("SELECT f1, f2 FROM JdbcResultSetTest ORDER BY f1");
+        int count = 0;
+        while (rs.next()) {
+            assertEquals(count, rs.getInt(1));
+            assertEquals(count % 200, rs.getString(2).length());
+            count++;
+        }
+        assertEquals(ROW_COUNT, count);
+        rs.close();
+
+        // 不排序时结果集的行数是不确定的
+        rs = stmt.executeQuery("SELECT f1 FROM JdbcResultSetTest");
+        count = 0;
+        while (rs.next())
+            count++;
+        assertEquals(ROW_COUNT, count);
+        rs.close();
+    }
+}
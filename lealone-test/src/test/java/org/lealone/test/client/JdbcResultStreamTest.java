@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.client;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+import org.junit.Test;
+import org.lealone.client.jdbc.JdbcConnection;
+import org.lealone.db.Constants;
+import org.lealone.db.LealoneDatabase;
+import org.lealone.db.session.DelegatedSession;
+import org.lealone.test.TestBase;
+
+// 第一批记录之后剩下的记录由服务器端按credit一批一批推送(client.result.stream)
+public class JdbcResultStreamTest extends TestBase {
+
+    private static final int ROW_COUNT = 3000;
+    private static final int FETCH_SIZE = 10;
+
+    private Connection conn;
+    private Statement stmt;
+
+    @Test
+    public void run() throws Exception {
+        conn = getConnection(LealoneDatabase.NAME);
+        stmt = conn.createStatement();
+        stmt.executeUpdate("DROP TABLE IF EXISTS JdbcResultStreamTest");
+        stmt.executeUpdate("CREATE TABLE IF NOT EXISTS JdbcResultStreamTest (pk int primary key,"
+                + " f_boolean boolean, f_int int, f_long bigint, f_double double, f_string varchar,"
+                + " f_blob blob, f_wide varchar)");
+        // 每行都带一个比较长的字段，这样每批推送的记录不多，
+        // 整个结果集的批数远多于FETCH_SIZE和credits能覆盖的范围
+        stmt.executeUpdate("INSERT INTO JdbcResultStreamTest SELECT X, MOD(X, 2) = 0,"
+                + " CASEWHEN(MOD(X, 3) = 0, NULL, X), X * 10000000000, X / 4.0,"
+                + " CONCAT('s', X), STRINGTOUTF8(CONCAT('b', X)), SPACE(1000) FROM SYSTEM_RANGE(1, " + ROW_COUNT + ")");
+
+        testMultiChunk();
+        testColumnTypes();
+        testClose();
+        testReset();
+        testServerError();
+
+        stmt.executeUpdate("DROP TABLE IF EXISTS JdbcResultStreamTest");
+        stmt.close();
+        conn.close();
+    }
+
+    private void testMultiChunk() throws Exception {
+        stmt.setFetchSize(FETCH_SIZE);
+        ResultSet rs = stmt.executeQuery("SELECT pk, f_wide FROM JdbcResultStreamTest ORDER BY pk");
+        int count = 0;
+        while (rs.next()) {
+            count++;
+            assertEquals(count, rs.getInt(1));
+            assertEquals(1000, rs.getString(2).length());
+        }
+        assertEquals(ROW_COUNT, count);
+        rs.close();
+        assertNoPendingCallbacks();
+    }
+
+    // BOOLEAN、INT、LONG、DOUBLE、STRING按列编码，
+    // 全是NULL的列、每行类型不一样的列和BLOB列走GENERIC
+    private void testColumnTypes() throws Exception {
+        stmt.setFetchSize(FETCH_SIZE);
+        ResultSet rs = stmt.executeQuery("SELECT pk, f_boolean, f_int, f_long, f_double, f_string,"
+                + " CAST(NULL AS INT), ARRAY_GET(('a', pk, pk * 1.5), MOD(pk, 3) + 1), f_blob"
+                + " FROM JdbcResultStreamTest ORDER BY pk");
+        int count = 0;
+        while (rs.next()) {
+            int pk = ++count;
+            assertEquals(pk, rs.getInt(1));
+            assertEquals(pk % 2 == 0, rs.getBoolean(2));
+            if (pk % 3 == 0) {
+                rs.getInt(3);
+                assertTrue(rs.wasNull());
+            } else {
+                assertEquals(pk, rs.getInt(3));
+            }
+            assertEquals(pk * 10000000000L, rs.getLong(4));
+            assertEquals(pk / 4.0, rs.getDouble(5), 0.0);
+            assertEquals("s" + pk, rs.getString(6));
+            assertNull(rs.getObject(7));
+            Object mixed = rs.getObject(8);
+            switch (pk % 3) {
+            case 0:
+                assertEquals("a", mixed);
+                break;
+            case 1:
+                assertEquals(pk, ((Number) mixed).intValue());
+                break;
+            default:
+                assertEquals(0, new BigDecimal(pk).multiply(new BigDecimal("1.5"))
+                        .compareTo(new BigDecimal(mixed.toString())));
+            }
+            assertEquals("b" + pk, new String(rs.getBytes(9), "UTF-8"));
+        }
+        assertEquals(ROW_COUNT, count);
+        rs.close();
+    }
+
+    // 服务器端还在推送时关闭结果集，服务器端最后返回一个空的end包，客户端收到后删除回调
+    private void testClose() throws Exception {
+        stmt.setFetchSize(FETCH_SIZE);
+        ResultSet rs = stmt.executeQuery("SELECT pk, f_wide FROM JdbcResultStreamTest ORDER BY pk");
+        for (int i = 1; i <= FETCH_SIZE * 3; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getInt(1));
+        }
+        rs.close();
+        assertNoPendingCallbacks();
+        checkConnection();
+    }
+
+    private void testReset() throws Exception {
+        Statement stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(FETCH_SIZE);
+        ResultSet rs = stmt.executeQuery("SELECT pk FROM JdbcResultStreamTest ORDER BY pk");
+        for (int i = 1; i <= FETCH_SIZE * 3; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getInt(1));
+        }
+        rs.beforeFirst();
+        int count = 0;
+        while (rs.next()) {
+            count++;
+            assertEquals(count, rs.getInt(1));
+        }
+        assertEquals(ROW_COUNT, count);
+        rs.close();
+        stmt.close();
+        assertNoPendingCallbacks();
+    }
+
+    // 结果集的记录数超过MAX_MEMORY_ROWS时放在临时表中，回滚后服务器端接着读临时表就会出错，
+    // 这个异常要在读到后面的记录时抛给应用，之后连接还能正常使用
+    private void testServerError() throws Exception {
+        int n = Constants.DEFAULT_MAX_MEMORY_ROWS * 2 / ROW_COUNT;
+        int rowCount = ROW_COUNT * n;
+        conn.setAutoCommit(false);
+        try {
+            stmt.setFetchSize(FETCH_SIZE);
+            ResultSet rs = stmt.executeQuery("SELECT t.pk, r.X FROM JdbcResultStreamTest t, SYSTEM_RANGE(1, " + n
+                    + ") r ORDER BY t.pk DESC, r.X");
+            int count = 0;
+            for (; count < FETCH_SIZE * 2; count++) {
+                assertTrue(rs.next());
+            }
+            conn.rollback();
+            try {
+                while (rs.next())
+                    count++;
+                fail("the result should be broken after rollback");
+            } catch (SQLException e) {
+                assertTrue(count < rowCount);
+            }
+            rs.close();
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        assertNoPendingCallbacks();
+        checkConnection();
+    }
+
+    private void checkConnection() throws Exception {
+        ResultSet rs = stmt.executeQuery("SELECT count(*) FROM JdbcResultStreamTest");
+        assertTrue(rs.next());
+        assertEquals(ROW_COUNT, rs.getInt(1));
+        rs.close();
+    }
+
+    // 服务器端的响应是异步到达的，等一会儿
+    private void assertNoPendingCallbacks() throws Exception {
+        Map<?, ?> callbackMap = getCallbackMap();
+        for (int i = 0; i < 100 && !callbackMap.isEmpty(); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(callbackMap.isEmpty());
+    }
+
+    private Map<?, ?> getCallbackMap() throws Exception {
+        Object session = ((JdbcConnection) conn).getSession();
+        if (session instanceof DelegatedSession)
+            session = getField(DelegatedSession.class, session, "session");
+        Object tcpConnection = getField(session.getClass(), session, "tcpConnection");
+        return (Map<?, ?>) getField(tcpConnection.getClass(), tcpConnection, "callbackMap");
+    }
+
+    private static Object getField(Class<?> clazz, Object obj, String name) throws Exception {
+        Field f = clazz.getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(obj);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.lealone.net.TransferConnection;
+import org.lealone.net.TransferInputStream;
+import org.lealone.net.TransferOutputStream;
+import org.lealone.net.nio.NioBuffer;
+import org.lealone.net.nio.NioBufferAllocator;
+import org.lealone.test.TestBase;
+
+public class NioBufferTest extends TestBase {
+
+    @Test
+    public void run() {
+        testAllocator();
+        testRefCount();
+        testPacketSplitting();
+    }
+
+    private void testAllocator() {
+        NioBufferAllocator allocator = new NioBufferAllocator(false, 2);
+        ByteBuffer buffer = allocator.allocate(5000);
+        assertEquals(8192, buffer.capacity());
+        assertEquals(NioBufferAllocator.MIN_CAPACITY, allocator.allocate(1).capacity());
+        allocator.release(buffer);
+        assertEquals(1, allocator.getPoolSize(8192));
+        assertTrue(buffer == allocator.allocate(8000));
+        assertEquals(0, allocator.getPoolSize(8192));
+
+        // 超过最大级别的不放回池中
+        ByteBuffer large = allocator.allocate(NioBufferAllocator.MAX_POOLED_CAPACITY + 1);
+        allocator.release(large);
+        assertEquals(0, allocator.getPoolSize(large.capacity()));
+    }
+
+    private void testRefCount() {
+        NioBufferAllocator allocator = NioBufferAllocator.getInstance();
+        NioBuffer buffer = NioBuffer.allocate(100);
+        int capacity = buffer.getByteBuffer().capacity();
+        buffer.getByteBuffer().put(new byte[100]).flip();
+        NioBuffer slice = buffer.slice(10, 20);
+        assertEquals(10, slice.length());
+        int poolSize = allocator.getPoolSize(capacity);
+        buffer.recycle();
+        buffer.recycle(); // 多次回收是无害的
+        assertEquals(poolSize, allocator.getPoolSize(capacity));
+        slice.recycle();
+        assertEquals(poolSize + 1, allocator.getPoolSize(capacity));
+    }
+
+    // 按各种不同的大小切分收到的数据，每个包都要完整地按顺序处理
+    private void testPacketSplitting() {
+        int packetCount = 200;
+        ByteBuffer data = ByteBuffer.allocate(packetCount * 100 + packetCount / 10 * 21 * 1024);
+        for (int i = 0; i < packetCount; i++) {
+            int payload = i % 10 == 0 ? 20 * 1024 : i % 7;
+            data.putInt(1 + 4 + 4 + payload);
+            data.put(TransferOutputStream.REQUEST).putInt(i).putInt(payload);
+            for (int j = 0; j < payload; j++)
+                data.put((byte) (i + j));
+        }
+        data.flip();
+        for (int chunkSize : new int[] { 1, 3, 4, 5, 100, 4096, 16 * 1024, data.limit() }) {
+            PacketCollector conn = new PacketCollector();
+            ByteBuffer src = data.duplicate();
+            while (src.hasRemaining()) {
+                int len = Math.min(chunkSize, src.remaining());
+                NioBuffer buffer = NioBuffer.allocate(len);
+                ByteBuffer b = buffer.getByteBuffer();
+                for (int i = 0; i < len; i++)
+                    b.put(src.get());
+                b.flip();
+                conn.handle(buffer);
+                buffer.recycle();
+            }
+            assertEquals(packetCount, conn.packetIds.size());
+            for (int i = 0; i < packetCount; i++)
+                assertEquals(i, conn.packetIds.get(i).intValue());
+        }
+    }
+
+    private static class PacketCollector extends TransferConnection {
+
+        final ArrayList<Integer> packetIds = new ArrayList<>();
+
+        PacketCollector() {
+            super(null, true);
+        }
+
+        @Override
+        protected void handleRequest(TransferInputStream in, int packetId, int packetType) throws IOException {
+            int payload = packetType;
+            for (int j = 0; j < payload; j++) {
+                if (in.readByte() != (byte) (packetId + j))
+                    throw new IOException("Invalid packet data, packetId: " + packetId);
+            }
+            if (in.getDataInputStream().available() != 0)
+                throw new IOException("Invalid packet length, packetId: " + packetId);
+            in.closeInputStream();
+            packetIds.add(packetId);
+        }
+    }
+}
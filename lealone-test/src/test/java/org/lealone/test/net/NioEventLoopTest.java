@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.net;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.lealone.net.nio.NioBuffer;
+import org.lealone.net.nio.NioEventLoopAdapter;
+import org.lealone.test.TestBase;
+
+// 不启动服务器，直接用NioEventLoopAdapter往一个本地socket写，另一端按顺序读出来检查每个字节
+public class NioEventLoopTest extends TestBase {
+
+    private static final int SEND_BUFFER_SIZE = 8 * 1024;
+
+    private NioEventLoopAdapter eventLoop;
+    private Selector selector;
+    private SocketChannel client; // 读的一端
+    private SocketChannel channel; // 写的一端
+    private int nextByte; // 下一个要写出去的字节的序号
+    private volatile int receivedBytes;
+
+    @Test
+    public void run() throws Exception {
+        eventLoop = new NioEventLoopAdapter(new HashMap<>(), "loop_interval", 100);
+        selector = eventLoop.getSelector();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            // 两端的缓冲区都设小一点，大包一次肯定写不完
+            client = SocketChannel.open();
+            client.socket().setReceiveBufferSize(SEND_BUFFER_SIZE);
+            client.connect(server.getLocalAddress());
+            channel = server.accept();
+            channel.configureBlocking(false);
+            channel.socket().setSendBufferSize(SEND_BUFFER_SIZE);
+            eventLoop.addSocketChannel(channel);
+
+            testUnregisteredChannel();
+            testGatheringWrite();
+            testPartialWrite();
+            testReadyFlagRace();
+            testConcurrentWrites();
+        } finally {
+            if (client != null)
+                client.close();
+            eventLoop.closeChannel(channel);
+            eventLoop.close();
+        }
+    }
+
+    // 还没有注册到selector时先不写，留在readyChannels中，注册之后下次select时再写
+    private void testUnregisteredChannel() throws Exception {
+        addNioBuffer(100);
+        eventLoop.tryRegisterWriteOperation(selector);
+        eventLoop.tryRegisterWriteOperation(selector);
+        client.configureBlocking(false);
+        assertEquals(0, client.read(ByteBuffer.allocate(100)));
+        client.configureBlocking(true);
+
+        channel.register(selector, SelectionKey.OP_READ);
+        eventLoop.tryRegisterWriteOperation(selector);
+        receive();
+    }
+
+    // 比MAX_GATHERING_BUFFERS多的小包要分几次gathering write写完
+    private void testGatheringWrite() throws Exception {
+        for (int i = 0; i < 200; i++)
+            addNioBuffer(1 + i % 13);
+        eventLoop.tryRegisterWriteOperation(selector);
+        receive();
+        assertEquals(0, channel.keyFor(selector).interestOps() & SelectionKey.OP_WRITE);
+    }
+
+    // 比socket的发送缓冲区大的包一次写不完，要注册OP_WRITE，等socket可写了再接着写，写完后再取消
+    private void testPartialWrite() throws Exception {
+        addNioBuffer(10);
+        addNioBuffer(SEND_BUFFER_SIZE * 64);
+        for (int i = 0; i < 100; i++)
+            addNioBuffer(1 + i % 5);
+        eventLoop.tryRegisterWriteOperation(selector);
+        SelectionKey key = channel.keyFor(selector);
+        assertTrue((key.interestOps() & SelectionKey.OP_WRITE) != 0);
+
+        Thread reader = startReader();
+        while (reader.isAlive()) {
+            runEventLoop();
+        }
+        reader.join();
+        assertEquals(nextByte, receivedBytes);
+        assertEquals(0, key.interestOps() & SelectionKey.OP_WRITE);
+    }
+
+    // nio-event-loop线程把队列写空、要退出write方法时，另一个线程刚好又加进来一个NioBuffer，
+    // 这个NioBuffer不能留在队列中没人写。这里把channel的待写队列换掉，在write方法最后一次遍历队列时加
+    private void testReadyFlagRace() throws Exception {
+        Object context = getField(eventLoop, "channels", Map.class).get(channel);
+        RacingQueue queue = new RacingQueue();
+        Field f = context.getClass().getDeclaredField("buffers");
+        f.setAccessible(true);
+        f.set(context, queue);
+        for (int r = 0; r < 100; r++) {
+            for (int i = 0, n = 1 + r % 80; i < n; i++)
+                addNioBuffer(1 + (r + i) % 17);
+            queue.pending = createNioBuffer(1 + r % 7);
+            eventLoop.tryRegisterWriteOperation(selector);
+            assertNull(queue.pending);
+            assertTrue(queue.isEmpty());
+            receive();
+        }
+    }
+
+    private class RacingQueue extends ConcurrentLinkedQueue<NioBuffer> {
+
+        private static final long serialVersionUID = 1L;
+        volatile NioBuffer pending;
+
+        @Override
+        public Iterator<NioBuffer> iterator() {
+            Iterator<NioBuffer> iterator = super.iterator();
+            NioBuffer nioBuffer = pending;
+            if (nioBuffer != null && !iterator.hasNext()) {
+                pending = null;
+                eventLoop.addNioBuffer(channel, nioBuffer);
+            }
+            return iterator;
+        }
+    }
+
+    // 其他线程边加NioBuffer，nio-event-loop线程边写
+    private void testConcurrentWrites() throws Exception {
+        int count = 20000;
+        int total = nextByte;
+        for (int i = 0; i < count; i++)
+            total += getLength(i);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    addNioBuffer(getLength(i));
+                    if (i % 100 == 0)
+                        Thread.yield();
+                }
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        Thread reader = startReader(total);
+        writer.start();
+        long deadline = System.currentTimeMillis() + 30000;
+        while (reader.isAlive() && System.currentTimeMillis() < deadline) {
+            runEventLoop();
+        }
+        writer.join();
+        reader.join(1000);
+        if (error.get() != null) {
+            throw new AssertionError("writer failed", error.get());
+        }
+        assertEquals(total, nextByte);
+        assertEquals(total, receivedBytes);
+    }
+
+    // 大多是小包，隔一段时间来一个写不完的大包
+    private static int getLength(int i) {
+        return 1 + i % 17 + (i % 1000 == 0 ? SEND_BUFFER_SIZE * 4 : 0);
+    }
+
+    private static <T> T getField(Object obj, String name, Class<T> type) throws Exception {
+        Field f = obj.getClass().getDeclaredField(name);
+        f.setAccessible(true);
+        return type.cast(f.get(obj));
+    }
+
+    private void addNioBuffer(int length) {
+        eventLoop.addNioBuffer(channel, createNioBuffer(length));
+    }
+
+    // 加NioBuffer的可能是另一个线程，序号按创建的顺序分配
+    private synchronized NioBuffer createNioBuffer(int length) {
+        NioBuffer nioBuffer = NioBuffer.allocate(length);
+        ByteBuffer buffer = nioBuffer.getByteBuffer();
+        for (int i = 0; i < length; i++)
+            buffer.put(toByte(nextByte++));
+        buffer.flip();
+        return nioBuffer;
+    }
+    private static byte toByte(int n) {
+        return (byte) (n % 251);
+    }
+
+    // 跟nio-event-loop线程一样，先写readyChannels中的channel，再处理可写的key
+    private void runEventLoop() throws IOException {
+        eventLoop.select(10);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (key.isValid() && key.isWritable())
+                eventLoop.write(key);
+        }
+    }
+
+    private void receive() throws IOException {
+        receive(nextByte);
+    }
+
+    private void receive(int end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        while (receivedBytes < end) {
+            buffer.clear();
+            buffer.limit(Math.min(buffer.capacity(), end - receivedBytes));
+            if (client.read(buffer) < 0)
+                throw new IOException("Unexpected end of stream");
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                if (buffer.get() != toByte(receivedBytes))
+                    throw new IOException("Invalid byte at " + receivedBytes);
+                receivedBytes++;
+            }
+        }
+    }
+
+    private Thread startReader() {
+        return startReader(nextByte);
+    }
+
+    private Thread startReader(int end) {
+        Thread reader = new Thread(() -> {
+            try {
+                receive(end);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        reader.start();
+        return reader;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.dml;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// 行数足够多时主键范围会被切分成多个区间并行读取，结果要跟串行执行时一样
+public class ParallelQueryTest extends SqlTestBase {
+
+    private static final int ROW_COUNT = 50000;
+
+    public ParallelQueryTest() {
+        super("ParallelQueryTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS ParallelQueryTest");
+        executeUpdate("CREATE TABLE ParallelQueryTest (pk int PRIMARY KEY, f1 int, f2 bigint, f3 varchar(10))");
+        executeUpdate("INSERT INTO ParallelQueryTest SELECT X, MOD(X, 7), X * 10, CONCAT('g', MOD(X, 3))"
+                + " FROM SYSTEM_RANGE(1, " + ROW_COUNT + ")");
+        testSetting();
+        for (int parallelism : new int[] { 1, 4, 0 }) {
+            executeUpdate("SET QUERY_PARALLELISM " + parallelism);
+            testScan();
+            testAggregate();
+            testGroupBy();
+        }
+    }
+
+    private void testSetting() throws Exception {
+        executeUpdate("SET QUERY_PARALLELISM 3");
+        sql = "SELECT VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE NAME = 'QUERY_PARALLELISM'";
+        assertEquals("3", getStringValue(1, true));
+        try {
+            executeUpdate("SET QUERY_PARALLELISM -1");
+            fail();
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    private void testScan() throws Exception {
+        // 每个区间按顺序返回，所以不用排序也是按主键顺序
+        sql = "SELECT pk FROM ParallelQueryTest WHERE f1 = 3";
+        rs = stmt.executeQuery(sql);
+        int count = 0;
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            if (i % 7 == 3) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+                count++;
+            }
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+        assertTrue(count > 0);
+
+        sql = "SELECT count(*) FROM ParallelQueryTest WHERE pk >= 20000";
+        assertEquals(ROW_COUNT - 20000 + 1, getIntValue(1, true));
+
+        sql = "SELECT pk FROM ParallelQueryTest ORDER BY f2 DESC LIMIT 3";
+        rs = stmt.executeQuery(sql);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(rs.next());
+            assertEquals(ROW_COUNT - i, rs.getInt(1));
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+    }
+
+    private void testAggregate() throws Exception {
+        sql = "SELECT count(*), sum(f2), min(pk), max(pk) FROM ParallelQueryTest WHERE f3 = 'g1'";
+        rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        long count = 0, sum = 0;
+        int max = 0;
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            if (i % 3 == 1) {
+                count++;
+                sum += i * 10L;
+                max = i;
+            }
+        }
+        assertEquals(count, rs.getLong(1));
+        assertEquals(sum, rs.getLong(2));
+        assertEquals(1, rs.getInt(3));
+        assertEquals(max, rs.getInt(4));
+        closeResultSet();
+    }
+
+    private void testGroupBy() throws Exception {
+        sql = "SELECT f1, count(*), sum(pk) FROM ParallelQueryTest GROUP BY f1 ORDER BY f1";
+        rs = stmt.executeQuery(sql);
+        for (int f1 = 0; f1 < 7; f1++) {
+            long count = 0, sum = 0;
+            for (int i = 1; i <= ROW_COUNT; i++) {
+                if (i % 7 == f1) {
+                    count++;
+                    sum += i;
+                }
+            }
+            assertTrue(rs.next());
+            assertEquals(f1, rs.getInt(1));
+            assertEquals(count, rs.getLong(2));
+            assertEquals(sum, rs.getLong(3));
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+    }
+}
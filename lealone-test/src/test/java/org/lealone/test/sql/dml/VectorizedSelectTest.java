@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.dml;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// 行数超过一个RowBatch，用java算出来的结果验证按批执行的查询
+public class VectorizedSelectTest extends SqlTestBase {
+
+    private static final int ROW_COUNT = 3000;
+
+    public VectorizedSelectTest() {
+        super("VectorizedSelectTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS VectorizedSelectTest");
+        executeUpdate("CREATE TABLE VectorizedSelectTest (pk int PRIMARY KEY, f1 int, f2 bigint, f3 varchar(10))");
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO VectorizedSelectTest VALUES(?, ?, ?, ?)");
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            ps.setInt(1, i);
+            if (i % 10 == 0)
+                ps.setNull(2, Types.INTEGER);
+            else
+                ps.setInt(2, i % 7);
+            ps.setLong(3, i * 1000L);
+            ps.setString(4, "g" + (i % 3));
+            ps.executeUpdate();
+        }
+        ps.close();
+        testFilter();
+        testAggregate();
+        testGroupBy();
+        testGroupByHashTable();
+        testOverflow();
+    }
+
+    private void testFilter() throws Exception {
+        sql = "SELECT pk, f1 + 1, f2 * 2 FROM VectorizedSelectTest WHERE pk > 100 AND f1 = 3 ORDER BY pk";
+        rs = stmt.executeQuery(sql);
+        int count = 0;
+        for (int i = 101; i <= ROW_COUNT; i++) {
+            if (i % 10 != 0 && i % 7 == 3) {
+                assertTrue(rs.next());
+                assertEquals(i, rs.getInt(1));
+                assertEquals(4, rs.getInt(2));
+                assertEquals(i * 2000L, rs.getLong(3));
+                count++;
+            }
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+        assertTrue(count > 0);
+
+        sql = "SELECT count(*) FROM VectorizedSelectTest WHERE f1 <> 3";
+        assertEquals(ROW_COUNT - ROW_COUNT / 10 - count(3), getIntValue(1, true));
+
+        sql = "SELECT count(*) FROM VectorizedSelectTest WHERE f3 = 'g1' AND f2 <= 1500000";
+        assertEquals(500, getIntValue(1, true));
+
+        PreparedStatement ps = conn.prepareStatement("SELECT pk FROM VectorizedSelectTest WHERE pk >= ? LIMIT 5");
+        ps.setInt(1, 2000);
+        ResultSet rs = ps.executeQuery();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(rs.next());
+            assertTrue(rs.getInt(1) >= 2000);
+        }
+        assertFalse(rs.next());
+        rs.close();
+        ps.close();
+    }
+
+    private int count(int f1) {
+        int count = 0;
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            if (i % 10 != 0 && i % 7 == f1)
+                count++;
+        }
+        return count;
+    }
+
+    private void testAggregate() throws Exception {
+        long sum = 0;
+        int count = 0, min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            if (i % 10 != 0) {
+                int f1 = i % 7;
+                sum += f1;
+                count++;
+                min = Math.min(min, f1);
+                max = Math.max(max, f1);
+            }
+        }
+        sql = "SELECT count(*), count(f1), sum(f1), min(f1), max(f1), avg(f1), sum(f2) FROM VectorizedSelectTest";
+        rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        assertEquals(ROW_COUNT, rs.getInt(1));
+        assertEquals(count, rs.getInt(2));
+        assertEquals(sum, rs.getLong(3));
+        assertEquals(min, rs.getInt(4));
+        assertEquals(max, rs.getInt(5));
+        assertEquals(sum / count, rs.getLong(6));
+        assertEquals(1000L * ROW_COUNT * (ROW_COUNT + 1) / 2, rs.getLong(7));
+        closeResultSet();
+
+        sql = "SELECT sum(f1) FROM VectorizedSelectTest WHERE pk < 0";
+        rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        assertNull(rs.getObject(1));
+        closeResultSet();
+    }
+
+    private void testGroupBy() throws Exception {
+        TreeMap<Integer, long[]> expected = new TreeMap<>();
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            Integer f1 = i % 10 == 0 ? -1 : i % 7;
+            long[] a = expected.get(f1);
+            if (a == null) {
+                a = new long[2];
+                expected.put(f1, a);
+            }
+            a[0]++;
+            a[1] += i * 1000L;
+        }
+        sql = "SELECT f1, count(*), sum(f2), sum(f2) / count(*) FROM VectorizedSelectTest"
+                + " GROUP BY f1 HAVING count(*) > 1 ORDER BY f1";
+        rs = stmt.executeQuery(sql);
+        for (Integer f1 : expected.keySet()) {
+            long[] a = expected.get(f1);
+            assertTrue(rs.next());
+            if (f1 == -1)
+                assertNull(rs.getObject(1));
+            else
+                assertEquals(f1.intValue(), rs.getInt(1));
+            assertEquals(a[0], rs.getLong(2));
+            assertEquals(a[1], rs.getLong(3));
+            assertEquals((double) a[1] / a[0], rs.getDouble(4), 1.0);
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+
+        // group_concat不支持按批聚合，要一行一行处理
+        sql = "SELECT f3, count(*), length(group_concat(pk)) FROM VectorizedSelectTest GROUP BY f3 ORDER BY f3";
+        rs = stmt.executeQuery(sql);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(rs.next());
+            assertEquals("g" + i, rs.getString(1));
+            assertEquals(ROW_COUNT / 3, rs.getInt(2));
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+    }
+
+    // 只有group by字段和简单聚合函数时，用GroupHashTable和AggregateSlots
+    private void testGroupByHashTable() throws Exception {
+        int groupCount = 1000;
+        long[][] expected = new long[groupCount][6];
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            long[] a = expected[i % groupCount];
+            long f2 = i * 1000L;
+            if (a[0] == 0) {
+                a[4] = Long.MAX_VALUE;
+            }
+            a[0]++;
+            if (i % 10 != 0) {
+                a[1]++;
+                a[4] = Math.min(a[4], i % 7);
+            }
+            a[2] += f2;
+            a[5] = Math.max(a[5], f2);
+        }
+        sql = "SELECT pk % 1000, count(*), count(f1), sum(f2), min(f1), max(f2), avg(f2)"
+                + " FROM VectorizedSelectTest GROUP BY pk % 1000 ORDER BY pk % 1000";
+        rs = stmt.executeQuery(sql);
+        for (int g = 0; g < groupCount; g++) {
+            long[] a = expected[g];
+            assertTrue(rs.next());
+            assertEquals(g, rs.getInt(1));
+            assertEquals(a[0], rs.getLong(2));
+            assertEquals(a[1], rs.getLong(3));
+            assertEquals(a[2], rs.getLong(4));
+            if (a[1] == 0)
+                assertNull(rs.getObject(5));
+            else
+                assertEquals(a[4], rs.getLong(5));
+            assertEquals(a[5], rs.getLong(6));
+            assertEquals(a[2] / a[0], rs.getLong(7));
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+
+        // 多个group by字段，f1有null
+        TreeMap<String, Integer> counts = new TreeMap<>();
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            String key = "g" + (i % 3) + "," + (i % 10 == 0 ? "null" : String.valueOf(i % 7));
+            Integer c = counts.get(key);
+            counts.put(key, c == null ? 1 : c + 1);
+        }
+        sql = "SELECT f3, f1, count(*) FROM VectorizedSelectTest GROUP BY f3, f1";
+        rs = stmt.executeQuery(sql);
+        int groups = 0;
+        while (rs.next()) {
+            String key = rs.getString(1) + "," + rs.getString(2);
+            assertEquals(counts.get(key).intValue(), rs.getInt(3));
+            groups++;
+        }
+        assertEquals(counts.size(), groups);
+        closeResultSet();
+
+        // 分组的和超出long的范围
+        long m = 3000000000000L;
+        sql = "SELECT f3, sum(f2 * " + m + ") FROM VectorizedSelectTest GROUP BY f3 ORDER BY f3";
+        rs = stmt.executeQuery(sql);
+        for (int g = 0; g < 3; g++) {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (int i = 1; i <= ROW_COUNT; i++) {
+                if (i % 3 == g)
+                    sum = sum.add(BigDecimal.valueOf(i * 1000L * m));
+            }
+            assertTrue(rs.next());
+            assertEquals("g" + g, rs.getString(1));
+            assertEquals(0, sum.compareTo(rs.getBigDecimal(2)));
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+    }
+
+    private void testOverflow() throws Exception {
+        // 超出long的范围时改成一行一行计算
+        sql = "SELECT f2 * 9223372036854775807, sum(f2 * 9223372036854775807) FROM VectorizedSelectTest"
+                + " WHERE pk = 1 GROUP BY f2";
+        rs = stmt.executeQuery(sql);
+        assertTrue(rs.next());
+        BigDecimal expected = BigDecimal.valueOf(Long.MAX_VALUE).multiply(BigDecimal.valueOf(1000));
+        assertEquals(expected, rs.getBigDecimal(1));
+        assertEquals(expected, rs.getBigDecimal(2));
+        assertFalse(rs.next());
+        closeResultSet();
+    }
+}
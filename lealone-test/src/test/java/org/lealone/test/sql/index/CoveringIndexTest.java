@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.index;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// INCLUDE字段的值放在索引中，只读索引字段、INCLUDE字段和主键字段的查询不需要再读primary index
+public class CoveringIndexTest extends SqlTestBase {
+
+    private static final int ROW_COUNT = 1000;
+
+    public CoveringIndexTest() {
+        super("CoveringIndexTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS CoveringIndexTest");
+        executeUpdate("CREATE TABLE CoveringIndexTest (pk int PRIMARY KEY, f1 int, f2 varchar(20), f3 int)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS CoveringIndexTest_f1 ON CoveringIndexTest(f1) INCLUDE(f2)");
+        executeUpdate("INSERT INTO CoveringIndexTest SELECT X, MOD(X, 100), CONCAT('v', X), X"
+                + " FROM SYSTEM_RANGE(1, " + ROW_COUNT + ")");
+        testCreateSQL();
+        testSelect("v");
+        testUpdate();
+        testDelete();
+    }
+
+    private void testCreateSQL() throws Exception {
+        sql = "SELECT SQL FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME = 'COVERINGINDEXTEST_F1'";
+        assertTrue(getStringValue(1, true).endsWith("(F1) INCLUDE(F2)"));
+    }
+
+    private void testSelect(String prefix) throws Exception {
+        sql = "SELECT pk, f1, f2 FROM CoveringIndexTest WHERE f1 BETWEEN 10 AND 19";
+        rs = stmt.executeQuery(sql);
+        int count = 0;
+        while (rs.next()) {
+            int pk = rs.getInt(1);
+            assertEquals(pk % 100, rs.getInt(2));
+            assertEquals(prefix + pk, rs.getString(3));
+            count++;
+        }
+        closeResultSet();
+        assertEquals(ROW_COUNT / 10, count);
+
+        // f3不在索引中，还是要读primary index
+        sql = "SELECT pk, f3 FROM CoveringIndexTest WHERE f1 = 5";
+        rs = stmt.executeQuery(sql);
+        count = 0;
+        while (rs.next()) {
+            assertEquals(rs.getInt(1), rs.getInt(2));
+            count++;
+        }
+        closeResultSet();
+        assertEquals(ROW_COUNT / 100, count);
+    }
+
+    private void testUpdate() throws Exception {
+        // 只更新INCLUDE字段
+        executeUpdate("UPDATE CoveringIndexTest SET f2 = CONCAT('u', pk)");
+        testSelect("u");
+
+        // 更新索引字段
+        executeUpdate("UPDATE CoveringIndexTest SET f1 = 200 WHERE pk = 10");
+        sql = "SELECT f2 FROM CoveringIndexTest WHERE f1 = 200";
+        assertEquals("u10", getStringValue(1, true));
+    }
+
+    private void testDelete() throws Exception {
+        executeUpdate("DELETE FROM CoveringIndexTest WHERE f1 BETWEEN 20 AND 29");
+        sql = "SELECT count(*) FROM CoveringIndexTest WHERE f1 BETWEEN 20 AND 29";
+        assertEquals(0, getIntValue(1, true));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.index;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.lealone.sql.PreparedSQLStatement;
+import org.lealone.sql.SQLStatementExecutor;
+import org.lealone.test.sql.SqlTestBase;
+
+// 已经有记录的表上建索引时并行扫描、排序后直接构建page，构建期间其他连接的写操作也要补到索引中
+public class IndexBuildTest extends SqlTestBase {
+
+    private static final int ROW_COUNT = 100000;
+
+    public IndexBuildTest() {
+        super("IndexBuildTest");
+        initTransactionEngine();
+        setEmbedded(true);
+        addConnectionParameter("INDEX_BUILD_PARALLELISM", "4");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS IndexBuildTest");
+        executeUpdate("CREATE TABLE IndexBuildTest (pk int PRIMARY KEY, f1 int, f2 varchar(20), f3 int)");
+        executeUpdate("INSERT INTO IndexBuildTest SELECT X, MOD(X * 7919, 1000), CONCAT('v', X), X"
+                + " FROM SYSTEM_RANGE(1, " + ROW_COUNT + ")");
+        testConcurrentWrites();
+        testOpenTransactionOnScheduler();
+        testUnique();
+    }
+
+    private void testConcurrentWrites() throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger updates = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try (Connection conn = getConnection(); Statement stmt = conn.createStatement()) {
+                Random random = new Random();
+                int pk = ROW_COUNT;
+                while (!stop.get()) {
+                    int f1 = random.nextInt(1000);
+                    stmt.executeUpdate("INSERT INTO IndexBuildTest VALUES(" + (++pk) + ", " + f1 + ", 'w', " + pk + ")");
+                    int key = 1 + random.nextInt(ROW_COUNT);
+                    stmt.executeUpdate("UPDATE IndexBuildTest SET f1 = " + f1 + " WHERE pk = " + key);
+                    key = 1 + random.nextInt(ROW_COUNT);
+                    stmt.executeUpdate("DELETE FROM IndexBuildTest WHERE pk = " + key);
+                    updates.incrementAndGet();
+                }
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        writer.start();
+        executeUpdate("CREATE INDEX IF NOT EXISTS IndexBuildTest_f1 ON IndexBuildTest(f1) INCLUDE(f2)");
+        stop.set(true);
+        writer.join();
+        if (error.get() != null) {
+            throw new AssertionError("writer failed", error.get());
+        }
+        assertTrue(updates.get() > 0);
+
+        sql = "SELECT count(*) FROM IndexBuildTest";
+        int count = getIntValue(1, true);
+        sql = "SELECT count(*) FROM IndexBuildTest WHERE f1 BETWEEN 0 AND 999";
+        assertEquals(count, getIntValue(1, true));
+        for (int f1 = 0; f1 < 1000; f1 += 99) {
+            // f1 + 0不能用索引
+            sql = "SELECT count(*) FROM IndexBuildTest WHERE f1 + 0 = " + f1;
+            int expected = getIntValue(1, true);
+            sql = "SELECT count(*) FROM IndexBuildTest WHERE f1 = " + f1;
+            assertEquals(expected, getIntValue(1, true));
+        }
+    }
+
+    // 在调度线程中建索引时，等待之前的事务结束期间不能阻塞调度线程，要转去执行其他session的语句。
+    // 这里用一个假的调度线程，它执行下一条语句时提交另一个连接上还没结束的事务，
+    // 如果建索引时阻塞了线程，这个事务就永远不会结束，只能等到锁超时
+    private void testOpenTransactionOnScheduler() throws Exception {
+        Connection conn2 = getConnection();
+        conn2.setAutoCommit(false);
+        Statement stmt2 = conn2.createStatement();
+        stmt2.executeUpdate("UPDATE IndexBuildTest SET f2 = 'scheduler' WHERE pk = 2");
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Scheduler scheduler = new Scheduler(() -> {
+            try (Connection conn = getConnection(); Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE INDEX IF NOT EXISTS IndexBuildTest_f2 ON IndexBuildTest(f2)");
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        }, conn2);
+        scheduler.start();
+        scheduler.join();
+        conn2.close();
+        if (error.get() != null) {
+            throw new AssertionError("create index failed", error.get());
+        }
+        assertTrue(scheduler.committed);
+        sql = "SELECT count(*) FROM IndexBuildTest WHERE f2 = 'scheduler'";
+        assertEquals(1, getIntValue(1, true));
+    }
+
+    private static class Scheduler extends Thread implements SQLStatementExecutor {
+
+        private final Connection conn;
+        private volatile boolean committed;
+
+        Scheduler(Runnable target, Connection conn) {
+            super(target);
+            this.conn = conn;
+        }
+
+        @Override
+        public void executeNextStatement() {
+            if (!committed) {
+                try {
+                    conn.commit();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+                committed = true;
+            }
+        }
+
+        @Override
+        public void executeNextStatementIfNeeded(PreparedSQLStatement current) {
+        }
+
+        @Override
+        public boolean yieldIfNeeded(PreparedSQLStatement current) {
+            return false;
+        }
+
+        @Override
+        public void wakeUp() {
+        }
+    }
+
+    private void testUnique() throws Exception {
+        try {
+            stmt.executeUpdate("CREATE UNIQUE INDEX IndexBuildTest_f1_unique ON IndexBuildTest(f1)");
+            fail("create unique index on duplicate keys");
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+        executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS IndexBuildTest_f3 ON IndexBuildTest(f3)");
+        sql = "SELECT count(*) FROM IndexBuildTest WHERE f3 >= 0";
+        int count = getIntValue(1, true);
+        sql = "SELECT count(*) FROM IndexBuildTest";
+        assertEquals(getIntValue(1, true), count);
+    }
+}
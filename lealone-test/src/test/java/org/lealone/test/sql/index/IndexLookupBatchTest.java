@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.index;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// 二级索引的范围查询按批读取primary index，返回的记录还是要按索引顺序
+public class IndexLookupBatchTest extends SqlTestBase {
+
+    private static final int ROW_COUNT = 5000;
+
+    public IndexLookupBatchTest() {
+        super("IndexLookupBatchTest");
+        initTransactionEngine();
+        setEmbedded(true);
+        addConnectionParameter("INDEX_LOOKUP_BATCH_SIZE", "64");
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS IndexLookupBatchTest");
+        executeUpdate("CREATE TABLE IndexLookupBatchTest (pk int PRIMARY KEY, f1 int, f2 varchar(20))");
+        executeUpdate("CREATE INDEX IF NOT EXISTS IndexLookupBatchTest_f1 ON IndexLookupBatchTest(f1)");
+        // f1和pk的顺序是反的，这样按索引顺序读出来的row key是乱序的
+        executeUpdate("INSERT INTO IndexLookupBatchTest SELECT X, MOD(" + ROW_COUNT + " - X, 100), CONCAT('v', X)"
+                + " FROM SYSTEM_RANGE(1, " + ROW_COUNT + ")");
+        testRange();
+        testLimit();
+        testUpdate();
+    }
+
+    private void testRange() throws Exception {
+        sql = "SELECT f1, pk, f2 FROM IndexLookupBatchTest WHERE f1 BETWEEN 10 AND 19";
+        rs = stmt.executeQuery(sql);
+        int count = 0;
+        int lastF1 = -1;
+        while (rs.next()) {
+            int f1 = rs.getInt(1);
+            int pk = rs.getInt(2);
+            assertTrue(f1 >= lastF1);
+            assertEquals((ROW_COUNT - pk) % 100, f1);
+            assertEquals("v" + pk, rs.getString(3));
+            lastF1 = f1;
+            count++;
+        }
+        closeResultSet();
+        assertEquals(ROW_COUNT / 10, count);
+    }
+
+    private void testLimit() throws Exception {
+        sql = "SELECT f2 FROM IndexLookupBatchTest WHERE f1 = 5";
+        rs = stmt.executeQuery(sql);
+        int count = 0;
+        while (rs.next())
+            count++;
+        closeResultSet();
+        assertEquals(ROW_COUNT / 100, count);
+
+        sql = "SELECT pk FROM IndexLookupBatchTest WHERE f1 >= 99 LIMIT 3";
+        rs = stmt.executeQuery(sql);
+        count = 0;
+        while (rs.next())
+            count++;
+        closeResultSet();
+        assertEquals(3, count);
+    }
+
+    private void testUpdate() throws Exception {
+        executeUpdate("UPDATE IndexLookupBatchTest SET f2 = 'u' WHERE f1 BETWEEN 20 AND 29");
+        sql = "SELECT count(*) FROM IndexLookupBatchTest WHERE f2 = 'u'";
+        assertEquals(ROW_COUNT / 10, getIntValue(1, true));
+
+        executeUpdate("DELETE FROM IndexLookupBatchTest WHERE f1 BETWEEN 20 AND 29");
+        sql = "SELECT count(*) FROM IndexLookupBatchTest WHERE f1 BETWEEN 20 AND 29";
+        assertEquals(0, getIntValue(1, true));
+    }
+}
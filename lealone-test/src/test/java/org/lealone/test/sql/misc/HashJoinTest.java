@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.misc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.junit.Test;
+import org.lealone.test.sql.SqlTestBase;
+
+// join字段上没有索引时用hash join，结果跟用java算出来的一样
+public class HashJoinTest extends SqlTestBase {
+
+    private static final int ROW_COUNT = 500;
+
+    public HashJoinTest() {
+        super("HashJoinTest");
+        initTransactionEngine();
+        setEmbedded(true);
+    }
+
+    @Test
+    public void run() throws Exception {
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest1");
+        executeUpdate("DROP TABLE IF EXISTS HashJoinTest2");
+        executeUpdate("CREATE TABLE HashJoinTest1 (pk int PRIMARY KEY, f1 int, f2 varchar(10))");
+        executeUpdate("CREATE TABLE HashJoinTest2 (pk int PRIMARY KEY, f1 bigint, f2 varchar(10))");
+        PreparedStatement ps1 = conn.prepareStatement("INSERT INTO HashJoinTest1 VALUES(?, ?, ?)");
+        PreparedStatement ps2 = conn.prepareStatement("INSERT INTO HashJoinTest2 VALUES(?, ?, ?)");
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            ps1.setInt(1, i);
+            if (i % 10 == 0)
+                ps1.setNull(2, java.sql.Types.INTEGER);
+            else
+                ps1.setInt(2, i % 50);
+            ps1.setString(3, "s" + (i % 20));
+            ps1.executeUpdate();
+
+            ps2.setInt(1, i);
+            ps2.setLong(2, i % 100);
+            ps2.setString(3, "s" + (i % 30));
+            ps2.executeUpdate();
+        }
+        ps1.close();
+        ps2.close();
+
+        testInnerJoin();
+        testOuterJoin();
+        testStringJoin();
+        testIndexJoin();
+        testTooManyRows();
+    }
+
+    // 每个f1在HashJoinTest2中有多少行
+    private static int count2(long f1) {
+        int count = 0;
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            if (i % 100 == f1)
+                count++;
+        }
+        return count;
+    }
+
+    private static int expectedInnerJoinCount() {
+        int count = 0;
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            if (i % 10 != 0)
+                count += count2(i % 50);
+        }
+        return count;
+    }
+
+    private void testInnerJoin() throws Exception {
+        sql = "SELECT count(*) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t1.f1 = t2.f1";
+        assertTrue(getPlan().contains("HASH JOIN"));
+        assertEquals(expectedInnerJoinCount(), getIntValue(1, true));
+
+        sql = "SELECT t1.pk, t2.pk FROM HashJoinTest1 t1 JOIN HashJoinTest2 t2 ON t1.f1 = t2.f1"
+                + " WHERE t1.f2 = 's7' AND t2.f2 = 's7' ORDER BY t1.pk, t2.pk";
+        rs = stmt.executeQuery(sql);
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            for (int j = 1; j <= ROW_COUNT; j++) {
+                if (i % 20 == 7 && j % 30 == 7 && i % 10 != 0 && j % 100 == i % 50) {
+                    assertTrue(rs.next());
+                    assertEquals(i, rs.getInt(1));
+                    assertEquals(j, rs.getInt(2));
+                }
+            }
+        }
+        assertFalse(rs.next());
+        closeResultSet();
+    }
+
+    private void testOuterJoin() throws Exception {
+        sql = "SELECT count(*) FROM HashJoinTest1 t1 LEFT JOIN HashJoinTest2 t2 ON t1.f1 = t2.f1";
+        int count = 0;
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            int c = i % 10 == 0 ? 0 : count2(i % 50);
+            count += c == 0 ? 1 : c;
+        }
+        assertEquals(count, getIntValue(1, true));
+    }
+
+    private void testStringJoin() throws Exception {
+        sql = "SELECT count(*) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t1.f2 = t2.f2";
+        int count = 0;
+        for (int i = 1; i <= ROW_COUNT; i++) {
+            for (int j = 1; j <= ROW_COUNT; j++) {
+                if (i % 20 == j % 30)
+                    count++;
+            }
+        }
+        assertEquals(count, getIntValue(1, true));
+    }
+
+    // 有索引时用索引
+    private void testIndexJoin() throws Exception {
+        executeUpdate("CREATE INDEX IF NOT EXISTS HashJoinTest2_f1 ON HashJoinTest2(f1)");
+        sql = "SELECT count(*) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t1.f1 = t2.f1";
+        assertFalse(getPlan().contains("HASH JOIN"));
+        assertEquals(expectedInnerJoinCount(), getIntValue(1, true));
+        executeUpdate("DROP INDEX HashJoinTest2_f1");
+    }
+
+    // 超过maxMemoryRows时退回到nested loop，只影响这一次执行，同一个PreparedStatement之后还能用hash join
+    private void testTooManyRows() throws Exception {
+        sql = "SELECT count(*) FROM HashJoinTest1 t1, HashJoinTest2 t2 WHERE t1.f1 = t2.f1";
+        PreparedStatement ps = conn.prepareStatement(sql);
+        executeUpdate("SET MAX_MEMORY_ROWS 100");
+        try {
+            assertEquals(expectedInnerJoinCount(), getIntValue(1, true));
+            assertEquals(expectedInnerJoinCount(), getCount(ps));
+        } finally {
+            executeUpdate("SET MAX_MEMORY_ROWS 10000");
+        }
+        assertTrue(getPlan().contains("HASH JOIN"));
+        assertEquals(expectedInnerJoinCount(), getCount(ps));
+        ps.close();
+    }
+
+    private static int getCount(PreparedStatement ps) throws Exception {
+        try (ResultSet rs = ps.executeQuery()) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+
+    private String getPlan() throws Exception {
+        rs = stmt.executeQuery("EXPLAIN " + sql);
+        assertTrue(rs.next());
+        String plan = rs.getString(1);
+        closeResultSet();
+        return plan;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.sharding;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.lealone.db.result.Result;
+import org.lealone.db.value.Value;
+import org.lealone.db.value.ValueArray;
+import org.lealone.sql.dml.Select;
+import org.lealone.sql.router.SerializedResult;
+import org.lealone.test.db.DbObjectTestBase;
+
+// 不需要集群，同一个分片的部分状态合并两次，结果应该跟在数据重复两次的表上直接查询一样
+public class PartialAggregateTest extends DbObjectTestBase {
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS PartialAggregateTest1");
+        executeUpdate("DROP TABLE IF EXISTS PartialAggregateTest2");
+        executeUpdate("CREATE TABLE PartialAggregateTest1 (g int, v int)");
+        executeUpdate("CREATE TABLE PartialAggregateTest2 (g int, v int)");
+        for (int i = 0; i < 100; i++) {
+            String values = "(" + (i % 7) + ", " + (i % 5 == 0 ? "null" : String.valueOf(i % 13)) + ")";
+            executeUpdate("INSERT INTO PartialAggregateTest1 VALUES" + values);
+            executeUpdate("INSERT INTO PartialAggregateTest2 VALUES" + values);
+            executeUpdate("INSERT INTO PartialAggregateTest2 VALUES" + values);
+        }
+
+        testQuery("SELECT g, count(*), count(v), sum(v), min(v), max(v), avg(v) FROM %s GROUP BY g ORDER BY g");
+        testQuery("SELECT count(DISTINCT v), sum(DISTINCT v), avg(DISTINCT v) FROM %s");
+        testQuery("SELECT g, stddev_pop(v), stddev_samp(v), var_pop(v), var_samp(v) FROM %s GROUP BY g ORDER BY g");
+        testQuery("SELECT g AS k, count(DISTINCT v) AS c FROM %s GROUP BY g ORDER BY c DESC, k LIMIT 3 OFFSET 1");
+        testQuery("SELECT count(*), sum(v) FROM %s WHERE g > 100");
+
+        Select select = prepare("SELECT g, count(*) FROM PartialAggregateTest1 GROUP BY g HAVING count(*) > 1");
+        assertFalse(select.isPartialAggregatable());
+        select = prepare("SELECT g, count(*) + 1 FROM PartialAggregateTest1 GROUP BY g");
+        assertFalse(select.isPartialAggregatable());
+
+        Result result = executeQuery("SELECT array_agg(DISTINCT g) FROM PartialAggregateTest1");
+        assertTrue(result.next());
+        assertEquals(7, ((ValueArray) result.currentRow()[0]).getList().length);
+    }
+
+    private Select prepare(String sql) {
+        return (Select) session.prepareStatementLocal(sql).getWrappedStatement();
+    }
+
+    private void testQuery(String sql) {
+        Select select = prepare(String.format(sql, "PartialAggregateTest1"));
+        assertTrue(select.isPartialAggregatable());
+        String partialSQL = select.getPartialAggregateSQL();
+        ArrayList<Result> results = new ArrayList<>();
+        results.add(executeQuery(partialSQL));
+        results.add(executeQuery(partialSQL));
+        Result merged = select.queryPartialGroupMerge(new SerializedResult(results, -1), 0);
+        Result expected = executeQuery(String.format(sql, "PartialAggregateTest2"));
+
+        assertEquals(expected.getRowCount(), merged.getRowCount());
+        while (expected.next()) {
+            assertTrue(merged.next());
+            Value[] row1 = expected.currentRow();
+            Value[] row2 = merged.currentRow();
+            assertEquals(row1.length, row2.length);
+            for (int i = 0; i < row1.length; i++) {
+                if (row1[i].getType() == Value.DOUBLE)
+                    assertEquals(row1[i].getDouble(), row2[i].getDouble(), 1e-9);
+                else
+                    assertEquals(row1[i], row2[i]);
+            }
+        }
+        assertFalse(merged.next());
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lealone.test.sql.sharding;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.lealone.db.result.Result;
+import org.lealone.db.value.Value;
+import org.lealone.sql.dml.Select;
+import org.lealone.sql.router.MergedResult;
+import org.lealone.sql.router.SerializedResult;
+import org.lealone.sql.router.SortedResult;
+import org.lealone.test.db.DbObjectTestBase;
+
+// 不需要集群，每张ShardResultTest_i表当成一个分片，分片1是空的，
+// 合并后的结果应该跟在包含所有分片记录的ShardResultTest_all表上直接查询一样
+public class ShardResultTest extends DbObjectTestBase {
+
+    private static final int SHARD_COUNT = 3;
+    private static final String ALL = "ShardResultTest_all";
+
+    @Test
+    public void run() {
+        executeUpdate("DROP TABLE IF EXISTS " + ALL);
+        executeUpdate("CREATE TABLE " + ALL + " (k int, s int, v int)");
+        for (int s = 0; s < SHARD_COUNT; s++) {
+            executeUpdate("DROP TABLE IF EXISTS " + shard(s));
+            executeUpdate("CREATE TABLE " + shard(s) + " (k int, s int, v int)");
+        }
+        // 分片0有30行，分片2有25行，k在两个分片中都有重复值
+        for (int i = 0; i < 30; i++)
+            insert(0, i % 10, i);
+        for (int i = 0; i < 25; i++)
+            insert(2, (i * 3) % 10, 100 + i);
+
+        testSortedResult();
+        testSerializedResult();
+        testCancel();
+        testMergedResult();
+    }
+
+    private static String shard(int s) {
+        return "ShardResultTest_" + s;
+    }
+
+    private void insert(int s, int k, int v) {
+        String values = " VALUES(" + k + ", " + s + ", " + v + ")";
+        executeUpdate("INSERT INTO " + shard(s) + values);
+        executeUpdate("INSERT INTO " + ALL + values);
+    }
+
+    private Select prepare(String sql) {
+        return (Select) session.prepareStatementLocal(sql).getWrappedStatement();
+    }
+
+    private ArrayList<Result> queryShards(String sql) {
+        ArrayList<Result> results = new ArrayList<>(SHARD_COUNT);
+        for (int s = 0; s < SHARD_COUNT; s++)
+            results.add(executeQuery(String.format(sql, shard(s))));
+        return results;
+    }
+
+    // 只按k排序，k相同时按分片编号排，所以跟在总表上按k, s, v排序一样
+    private void testSortedResult() {
+        testSortedResult("");
+        testSortedResult(" LIMIT 40 OFFSET 5"); // LIMIT比任何一个分片的行数都多
+        testSortedResult(" LIMIT 10 OFFSET 35"); // OFFSET跳过的行数比任何一个分片的行数都多
+        testSortedResult(" LIMIT 10 OFFSET 50"); // 剩下的不够LIMIT
+        testSortedResult(" LIMIT 10 OFFSET 60"); // 全部跳过
+        testSortedResult(" OFFSET 33 ROWS"); // 只有OFFSET
+    }
+
+    private void testSortedResult(String limit) {
+        Select select = prepare("SELECT k, s, v FROM " + shard(0) + " ORDER BY k" + limit);
+        SortedResult sorted = new SortedResult(0, session, select, queryShards("SELECT k, s, v FROM %s ORDER BY k, v"));
+        Result expected = executeQuery("SELECT k, s, v FROM " + ALL + " ORDER BY k, s, v" + limit);
+        assertEquals(expected.getRowCount(), sorted.getRowCount());
+        assertResult(expected, sorted);
+        expected.reset();
+        sorted.reset();
+        assertResult(expected, sorted);
+        sorted.close();
+    }
+
+    // 按分片的先后顺序读，LIMIT跨过分片0
+    private void testSerializedResult() {
+        String sql = "SELECT k, s, v FROM %s ORDER BY k, v";
+        SerializedResult serialized = new SerializedResult(queryShards(sql), 40);
+        Result expected = executeQuery("SELECT k, s, v FROM " + ALL + " ORDER BY s, k, v LIMIT 40");
+        assertResult(expected, serialized);
+        expected.reset();
+        serialized.reset();
+        assertResult(expected, serialized);
+        serialized.close();
+
+        // 只有一个线程，分片按提交的先后顺序完成
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Select select = prepare("SELECT k, s, v FROM " + shard(0) + " LIMIT 40 OFFSET 5");
+            ArrayList<Callable<Result>> callables = new ArrayList<>(SHARD_COUNT);
+            for (Result r : queryShards(sql))
+                callables.add(() -> r);
+            serialized = new SerializedResult(callables, executor, 0, 0, select);
+            expected = executeQuery("SELECT k, s, v FROM " + ALL + " ORDER BY s, k, v LIMIT 40 OFFSET 5");
+            assertResult(expected, serialized);
+            expected.reset();
+            serialized.reset();
+            assertResult(expected, serialized);
+            serialized.close();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // 读够LIMIT之后还在执行的分片要被中断，还没开始执行的分片不再执行
+    private void testCancel() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch executed = new CountDownLatch(1);
+        try {
+            ArrayList<Callable<Result>> callables = new ArrayList<>(SHARD_COUNT);
+            Result r0 = executeQuery("SELECT k, s, v FROM " + shard(0) + " ORDER BY k, v");
+            callables.add(() -> r0);
+            callables.add(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            });
+            callables.add(() -> {
+                executed.countDown();
+                return null;
+            });
+            Select select = prepare("SELECT k, s, v FROM " + shard(0) + " LIMIT 5");
+            SerializedResult serialized = new SerializedResult(callables, executor, 0, 0, select);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 5; i++)
+                assertTrue(serialized.next());
+            assertFalse(serialized.next());
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+            serialized.close();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(1, executed.getCount());
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // 不能分两阶段执行的分组查询走MergedResult，分片上不做LIMIT，合并完之后再排序、截断
+    private void testMergedResult() {
+        testMergedResult("");
+        testMergedResult(" LIMIT 3 OFFSET 2");
+        testMergedResult(" LIMIT 20 OFFSET 8");
+        testMergedResult(" OFFSET 4 ROWS");
+    }
+
+    private void testMergedResult(String limit) {
+        String sql = "SELECT k, max(v), sum(v) FROM %s GROUP BY k ORDER BY 3 DESC, k" + limit;
+        Select select = prepare(String.format(sql, shard(0)));
+        String shardSQL = select.getPlanSQL(true);
+        ArrayList<Result> results = new ArrayList<>(SHARD_COUNT);
+        for (int s = 0; s < SHARD_COUNT; s++)
+            results.add(executeQuery(shardSQL.replace(shard(0), shard(s))));
+        Select newSelect = (Select) session.prepareStatement(select.getPlanSQL(true, true), true)
+                .getWrappedStatement();
+        newSelect.setLocal(true);
+        MergedResult merged = new MergedResult(results, newSelect, select);
+        Result expected = executeQuery(String.format(sql, ALL));
+        assertEquals(expected.getRowCount(), merged.getRowCount());
+        assertResult(expected, merged);
+        merged.close();
+    }
+
+    private void assertResult(Result expected, Result actual) {
+        while (expected.next()) {
+            assertTrue(actual.next());
+            Value[] row1 = expected.currentRow();
+            Value[] row2 = actual.currentRow();
+            assertEquals(row1.length, row2.length);
+            for (int i = 0; i < row1.length; i++) {
+                assertEquals(row1[i], row2[i]);
+            }
+        }
+        assertFalse(actual.next());
+    }
+}